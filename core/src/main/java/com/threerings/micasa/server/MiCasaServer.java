@@ -31,6 +31,7 @@ import com.threerings.presents.server.SessionFactory;
 import com.threerings.presents.server.ClientResolver;
 import com.threerings.presents.server.PresentsSession;
 
+import com.threerings.crowd.server.CrowdClientResolver;
 import com.threerings.crowd.server.CrowdServer;
 
 import com.threerings.parlor.server.ParlorManager;
@@ -61,7 +62,7 @@ public class MiCasaServer extends CrowdServer
                 return MiCasaSession.class;
             }
             @Override public Class<? extends ClientResolver> getClientResolverClass (Name username) {
-                return ClientResolver.class;
+                return CrowdClientResolver.class;
             }
         });
 
@@ -0,0 +1,403 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.micasa.simulator.server;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Interval;
+import com.samskivert.util.ResultListener;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+import com.threerings.presents.dobj.ObjectDeathListener;
+import com.threerings.presents.dobj.ObjectDestroyedEvent;
+import com.threerings.presents.dobj.RootDObjectManager;
+import com.threerings.presents.server.ClientManager;
+
+import com.threerings.parlor.game.data.GameConfig;
+import com.threerings.parlor.game.data.GameObject;
+import com.threerings.parlor.game.server.GameManager;
+
+import static com.threerings.micasa.Log.log;
+
+/**
+ * Drives a load test by keeping a configured number of simulated games in progress on the local
+ * server until a configured number of games have been played. Each game is created from a
+ * randomly selected (weighted) {@link Profile}, which determines its game type and the {@link
+ * Simulant} behaviour of its players. Games are started at a bounded rate so that the test ramps
+ * up rather than stampeding, and games that fail to finish within the maximum game time are
+ * ended forcibly.
+ *
+ * <p> Throughput and latency statistics are accumulated in a {@link LoadStats}, which is reported
+ * to the log periodically and supplied to the completion listener when the test finishes.
+ */
+@Singleton
+public class LoadDriver
+{
+    /**
+     * Describes a type of simulated game.
+     */
+    public static class Profile
+    {
+        /** The class of the game's config. */
+        public final String configClass;
+
+        /** The class of the game's simulant players. */
+        public final String simClass;
+
+        /** The number of players in the game. */
+        public final int players;
+
+        /** The relative frequency with which this profile is selected. */
+        public final int weight;
+
+        public Profile (String configClass, String simClass, int players, int weight)
+        {
+            this.configClass = configClass;
+            this.simClass = simClass;
+            this.players = players;
+            this.weight = weight;
+        }
+
+        /**
+         * Creates the config for a new game of this type.
+         */
+        public GameConfig createConfig ()
+            throws Exception
+        {
+            return (GameConfig)Class.forName(configClass).getDeclaredConstructor().newInstance();
+        }
+
+        @Override public String toString ()
+        {
+            return configClass + ":" + simClass + ":" + players + ":" + weight;
+        }
+    }
+
+    /**
+     * Adds a game profile to the mix played by this driver.
+     */
+    public void addProfile (Profile profile)
+    {
+        _profiles.add(profile);
+        _totalWeight += profile.weight;
+    }
+
+    /**
+     * Configures the maximum number of games started per second. The default is 100.
+     */
+    public void setStartRate (int gamesPerSecond)
+    {
+        _startRate = gamesPerSecond;
+    }
+
+    /**
+     * Configures the number of milliseconds after which a game that has not ended is ended
+     * forcibly. The default is ten minutes.
+     */
+    public void setMaxGameTime (long millis)
+    {
+        _maxGameTime = millis;
+    }
+
+    /**
+     * Returns the statistics accumulated by the test in progress (or most recently completed).
+     */
+    public LoadStats getStats ()
+    {
+        return _stats;
+    }
+
+    /**
+     * Starts a load test. May be called from any thread.
+     *
+     * @param concurrency the number of games to keep in progress at once.
+     * @param games the total number of games to play.
+     * @param listener notified on the dobjmgr thread when all games have ended.
+     */
+    public void start (int concurrency, int games, ResultListener<LoadStats> listener)
+    {
+        if (_profiles.isEmpty()) {
+            throw new IllegalStateException("No game profiles configured.");
+        }
+        if (_ticker != null) {
+            throw new IllegalStateException("Load test already in progress.");
+        }
+
+        _concurrency = concurrency;
+        _remaining = games;
+        _listener = listener;
+        _stats = new LoadStats();
+        _started = _lastReport = System.currentTimeMillis();
+
+        // our ticker runs on the timer thread and posts the actual work to the dobjmgr thread,
+        // which lets us measure how long units wait on the dobjmgr queue
+        _ticker = new Interval(Interval.RUN_DIRECT) {
+            @Override public void expired () {
+                final long posted = System.currentTimeMillis();
+                _omgr.postRunnable(new Runnable() {
+                    public void run () {
+                        _stats.recordQueueLag(System.currentTimeMillis() - posted);
+                        tick(System.currentTimeMillis());
+                    }
+                });
+            }
+        };
+        _ticker.schedule(TICK_INTERVAL, true);
+    }
+
+    /**
+     * Stops the load test in progress, ending all of its games. Must be called on the dobjmgr
+     * thread.
+     */
+    public void stop ()
+    {
+        _remaining = 0;
+        for (SimGame game : Lists.newArrayList(_games)) {
+            game.end();
+        }
+    }
+
+    /**
+     * Called on the dobjmgr thread every {@link #TICK_INTERVAL} milliseconds while a test is in
+     * progress.
+     */
+    protected void tick (long now)
+    {
+        // end any games that have overstayed their welcome
+        for (SimGame game : Lists.newArrayList(_games)) {
+            if (game.gmgr != null && now - game.requested > _maxGameTime) {
+                log.info("Ending overlong simulated game", "game", game.gmgr.where());
+                game.end();
+            }
+        }
+
+        // start as many games as our rate and concurrency allow
+        int starts = Math.max(1, (int)(_startRate * TICK_INTERVAL / 1000));
+        for (int ii = 0; ii < starts && _remaining > 0 && _games.size() < _concurrency; ii++) {
+            startGame(now);
+        }
+
+        if (now - _lastReport >= REPORT_INTERVAL) {
+            _lastReport = now;
+            log.info("Load test progress", "active", _games.size(),
+                     "stats", _stats.summarize(now - _started));
+        }
+
+        if (_remaining == 0 && _games.isEmpty()) {
+            _ticker.cancel();
+            _ticker = null;
+            log.info("Load test complete", "stats", _stats.summarize(now - _started));
+            if (_listener != null) {
+                _listener.requestCompleted(_stats);
+            }
+        }
+    }
+
+    /**
+     * Requests the creation of a single simulated game.
+     */
+    protected void startGame (long now)
+    {
+        Profile profile = selectProfile();
+        GameConfig config;
+        try {
+            config = profile.createConfig();
+        } catch (Exception e) {
+            log.warning("Unable to create game config", "profile", profile, e);
+            _stats.gameFailed();
+            _remaining--;
+            return;
+        }
+
+        final SimGame game = new SimGame();
+        game.requested = now;
+        game.config = config;
+        _games.add(game);
+        _remaining--;
+        _stats.gameRequested();
+
+        ResultListener<GameManager> listener = new ResultListener<GameManager>() {
+            public void requestCompleted (GameManager gmgr) {
+                game.started(gmgr);
+            }
+            public void requestFailed (Exception cause) {
+                if (game.gmgr == null) {
+                    _stats.gameFailed();
+                    game.finish();
+                }
+            }
+        };
+        try {
+            createSimulatedGame(profile, config, listener);
+        } catch (Exception e) {
+            log.warning("Unable to create simulated game", "profile", profile, e);
+            listener.requestFailed(e);
+        }
+    }
+
+    /**
+     * Asks the simulator manager to create a game of the specified profile with the supplied
+     * config.
+     */
+    protected void createSimulatedGame (Profile profile, GameConfig config,
+                                        ResultListener<GameManager> listener)
+    {
+        _simmgr.createSimulatedGame(config, profile.simClass, profile.players,
+                                    "loadsim" + (++_gameCount) + "_", _stats, listener);
+    }
+
+    /**
+     * Selects a profile at random, respecting the profiles' weights.
+     */
+    protected Profile selectProfile ()
+    {
+        int pick = _rando.nextInt(Math.max(_totalWeight, 1));
+        for (Profile profile : _profiles) {
+            if ((pick -= profile.weight) < 0) {
+                return profile;
+            }
+        }
+        return _profiles.get(0);
+    }
+
+    /** Tracks a simulated game in progress. */
+    protected class SimGame
+        implements AttributeChangeListener, ObjectDeathListener
+    {
+        public long requested;
+        public GameConfig config;
+        public GameManager gmgr;
+        public GameObject gameobj;
+
+        public void started (GameManager gmgr) {
+            this.gmgr = gmgr;
+            gameobj = (GameObject)gmgr.getPlaceObject();
+            gameobj.addListener(this);
+            checkState();
+        }
+
+        public void end () {
+            if (gameobj != null && gameobj.isInPlay()) {
+                gmgr.endGame();
+            } else if (gmgr != null) {
+                gmgr.cancelGame();
+            }
+            finish();
+        }
+
+        public void finish () {
+            if (!_games.remove(this)) {
+                return;
+            }
+            if (gameobj != null) {
+                gameobj.removeListener(this);
+                if (_state != GameObject.PRE_GAME) {
+                    _stats.gameEnded();
+                }
+            }
+            // release our simulants' body objects
+            if (config.players != null) {
+                for (Name name : config.players) {
+                    if (name != null) {
+                        _clmgr.releaseClientObject(name);
+                    }
+                }
+            }
+        }
+
+        // from interface AttributeChangeListener
+        public void attributeChanged (AttributeChangedEvent event) {
+            if (GameObject.STATE.equals(event.getName())) {
+                checkState();
+            }
+        }
+
+        // from interface ObjectDeathListener
+        public void objectDestroyed (ObjectDestroyedEvent event) {
+            finish();
+        }
+
+        protected void checkState () {
+            int ostate = _state;
+            _state = gameobj.state;
+            if (ostate == GameObject.PRE_GAME && _state == GameObject.IN_PLAY) {
+                _stats.gameStarted(System.currentTimeMillis() - requested);
+            } else if (_state == GameObject.GAME_OVER || _state == GameObject.CANCELLED) {
+                finish();
+            }
+        }
+
+        protected int _state = GameObject.PRE_GAME;
+    }
+
+    /** The game types in our mix. */
+    protected List<Profile> _profiles = Lists.newArrayList();
+
+    /** The sum of our profiles' weights. */
+    protected int _totalWeight;
+
+    /** The games in progress. */
+    protected List<SimGame> _games = Lists.newArrayList();
+
+    /** Our test parameters. */
+    protected int _concurrency, _remaining, _startRate = 100;
+
+    /** The time after which a game is ended forcibly. */
+    protected long _maxGameTime = 10 * 60 * 1000L;
+
+    /** The number of games we have created, used to give our simulants unique names. */
+    protected int _gameCount;
+
+    /** The statistics for the current test. */
+    protected LoadStats _stats = new LoadStats();
+
+    /** Notified when the current test completes. */
+    protected ResultListener<LoadStats> _listener;
+
+    /** Drives the current test. */
+    protected Interval _ticker;
+
+    /** When the current test started, and when we last reported on its progress. */
+    protected long _started, _lastReport;
+
+    /** Used to select profiles. */
+    protected Random _rando = new Random();
+
+    // our dependencies
+    @Inject protected SimulatorManager _simmgr;
+    @Inject protected ClientManager _clmgr;
+    @Inject protected RootDObjectManager _omgr;
+
+    /** The interval at which we start games and sample the dobjmgr queue lag. */
+    protected static final long TICK_INTERVAL = 100L;
+
+    /** The interval at which we log our progress. */
+    protected static final long REPORT_INTERVAL = 10 * 1000L;
+}
@@ -0,0 +1,98 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.micasa.simulator.server;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import com.samskivert.util.ResultListener;
+
+import static com.threerings.micasa.Log.log;
+
+/**
+ * Runs a headless load test against an in-process simulator server, using a {@link LoadDriver}
+ * to play a mix of simulated games and reporting the results to the log. The games' players are
+ * simulants such as {@link TurnGameSimulant}, {@link TrickCardSimulant} and {@link
+ * PuzzleSimulant}, which play their games through to the end.
+ */
+public class LoadHarness
+{
+    public static void main (String[] args)
+    {
+        if (args.length < 3) {
+            System.out.println(
+                "Usage:\n" +
+                "    java " + LoadHarness.class.getName() + " <concurrent games> <total games> " +
+                "<config class>:<simulant class>:<players>[:<weight>] ...\n" +
+                "Simulant classes:\n" +
+                "    " + TurnGameSimulant.class.getName() + "\n" +
+                "    " + TrickCardSimulant.class.getName() + "\n" +
+                "    " + PuzzleSimulant.class.getName() + "\n" +
+                "Optional properties:\n" +
+                "    -Dstartrate=<games per second>\n" +
+                "    -Dmaxgametime=<millis>\n" +
+                "    -Dskill=<AI skill>\n" +
+                "    -Dsimturns=<turns per turn game simulant>\n" +
+                "    -Dsimhands=<hands per trick card game>\n" +
+                "    -Dsimupdates=<progress updates per puzzle simulant>");
+            System.exit(-1);
+        }
+
+        Injector injector = Guice.createInjector(new SimpleServer.CrowdModule());
+        final SimpleServer server = injector.getInstance(SimpleServer.class);
+        final LoadDriver driver = injector.getInstance(LoadDriver.class);
+        final int concurrency = Integer.parseInt(args[0]), games = Integer.parseInt(args[1]);
+        for (int ii = 2; ii < args.length; ii++) {
+            String[] bits = args[ii].split(":");
+            driver.addProfile(new LoadDriver.Profile(
+                bits[0], bits[1], Integer.parseInt(bits[2]),
+                (bits.length > 3) ? Integer.parseInt(bits[3]) : 1));
+        }
+        driver.setStartRate(Integer.getInteger("startrate", 100));
+        driver.setMaxGameTime(Long.getLong("maxgametime", 10 * 60 * 1000L));
+
+        try {
+            server.init(injector, new ResultListener<SimulatorServer>() {
+                public void requestCompleted (SimulatorServer result) {
+                    driver.start(concurrency, games, new ResultListener<LoadStats>() {
+                        public void requestCompleted (LoadStats stats) {
+                            server.queueShutdown();
+                        }
+                        public void requestFailed (Exception cause) {
+                            server.queueShutdown();
+                        }
+                    });
+                }
+                public void requestFailed (Exception cause) {
+                    log.warning("Simulator server failed to start", cause);
+                }
+            });
+        } catch (Exception e) {
+            log.warning("Unable to initialize simulator server", e);
+            System.exit(-1);
+        }
+
+        // run the server on this thread until the test completes
+        server.run();
+        System.exit(driver.getStats().getFailedCount() > 0 ? 1 : 0);
+    }
+}
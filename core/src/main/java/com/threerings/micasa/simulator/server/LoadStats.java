@@ -0,0 +1,147 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.micasa.simulator.server;
+
+import com.threerings.parlor.rating.util.LogPercentiler;
+
+/**
+ * Accumulates the throughput and latency statistics of a simulated load test. Latencies are
+ * recorded in log percentilers, so they may be reported from any thread; the counts should only
+ * be updated on the dobjmgr thread.
+ */
+public class LoadStats
+{
+    /**
+     * Notes that a simulant posted an event or made a move.
+     */
+    public void eventPosted ()
+    {
+        _events++;
+    }
+
+    /**
+     * Notes that a simulated game was requested.
+     */
+    public void gameRequested ()
+    {
+        _requested++;
+    }
+
+    /**
+     * Notes that a simulated game started play the specified number of milliseconds after it was
+     * requested.
+     */
+    public void gameStarted (long latency)
+    {
+        _started++;
+        _startLatency.recordValue(latency);
+    }
+
+    /**
+     * Notes that a simulated game ended.
+     */
+    public void gameEnded ()
+    {
+        _ended++;
+    }
+
+    /**
+     * Notes that a simulated game could not be created or started.
+     */
+    public void gameFailed ()
+    {
+        _failed++;
+    }
+
+    /**
+     * Records the number of milliseconds that a unit posted to the dobjmgr thread waited before it
+     * was run.
+     */
+    public void recordQueueLag (long lag)
+    {
+        _queueLag.recordValue(lag);
+    }
+
+    public long getEventCount ()
+    {
+        return _events;
+    }
+
+    public int getRequestedCount ()
+    {
+        return _requested;
+    }
+
+    public int getStartedCount ()
+    {
+        return _started;
+    }
+
+    public int getEndedCount ()
+    {
+        return _ended;
+    }
+
+    public int getFailedCount ()
+    {
+        return _failed;
+    }
+
+    /**
+     * Returns the distribution of the time from the request of a game until it started play.
+     */
+    public LogPercentiler getStartLatency ()
+    {
+        return _startLatency;
+    }
+
+    /**
+     * Returns the distribution of the time units spent waiting on the dobjmgr queue.
+     */
+    public LogPercentiler getQueueLag ()
+    {
+        return _queueLag;
+    }
+
+    /**
+     * Returns a one line summary of these statistics.
+     *
+     * @param elapsed the number of milliseconds over which these statistics were accumulated,
+     * used to compute rates.
+     */
+    public String summarize (long elapsed)
+    {
+        double secs = Math.max(elapsed, 1L) / 1000d;
+        return String.format(
+            "games=%d/%d/%d/%d (req/started/ended/failed), events/s=%.1f, games/s=%.2f, " +
+            "startGame ms p50=%.0f p90=%.0f p99=%.0f, queue lag ms p50=%.0f p99=%.0f max=%.0f",
+            _requested, _started, _ended, _failed, _events / secs, _started / secs,
+            _startLatency.getRequiredScore(50), _startLatency.getRequiredScore(90),
+            _startLatency.getRequiredScore(99), _queueLag.getRequiredScore(50),
+            _queueLag.getRequiredScore(99), _queueLag.getMaxScore());
+    }
+
+    protected long _events;
+    protected int _requested, _started, _ended, _failed;
+    protected LogPercentiler _startLatency = new LogPercentiler();
+    protected LogPercentiler _queueLag = new LogPercentiler();
+}
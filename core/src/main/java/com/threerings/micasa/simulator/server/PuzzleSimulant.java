@@ -0,0 +1,124 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.micasa.simulator.server;
+
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+
+import com.threerings.crowd.data.PlaceObject;
+
+import com.threerings.parlor.game.data.GameObject;
+import com.threerings.parlor.server.TimerWheel;
+
+import com.threerings.puzzle.data.PuzzleObject;
+import com.threerings.puzzle.server.PuzzleManager;
+
+/**
+ * A simulant that plays a puzzle game, such as a drop puzzle: while the game is in play it sends
+ * a progress update every {@link #PROGRESS_INTERVAL} milliseconds, as would a client, and once it
+ * has sent the configured number of updates (the <code>simupdates</code> system property, thirty
+ * by default) its game is over. The last simulant standing ends the game.
+ *
+ * <p> By default the progress updates carry no events. Puzzles whose managers apply progress
+ * events should override {@link #getProgressEvents} to supply them.
+ */
+public class PuzzleSimulant extends Simulant
+    implements AttributeChangeListener
+{
+    @Override
+    public void willEnterPlace (PlaceObject plobj)
+    {
+        _puzobj = (PuzzleObject)plobj;
+        _progress = new TimerWheel.Timer(_gmgr.getTimerWheel()) {
+            @Override public void expired () {
+                updateProgress();
+            }
+        };
+        plobj.addListener(this);
+        super.willEnterPlace(plobj);
+    }
+
+    // from interface AttributeChangeListener
+    public void attributeChanged (AttributeChangedEvent event)
+    {
+        if (GameObject.STATE.equals(event.getName())) {
+            if (_puzobj.isInPlay()) {
+                _updates = 0;
+                _progress.schedule(PROGRESS_INTERVAL, true);
+            } else {
+                _progress.cancel();
+            }
+        }
+    }
+
+    /**
+     * Sends a progress update and, if we have sent all of our updates, ends our game.
+     */
+    protected void updateProgress ()
+    {
+        if (!_puzobj.isInPlay()) {
+            _progress.cancel();
+            return;
+        }
+
+        ((PuzzleManager)_gmgr).updateProgress(_self, _puzobj.sessionId, getProgressEvents());
+        noteMove();
+
+        if (++_updates >= _updateLimit) {
+            _progress.cancel();
+            if (_puzobj.getActivePlayerCount() > 1) {
+                _gmgr.endPlayerGame(_gmgr.getPlayerIndex(_self.getVisibleName()));
+            } else {
+                endGame();
+            }
+        }
+    }
+
+    /**
+     * Returns the events to be sent with our next progress update.
+     */
+    protected int[] getProgressEvents ()
+    {
+        return NO_EVENTS;
+    }
+
+    /** Our game object. */
+    protected PuzzleObject _puzobj;
+
+    /** Sends our progress updates. */
+    protected TimerWheel.Timer _progress;
+
+    /** The number of progress updates we have sent in the current game. */
+    protected int _updates;
+
+    /** The number of progress updates we send before our game is over. */
+    protected int _updateLimit = Integer.getInteger("simupdates", DEFAULT_UPDATE_LIMIT);
+
+    /** The interval in milliseconds between our progress updates. */
+    protected static final long PROGRESS_INTERVAL = 1000L;
+
+    /** The default number of progress updates each simulant sends. */
+    protected static final int DEFAULT_UPDATE_LIMIT = 30;
+
+    /** An empty progress update. */
+    protected static final int[] NO_EVENTS = new int[0];
+}
@@ -28,6 +28,7 @@ import com.threerings.crowd.data.BodyObject;
 import com.threerings.crowd.data.PlaceObject;
 
 import com.threerings.parlor.game.data.GameConfig;
+import com.threerings.parlor.game.data.GameObject;
 import com.threerings.parlor.game.server.GameManager;
 
 public abstract class Simulant
@@ -45,6 +46,15 @@ public abstract class Simulant
         _omgr = omgr;
     }
 
+    /**
+     * Configures the statistics to which this simulant reports when running under a load test.
+     * Called before {@link #init}.
+     */
+    public void setLoadStats (LoadStats stats)
+    {
+        _stats = stats;
+    }
+
     /**
      * Called when the simulant is about to enter the room in which it
      * will be doing all of its business.  Default implementation
@@ -72,6 +82,33 @@ public abstract class Simulant
     {
         mevt.setSourceOid(_self.getOid());
         _omgr.postEvent(mevt);
+        if (_stats != null) {
+            _stats.eventPosted();
+        }
+    }
+
+    /**
+     * Notes that the simulant made a move by calling directly into its game's server-side
+     * services rather than by posting an event, so that the move counts toward the event rate of
+     * a load test.
+     */
+    protected void noteMove ()
+    {
+        if (_stats != null) {
+            _stats.eventPosted();
+        }
+    }
+
+    /**
+     * Ends the game if it is still in play. Simulants call this once they have played as much as
+     * they are configured to play, so that games whose managers would otherwise wait for a
+     * human-scale finish are played to completion.
+     */
+    protected void endGame ()
+    {
+        if (((GameObject)_gmgr.getPlaceObject()).isInPlay()) {
+            _gmgr.endGame();
+        }
     }
 
     /** The game config object. */
@@ -85,4 +122,7 @@ public abstract class Simulant
 
     /** The object manager with which we're interacting. */
     protected DObjectManager _omgr;
+
+    /** The load test statistics to which we report, or null. */
+    protected LoadStats _stats;
 }
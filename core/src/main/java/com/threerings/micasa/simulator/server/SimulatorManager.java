@@ -27,6 +27,8 @@ import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
+import com.samskivert.util.ResultListener;
+
 import com.threerings.micasa.simulator.data.SimulatorMarshaller;
 import com.threerings.util.Name;
 
@@ -67,71 +69,95 @@ public class SimulatorManager
      */
     public void createGame (BodyObject source, GameConfig config, String simClass, int playerCount)
     {
-        new CreateGameTask(source, config, simClass, playerCount);
+        new CreateGameTask(source, config, simClass, playerCount, "simulant", null, null);
+    }
+
+    /**
+     * Creates a game in which every player is a simulant, for use in load testing.
+     *
+     * @param namePrefix the prefix of the simulants' names, which must be unique across all
+     * simulated games in progress.
+     * @param stats if non-null, the statistics to which the simulants will report.
+     * @param listener if non-null, notified once the simulants have been moved into the game.
+     */
+    public void createSimulatedGame (GameConfig config, String simClass, int playerCount,
+                                     String namePrefix, LoadStats stats,
+                                     ResultListener<GameManager> listener)
+    {
+        new CreateGameTask(null, config, simClass, playerCount, namePrefix, stats, listener);
     }
 
     public class CreateGameTask
     {
         public CreateGameTask (BodyObject source, GameConfig config, String simClass,
-                               int playerCount) {
+                               int playerCount, String namePrefix, LoadStats stats,
+                               ResultListener<GameManager> listener) {
             // save off game request info
             _source = source;
             _config = config;
             _simClass = simClass;
             _playerCount = playerCount;
+            _stats = stats;
+            _listener = listener;
+
+            // the source player, if any, takes the first seat
+            _firstSim = (source == null) ? 0 : 1;
+
+            // determine the AI player skill level
+            byte skill;
+            try {
+                skill = Byte.parseByte(System.getProperty("skill"));
+            } catch (NumberFormatException nfe) {
+                skill = DEFAULT_SKILL;
+            }
 
             try {
                 // create the game manager and begin its initialization process. the game manager
                 // will take care of notifying the players that the game has been created
 
-                // configure the game config with the player names
+                // configure the game config with the player names, marking all simulants as AI
+                // players up front so that the manager doesn't look for them as real players
                 config.players = new Name[_playerCount];
-                config.players[0] = _source.getVisibleName();
-                for (int ii = 1; ii < _playerCount; ii++) {
-                    config.players[ii] = new Name("simulant" + ii);
+                config.ais = new GameAI[_playerCount];
+                if (_source != null) {
+                    config.players[0] = _source.getVisibleName();
+                }
+                for (int ii = _firstSim; ii < _playerCount; ii++) {
+                    config.players[ii] = new Name(namePrefix + ii);
+                    config.ais[ii] = new GameAI(0, skill);
                 }
                 _gmgr = (GameManager)_plreg.createPlace(config);
 
             } catch (Exception e) {
                 log.warning("Unable to create game manager", "e", e, e);
+                if (_listener != null) {
+                    _listener.requestFailed(e);
+                }
                 return;
             }
 
             // cast the place to the game object for the game we're creating
             _gobj = (GameObject)_gmgr.getPlaceObject();
 
-            // determine the AI player skill level
-            byte skill;
-            try {
-                skill = Byte.parseByte(System.getProperty("skill"));
-            } catch (NumberFormatException nfe) {
-                skill = DEFAULT_SKILL;
-            }
-
-            for (int ii = 1; ii < _playerCount; ii++) {
-                // mark all simulants as AI players
-                _gmgr.setAI(ii, new GameAI(0, skill));
-            }
-
             // resolve the simulant body objects
-            ClientResolutionListener listener = new ClientResolutionListener() {
+            ClientResolutionListener resolver = new ClientResolutionListener() {
                 public void clientResolved (Name username, ClientObject clobj) {
                     // hold onto the body object for later game creation
                     _sims.add(clobj);
                     // create the game if we've received all body objects
-                    if (_sims.size() == (_playerCount - 1)) {
+                    if (_sims.size() == (_playerCount - _firstSim)) {
                         createSimulants();
                     }
                 }
                 public void resolutionFailed (Name username, Exception cause) {
                     log.warning("Unable to create simulant body object", "error", cause);
+                    setupFailed(cause);
                 }
             };
 
             // resolve client objects for all of our simulants
-            for (int ii = 1; ii < _playerCount; ii++) {
-                Name username = new Name("simulant" + ii);
-                _clmgr.resolveClientObject(username, listener);
+            for (int ii = _firstSim; ii < _playerCount; ii++) {
+                _clmgr.resolveClientObject(config.players[ii], resolver);
             }
         }
 
@@ -141,18 +167,20 @@ public class SimulatorManager
          */
         protected void createSimulants () {
             // finish setting up the simulants
-            for (int ii = 1; ii < _playerCount; ii++) {
+            for (int ii = _firstSim; ii < _playerCount; ii++) {
                 // create the simulant object
                 Simulant sim;
                 try {
                     sim = (Simulant)Class.forName(_simClass).newInstance();
                 } catch (Exception e) {
                     log.warning("Unable to create simulant", "class", _simClass);
+                    setupFailed(e);
                     return;
                 }
 
                 // give the simulant its body
-                BodyObject bobj = (BodyObject)_sims.get(ii - 1);
+                BodyObject bobj = (BodyObject)_sims.get(ii - _firstSim);
+                sim.setLoadStats(_stats);
                 sim.init(bobj, _config, _gmgr, _omgr);
 
                 // give the simulant a chance to engage in place antics
@@ -164,9 +192,31 @@ public class SimulatorManager
                     _locman.moveTo(bobj, _gobj.getOid());
                 } catch (Exception e) {
                     log.warning("Failed to move simulant into room", "e", e);
+                    setupFailed(e);
                     return;
                 }
             }
+
+            if (_listener != null) {
+                _listener.requestCompleted(_gmgr);
+            }
+        }
+
+        /**
+         * Called when the game cannot be set up after its place has been created. Shuts down the
+         * place, so that failed games do not accumulate over a long load test, and reports the
+         * failure to our listener. Subsequent failures (of other simulants' resolution, say) are
+         * ignored.
+         */
+        protected void setupFailed (Exception cause) {
+            if (_failed) {
+                return;
+            }
+            _failed = true;
+            _gmgr.shutdown();
+            if (_listener != null) {
+                _listener.requestFailed(cause);
+            }
         }
 
         /** The simulant body objects. */
@@ -187,8 +237,20 @@ public class SimulatorManager
         /** The game config object. */
         protected GameConfig _config;
 
-        /** The body object of the player requesting the game creation. */
+        /** The body object of the player requesting the game creation, or null. */
         protected BodyObject _source;
+
+        /** The index of the first simulant player. */
+        protected int _firstSim;
+
+        /** The statistics to which our simulants report, or null. */
+        protected LoadStats _stats;
+
+        /** Notified when the game is created, or null. */
+        protected ResultListener<GameManager> _listener;
+
+        /** Whether setting up the game has failed. */
+        protected boolean _failed;
     }
 
     // needed for general operation
@@ -0,0 +1,117 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.micasa.simulator.server;
+
+import com.threerings.presents.dobj.AttributeChangedEvent;
+
+import com.threerings.crowd.data.PlaceObject;
+import com.threerings.crowd.server.PlaceManager;
+import com.threerings.crowd.server.PlaceManagerDelegate;
+
+import com.threerings.parlor.card.data.Card;
+import com.threerings.parlor.card.data.Hand;
+import com.threerings.parlor.card.trick.data.TrickCardGameObject;
+import com.threerings.parlor.card.trick.server.TrickCardGameManagerDelegate;
+
+/**
+ * A simulant that plays a trick-taking card game: whenever it is its turn to play to a trick it
+ * plays the first legal card in its hand, through the same checks as a client's play request,
+ * and once the configured number of hands (the <code>simhands</code> system property, one by
+ * default) have been played, it ends the game.
+ */
+public class TrickCardSimulant extends TurnGameSimulant
+{
+    @Override
+    public void willEnterPlace (PlaceObject plobj)
+    {
+        _trickGame = (TrickCardGameObject)plobj;
+        super.willEnterPlace(plobj);
+    }
+
+    @Override
+    public void attributeChanged (AttributeChangedEvent event)
+    {
+        super.attributeChanged(event);
+
+        // each hand ends with a return to the between hands state
+        if (event.getName().equals(_trickGame.getTrickStateFieldName()) &&
+            event.getIntValue() == TrickCardGameObject.BETWEEN_HANDS &&
+            _trickGame.isInPlay() && ++_hands >= _handLimit) {
+            endGame();
+        }
+    }
+
+    @Override
+    protected boolean isOurTurn ()
+    {
+        return super.isOurTurn() &&
+            _trickGame.getTrickState() == TrickCardGameObject.PLAYING_TRICK;
+    }
+
+    @Override
+    protected void takeTurn ()
+    {
+        // we play until our hands are done, however many turns that takes
+        makeMove();
+        noteMove();
+    }
+
+    @Override
+    protected void makeMove ()
+    {
+        _gmgr.applyToDelegates(new PlaceManager.DelegateOp(TrickCardGameManagerDelegate.class) {
+            @Override public void apply (PlaceManagerDelegate delegate) {
+                playCard((TrickCardGameManagerDelegate)delegate);
+            }
+        });
+    }
+
+    /**
+     * Plays the first legal card in our hand.
+     */
+    protected void playCard (TrickCardGameManagerDelegate delegate)
+    {
+        Hand hand = delegate.getHand(_gmgr.getPlayerIndex(_self.getVisibleName()));
+        if (hand == null) {
+            return;
+        }
+        for (int ii = 0, nn = hand.size(); ii < nn; ii++) {
+            Card card = hand.get(ii);
+            if (_trickGame.isCardPlayable(hand, card)) {
+                delegate.playCard(_self, card, nn);
+                return;
+            }
+        }
+    }
+
+    /** Our game object. */
+    protected TrickCardGameObject _trickGame;
+
+    /** The number of hands that have been played. */
+    protected int _hands;
+
+    /** The number of hands we play before ending the game. */
+    protected int _handLimit = Integer.getInteger("simhands", DEFAULT_HAND_LIMIT);
+
+    /** The default number of hands played. */
+    protected static final int DEFAULT_HAND_LIMIT = 1;
+}
@@ -0,0 +1,109 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.micasa.simulator.server;
+
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+
+import com.threerings.crowd.data.PlaceObject;
+import com.threerings.crowd.server.PlaceManager;
+import com.threerings.crowd.server.PlaceManagerDelegate;
+
+import com.threerings.parlor.turn.data.TurnGameObject;
+import com.threerings.parlor.turn.server.TurnGameManagerDelegate;
+
+/**
+ * A simulant that plays a turn-based game: whenever it becomes the turn holder it takes its turn
+ * and, once it has taken the configured number of turns (the <code>simturns</code> system
+ * property, ten by default), ends the game.
+ *
+ * <p> By default a turn is taken by simply ending it via the game's {@link
+ * TurnGameManagerDelegate}. Games whose turns end in response to a move should override {@link
+ * #makeMove} to make that move.
+ */
+public class TurnGameSimulant extends Simulant
+    implements AttributeChangeListener
+{
+    @Override
+    public void willEnterPlace (PlaceObject plobj)
+    {
+        _turnGame = (TurnGameObject)plobj;
+        plobj.addListener(this);
+        super.willEnterPlace(plobj);
+    }
+
+    // from interface AttributeChangeListener
+    public void attributeChanged (AttributeChangedEvent event)
+    {
+        // the turn holder may have moved on by the time we hear about the change, so we act only
+        // if the turn is (still) ours
+        if (event.getName().equals(_turnGame.getTurnHolderFieldName()) &&
+            _self.getVisibleName().equals(event.getValue()) && isOurTurn()) {
+            takeTurn();
+        }
+    }
+
+    /**
+     * Returns true if the game is in play and we hold the turn.
+     */
+    protected boolean isOurTurn ()
+    {
+        return _turnGame.isInPlay() && _self.getVisibleName().equals(_turnGame.getTurnHolder());
+    }
+
+    /**
+     * Called when it is our turn. Makes a move or, if we have used up our turns, ends the game.
+     */
+    protected void takeTurn ()
+    {
+        if (++_turns > _turnLimit) {
+            endGame();
+        } else {
+            makeMove();
+            noteMove();
+        }
+    }
+
+    /**
+     * Makes a move which ends our turn. The default implementation simply ends the turn.
+     */
+    protected void makeMove ()
+    {
+        _gmgr.applyToDelegates(new PlaceManager.DelegateOp(TurnGameManagerDelegate.class) {
+            @Override public void apply (PlaceManagerDelegate delegate) {
+                ((TurnGameManagerDelegate)delegate).endTurn();
+            }
+        });
+    }
+
+    /** Our game object. */
+    protected TurnGameObject _turnGame;
+
+    /** The number of turns we have held. */
+    protected int _turns;
+
+    /** The number of turns we take before ending the game. */
+    protected int _turnLimit = Integer.getInteger("simturns", DEFAULT_TURN_LIMIT);
+
+    /** The default number of turns each simulant takes. */
+    protected static final int DEFAULT_TURN_LIMIT = 10;
+}
@@ -0,0 +1,294 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.game.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Lifecycle;
+
+import com.threerings.presents.dobj.RootDObjectManager;
+
+import com.threerings.parlor.server.TimerWheel;
+
+import static com.threerings.parlor.Log.log;
+
+/**
+ * Runs AI decisions on a bounded pool of worker threads so that an expensive AI does not stall
+ * the dobjmgr thread (and thereby every other game on the server). A {@link Decision} captures an
+ * immutable snapshot of the game state on the dobjmgr thread, computes its action from that
+ * snapshot on a worker thread and then applies the action back on the dobjmgr thread.
+ *
+ * <p> Each decision is given a time budget. A decision that has not completed within its budget
+ * is cancelled, its worker thread is interrupted and its action, should one eventually be
+ * computed, is discarded. If the pool's queue is full, new decisions are rejected and dropped;
+ * the AI will simply decide again on its next tick.
+ *
+ * <p><em>Note:</em> Decisions should be executed and cancelled only from the dobjmgr thread.
+ */
+@Singleton
+public class AIExecutor
+    implements Lifecycle.ShutdownComponent
+{
+    /**
+     * An AI decision. The decision should copy everything it needs from the game into its own
+     * fields when it is constructed on the dobjmgr thread, as {@link #decide} is called on a
+     * worker thread and must not touch distributed objects or managers.
+     */
+    public abstract static class Decision<T>
+    {
+        /**
+         * Called on a worker thread to compute the AI's action from the snapshot captured when
+         * this decision was created. Long running decisions should periodically check {@link
+         * #isCancelled} and give up if it returns true.
+         *
+         * @return the action to be applied, or null if the AI chooses to do nothing.
+         */
+        public abstract T decide ()
+            throws Exception;
+
+        /**
+         * Called on the dobjmgr thread with the computed action, if this decision completed
+         * within its budget and was not cancelled in the meanwhile.
+         */
+        public abstract void apply (T action);
+
+        /**
+         * Cancels this decision. Its action will not be applied.
+         */
+        public void cancel ()
+        {
+            _cancelled = true;
+            if (_future != null) {
+                _future.cancel(true);
+            }
+            finish();
+        }
+
+        /**
+         * Returns true if this decision has been cancelled (or has exceeded its budget).
+         */
+        public boolean isCancelled ()
+        {
+            return _cancelled;
+        }
+
+        /**
+         * Returns true if this decision has been applied, cancelled or dropped.
+         */
+        public boolean isDone ()
+        {
+            return _done;
+        }
+
+        protected void finish ()
+        {
+            _done = true;
+            if (_budgetTimer != null) {
+                _budgetTimer.cancel();
+                _budgetTimer = null;
+            }
+        }
+
+        protected volatile boolean _cancelled;
+        protected boolean _done;
+        protected Future<?> _future;
+        protected TimerWheel.Timer _budgetTimer;
+    }
+
+    @Inject public AIExecutor (Lifecycle cycle)
+    {
+        cycle.addComponent(this);
+    }
+
+    /**
+     * Executes the supplied decision on a worker thread and applies its action on the dobjmgr
+     * thread.
+     *
+     * @param budget the number of milliseconds the decision may take before it is cancelled.
+     *
+     * @return true if the decision was queued, false if the pool was saturated and it was dropped.
+     */
+    public <T> boolean execute (final Decision<T> decision, long budget)
+    {
+        try {
+            decision._future = getPool().submit(new Runnable() {
+                public void run () {
+                    compute(decision);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            _dropped++;
+            decision._cancelled = true;
+            decision.finish();
+            return false;
+        }
+
+        _executed++;
+        (decision._budgetTimer = new TimerWheel.Timer(_timers) {
+            @Override public void expired () {
+                _overruns++;
+                log.info("AI decision exceeded its budget", "decision", decision);
+                decision.cancel();
+            }
+        }).schedule(budget);
+        return true;
+    }
+
+    /**
+     * Returns the number of decisions queued since the statistics were last reset.
+     */
+    public int getExecutedCount ()
+    {
+        return _executed;
+    }
+
+    /**
+     * Returns the number of decisions cancelled for exceeding their budget since the statistics
+     * were last reset.
+     */
+    public int getOverrunCount ()
+    {
+        return _overruns;
+    }
+
+    /**
+     * Returns the number of decisions dropped because the pool was saturated since the statistics
+     * were last reset.
+     */
+    public int getDroppedCount ()
+    {
+        return _dropped;
+    }
+
+    /**
+     * Resets the decision statistics.
+     */
+    public void resetStats ()
+    {
+        _executed = _overruns = _dropped = 0;
+    }
+
+    // from interface Lifecycle.ShutdownComponent
+    public void shutdown ()
+    {
+        if (_pool != null) {
+            _pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Called on a worker thread to compute a decision and post its application back to the
+     * dobjmgr thread.
+     */
+    protected <T> void compute (final Decision<T> decision)
+    {
+        if (decision.isCancelled()) {
+            return;
+        }
+
+        T action = null;
+        try {
+            action = decision.decide();
+        } catch (Throwable t) {
+            if (!decision.isCancelled()) {
+                log.warning("AI decision failed", "decision", decision, t);
+            }
+            decision._cancelled = true;
+        }
+
+        final T faction = action;
+        postToDObjectThread(new Runnable() {
+            public void run () {
+                if (decision.isDone()) {
+                    return; // cancelled, or over budget
+                }
+                decision.finish();
+                if (decision.isCancelled()) {
+                    return; // failed
+                }
+                try {
+                    decision.apply(faction);
+                } catch (Throwable t) {
+                    log.warning("AI decision choked applying action", "decision", decision,
+                                "action", faction, t);
+                }
+            }
+        });
+    }
+
+    protected void postToDObjectThread (Runnable runnable)
+    {
+        _omgr.postRunnable(runnable);
+    }
+
+    protected ExecutorService getPool ()
+    {
+        if (_pool == null) {
+            _pool = createPool();
+        }
+        return _pool;
+    }
+
+    /**
+     * Creates the pool on which decisions are computed. By default there is a thread per
+     * available processor (less one for the dobjmgr thread) and a bounded queue.
+     */
+    protected ExecutorService createPool ()
+    {
+        int threads = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED_DECISIONS), new ThreadFactory() {
+                public Thread newThread (Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AI-" + _threadIds.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+                protected AtomicInteger _threadIds = new AtomicInteger();
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /** The pool on which decisions are computed, created when first needed. */
+    protected ExecutorService _pool;
+
+    /** Decision statistics. */
+    protected int _executed, _overruns, _dropped;
+
+    // our dependencies
+    @Inject protected RootDObjectManager _omgr;
+    @Inject protected TimerWheel _timers;
+
+    /** The maximum number of decisions that may be queued awaiting a worker thread. */
+    protected static final int MAX_QUEUED_DECISIONS = 1024;
+}
@@ -25,10 +25,10 @@ import java.util.Arrays;
 import java.util.List;
 
 import com.google.common.collect.Lists;
+import com.google.inject.Inject;
 
 import com.samskivert.util.ArrayIntSet;
 import com.samskivert.util.IntListUtil;
-import com.samskivert.util.Interval;
 import com.samskivert.util.RepeatCallTracker;
 import com.samskivert.util.Tuple;
 
@@ -53,6 +53,7 @@ import com.threerings.parlor.game.data.GameObject;
 import com.threerings.parlor.game.data.UserIdentifier;
 import com.threerings.parlor.server.ParlorSender;
 import com.threerings.parlor.server.PlayManager;
+import com.threerings.parlor.server.TimerWheel;
 
 import static com.threerings.parlor.Log.log;
 
@@ -74,6 +75,14 @@ public class GameManager extends PlaceManager
         return _gameconfig;
     }
 
+    /**
+     * Returns the timer wheel on which this game and its delegates should schedule their timers.
+     */
+    public TimerWheel getTimerWheel ()
+    {
+        return _timers;
+    }
+
     /**
      * Returns the unique numeric identifier for our managed game. See {@link GameConfig#getGameId}.
      */
@@ -205,6 +214,7 @@ public class GameManager extends PlaceManager
         if (_AIs != null) {
             // clear out the player's entry in the AI list
             _AIs[pidx] = null;
+            cancelAIDecision(pidx);
         }
 
         // decrement the number of players in the game
@@ -225,6 +235,9 @@ public class GameManager extends PlaceManager
         final Name oplayer = _gameobj.players[pidx];
         _gameobj.setPlayersAt(player, pidx);
 
+        // whatever the old player's AI was planning is no longer of interest
+        cancelAIDecision(pidx);
+
         // allow derived classes to respond
         playerWasReplaced(pidx, oplayer, player);
 
@@ -270,6 +283,7 @@ public class GameManager extends PlaceManager
 
         // save off the AI's configuration
         _AIs[pidx] = ai;
+        cancelAIDecision(pidx);
 
         // let the delegates know that the player's been made an AI
         applyToDelegates(new DelegateOp(GameManagerDelegate.class) {
@@ -788,11 +802,11 @@ public class GameManager extends PlaceManager
         _gameconfig = (GameConfig)_config;
 
         // start up our tick interval
-        (_tickInterval = _omgr.newInterval(new Runnable() {
-            public void run () {
+        (_tickInterval = new TimerWheel.Timer(_timers) {
+            @Override public void expired () {
                 tick(System.currentTimeMillis());
             }
-        })).schedule(TICK_DELAY, true);
+        }).schedule(TICK_DELAY, true);
 
         // configure our AIs
         for (int ii = 0; ii < _gameconfig.ais.length; ii++) {
@@ -846,7 +860,7 @@ public class GameManager extends PlaceManager
 
         // start up a no-show timer if needed
         if (needsNoShowTimer()) {
-            (_noShowInterval = new Interval(_omgr) {
+            (_noShowInterval = new TimerWheel.Timer(_timers) {
                 @Override
                 public void expired () {
                     checkForNoShows();
@@ -863,6 +877,11 @@ public class GameManager extends PlaceManager
         // shutdown our tick interval
         _tickInterval.cancel();
         _tickInterval = null;
+        if (_noShowInterval != null) {
+            _noShowInterval.cancel();
+        }
+        stopAITicker();
+        cancelAIDecisions();
 
         if (_gameobj != null) {
             // remove our state listener
@@ -1121,11 +1140,11 @@ public class GameManager extends PlaceManager
     protected void startAITicker ()
     {
         if (_aiTicker == null) {
-            (_aiTicker = _omgr.newInterval(new Runnable() {
-                public void run () {
+            (_aiTicker = new TimerWheel.Timer(_timers) {
+                @Override public void expired () {
                     tickAIs();
                 }
-            })).schedule(AI_TICK_DELAY, true);
+            }).schedule(AI_TICK_DELAY, true);
         }
     }
 
@@ -1153,10 +1172,21 @@ public class GameManager extends PlaceManager
     }
 
     /**
-     * Called by {@link #tickAIs} to tick each AI in the game.
+     * Called by {@link #tickAIs} to tick each AI in the game. Starts an off-thread decision for
+     * the AI if it is not still working on its previous one, and then ticks our delegates.
      */
     protected void tickAI (final int pidx, final GameAI ai)
     {
+        if (_aiDecisions == null) {
+            _aiDecisions = new AIExecutor.Decision<?>[getPlayerSlots()];
+        }
+        if (_aiDecisions[pidx] == null || _aiDecisions[pidx].isDone()) {
+            AIExecutor.Decision<?> decision = planAI(pidx, ai);
+            if (decision != null && _aiexec.execute(decision, getAIBudget(pidx, ai))) {
+                _aiDecisions[pidx] = decision;
+            }
+        }
+
         applyToDelegates(new DelegateOp(GameManagerDelegate.class) {
             @Override
             public void apply (PlaceManagerDelegate delegate) {
@@ -1165,6 +1195,60 @@ public class GameManager extends PlaceManager
         });
     }
 
+    /**
+     * Creates the decision to be computed off of the dobjmgr thread for the specified AI, or
+     * returns null if it has nothing to decide. The default implementation returns the first
+     * decision planned by one of our delegates. See {@link GameManagerDelegate#planAI}.
+     */
+    protected AIExecutor.Decision<?> planAI (int pidx, GameAI ai)
+    {
+        if (_delegates == null) {
+            return null;
+        }
+        for (PlaceManagerDelegate delegate : _delegates) {
+            if (delegate instanceof GameManagerDelegate) {
+                AIExecutor.Decision<?> decision =
+                    ((GameManagerDelegate)delegate).planAI(pidx, ai);
+                if (decision != null) {
+                    return decision;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of milliseconds the specified AI may spend on a decision before it is
+     * cancelled.
+     */
+    protected long getAIBudget (int pidx, GameAI ai)
+    {
+        return DEFAULT_AI_BUDGET;
+    }
+
+    /**
+     * Cancels the specified AI's decision, if one is in progress.
+     */
+    protected void cancelAIDecision (int pidx)
+    {
+        if (_aiDecisions != null && _aiDecisions[pidx] != null) {
+            _aiDecisions[pidx].cancel();
+            _aiDecisions[pidx] = null;
+        }
+    }
+
+    /**
+     * Cancels all AI decisions in progress.
+     */
+    protected void cancelAIDecisions ()
+    {
+        if (_aiDecisions != null) {
+            for (int ii = 0; ii < _aiDecisions.length; ii++) {
+                cancelAIDecision(ii);
+            }
+        }
+    }
+
     /**
      * Announce to everyone in the game that a player's game has ended.
      */
@@ -1241,6 +1325,7 @@ public class GameManager extends PlaceManager
     {
         // remove ourselves from the AI ticker, if applicable
         stopAITicker();
+        cancelAIDecisions();
 
         // let our delegates do their business
         applyToDelegates(new DelegateOp(GameManagerDelegate.class) {
@@ -1375,17 +1460,26 @@ public class GameManager extends PlaceManager
     /** TEMP: debugging the pending rating double release bug. */
     protected RepeatCallTracker _gameEndTracker = new RepeatCallTracker();
 
+    /** The decision being computed for each AI, if any. */
+    protected AIExecutor.Decision<?>[] _aiDecisions;
+
+    /** Computes our AIs' decisions off of the dobjmgr thread. */
+    @Inject protected AIExecutor _aiexec;
+
+    /** Schedules our game, AI and no-show timers. */
+    @Inject protected TimerWheel _timers;
+
     /** The interval used to check for no-shows. */
-    protected Interval _noShowInterval;
+    protected TimerWheel.Timer _noShowInterval;
 
     /** Whether we have already postponed the start of the game. */
     protected boolean _postponedStart = false;
 
     /** The interval for the game manager tick. */
-    protected Interval _tickInterval;
+    protected TimerWheel.Timer _tickInterval;
 
     /** The interval for the AI tick. */
-    protected Interval _aiTicker;
+    protected TimerWheel.Timer _aiTicker;
 
     /** The default value returned by {@link #getNoShowTime}. */
     protected static final long DEFAULT_NOSHOW_DELAY = 30 * 1000L;
@@ -1395,4 +1489,7 @@ public class GameManager extends PlaceManager
 
     /** The frequency with which we dispatch AI game ticks. */
     protected static final long AI_TICK_DELAY = 3333L; // every 3 1/3 seconds
+
+    /** The default value returned by {@link #getAIBudget}. */
+    protected static final long DEFAULT_AI_BUDGET = 2000L;
 }
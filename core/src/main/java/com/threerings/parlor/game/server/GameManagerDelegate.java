@@ -74,6 +74,19 @@ public class GameManagerDelegate extends PlayManagerDelegate
     {
     }
 
+    /**
+     * Called by the manager on each AI tick to obtain a decision to be computed off of the dobjmgr
+     * thread. The decision should capture a snapshot of the game state it needs when it is
+     * created. A new decision is not planned for an AI while its previous one is still in
+     * progress. Only called while the game is IN_PLAY.
+     *
+     * @return the decision to execute, or null if this delegate has nothing to decide.
+     */
+    public AIExecutor.Decision<?> planAI (int pidx, GameAI ai)
+    {
+        return null;
+    }
+
     /**
      * Called by the game manager when the game is about to end.
      */
@@ -0,0 +1,115 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server;
+
+import com.samskivert.util.IntMap;
+
+import com.samskivert.depot.PersistentRecord;
+
+import com.threerings.parlor.rating.server.persist.RatingRepository;
+
+/**
+ * Rates players using the modified FIDE/ELO system implemented by {@link Rating#computeRating}.
+ * Each player is rated against every other rated player according to their score: 1 for a win,
+ * 0.5 for a draw and 0 for a loss. When rating from ranks, a player scores a win if they finished
+ * in first place, a draw if every player finished in the same place and a loss otherwise. Teams
+ * are ignored. This is the engine used by {@link RatingDelegate} by default, which supplies the
+ * players' scores directly (see {@link RatingDelegate#getPlayerScores}).
+ */
+public class EloRatingEngine
+    implements RatingEngine
+{
+    // from interface RatingEngine
+    public void initRating (Rating rating)
+    {
+        // the defaults are fine
+    }
+
+    // from interface RatingEngine
+    public boolean[] updateRatings (Rating[] ratings, int[] teams, int[] ranks)
+    {
+        int first = Integer.MAX_VALUE, last = Integer.MIN_VALUE;
+        for (int rank : ranks) {
+            first = Math.min(first, rank);
+            last = Math.max(last, rank);
+        }
+        boolean draw = (first == last);
+
+        float[] scores = new float[ranks.length];
+        for (int ii = 0; ii < scores.length; ii++) {
+            scores[ii] = draw ? 0.5f : (ranks[ii] == first) ? 1f : 0f;
+        }
+        return updateRatings(ratings, scores);
+    }
+
+    /**
+     * Computes updated ratings for the participants of a game given each participant's score:
+     * 1 for a win, 0.5 for a draw and 0 for a loss. Ratings are updated in place, as with {@link
+     * #updateRatings(Rating[],int[],int[])}.
+     *
+     * @return a flag for each participant indicating whether their rating was updated.
+     */
+    public boolean[] updateRatings (Rating[] ratings, float[] scores)
+    {
+        // compute the updated ratings for all players
+        int[] nratings = new int[ratings.length];
+        for (int ii = 0; ii < nratings.length; ii++) {
+            if (ratings[ii] != null) {
+                nratings[ii] = Rating.computeRating(ratings, ii, scores[ii]);
+            }
+        }
+
+        // and write them back to the ratings
+        boolean[] updated = new boolean[ratings.length];
+        for (int ii = 0; ii < nratings.length; ii++) {
+            if (ratings[ii] != null && nratings[ii] > 0) {
+                ratings[ii].rating = nratings[ii];
+                updated[ii] = true;
+            }
+        }
+        return updated;
+    }
+
+    // from interface RatingEngine
+    public boolean hasState ()
+    {
+        return false;
+    }
+
+    // from interface RatingEngine
+    public Class<? extends PersistentRecord> getStateClass ()
+    {
+        return null;
+    }
+
+    // from interface RatingEngine
+    public void loadStates (RatingRepository repo, int gameId, IntMap<? extends Rating> ratings)
+    {
+        // nothing doing
+    }
+
+    // from interface RatingEngine
+    public PersistentRecord createStateRecord (int gameId, int playerId, Rating rating)
+    {
+        return null;
+    }
+}
@@ -0,0 +1,245 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import com.samskivert.util.IntMap;
+
+import com.samskivert.depot.Key;
+import com.samskivert.depot.PersistentRecord;
+
+import com.threerings.media.util.MathUtil;
+
+import com.threerings.parlor.rating.data.RatingCodes;
+import com.threerings.parlor.rating.server.persist.Glicko2RatingRecord;
+import com.threerings.parlor.rating.server.persist.RatingRepository;
+
+/**
+ * Rates players using Mark Glickman's Glicko-2 system, which tracks the uncertainty in each
+ * player's rating (the rating deviation) and how erratically the player performs (the volatility).
+ * New and infrequent players have a high deviation and their ratings move quickly, which lets
+ * them reach an accurate rating in fewer games than with ELO.
+ *
+ * <p> Each game is treated as a rating period in which the player played every participant not
+ * on their team, scoring a win against those who finished in a lower place, a draw against those
+ * who finished in the same place and a loss against the rest. Ratings are expressed on the same
+ * scale as ELO ratings, centered at {@link RatingCodes#DEFAULT_RATING}.
+ *
+ * <p> The deviation and volatility are stored in a {@link Glicko2RatingRecord}, so a server that
+ * uses this engine must {@link RatingRepository#registerEngine register} it.
+ */
+public class Glicko2RatingEngine
+    implements RatingEngine, RatingCodes
+{
+    /** The deviation of a new player's rating. */
+    public static final float DEFAULT_DEVIATION = 350f;
+
+    /** The volatility of a new player's rating. */
+    public static final float DEFAULT_VOLATILITY = 0.06f;
+
+    /**
+     * Creates an engine with the default system constant (0.5).
+     */
+    public Glicko2RatingEngine ()
+    {
+        this(0.5);
+    }
+
+    /**
+     * Creates an engine with the specified system constant, which constrains the change in
+     * volatility over time. Glickman suggests values between 0.3 and 1.2.
+     */
+    public Glicko2RatingEngine (double tau)
+    {
+        _tau = tau;
+    }
+
+    // from interface RatingEngine
+    public void initRating (Rating rating)
+    {
+        rating.rating = DEFAULT_RATING;
+        rating.deviation = DEFAULT_DEVIATION;
+        rating.volatility = DEFAULT_VOLATILITY;
+    }
+
+    // from interface RatingEngine
+    public boolean[] updateRatings (Rating[] ratings, int[] teams, int[] ranks)
+    {
+        int count = ratings.length;
+        double[] mu = new double[count], phi = new double[count], sigma = new double[count];
+        for (int ii = 0; ii < count; ii++) {
+            Rating rating = ratings[ii];
+            if (rating != null) {
+                mu[ii] = (rating.rating - DEFAULT_RATING) / SCALE;
+                phi[ii] = ((rating.deviation > 0) ? rating.deviation : DEFAULT_DEVIATION) / SCALE;
+                sigma[ii] = (rating.volatility > 0) ? rating.volatility : DEFAULT_VOLATILITY;
+            }
+        }
+
+        // compute all of the new ratings from the old ratings, then write them back
+        double[] nmu = new double[count], nphi = new double[count], nsigma = new double[count];
+        boolean[] updated = new boolean[count];
+        for (int ii = 0; ii < count; ii++) {
+            if (ratings[ii] == null) {
+                continue;
+            }
+
+            // compute the estimated variance and improvement from this game's outcomes
+            double vinv = 0, improvement = 0;
+            for (int jj = 0; jj < count; jj++) {
+                if (jj == ii || ratings[jj] == null || teams[jj] == teams[ii]) {
+                    continue;
+                }
+                double g = g(phi[jj]);
+                double E = 1 / (1 + Math.exp(-g * (mu[ii] - mu[jj])));
+                double s = (ranks[ii] < ranks[jj]) ? 1 : (ranks[ii] == ranks[jj]) ? 0.5 : 0;
+                vinv += g * g * E * (1 - E);
+                improvement += g * (s - E);
+            }
+            if (vinv == 0) {
+                continue; // no opponents, no rating
+            }
+
+            double v = 1 / vinv, delta = v * improvement;
+            nsigma[ii] = computeVolatility(phi[ii], sigma[ii], delta, v);
+            double phiStar = Math.sqrt(phi[ii] * phi[ii] + nsigma[ii] * nsigma[ii]);
+            nphi[ii] = 1 / Math.sqrt(1 / (phiStar * phiStar) + 1 / v);
+            nmu[ii] = mu[ii] + nphi[ii] * nphi[ii] * improvement;
+            updated[ii] = true;
+        }
+
+        for (int ii = 0; ii < count; ii++) {
+            if (updated[ii]) {
+                Rating rating = ratings[ii];
+                rating.rating = MathUtil.bound(MINIMUM_RATING,
+                    (int)Math.round(nmu[ii] * SCALE + DEFAULT_RATING), MAXIMUM_RATING);
+                rating.deviation = (float)Math.min(nphi[ii] * SCALE, DEFAULT_DEVIATION);
+                rating.volatility = (float)nsigma[ii];
+            }
+        }
+        return updated;
+    }
+
+    // from interface RatingEngine
+    public boolean hasState ()
+    {
+        return true;
+    }
+
+    // from interface RatingEngine
+    public Class<? extends PersistentRecord> getStateClass ()
+    {
+        return Glicko2RatingRecord.class;
+    }
+
+    // from interface RatingEngine
+    public void loadStates (RatingRepository repo, int gameId, IntMap<? extends Rating> ratings)
+    {
+        List<Key<Glicko2RatingRecord>> keys = Lists.newArrayList();
+        for (int playerId : ratings.keySet()) {
+            keys.add(Glicko2RatingRecord.getKey(gameId, playerId));
+        }
+        for (Glicko2RatingRecord record : repo.loadRatingStates(keys)) {
+            Rating rating = ratings.get(record.playerId);
+            if (rating != null) {
+                rating.deviation = record.deviation;
+                rating.volatility = record.volatility;
+            }
+        }
+    }
+
+    // from interface RatingEngine
+    public PersistentRecord createStateRecord (int gameId, int playerId, Rating rating)
+    {
+        Glicko2RatingRecord record = new Glicko2RatingRecord();
+        record.gameId = gameId;
+        record.playerId = playerId;
+        record.deviation = rating.deviation;
+        record.volatility = rating.volatility;
+        return record;
+    }
+
+    /**
+     * Computes a player's new volatility using the iterative procedure from step 5 of Glickman's
+     * description of the Glicko-2 system.
+     */
+    protected double computeVolatility (double phi, double sigma, double delta, double v)
+    {
+        double a = Math.log(sigma * sigma), phi2 = phi * phi, delta2 = delta * delta;
+        double A = a, B;
+        if (delta2 > phi2 + v) {
+            B = Math.log(delta2 - phi2 - v);
+        } else {
+            int k = 1;
+            while (f(a - k * _tau, a, phi2, delta2, v) < 0) {
+                k++;
+            }
+            B = a - k * _tau;
+        }
+
+        double fA = f(A, a, phi2, delta2, v), fB = f(B, a, phi2, delta2, v);
+        for (int iters = 0; Math.abs(B - A) > CONVERGENCE && iters < MAX_ITERATIONS; iters++) {
+            double C = A + (A - B) * fA / (fB - fA), fC = f(C, a, phi2, delta2, v);
+            if (fC * fB <= 0) {
+                A = B;
+                fA = fB;
+            } else {
+                fA /= 2;
+            }
+            B = C;
+            fB = fC;
+        }
+        return Math.exp(A / 2);
+    }
+
+    /**
+     * The function whose root determines the new volatility.
+     */
+    protected double f (double x, double a, double phi2, double delta2, double v)
+    {
+        double ex = Math.exp(x), denom = phi2 + v + ex;
+        return ex * (delta2 - phi2 - v - ex) / (2 * denom * denom) - (x - a) / (_tau * _tau);
+    }
+
+    /**
+     * Reduces the impact of a game according to the opponent's rating deviation.
+     */
+    protected static double g (double phi)
+    {
+        return 1 / Math.sqrt(1 + 3 * phi * phi / (Math.PI * Math.PI));
+    }
+
+    /** The system constant. */
+    protected double _tau;
+
+    /** Converts between the rating scale and the Glicko-2 scale. */
+    protected static final double SCALE = 173.7178;
+
+    /** The tolerance to which we compute new volatilities. */
+    protected static final double CONVERGENCE = 0.000001;
+
+    /** A bound on the volatility computation, which normally converges in a handful of steps. */
+    protected static final int MAX_ITERATIONS = 100;
+}
@@ -40,6 +40,12 @@ public class Rating
     /** The number of times the player's played our game. */
     public int experience;
 
+    /** The uncertainty in the player's rating, if tracked by our {@link RatingEngine}. */
+    public float deviation;
+
+    /** The volatility of the player's rating, if tracked by our {@link RatingEngine}. */
+    public float volatility;
+
     /**
      * Computes a player's updated rating using a modified version of the
      * FIDE/ELO system. The rating adjustment is computed for the player versus
@@ -143,6 +149,17 @@ public class Rating
         return K * (W - We);
     }
 
+    /**
+     * Copies the rating, experience and any engine specific values from the supplied rating.
+     */
+    public void set (Rating other)
+    {
+        rating = other.rating;
+        experience = other.experience;
+        deviation = other.deviation;
+        volatility = other.volatility;
+    }
+
     /**
      * Returns true if this rating is provisional ({@code experience < 20}).
      */
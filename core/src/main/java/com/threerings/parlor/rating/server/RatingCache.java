@@ -0,0 +1,311 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Invoker;
+import com.samskivert.util.LRUHashMap;
+
+import com.samskivert.jdbc.RepositoryUnit;
+
+import com.threerings.presents.annotation.MainInvoker;
+
+import com.threerings.crowd.data.BodyObject;
+
+import com.threerings.parlor.game.data.GameConfig;
+import com.threerings.parlor.game.data.UserIdentifier;
+import com.threerings.parlor.game.server.GameManager;
+
+import com.threerings.parlor.rating.server.persist.RatingRecord;
+import com.threerings.parlor.rating.server.persist.RatingRepository;
+
+/**
+ * Caches players' ratings, keyed on game and player id, so that rated games can obtain their
+ * players' ratings without going to the database. Ratings are generally prefetched when a player
+ * sits down at a table (see {@link #prefetchRatings}) and are updated by {@link RatingDelegate}
+ * whenever it saves new ratings, so the cache always holds the most recently computed rating for
+ * each player it contains. Players with no rating for a game are cached with the default rating.
+ *
+ * <p> The cache is disabled by default and must be turned on with {@link #setEnabled}. A cached
+ * rating is not revalidated against the database, so the cache must only be enabled on a server
+ * that is the sole writer of the ratings of the games it hosts. If ratings are modified by
+ * anything else, for example by a {@link RatingRecomputer} or by purging players, {@link #clear}
+ * must be called; otherwise a stale rating will be used and saving the next game's results will
+ * overwrite the newer rating.
+ *
+ * <p><em>Note:</em> All access to the cache should take place from the dobjmgr thread.
+ */
+@Singleton
+public class RatingCache
+{
+    /**
+     * Enables or disables the cache. Disabling the cache discards any cached ratings.
+     */
+    public void setEnabled (boolean enabled)
+    {
+        _enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns true if the cache is enabled.
+     */
+    public boolean isEnabled ()
+    {
+        return _enabled;
+    }
+
+    /**
+     * Returns the id of the game whose ratings are used by games with the supplied configuration.
+     * This must agree with {@link RatingDelegate#getGameId}, which calls this method by default.
+     */
+    public int getGameId (GameConfig config)
+    {
+        return config.getGameId();
+    }
+
+    /**
+     * Returns the id under which the ratings of the supplied player are stored. This must agree
+     * with {@link GameManager#getPlayerPersistentId(BodyObject)}, and the default does.
+     */
+    public int getPlayerId (BodyObject body)
+    {
+        return UserIdentifier.getUserId(body.getVisibleName());
+    }
+
+    /**
+     * Loads into the cache the rating of the supplied player for games with the supplied
+     * configuration, if it is not already cached or being loaded.
+     */
+    public void prefetchRating (GameConfig config, BodyObject body)
+    {
+        int playerId = getPlayerId(body);
+        if (playerId != 0) {
+            prefetchRatings(getGameId(config), Collections.singleton(playerId));
+        }
+    }
+
+    /**
+     * Configures the maximum number of ratings retained by the cache.
+     */
+    public void setCacheSize (int size)
+    {
+        _cache.setMaxSize(size);
+    }
+
+    /**
+     * Returns the number of rating lookups that were satisfied by the cache.
+     */
+    public int getHits ()
+    {
+        return _hits;
+    }
+
+    /**
+     * Returns the number of rating lookups that had to go to the database.
+     */
+    public int getMisses ()
+    {
+        return _misses;
+    }
+
+    /**
+     * Returns the cached rating of the specified player for the specified game, or null if the
+     * rating is not cached.
+     */
+    public Rating getRating (int gameId, int playerId)
+    {
+        return getRating(gameId, playerId, false);
+    }
+
+    /**
+     * Returns the cached rating of the specified player for the specified game, or null if the
+     * rating is not cached.
+     *
+     * @param needState if true, a rating will only be returned if it includes the values of the
+     * game's {@link RatingEngine}. Prefetched ratings include only the rating and experience.
+     */
+    public Rating getRating (int gameId, int playerId, boolean needState)
+    {
+        if (!_enabled) {
+            return null;
+        }
+        CachedRating rating = _cache.get(RatingWriter.toKey(gameId, playerId));
+        if (rating != null && (rating.hasState || !needState)) {
+            _hits++;
+            return rating;
+        }
+        _misses++;
+        return null;
+    }
+
+    /**
+     * Loads into the cache the ratings of the specified players for the specified game, if they
+     * are not already cached or being loaded.
+     */
+    public void prefetchRatings (final int gameId, Collection<Integer> playerIds)
+    {
+        if (!_enabled) {
+            return;
+        }
+        final List<Integer> toLoad = Lists.newArrayList();
+        for (Integer playerId : playerIds) {
+            Long key = RatingWriter.toKey(gameId, playerId);
+            if (playerId != 0 && !_cache.containsKey(key) && _loading.add(key)) {
+                toLoad.add(playerId);
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return;
+        }
+
+        _invoker.postUnit(new RepositoryUnit("prefetchRatings(" + gameId + ")") {
+            @Override public void invokePersist () throws Exception {
+                _records = _repo.getRatings(gameId, toLoad.toArray(new Integer[toLoad.size()]));
+            }
+            @Override public void handleSuccess () {
+                for (RatingRecord record : _records) {
+                    CachedRating rating = new CachedRating();
+                    rating.rating = record.rating;
+                    rating.experience = record.experience;
+                    loaded(gameId, record.playerId, rating);
+                }
+                // anyone left in our loading set has no rating for this game
+                for (Integer playerId : toLoad) {
+                    if (_loading.contains(RatingWriter.toKey(gameId, playerId))) {
+                        loaded(gameId, playerId, new CachedRating());
+                    }
+                }
+            }
+            @Override public void handleFailure (Exception error) {
+                for (Integer playerId : toLoad) {
+                    _loading.remove(RatingWriter.toKey(gameId, playerId));
+                }
+                super.handleFailure(error);
+            }
+            protected List<RatingRecord> _records;
+        });
+    }
+
+    /**
+     * Records the supplied rating, including any rating engine values, in the cache. This should
+     * be called whenever a new rating is computed for a player, before it is written to the
+     * database.
+     */
+    public void noteRating (int gameId, int playerId, Rating rating)
+    {
+        if (!_enabled) {
+            return;
+        }
+        Long key = RatingWriter.toKey(gameId, playerId);
+        _cache.put(key, copy(rating));
+        _loading.remove(key); // any in-progress load is now stale
+    }
+
+    /**
+     * Records a rating that was loaded from the database along with any rating engine values,
+     * unless a rating is already cached for the player in question (in which case the cached
+     * rating is at least as recent).
+     */
+    public void cacheLoadedRating (int gameId, int playerId, Rating rating)
+    {
+        if (!_enabled) {
+            return;
+        }
+        Long key = RatingWriter.toKey(gameId, playerId);
+        if (!_cache.containsKey(key)) {
+            _loading.add(key);
+            loaded(gameId, playerId, copy(rating));
+        }
+    }
+
+    /**
+     * Removes all ratings from the cache. This should be called if ratings are modified in the
+     * database by anything other than a {@link RatingDelegate}.
+     */
+    public void clear ()
+    {
+        _cache.clear();
+        _loading.clear();
+    }
+
+    /**
+     * Called when a rating has been loaded from the database.
+     */
+    protected void loaded (int gameId, int playerId, CachedRating rating)
+    {
+        // if the rating was updated while we were loading, we keep the updated rating
+        Long key = RatingWriter.toKey(gameId, playerId);
+        if (_loading.remove(key)) {
+            // the database may not yet reflect ratings queued for writing
+            _writer.applyPending(gameId, rating, playerId);
+            _cache.put(key, rating);
+        }
+    }
+
+    protected static CachedRating copy (Rating rating)
+    {
+        CachedRating copy = new CachedRating();
+        copy.set(rating);
+        copy.hasState = true;
+        return copy;
+    }
+
+    /** A cached rating. */
+    protected static class CachedRating extends Rating
+    {
+        /** Whether this rating includes the values of the game's rating engine. */
+        public boolean hasState;
+    }
+
+    /** Whether or not the cache is enabled. */
+    protected boolean _enabled;
+
+    /** Our cached ratings, keyed on game and player id. */
+    protected LRUHashMap<Long, CachedRating> _cache =
+        new LRUHashMap<Long, CachedRating>(DEFAULT_CACHE_SIZE);
+
+    /** The keys of ratings currently being loaded. */
+    protected Set<Long> _loading = Sets.newHashSet();
+
+    /** Lookup statistics. */
+    protected int _hits, _misses;
+
+    // our dependencies
+    @Inject protected RatingRepository _repo;
+    @Inject protected RatingWriter _writer;
+    @Inject protected @MainInvoker Invoker _invoker;
+
+    /** The default maximum number of cached ratings. */
+    protected static final int DEFAULT_CACHE_SIZE = 10000;
+}
@@ -172,7 +172,9 @@ public abstract class RatingDelegate extends GameManagerDelegate
         if (orating != null && orating.playerOid == bobj.getOid()) {
             return null;
         }
-        return new PlayerRating(bobj, playerId);
+        PlayerRating rating = new PlayerRating(bobj, playerId);
+        getRatingEngine().initRating(rating);
+        return rating;
     }
 
     /**
@@ -185,12 +187,29 @@ public abstract class RatingDelegate extends GameManagerDelegate
             return;
         }
 
+        // satisfy what we can from the rating cache, which is generally prefetched when players
+        // join a table, and only go to the database for the rest
         final int gameId = getGameId();
+        final RatingEngine engine = getRatingEngine();
+        final List<PlayerRating> misses = Lists.newArrayList();
+        for (PlayerRating rating : ratings) {
+            Rating cached = _ratingCache.getRating(gameId, rating.playerId, engine.hasState());
+            if (cached == null) {
+                misses.add(rating);
+            } else {
+                rating.set(cached);
+                _ratings.put(rating.playerId, rating);
+            }
+        }
+        if (misses.isEmpty()) {
+            return;
+        }
+
         _invoker.postUnit(new RepositoryUnit("loadRatings(" + gameId + ")") {
             @Override public void invokePersist () throws Exception {
                 // map the records by player id so that we can correlate with the db results
                 IntMap<PlayerRating> map = IntMaps.newHashIntMap();
-                for (PlayerRating rating : ratings) {
+                for (PlayerRating rating : misses) {
                     map.put(rating.playerId, rating);
                 }
 
@@ -203,11 +222,15 @@ public abstract class RatingDelegate extends GameManagerDelegate
                         rating.experience = record.experience;
                     } // else { hell frozen over, pigs flying }
                 }
+                engine.loadStates(_repo, gameId, map);
             }
 
             @Override public void handleSuccess () {
-                // stuff our populated records into the _ratings mapping
-                for (PlayerRating rating : ratings) {
+                // stuff our populated records into the _ratings mapping, accounting for any
+                // ratings that have been saved but not yet written to the database
+                for (PlayerRating rating : misses) {
+                    _ratingWriter.applyPending(gameId, rating, rating.playerId);
+                    _ratingCache.cacheLoadedRating(gameId, rating.playerId, rating);
                     _ratings.put(rating.playerId, rating);
                 }
             }
@@ -221,14 +244,11 @@ public abstract class RatingDelegate extends GameManagerDelegate
         }
 
         final int gameId = getGameId();
-        _invoker.postUnit(new RepositoryUnit("saveRatings(" + gameId + ")") {
-            @Override public void invokePersist () throws Exception {
-                for (PlayerRating rating : ratings) {
-                    _repo.setRating(gameId, rating.playerId, rating.rating, rating.experience);
-                }
-            }
-
-            @Override public void handleSuccess () {
+        for (PlayerRating rating : ratings) {
+            _ratingCache.noteRating(gameId, rating.playerId, rating);
+        }
+        _ratingWriter.saveRatings(gameId, ratings, getRatingEngine(), new Runnable() {
+            public void run () {
                 // let subclasses publish the new ratings if they so desire
                 for (PlayerRating rating : ratings) {
                     updateRatingInMemory(gameId, rating);
@@ -239,8 +259,9 @@ public abstract class RatingDelegate extends GameManagerDelegate
 
     /**
      * Computes updated ratings for the players of this game. The default implementation uses the
-     * {@link GameObject#winners} field to determine winners and losers and uses a FIDE/ELO
-     * algorithm to compute updated ratings.
+     * {@link GameObject#winners} field to determine the score (see {@link #getPlayerScores}) or,
+     * for engines other than ELO, the rank (see {@link #getPlayerRanks}) of each player and the
+     * engine returned by {@link #getRatingEngine} to compute updated ratings.
      */
     protected void updateRatings ()
     {
@@ -249,23 +270,21 @@ public abstract class RatingDelegate extends GameManagerDelegate
             return;
         }
 
-        PlayerRating[] ratings = new PlayerRating[_ratings.size()];
+        PlayerRating[] ratings = new PlayerRating[_playerIds.length];
         for (int ii = 0; ii < ratings.length; ii++) {
             ratings[ii] = _ratings.get(_playerIds[ii]);
         }
 
-        // compute the update ratings for all players
-        int[] nratings = new int[_playerIds.length];
-        for (int ii = 0; ii < nratings.length; ii++) {
-            float W = _gobj.isDraw() ? 0.5f : _gobj.isWinner(ii) ? 1f : 0f;
-            nratings[ii] = Rating.computeRating(ratings, ii, W);
-        }
+        // compute the updated ratings for all players
+        RatingEngine engine = getRatingEngine();
+        boolean[] updated = (engine instanceof EloRatingEngine) ?
+            ((EloRatingEngine)engine).updateRatings(ratings, getPlayerScores()) :
+            engine.updateRatings(ratings, getPlayerTeams(), getPlayerRanks());
 
-        // and write them back to their rating records
-        for (int ii = 0; ii < nratings.length; ii++) {
+        // and note which ratings have changed
+        for (int ii = 0; ii < updated.length; ii++) {
             PlayerRating rating = ratings[ii];
-            if (rating != null && nratings[ii] > 0) {
-                rating.rating = nratings[ii];
+            if (rating != null && updated[ii]) {
                 rating.experience++;
                 rating.modified = true;
             }
@@ -273,11 +292,64 @@ public abstract class RatingDelegate extends GameManagerDelegate
     }
 
     /**
-     * Returns the game id to use when reading and writing ratings.
+     * Returns the engine used to compute this game's ratings. The default is the FIDE/ELO system.
+     * A game must always use the same engine, as the values maintained by one engine are not
+     * meaningful to another. Engines that persist values of their own must also be {@link
+     * RatingRepository#registerEngine registered} with the rating repository.
+     */
+    protected RatingEngine getRatingEngine ()
+    {
+        return ELO_ENGINE;
+    }
+
+    /**
+     * Returns the team of each player position for the purposes of rating. The default places
+     * every player on their own team.
+     */
+    protected int[] getPlayerTeams ()
+    {
+        int[] teams = new int[_playerIds.length];
+        for (int ii = 0; ii < teams.length; ii++) {
+            teams[ii] = ii;
+        }
+        return teams;
+    }
+
+    /**
+     * Returns the score of each player position for the purposes of ELO rating: 1 for a win, 0.5
+     * for a draw and 0 for a loss. The default scores a draw (a game in which every player is a
+     * winner) as 0.5 for everyone, and otherwise 1 for the winners and 0 for everyone else.
+     */
+    protected float[] getPlayerScores ()
+    {
+        float[] scores = new float[_playerIds.length];
+        for (int ii = 0; ii < scores.length; ii++) {
+            scores[ii] = _gobj.isDraw() ? 0.5f : _gobj.isWinner(ii) ? 1f : 0f;
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the place in which each player position finished, lower being better, for engines
+     * other than ELO. The default ranks the winners first and everyone else second, or everyone
+     * first in the case of a draw.
+     */
+    protected int[] getPlayerRanks ()
+    {
+        int[] ranks = new int[_playerIds.length];
+        for (int ii = 0; ii < ranks.length; ii++) {
+            ranks[ii] = (_gobj.isDraw() || _gobj.isWinner(ii)) ? 0 : 1;
+        }
+        return ranks;
+    }
+
+    /**
+     * Returns the game id to use when reading and writing ratings. The default obtains the id
+     * from the {@link RatingCache} so that prefetched ratings are cached under the same id.
      */
     protected int getGameId ()
     {
-        return _gmgr.getGameConfig().getGameId();
+        return _ratingCache.getGameId(_gmgr.getGameConfig());
     }
 
     /**
@@ -360,5 +432,10 @@ public abstract class RatingDelegate extends GameManagerDelegate
 
     // our dependencies
     @Inject protected RatingRepository _repo;
+    @Inject protected RatingWriter _ratingWriter;
+    @Inject protected RatingCache _ratingCache;
     @Inject protected @MainInvoker Invoker _invoker;
+
+    /** The default rating engine. */
+    protected static final RatingEngine ELO_ENGINE = new EloRatingEngine();
 }
@@ -0,0 +1,89 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server;
+
+import com.samskivert.util.IntMap;
+
+import com.samskivert.depot.PersistentRecord;
+
+import com.threerings.parlor.rating.server.persist.RatingRepository;
+
+/**
+ * Computes updated ratings from the results of a game. Every engine maintains the player's
+ * rating and experience, which are stored in {@link
+ * com.threerings.parlor.rating.server.persist.RatingRecord} and used for leaderboards and
+ * matchmaking. Engines that track additional values for each player (see {@link
+ * Rating#deviation} and {@link Rating#volatility}) persist them in a record of their own.
+ * An engine is shared by every game that uses it (and by the threads of a {@link
+ * RatingRecomputer}), so it must not keep any per-game state.
+ *
+ * @see RatingDelegate#getRatingEngine
+ */
+public interface RatingEngine
+{
+    /**
+     * Initializes the supplied rating with this engine's values for a player who has never
+     * played the game in question.
+     */
+    void initRating (Rating rating);
+
+    /**
+     * Computes updated ratings for the participants of a game. Ratings are updated in place, but
+     * every new rating is computed from the ratings as they were before the game.
+     *
+     * @param ratings the ratings of the participants; entries may be null for participants that
+     * are not rated (guests, for example).
+     * @param teams the team of each participant. Participants on the same team are not rated
+     * against one another. Supply a distinct value for each participant if there are no teams.
+     * @param ranks the place in which each participant finished, lower being better. Participants
+     * with the same rank are considered to have drawn.
+     *
+     * @return a flag for each participant indicating whether their rating was updated.
+     */
+    boolean[] updateRatings (Rating[] ratings, int[] teams, int[] ranks);
+
+    /**
+     * Returns true if this engine tracks values beyond the rating and experience and thus
+     * persists its own records.
+     */
+    boolean hasState ();
+
+    /**
+     * Returns the class of the record in which this engine persists its own values, or null if it
+     * has none. Such engines must be {@link RatingRepository#registerEngine registered} with the
+     * rating repository.
+     */
+    Class<? extends PersistentRecord> getStateClass ();
+
+    /**
+     * Loads this engine's persistent values for the supplied ratings, which are keyed on player
+     * id. Players with no persistent values are left unchanged. This is called on the invoker
+     * thread.
+     */
+    void loadStates (RatingRepository repo, int gameId, IntMap<? extends Rating> ratings);
+
+    /**
+     * Creates the record in which this engine's values for the supplied rating are persisted, or
+     * returns null if the engine does not persist any values of its own.
+     */
+    PersistentRecord createStateRecord (int gameId, int playerId, Rating rating);
+}
@@ -0,0 +1,219 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.IntMap;
+import com.samskivert.util.IntMaps;
+
+import com.samskivert.depot.PersistentRecord;
+
+import com.threerings.parlor.rating.server.persist.RatingRecord;
+import com.threerings.parlor.rating.server.persist.RatingRepository;
+
+import static com.threerings.parlor.Log.log;
+
+/**
+ * Recomputes ratings from scratch by replaying the results of past games through a {@link
+ * RatingEngine}. This is used to switch a game to a new engine, or to rerate a game after an
+ * engine's parameters have been tuned. The results of each game id must be replayed in the order
+ * in which they were played, but the ratings of different game ids are independent, so each game
+ * id is assigned to one of a number of worker threads and game ids are replayed in parallel.
+ *
+ * <p> Vilya does not record the results of games; the caller supplies them from wherever it keeps
+ * its game history.
+ */
+public class RatingRecomputer
+{
+    /** The outcome of a single game. */
+    public static class GameResult
+    {
+        /** The id of the game that was played. */
+        public final int gameId;
+
+        /** The persistent id of each participant, or 0 for unrated participants. */
+        public final int[] playerIds;
+
+        /** The team of each participant (see {@link RatingEngine#updateRatings}). */
+        public final int[] teams;
+
+        /** The place in which each participant finished, lower being better. */
+        public final int[] ranks;
+
+        public GameResult (int gameId, int[] playerIds, int[] teams, int[] ranks)
+        {
+            this.gameId = gameId;
+            this.playerIds = playerIds;
+            this.teams = teams;
+            this.ranks = ranks;
+        }
+    }
+
+    /**
+     * Creates a recomputer that will rate players using the supplied engine.
+     */
+    public RatingRecomputer (RatingEngine engine)
+    {
+        _engine = engine;
+    }
+
+    /**
+     * Replays the supplied results and returns the resulting ratings, keyed on game id and then
+     * on player id. The results are consumed as they are replayed, so they may be streamed from
+     * storage rather than held in memory.
+     *
+     * @param results the results of the games to be replayed, in the order in which they were
+     * played.
+     * @param threads the number of worker threads to use, or zero to use one per processor.
+     */
+    public Map<Integer, IntMap<Rating>> recompute (Iterable<GameResult> results, int threads)
+    {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        // each worker has a single thread, so the results for a game id are replayed in order
+        List<Worker> workers = Lists.newArrayListWithCapacity(threads);
+        for (int ii = 0; ii < threads; ii++) {
+            workers.add(new Worker());
+        }
+        final Semaphore backlog = new Semaphore(threads * MAX_BACKLOG);
+        try {
+            for (final GameResult result : results) {
+                final Worker worker = workers.get(Math.abs(result.gameId % threads));
+                backlog.acquireUninterruptibly();
+                worker.exec.execute(new Runnable() {
+                    public void run () {
+                        try {
+                            worker.replay(result);
+                        } catch (Throwable t) {
+                            log.warning("Failed to replay game result", "gameId", result.gameId,
+                                        t);
+                        } finally {
+                            backlog.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            for (Worker worker : workers) {
+                worker.exec.shutdown();
+            }
+        }
+
+        Map<Integer, IntMap<Rating>> ratings = Maps.newHashMap();
+        for (Worker worker : workers) {
+            try {
+                worker.exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while recomputing ratings", ie);
+            }
+            ratings.putAll(worker.ratings);
+        }
+        return ratings;
+    }
+
+    /**
+     * Writes the supplied recomputed ratings to the repository, replacing the existing ratings of
+     * the players in question. The caller should ensure that no games for the game ids in
+     * question are being rated while this takes place and should clear any {@link RatingCache}
+     * afterwards.
+     */
+    public void store (RatingRepository repo, Map<Integer, IntMap<Rating>> ratings)
+    {
+        for (Map.Entry<Integer, IntMap<Rating>> game : ratings.entrySet()) {
+            int gameId = game.getKey();
+            List<RatingRecord> records = Lists.newArrayList();
+            List<PersistentRecord> states = Lists.newArrayList();
+            for (IntMap.IntEntry<Rating> entry : game.getValue().intEntrySet()) {
+                Rating rating = entry.getValue();
+                records.add(new RatingRecord(
+                    gameId, entry.getIntKey(), rating.rating, rating.experience));
+                PersistentRecord state =
+                    _engine.createStateRecord(gameId, entry.getIntKey(), rating);
+                if (state != null) {
+                    states.add(state);
+                }
+            }
+            repo.setRatings(records);
+            repo.storeRatingStates(states);
+        }
+    }
+
+    /** Replays the results for the game ids assigned to a single thread. */
+    protected class Worker
+    {
+        /** The executor on which our results are replayed. */
+        public final ExecutorService exec = Executors.newSingleThreadExecutor();
+
+        /** The ratings for our game ids, only accessed by our executor's thread. */
+        public final Map<Integer, IntMap<Rating>> ratings = Maps.newHashMap();
+
+        /**
+         * Updates our ratings from the supplied result.
+         */
+        public void replay (GameResult result)
+        {
+            IntMap<Rating> game = ratings.get(result.gameId);
+            if (game == null) {
+                ratings.put(result.gameId, game = IntMaps.newHashIntMap());
+            }
+
+            Rating[] players = new Rating[result.playerIds.length];
+            for (int ii = 0; ii < players.length; ii++) {
+                int playerId = result.playerIds[ii];
+                if (playerId == 0) {
+                    continue;
+                }
+                Rating rating = game.get(playerId);
+                if (rating == null) {
+                    game.put(playerId, rating = new Rating());
+                    _engine.initRating(rating);
+                }
+                players[ii] = rating;
+            }
+
+            boolean[] updated = _engine.updateRatings(players, result.teams, result.ranks);
+            for (int ii = 0; ii < updated.length; ii++) {
+                if (updated[ii]) {
+                    players[ii].experience++;
+                }
+            }
+        }
+    }
+
+    /** The engine with which we compute ratings. */
+    protected RatingEngine _engine;
+
+    /** The maximum number of results queued for each worker. */
+    protected static final int MAX_BACKLOG = 1024;
+}
@@ -0,0 +1,242 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Lifecycle;
+
+import com.samskivert.depot.PersistentRecord;
+
+import com.threerings.util.server.WriteBehindWriter;
+
+import com.threerings.parlor.rating.server.persist.RatingRecord;
+import com.threerings.parlor.rating.server.persist.RatingRepository;
+
+import static com.threerings.parlor.Log.log;
+
+/**
+ * Writes the ratings computed by all {@link RatingDelegate}s on the server to the rating
+ * repository. By default each batch of ratings saved by a delegate is written by its own invoker
+ * unit. If a flush interval is configured, ratings are instead queued and all ratings saved during
+ * an interval are written by a single invoker unit. A rating that is saved more than once for the
+ * same game and player before it is flushed is written only once, with its latest value. Queued
+ * ratings are flushed when the server shuts down.
+ *
+ * <p> Flushes are posted to the invoker in the order in which they are made, so a rating is never
+ * overwritten by an older value. Because a queued rating is not yet in the database, code that
+ * loads ratings should use {@link #applyPending} to overlay any unwritten values.
+ *
+ * <p><em>Note:</em> All access to the writer should take place from the dobjmgr thread.
+ */
+@Singleton
+public class RatingWriter extends WriteBehindWriter
+{
+    @Inject public RatingWriter (Lifecycle cycle)
+    {
+        super(cycle);
+    }
+
+    @Override // from WriteBehindWriter
+    public int getQueueDepth ()
+    {
+        return _pending.size() + _flushing.size();
+    }
+
+    /**
+     * Returns the number of rating saves that were coalesced with a later save for the same game
+     * and player, and thus never written to the database.
+     */
+    public int getCoalescedCount ()
+    {
+        return _coalesced;
+    }
+
+    /**
+     * Queues the supplied ratings to be written to the repository.
+     *
+     * @param engine the engine that computed the ratings, whose own values for each rating will
+     * also be written.
+     * @param onSaved if non-null, will be run on the dobjmgr thread once the ratings have been
+     * successfully written.
+     */
+    public void saveRatings (int gameId, Collection<? extends RatingDelegate.PlayerRating> ratings,
+                             RatingEngine engine, Runnable onSaved)
+    {
+        List<PendingRating> records = Lists.newArrayListWithCapacity(ratings.size());
+        for (RatingDelegate.PlayerRating rating : ratings) {
+            records.add(new PendingRating(gameId, rating.playerId, rating, engine));
+        }
+
+        if (!isQueueing()) {
+            Map<Long, PendingRating> writes = Maps.newLinkedHashMap();
+            for (PendingRating record : records) {
+                writes.put(toKey(gameId, record.record.playerId), record);
+            }
+            List<Runnable> callbacks = Lists.newArrayList();
+            if (onSaved != null) {
+                callbacks.add(onSaved);
+            }
+            write("saveRatings(" + gameId + ")", writes, callbacks);
+            return;
+        }
+
+        for (PendingRating record : records) {
+            if (_pending.put(toKey(gameId, record.record.playerId), record) != null) {
+                _coalesced++;
+            }
+        }
+        if (onSaved != null) {
+            _callbacks.add(onSaved);
+        }
+        queued();
+    }
+
+    /**
+     * Updates the supplied rating with the value most recently saved for the specified game and
+     * player, if that value has not yet been written to the database.
+     *
+     * @return true if the rating was updated, false if there was no unwritten value.
+     */
+    public boolean applyPending (int gameId, Rating rating, int playerId)
+    {
+        Long key = toKey(gameId, playerId);
+        PendingRating record = _pending.get(key);
+        if (record == null) {
+            record = _flushing.get(key);
+        }
+        if (record == null) {
+            return false;
+        }
+        rating.set(record.rating);
+        return true;
+    }
+
+    @Override // from WriteBehindWriter
+    protected void writeQueued ()
+    {
+        if (_pending.isEmpty()) {
+            return;
+        }
+
+        Map<Long, PendingRating> pending = _pending;
+        List<Runnable> callbacks = _callbacks;
+        _pending = Maps.newLinkedHashMap();
+        _callbacks = Lists.newArrayList();
+        write("flushRatings(" + pending.size() + ")", pending, callbacks);
+    }
+
+    /**
+     * Posts an invoker unit that writes the supplied ratings and then runs the supplied callbacks.
+     */
+    protected void write (String name, final Map<Long, PendingRating> writes,
+                          final List<Runnable> callbacks)
+    {
+        final List<RatingRecord> records = Lists.newArrayListWithCapacity(writes.size());
+        final List<PersistentRecord> states = Lists.newArrayList();
+        for (PendingRating pending : writes.values()) {
+            records.add(pending.record);
+            if (pending.state != null) {
+                states.add(pending.state);
+            }
+        }
+        _flushing.putAll(writes);
+
+        new WriteUnit(name) {
+            @Override public void invokePersist () throws Exception {
+                _repo.setRatings(records);
+                _repo.storeRatingStates(states);
+            }
+            @Override protected void written () {
+                clearFlushing(writes);
+                for (Runnable callback : callbacks) {
+                    callback.run();
+                }
+            }
+            @Override protected void failed (Exception error) {
+                clearFlushing(writes);
+                log.warning("Failed to write ratings", "ratings", writes.size(), error);
+            }
+        }.post();
+    }
+
+    /**
+     * Called on the dobjmgr thread when a write has completed (or failed).
+     */
+    protected void clearFlushing (Map<Long, PendingRating> writes)
+    {
+        // only clear out the records we wrote; a later write may be in flight for the same key
+        for (Map.Entry<Long, PendingRating> entry : writes.entrySet()) {
+            if (_flushing.get(entry.getKey()) == entry.getValue()) {
+                _flushing.remove(entry.getKey());
+            }
+        }
+    }
+
+    protected static Long toKey (int gameId, int playerId)
+    {
+        return ((long)gameId << 32) | (playerId & 0xFFFFFFFFL);
+    }
+
+    /** A rating waiting to be written. */
+    protected static class PendingRating
+    {
+        /** The rating as of when it was saved. */
+        public final Rating rating = new Rating();
+
+        /** The record to be written. */
+        public final RatingRecord record;
+
+        /** The rating engine's record to be written, or null. */
+        public final PersistentRecord state;
+
+        public PendingRating (int gameId, int playerId, Rating rating, RatingEngine engine)
+        {
+            this.rating.set(rating);
+            this.record = new RatingRecord(gameId, playerId, rating.rating, rating.experience);
+            this.state = (engine == null) ? null :
+                engine.createStateRecord(gameId, playerId, rating);
+        }
+    }
+
+    /** Queued ratings, keyed on game and player id. */
+    protected Map<Long, PendingRating> _pending = Maps.newLinkedHashMap();
+
+    /** Ratings that are being written by invoker units that have not yet completed. */
+    protected Map<Long, PendingRating> _flushing = Maps.newHashMap();
+
+    /** Callbacks to be run once our queued ratings are written. */
+    protected List<Runnable> _callbacks = Lists.newArrayList();
+
+    /** The number of saves that were superseded by a later save before being written. */
+    protected int _coalesced;
+
+    // our dependencies
+    @Inject protected RatingRepository _repo;
+}
@@ -0,0 +1,307 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import com.samskivert.util.IntMap;
+import com.samskivert.util.IntMaps;
+
+import com.samskivert.depot.Key;
+import com.samskivert.depot.PersistentRecord;
+
+import com.threerings.media.util.MathUtil;
+
+import com.threerings.parlor.rating.data.RatingCodes;
+import com.threerings.parlor.rating.server.persist.RatingRepository;
+import com.threerings.parlor.rating.server.persist.TrueSkillRatingRecord;
+
+/**
+ * Rates players using the TrueSkill system, which models each player's skill as a normal
+ * distribution (stored as the player's rating and deviation) and a team's performance as the sum
+ * of its players' performances. Teams are ordered by rank and each pair of adjacently ranked
+ * teams is compared, which approximates the full TrueSkill factor graph without iterative
+ * message passing. Each player's rating moves in proportion to their own uncertainty, so a
+ * newcomer on a team moves further than an established teammate.
+ *
+ * <p> Ratings are bounded to the same range as ELO ratings: a new player's mean is {@link
+ * RatingCodes#DEFAULT_RATING} and a difference in skill of {@link #BETA} gives the better player
+ * about a 76% chance of winning.
+ *
+ * <p> The deviation is stored in a {@link TrueSkillRatingRecord}, so a server that uses this
+ * engine must {@link RatingRepository#registerEngine register} it.
+ */
+public class TrueSkillRatingEngine
+    implements RatingEngine, RatingCodes
+{
+    /** The standard deviation of a new player's skill. */
+    public static final float DEFAULT_DEVIATION = 200f;
+
+    /** The standard deviation of a performance around the player's skill. */
+    public static final double BETA = DEFAULT_DEVIATION / 2;
+
+    /** The additive dynamics factor, which keeps deviations from shrinking to nothing. */
+    public static final double TAU = DEFAULT_DEVIATION / 100;
+
+    /**
+     * Creates an engine for a game in which about 10% of matches end in a draw.
+     */
+    public TrueSkillRatingEngine ()
+    {
+        this(0.1);
+    }
+
+    /**
+     * Creates an engine for a game in which the specified fraction of matches end in a draw.
+     */
+    public TrueSkillRatingEngine (double drawProbability)
+    {
+        // find the z-score such that a standard normal lies within [-z, z] with the draw
+        // probability; the draw margin for a match is this scaled by the performance variance
+        double lo = 0, hi = 10, target = (drawProbability + 1) / 2;
+        for (int ii = 0; ii < 64; ii++) {
+            double mid = (lo + hi) / 2;
+            if (cdf(mid) < target) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        _drawZ = lo;
+    }
+
+    // from interface RatingEngine
+    public void initRating (Rating rating)
+    {
+        rating.rating = DEFAULT_RATING;
+        rating.deviation = DEFAULT_DEVIATION;
+    }
+
+    // from interface RatingEngine
+    public boolean[] updateRatings (Rating[] ratings, int[] teams, int[] ranks)
+    {
+        // gather the rated participants into teams
+        IntMap<Team> tmap = IntMaps.newHashIntMap();
+        int count = ratings.length;
+        double[] mu = new double[count], var = new double[count];
+        for (int ii = 0; ii < count; ii++) {
+            Rating rating = ratings[ii];
+            if (rating == null) {
+                continue;
+            }
+            double sigma = (rating.deviation > 0) ? rating.deviation : DEFAULT_DEVIATION;
+            mu[ii] = rating.rating;
+            var[ii] = sigma * sigma + TAU * TAU;
+
+            Team team = tmap.get(teams[ii]);
+            if (team == null) {
+                tmap.put(teams[ii], team = new Team(ranks[ii]));
+            }
+            team.rank = Math.min(team.rank, ranks[ii]);
+            team.members.add(ii);
+            team.mu += mu[ii];
+            team.var += var[ii];
+        }
+
+        boolean[] updated = new boolean[count];
+        if (tmap.size() < 2) {
+            return updated; // no opponents, no ratings
+        }
+
+        // compare each pair of adjacently ranked teams, accumulating each player's adjustments
+        Team[] tarray = tmap.values().toArray(new Team[tmap.size()]);
+        Arrays.sort(tarray, BY_RANK);
+        double[] dmu = new double[count], vscale = new double[count];
+        Arrays.fill(vscale, 1);
+        for (int tt = 0; tt < tarray.length - 1; tt++) {
+            Team winner = tarray[tt], loser = tarray[tt+1];
+            int players = winner.members.size() + loser.members.size();
+            double c = Math.sqrt(winner.var + loser.var + players * BETA * BETA);
+            double t = (winner.mu - loser.mu) / c;
+            double eps = _drawZ * Math.sqrt(players) * BETA / c;
+            boolean draw = (winner.rank == loser.rank);
+            double v = draw ? vDraw(t, eps) : vWin(t, eps);
+            double w = draw ? wDraw(t, eps) : wWin(t, eps);
+            adjust(winner, 1, c, v, w, var, dmu, vscale);
+            adjust(loser, -1, c, v, w, var, dmu, vscale);
+        }
+
+        for (Team team : tarray) {
+            for (int ii : team.members) {
+                Rating rating = ratings[ii];
+                rating.rating = MathUtil.bound(
+                    MINIMUM_RATING, (int)Math.round(mu[ii] + dmu[ii]), MAXIMUM_RATING);
+                rating.deviation = (float)Math.sqrt(var[ii] * Math.max(vscale[ii], MIN_SCALE));
+                updated[ii] = true;
+            }
+        }
+        return updated;
+    }
+
+    // from interface RatingEngine
+    public boolean hasState ()
+    {
+        return true;
+    }
+
+    // from interface RatingEngine
+    public Class<? extends PersistentRecord> getStateClass ()
+    {
+        return TrueSkillRatingRecord.class;
+    }
+
+    // from interface RatingEngine
+    public void loadStates (RatingRepository repo, int gameId, IntMap<? extends Rating> ratings)
+    {
+        List<Key<TrueSkillRatingRecord>> keys = Lists.newArrayList();
+        for (int playerId : ratings.keySet()) {
+            keys.add(TrueSkillRatingRecord.getKey(gameId, playerId));
+        }
+        for (TrueSkillRatingRecord record : repo.loadRatingStates(keys)) {
+            Rating rating = ratings.get(record.playerId);
+            if (rating != null) {
+                rating.deviation = record.deviation;
+            }
+        }
+    }
+
+    // from interface RatingEngine
+    public PersistentRecord createStateRecord (int gameId, int playerId, Rating rating)
+    {
+        TrueSkillRatingRecord record = new TrueSkillRatingRecord();
+        record.gameId = gameId;
+        record.playerId = playerId;
+        record.deviation = rating.deviation;
+        return record;
+    }
+
+    /**
+     * Accumulates the adjustments to the members of a team from the outcome of one comparison.
+     *
+     * @param sign 1 for the better ranked team, -1 for the worse.
+     */
+    protected void adjust (Team team, int sign, double c, double v, double w,
+                           double[] var, double[] dmu, double[] vscale)
+    {
+        for (int ii : team.members) {
+            dmu[ii] += sign * var[ii] / c * v;
+            vscale[ii] *= 1 - var[ii] / (c * c) * w;
+        }
+    }
+
+    /** The additive correction to the mean for a win. */
+    protected static double vWin (double t, double eps)
+    {
+        double denom = cdf(t - eps);
+        return (denom < TINY) ? -t + eps : pdf(t - eps) / denom;
+    }
+
+    /** The multiplicative correction to the variance for a win. */
+    protected static double wWin (double t, double eps)
+    {
+        double denom = cdf(t - eps);
+        if (denom < TINY) {
+            return (t < 0) ? 1 : 0;
+        }
+        double v = vWin(t, eps);
+        return v * (v + t - eps);
+    }
+
+    /** The additive correction to the mean for a draw. */
+    protected static double vDraw (double t, double eps)
+    {
+        double at = Math.abs(t), denom = cdf(eps - at) - cdf(-eps - at);
+        double v = (denom < TINY) ? -at + eps : (pdf(-eps - at) - pdf(eps - at)) / denom;
+        return (t < 0) ? -v : v;
+    }
+
+    /** The multiplicative correction to the variance for a draw. */
+    protected static double wDraw (double t, double eps)
+    {
+        double at = Math.abs(t), denom = cdf(eps - at) - cdf(-eps - at);
+        if (denom < TINY) {
+            return 1;
+        }
+        double v = vDraw(at, eps);
+        return v * v + ((eps - at) * pdf(eps - at) + (eps + at) * pdf(eps + at)) / denom;
+    }
+
+    /** The standard normal probability density function. */
+    protected static double pdf (double x)
+    {
+        return Math.exp(-x * x / 2) / SQRT_2PI;
+    }
+
+    /** The standard normal cumulative distribution function. */
+    protected static double cdf (double x)
+    {
+        return 0.5 * erfc(-x / Math.sqrt(2));
+    }
+
+    /**
+     * The complementary error function, using the Chebyshev approximation from Numerical
+     * Recipes (fractional error below 1.2e-7).
+     */
+    protected static double erfc (double x)
+    {
+        double z = Math.abs(x), t = 1 / (1 + 0.5 * z);
+        double r = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 +
+            t * (0.09678418 + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 +
+            t * (1.48851587 + t * (-0.82215223 + t * 0.17087277)))))))));
+        return (x >= 0) ? r : 2 - r;
+    }
+
+    /** The rated participants on a single team. */
+    protected static class Team
+    {
+        public int rank;
+        public List<Integer> members = Lists.newArrayList();
+        public double mu, var;
+
+        public Team (int rank)
+        {
+            this.rank = rank;
+        }
+    }
+
+    /** The z-score corresponding to our draw probability. */
+    protected double _drawZ;
+
+    /** Orders teams from best to worst rank. */
+    protected static final Comparator<Team> BY_RANK = new Comparator<Team>() {
+        public int compare (Team t1, Team t2) {
+            return (t1.rank < t2.rank) ? -1 : (t1.rank == t2.rank ? 0 : 1);
+        }
+    };
+
+    /** Below this, the normal distribution functions cannot be safely divided by. */
+    protected static final double TINY = 2.222758749e-162;
+
+    /** Keeps deviations from collapsing entirely after a very surprising outcome. */
+    protected static final double MIN_SCALE = 0.0001;
+
+    protected static final double SQRT_2PI = Math.sqrt(2 * Math.PI);
+}
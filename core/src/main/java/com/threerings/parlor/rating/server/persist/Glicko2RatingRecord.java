@@ -0,0 +1,76 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server.persist;
+
+import com.samskivert.depot.Key;
+import com.samskivert.depot.PersistentRecord;
+import com.samskivert.depot.annotation.Entity;
+import com.samskivert.depot.annotation.Id;
+import com.samskivert.depot.annotation.Index;
+import com.samskivert.depot.expression.ColumnExp;
+
+import com.threerings.parlor.rating.server.Glicko2RatingEngine;
+
+/**
+ * Contains the values maintained by the {@link Glicko2RatingEngine} for a player in a game, in
+ * addition to the rating and experience stored in the player's {@link RatingRecord}.
+ */
+@Entity
+public class Glicko2RatingRecord extends PersistentRecord
+{
+    // AUTO-GENERATED: FIELDS START
+    public static final Class<Glicko2RatingRecord> _R = Glicko2RatingRecord.class;
+    public static final ColumnExp<Integer> GAME_ID = colexp(_R, "gameId");
+    public static final ColumnExp<Integer> PLAYER_ID = colexp(_R, "playerId");
+    public static final ColumnExp<Float> DEVIATION = colexp(_R, "deviation");
+    public static final ColumnExp<Float> VOLATILITY = colexp(_R, "volatility");
+    // AUTO-GENERATED: FIELDS END
+
+    /** Increment this value to reflect changes to this object's schema. */
+    public static final int SCHEMA_VERSION = 1;
+
+    /** The identifier of the game we're rating for. */
+    @Id public int gameId;
+
+    /** The identifier of the player we're rating. */
+    @Id @Index public int playerId;
+
+    /** The player's rating deviation, on the rating scale. */
+    public float deviation;
+
+    /** The player's rating volatility. */
+    public float volatility;
+
+    // AUTO-GENERATED: METHODS START
+    /**
+     * Create and return a primary {@link Key} to identify a {@link Glicko2RatingRecord}
+     * with the supplied key values.
+     */
+    public static Key<Glicko2RatingRecord> getKey (int gameId, int playerId)
+    {
+        return newKey(_R, gameId, playerId);
+    }
+
+    /** Register the key fields in an order matching the getKey() factory. */
+    static { registerKeyFields(GAME_ID, PLAYER_ID); }
+    // AUTO-GENERATED: METHODS END
+}
@@ -29,8 +29,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -38,12 +40,17 @@ import com.samskivert.util.IntMap;
 import com.samskivert.util.IntMaps;
 
 import com.samskivert.depot.DepotRepository;
+import com.samskivert.depot.Key;
 import com.samskivert.depot.PersistenceContext;
 import com.samskivert.depot.PersistentRecord;
 import com.samskivert.depot.Query;
+import com.samskivert.depot.Ops;
 import com.samskivert.depot.clause.OrderBy;
+import com.samskivert.depot.expression.ColumnExp;
 import com.samskivert.depot.expression.SQLExpression;
+import com.samskivert.depot.util.Tuple2;
 
+import com.threerings.parlor.rating.server.RatingEngine;
 import com.threerings.parlor.rating.util.Percentiler;
 
 /**
@@ -60,6 +67,21 @@ public class RatingRepository extends DepotRepository
         super(ctx);
     }
 
+    /**
+     * Configures this repository to manage the records in which the supplied engine persists its
+     * own values, if any. This must be called for each such engine used by the server before the
+     * persistence context's repositories are initialized. The records of engines that are never
+     * registered are neither created nor purged, so a server that only uses the default ELO
+     * engine need not register anything.
+     */
+    public void registerEngine (RatingEngine engine)
+    {
+        Class<? extends PersistentRecord> sclass = engine.getStateClass();
+        if (sclass != null) {
+            _stateClasses.add(sclass);
+        }
+    }
+
     /**
      * Loads the rating for the given player for the given game and returns it as a
      * {@link RatingRecord} object, or null if the player has no previous rating for the game.
@@ -109,7 +131,8 @@ public class RatingRepository extends DepotRepository
 
     /**
      * Returns the top-ratings for the specified game. Players with equal rating will be sorted
-     * most recently played first.
+     * most recently played first. If a leaderboard index is enabled (see {@link
+     * #setLeaderboardDepth}), the results are obtained from the index where possible.
      *
      * @param since an absolute number of milliseconds (ie. 10*24*60*60*1000L). Players that have
      * not updated their rating within this many milliseconds in the past will be omitted from the
@@ -119,20 +142,65 @@ public class RatingRepository extends DepotRepository
     public List<RatingRecord> getTopRatings (
         int gameId, int limit, long since, Set<Integer> playerIds)
     {
-        List<SQLExpression<?>> where = Lists.newArrayList();
-        where.add(RatingRecord.GAME_ID.eq(gameId));
-        if (since > 0L) {
-            where.add(RatingRecord.LAST_UPDATED.greaterThan(
-                          new Timestamp(System.currentTimeMillis() - since)));
+        TopRatingsIndex index = _topIndex;
+        if (index != null) {
+            // load (or reload) this game's board if it is missing or has been whittled down
+            if (!index.hasBoard(gameId, Math.min(limit, index.getDepth() / 2))) {
+                loadLeaderboard(index, gameId);
+            }
+            List<RatingRecord> top = index.getTopRatings(gameId, limit, since, playerIds);
+            if (top != null) {
+                return top;
+            }
         }
-        if (playerIds != null) {
-            where.add(RatingRecord.PLAYER_ID.in(playerIds));
+        return loadTopRatings(gameId, limit, since, playerIds);
+    }
+
+    /**
+     * Enables or disables the in-memory index of top ratings used by {@link #getTopRatings}.
+     * Boards for each game are loaded as they are first needed, or may be loaded all at once
+     * with {@link #rebuildLeaderboards}. The index is maintained as ratings are written via this
+     * repository, so it should only be enabled if this server is the only writer of ratings.
+     *
+     * @param depth the number of ratings to keep in memory for each game, or zero to disable the
+     * index.
+     */
+    public void setLeaderboardDepth (int depth)
+    {
+        _topIndex = (depth > 0) ? new TopRatingsIndex(depth) : null;
+    }
+
+    /**
+     * Rebuilds the leaderboard index for every game by scanning all ratings in the database. This
+     * is generally done once at boot. It does nothing if the index is not enabled.
+     */
+    public void rebuildLeaderboards ()
+    {
+        TopRatingsIndex index = _topIndex;
+        if (index == null) {
+            return;
         }
 
-        OrderBy ob = new OrderBy(
-            new SQLExpression<?>[] { RatingRecord.RATING, RatingRecord.LAST_UPDATED },
-            new OrderBy.Order[] { OrderBy.Order.DESC, OrderBy.Order.DESC });
-        return from(RatingRecord.class).where(where).limit(limit).orderBy(ob).select();
+        int token = index.beginLoad();
+        try {
+            IntMap<TopRatingsIndex.Board> boards = IntMaps.newHashIntMap();
+            List<RatingRecord> page = null;
+            while ((page = loadRatingPage(page)) != null) {
+                for (RatingRecord record : page) {
+                    TopRatingsIndex.Board board = boards.get(record.gameId);
+                    if (board == null) {
+                        boards.put(record.gameId,
+                                   board = new TopRatingsIndex.Board(index.getDepth()));
+                    }
+                    board.noteRating(record);
+                }
+            }
+            for (IntMap.IntEntry<TopRatingsIndex.Board> entry : boards.intEntrySet()) {
+                index.installBoard(entry.getIntKey(), entry.getValue(), token);
+            }
+        } finally {
+            index.endLoad();
+        }
     }
 
     /**
@@ -141,7 +209,39 @@ public class RatingRepository extends DepotRepository
      */
     public void setRating (int gameId, int playerId, int rating, int experience)
     {
-        store(new RatingRecord(gameId, playerId, rating, experience));
+        RatingRecord record = new RatingRecord(gameId, playerId, rating, experience);
+        store(record);
+        noteRatingStored(record);
+    }
+
+    /**
+     * Stores all of the supplied rating records, updating or creating a row for each.
+     */
+    public void setRatings (Collection<RatingRecord> records)
+    {
+        for (RatingRecord record : records) {
+            store(record);
+            noteRatingStored(record);
+        }
+    }
+
+    /**
+     * Loads the records with the supplied keys in which a rating engine stores its per-player
+     * values (see {@link com.threerings.parlor.rating.server.RatingEngine#loadStates}).
+     */
+    public <T extends PersistentRecord> List<T> loadRatingStates (Collection<Key<T>> keys)
+    {
+        return keys.isEmpty() ? Collections.<T>emptyList() : loadAll(keys);
+    }
+
+    /**
+     * Stores the supplied rating engine records, updating or creating a row for each.
+     */
+    public void storeRatingStates (Collection<? extends PersistentRecord> records)
+    {
+        for (PersistentRecord record : records) {
+            store(record);
+        }
     }
 
     /**
@@ -150,6 +250,14 @@ public class RatingRepository extends DepotRepository
     public void deleteRating (int gameId, int playerId)
     {
         delete(RatingRecord.getKey(gameId, playerId));
+        for (Class<? extends PersistentRecord> sclass : _stateClasses) {
+            from(sclass).where(stateColumn(sclass, "gameId"), gameId,
+                               stateColumn(sclass, "playerId"), playerId).delete(null);
+        }
+        TopRatingsIndex index = _topIndex;
+        if (index != null) {
+            index.removeRating(gameId, playerId);
+        }
     }
 
     /**
@@ -203,7 +311,14 @@ public class RatingRepository extends DepotRepository
     public void purgeGame (int gameId)
     {
         from(RatingRecord.class).where(RatingRecord.GAME_ID, gameId).delete(null);
+        for (Class<? extends PersistentRecord> sclass : _stateClasses) {
+            from(sclass).where(stateColumn(sclass, "gameId"), gameId).delete(null);
+        }
         from(PercentileRecord.class).where(PercentileRecord.GAME_ID, gameId).delete(null);
+        TopRatingsIndex index = _topIndex;
+        if (index != null) {
+            index.removeGame(gameId);
+        }
     }
 
     /**
@@ -212,6 +327,13 @@ public class RatingRepository extends DepotRepository
     public void purgePlayers (Collection<Integer> playerIds)
     {
         from(RatingRecord.class).where(RatingRecord.PLAYER_ID.in(playerIds)).delete(null);
+        for (Class<? extends PersistentRecord> sclass : _stateClasses) {
+            from(sclass).where(stateColumn(sclass, "playerId").in(playerIds)).delete(null);
+        }
+        TopRatingsIndex index = _topIndex;
+        if (index != null) {
+            index.removePlayers(playerIds);
+        }
     }
 
     /**
@@ -235,15 +357,22 @@ public class RatingRepository extends DepotRepository
     public Collection<RatingRecord> getMostRecentRatings (
         Collection<Integer> playerIds, Collection<Integer> gameIds, int gameIdSign)
     {
-        // TODO: Implement "distinct" in depot. Here's the query I'd like to do:
-        //
-        //     select distinct on ("playerId") * from "RatingRecord" where "playerId" in (...)
-        //     and "gameId" < 0 order by "playerId" desc, "lastUpdated" desc;
-        //
-        // (The ordering by playerId seems to only be required to satisfy the distinct request).
-        // Without distinct, I must load all ratings and throw out all but the first. They're not
-        // that big, but still.
+        // load the ratings in chunks to keep our IN lists to a reasonable size
+        List<RatingRecord> ratings = Lists.newArrayList();
+        for (List<Integer> chunk : Iterables.partition(playerIds, MAX_IN_LIST)) {
+            ratings.addAll(loadMostRecentRatings(chunk, gameIds, gameIdSign));
+        }
+        return ratings;
+    }
 
+    /**
+     * Loads the most recently entered rating for each of the specified players.
+     *
+     * @see #getMostRecentRatings(Collection, Collection, int)
+     */
+    protected List<RatingRecord> loadMostRecentRatings (
+        Collection<Integer> playerIds, Collection<Integer> gameIds, int gameIdSign)
+    {
         List<SQLExpression<?>> conditions = Lists.newArrayList();
         conditions.add(RatingRecord.PLAYER_ID.in(playerIds));
         if (gameIds != null) {
@@ -253,15 +382,117 @@ public class RatingRepository extends DepotRepository
             conditions.add(gameIdSign < 0 ?
                 RatingRecord.GAME_ID.lessThan(0) : RatingRecord.GAME_ID.greaterThan(0));
         }
-        IntMap<RatingRecord> ratings = IntMaps.newHashIntMap();
-        for (RatingRecord record : from(RatingRecord.class).where(conditions).
-                 descending(RatingRecord.LAST_UPDATED).select()) {
-            if (ratings.containsKey(record.playerId)) {
-                continue;
+
+        // where supported, have the database select the latest row for each player:
+        //
+        //     select distinct on ("playerId") * from "RatingRecord" where "playerId" in (...)
+        //     order by "playerId", "lastUpdated" desc;
+        if (!_noDistinctOn) {
+            try {
+                return from(RatingRecord.class).where(conditions).distinct(RatingRecord.PLAYER_ID).
+                    orderBy(OrderBy.ascending(RatingRecord.PLAYER_ID).
+                            thenDescending(RatingRecord.LAST_UPDATED)).select();
+            } catch (IllegalArgumentException iae) {
+                // this database does not support DISTINCT ON; fall through to the slow way
+                _noDistinctOn = true;
+            }
+        }
+
+        // otherwise scan just the keys of the matching ratings, newest first, noting the first
+        // for each player, and then load only those ratings
+        IntMap<Key<RatingRecord>> latest = IntMaps.newHashIntMap();
+        for (Tuple2<Integer, Integer> row : from(RatingRecord.class).where(conditions).
+                 descending(RatingRecord.LAST_UPDATED).select(
+                     RatingRecord.PLAYER_ID, RatingRecord.GAME_ID)) {
+            if (!latest.containsKey(row.a)) {
+                latest.put(row.a, RatingRecord.getKey(row.b, row.a));
             }
-            ratings.put(record.playerId, record);
         }
-        return ratings.values();
+        return latest.isEmpty() ? Collections.<RatingRecord>emptyList() :
+            loadAll(latest.values());
+    }
+
+    /**
+     * Loads the top ratings for the specified game from the database.
+     */
+    protected List<RatingRecord> loadTopRatings (
+        int gameId, int limit, long since, Set<Integer> playerIds)
+    {
+        List<SQLExpression<?>> where = Lists.newArrayList();
+        where.add(RatingRecord.GAME_ID.eq(gameId));
+        if (since > 0L) {
+            where.add(RatingRecord.LAST_UPDATED.greaterThan(
+                          new Timestamp(System.currentTimeMillis() - since)));
+        }
+        if (playerIds != null) {
+            where.add(RatingRecord.PLAYER_ID.in(playerIds));
+        }
+
+        OrderBy ob = new OrderBy(
+            new SQLExpression<?>[] { RatingRecord.RATING, RatingRecord.LAST_UPDATED },
+            new OrderBy.Order[] { OrderBy.Order.DESC, OrderBy.Order.DESC });
+        return from(RatingRecord.class).where(where).limit(limit).orderBy(ob).select();
+    }
+
+    /**
+     * Loads the board for the specified game into the supplied leaderboard index.
+     */
+    protected void loadLeaderboard (TopRatingsIndex index, int gameId)
+    {
+        int token = index.beginLoad();
+        try {
+            // load one more rating than we need so that we know whether the board is complete
+            List<RatingRecord> top = loadTopRatings(gameId, index.getDepth() + 1, 0L, null);
+            TopRatingsIndex.Board board = new TopRatingsIndex.Board(index.getDepth());
+            for (RatingRecord record : top) {
+                board.noteRating(record);
+            }
+            index.installBoard(gameId, board, token);
+        } finally {
+            index.endLoad();
+        }
+    }
+
+    /**
+     * Loads the page of ratings that follows the supplied page in primary key order, or the first
+     * page if <code>prev</code> is null. Returns null when there are no more ratings.
+     */
+    protected List<RatingRecord> loadRatingPage (List<RatingRecord> prev)
+    {
+        Query<RatingRecord> query = from(RatingRecord.class).noCache();
+        if (prev != null) {
+            // continue after the last record of the previous page
+            RatingRecord last = prev.get(prev.size()-1);
+            query = query.where(Ops.or(
+                RatingRecord.GAME_ID.greaterThan(last.gameId),
+                Ops.and(RatingRecord.GAME_ID.eq(last.gameId),
+                        RatingRecord.PLAYER_ID.greaterThan(last.playerId))));
+        }
+        List<RatingRecord> page = query.orderBy(
+            OrderBy.ascending(RatingRecord.GAME_ID).thenAscending(RatingRecord.PLAYER_ID)).
+            limit(SCAN_PAGE_SIZE).select();
+        return page.isEmpty() ? null : page;
+    }
+
+    /**
+     * Updates our leaderboard index, if enabled, to reflect a stored rating.
+     */
+    protected void noteRatingStored (RatingRecord record)
+    {
+        TopRatingsIndex index = _topIndex;
+        if (index != null) {
+            index.noteRating(record);
+        }
+    }
+
+    /**
+     * Returns the specified id column of a rating engine's state record. Every state record is
+     * keyed on <code>gameId</code> and <code>playerId</code>, like {@link RatingRecord}.
+     */
+    protected static ColumnExp<Integer> stateColumn (
+        Class<? extends PersistentRecord> sclass, String field)
+    {
+        return new ColumnExp<Integer>(sclass, field);
     }
 
     @Override
@@ -269,5 +500,21 @@ public class RatingRepository extends DepotRepository
     {
         classes.add(RatingRecord.class);
         classes.add(PercentileRecord.class);
+        classes.addAll(_stateClasses);
     }
+
+    /** The state records of the rating engines registered with us. */
+    protected Set<Class<? extends PersistentRecord>> _stateClasses = Sets.newLinkedHashSet();
+
+    /** Our in-memory index of top ratings, or null if it is not enabled. */
+    protected volatile TopRatingsIndex _topIndex;
+
+    /** Set if our database does not support DISTINCT ON. */
+    protected volatile boolean _noDistinctOn;
+
+    /** The maximum number of player ids we'll put in a single IN clause. */
+    protected static final int MAX_IN_LIST = 1000;
+
+    /** The number of ratings loaded per query when scanning all ratings. */
+    protected static final int SCAN_PAGE_SIZE = 5000;
 }
@@ -0,0 +1,359 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server.persist;
+
+import java.sql.Timestamp;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.IntMap;
+import com.samskivert.util.IntMaps;
+
+/**
+ * Maintains, for each game, the top ratings of that game in the order used by {@link
+ * RatingRepository#getTopRatings}: highest rating first, ties broken by most recently updated.
+ * Each board holds at most <code>depth</code> ratings, and is maintained such that every rating
+ * not on the board ranks below every rating on the board. Thus, when a filtered scan of a board
+ * finds as many ratings as were requested, the result is exactly what the database would have
+ * returned. When it does not (because the filters exclude too many of the ratings on the board),
+ * the caller must go to the database, unless the board is <em>complete</em> (holds every rating
+ * for its game).
+ *
+ * <p> A rating that drops below the bottom of an incomplete board is removed from the board,
+ * because some rating not on the board may now rank above it. Boards thus shrink over time and
+ * are reloaded from the database when they can no longer answer queries.
+ *
+ * <p> The index is updated from rating writes made through the {@link RatingRepository}, and is
+ * thus only accurate if this server is the only one that writes ratings. This class is
+ * thread-safe.
+ */
+public class TopRatingsIndex
+{
+    /**
+     * A board under construction, used when rebuilding the index from a scan of all ratings.
+     */
+    public static class Board
+    {
+        /**
+         * Creates a complete, empty board that will hold at most <code>depth</code> ratings.
+         */
+        public Board (int depth)
+        {
+            _depth = depth;
+        }
+
+        /**
+         * Returns the number of ratings on this board.
+         */
+        public int size ()
+        {
+            return _entries.size();
+        }
+
+        /**
+         * Returns true if this board holds every rating for its game.
+         */
+        public boolean isComplete ()
+        {
+            return _complete;
+        }
+
+        /**
+         * Notes a new value for a player's rating.
+         */
+        public void noteRating (RatingRecord record)
+        {
+            removeRating(record.playerId);
+
+            Entry entry = new Entry(record);
+            if (_complete || (!_entries.isEmpty() && ORDER.compare(entry, _entries.last()) < 0)) {
+                _entries.add(entry);
+                _players.put(entry.playerId, entry);
+                while (_entries.size() > _depth) {
+                    _players.remove(_entries.pollLast().playerId);
+                    _complete = false;
+                }
+            }
+        }
+
+        /**
+         * Removes a player's rating from this board.
+         */
+        public void removeRating (int playerId)
+        {
+            Entry oentry = _players.remove(playerId);
+            if (oentry != null) {
+                _entries.remove(oentry);
+            }
+        }
+
+        /**
+         * Adds to the supplied list the top ratings on this board that match the supplied
+         * filters, up to the specified limit.
+         */
+        protected void getTopRatings (List<RatingRecord> into, int limit, long updatedAfter,
+                                      Set<Integer> playerIds)
+        {
+            for (Iterator<Entry> iter = _entries.iterator();
+                 iter.hasNext() && into.size() < limit; ) {
+                Entry entry = iter.next();
+                if (entry.lastUpdated > updatedAfter &&
+                        (playerIds == null || playerIds.contains(entry.playerId))) {
+                    into.add(entry.toRecord(_gameId));
+                }
+            }
+        }
+
+        protected int _gameId, _depth;
+        protected boolean _complete = true;
+        protected TreeSet<Entry> _entries = new TreeSet<Entry>(ORDER);
+        protected IntMap<Entry> _players = IntMaps.newHashIntMap();
+    }
+
+    /**
+     * Creates an index that will hold at most <code>depth</code> ratings per game.
+     */
+    public TopRatingsIndex (int depth)
+    {
+        _depth = depth;
+    }
+
+    /**
+     * Returns the maximum number of ratings held for each game.
+     */
+    public int getDepth ()
+    {
+        return _depth;
+    }
+
+    /**
+     * Returns true if the index has a board for the specified game that holds at least
+     * <code>count</code> ratings or holds every rating for the game.
+     */
+    public synchronized boolean hasBoard (int gameId, int count)
+    {
+        Board board = _boards.get(gameId);
+        return (board != null) && (board.isComplete() || board.size() >= count);
+    }
+
+    /**
+     * Returns the top ratings for the specified game, filtered as described by {@link
+     * RatingRepository#getTopRatings}, or null if the index cannot answer the query and the
+     * database must be consulted.
+     */
+    public synchronized List<RatingRecord> getTopRatings (
+        int gameId, int limit, long since, Set<Integer> playerIds)
+    {
+        Board board = _boards.get(gameId);
+        if (board == null) {
+            return null;
+        }
+        long updatedAfter = (since > 0L) ? System.currentTimeMillis() - since : Long.MIN_VALUE;
+        List<RatingRecord> top = Lists.newArrayListWithCapacity(Math.min(limit, board.size()));
+        board.getTopRatings(top, limit, updatedAfter, playerIds);
+        return (top.size() == limit || board.isComplete()) ? top : null;
+    }
+
+    /**
+     * Notes that a rating has been written to the database.
+     */
+    public synchronized void noteRating (RatingRecord record)
+    {
+        Board board = _boards.get(record.gameId);
+        if (board != null) {
+            board.noteRating(record);
+        }
+        if (_replay != null) {
+            _replay.add(copy(record));
+        }
+    }
+
+    /**
+     * Notes that a rating has been deleted from the database.
+     */
+    public synchronized void removeRating (int gameId, int playerId)
+    {
+        Board board = _boards.get(gameId);
+        if (board != null) {
+            board.removeRating(playerId);
+        }
+        if (_replay != null) {
+            RatingRecord record = new RatingRecord();
+            record.gameId = gameId;
+            record.playerId = playerId;
+            _replay.add(record); // a record with no timestamp denotes a deletion
+        }
+    }
+
+    /**
+     * Notes that all ratings for the specified game have been deleted.
+     */
+    public synchronized void removeGame (int gameId)
+    {
+        _boards.remove(gameId);
+        _generation++;
+    }
+
+    /**
+     * Notes that all ratings for the specified players have been deleted.
+     */
+    public synchronized void removePlayers (Collection<Integer> playerIds)
+    {
+        for (Board board : _boards.values()) {
+            for (Integer playerId : playerIds) {
+                board.removeRating(playerId);
+            }
+        }
+        _generation++;
+    }
+
+    /**
+     * Notes that boards are about to be loaded from the database. Every call to this method must
+     * be followed by a call to {@link #endLoad}. Writes made while boards are being loaded are
+     * remembered and reapplied to the loaded boards, as those writes may or may not be reflected
+     * in the data that was loaded.
+     *
+     * @return a token to be passed to {@link #installBoard}.
+     */
+    public synchronized int beginLoad ()
+    {
+        if (_loads++ == 0) {
+            _replay = Lists.newArrayList();
+        }
+        return _generation;
+    }
+
+    /**
+     * Installs a board loaded from the database. The board is discarded if ratings were purged
+     * while it was being loaded.
+     */
+    public synchronized void installBoard (int gameId, Board board, int token)
+    {
+        if (token != _generation) {
+            return;
+        }
+        board._gameId = gameId;
+        for (RatingRecord record : _replay) {
+            if (record.gameId != gameId) {
+                continue;
+            } else if (record.lastUpdated == null) {
+                board.removeRating(record.playerId);
+            } else {
+                board.noteRating(record);
+            }
+        }
+        _boards.put(gameId, board);
+    }
+
+    /**
+     * Notes that the loading started by a call to {@link #beginLoad} has completed.
+     */
+    public synchronized void endLoad ()
+    {
+        if (--_loads == 0) {
+            _replay = null;
+        }
+    }
+
+    /**
+     * Removes all boards from the index.
+     */
+    public synchronized void clear ()
+    {
+        _boards.clear();
+        _generation++;
+    }
+
+    protected static RatingRecord copy (RatingRecord record)
+    {
+        RatingRecord copy = new RatingRecord();
+        copy.gameId = record.gameId;
+        copy.playerId = record.playerId;
+        copy.rating = record.rating;
+        copy.experience = record.experience;
+        copy.lastUpdated = record.lastUpdated;
+        return copy;
+    }
+
+    /** A rating on a board. */
+    protected static class Entry
+    {
+        public final int playerId, rating, experience;
+        public final long lastUpdated;
+
+        public Entry (RatingRecord record)
+        {
+            playerId = record.playerId;
+            rating = record.rating;
+            experience = record.experience;
+            lastUpdated = (record.lastUpdated == null) ? 0L : record.lastUpdated.getTime();
+        }
+
+        public RatingRecord toRecord (int gameId)
+        {
+            RatingRecord record = new RatingRecord();
+            record.gameId = gameId;
+            record.playerId = playerId;
+            record.rating = rating;
+            record.experience = experience;
+            record.lastUpdated = new Timestamp(lastUpdated);
+            return record;
+        }
+    }
+
+    /** The maximum number of ratings on each board. */
+    protected int _depth;
+
+    /** Our boards, keyed on game id. */
+    protected Map<Integer, Board> _boards = Maps.newHashMap();
+
+    /** Writes made while boards are being loaded, or null if no boards are being loaded. */
+    protected List<RatingRecord> _replay;
+
+    /** The number of loads in progress. */
+    protected int _loads;
+
+    /** Incremented whenever ratings are purged, to invalidate boards being loaded. */
+    protected int _generation;
+
+    /** Orders entries highest rating first, then most recently updated, then by player id. */
+    protected static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        public int compare (Entry e1, Entry e2) {
+            if (e1.rating != e2.rating) {
+                return (e1.rating > e2.rating) ? -1 : 1;
+            } else if (e1.lastUpdated != e2.lastUpdated) {
+                return (e1.lastUpdated > e2.lastUpdated) ? -1 : 1;
+            } else {
+                return (e1.playerId < e2.playerId) ? -1 : (e1.playerId == e2.playerId ? 0 : 1);
+            }
+        }
+    };
+}
@@ -0,0 +1,412 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the percentile distribution of values using logarithmically sized buckets, such that
+ * every value is resolved to within about 3% of its magnitude regardless of the range of values
+ * recorded. Unlike {@link Percentiler}, values may be recorded from many threads at once without
+ * locking, distributions recorded on different servers can be merged, and percentile queries are
+ * answered directly from the histogram, so no periodic recomputation is needed.
+ *
+ * <p> A log percentiler can be created from the serialized form of a {@link Percentiler}, in
+ * which case each of the old percentiler's buckets is recorded at its nominal value.
+ */
+public class LogPercentiler
+{
+    /**
+     * Creates an empty percentiler.
+     */
+    public LogPercentiler ()
+    {
+    }
+
+    /**
+     * Creates a percentiler from data created by {@link #toBytes} or by {@link
+     * Percentiler#toBytes}.
+     */
+    public LogPercentiler (byte[] data)
+    {
+        if (data.length >= 4 && readInt(data) == MAGIC) {
+            try {
+                readFrom(new DataInputStream(new ByteArrayInputStream(data, 4, data.length-4)));
+            } catch (IOException ioe) {
+                throw new IllegalArgumentException("Invalid percentiler data", ioe);
+            }
+            return;
+        }
+
+        // otherwise this is the serialized form of an old linear percentiler
+        Percentiler old = new Percentiler(data);
+        int[] counts = old.getCounts();
+        float delta = (old.getMaxScore() - old.getMinScore()) / (float)counts.length;
+        for (int ii = 0; ii < counts.length; ii++) {
+            if (counts[ii] > 0) {
+                recordValues(old.getMinScore() + ii * delta, counts[ii]);
+            }
+        }
+    }
+
+    /**
+     * Records a value. This may be called from any thread.
+     */
+    public void recordValue (float value)
+    {
+        recordValues(value, 1);
+    }
+
+    /**
+     * Adds all of the values recorded by the supplied percentiler to this one. Values may be
+     * recorded into either percentiler while they are being merged, but those values may or may
+     * not be included in the merge.
+     */
+    public void merge (LogPercentiler other)
+    {
+        if (other._total.get() == 0) {
+            return;
+        }
+        for (int ii = 0; ii < BUCKET_COUNT; ii++) {
+            long count = other._counts.get(ii);
+            if (count > 0) {
+                addToBucket(ii, count);
+            }
+        }
+        _total.addAndGet(other._total.get());
+        noteExtreme(other.getMinScore(), other.getMaxScore());
+    }
+
+    /**
+     * Returns the total number of values ever recorded to this percentiler.
+     */
+    public long getRecordedCount ()
+    {
+        return _total.get();
+    }
+
+    /**
+     * Returns the smallest value recorded, or zero if no values have been recorded.
+     */
+    public float getMinScore ()
+    {
+        return (_total.get() == 0) ? 0 : Float.intBitsToFloat(_min.get());
+    }
+
+    /**
+     * Returns the largest value recorded, or zero if no values have been recorded.
+     */
+    public float getMaxScore ()
+    {
+        return (_total.get() == 0) ? 0 : Float.intBitsToFloat(_max.get());
+    }
+
+    /**
+     * Returns the percent of all values recorded that are lower than the specified value, from
+     * zero to 100 inclusive.
+     */
+    public int getPercentile (float value)
+    {
+        long total = _total.get();
+        if (total == 0 || value < getMinScore()) {
+            return 0;
+        } else if (value >= getMaxScore()) {
+            return 100;
+        }
+
+        // sum the counts of all of the buckets below the value's bucket
+        int bucket = toBucketIndex(value), group = bucket >>> SUB_BITS;
+        long below = 0;
+        for (int gg = 0; gg < group; gg++) {
+            below += _groups.get(gg);
+        }
+        for (int ii = group << SUB_BITS; ii < bucket; ii++) {
+            below += _counts.get(ii);
+        }
+        return (int)Math.min(100, below * 100 / total);
+    }
+
+    /**
+     * Returns the score necessary to attain the specified percentile, which is to say the
+     * smallest value that is higher than the specified percent of the values recorded.
+     *
+     * @param percentile the desired percentile (from 0 to 99 inclusive).
+     */
+    public float getRequiredScore (int percentile)
+    {
+        percentile = Math.max(0, Math.min(99, percentile)); // bound this!
+        long total = _total.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        int found = findBucket(percentile * (double)total / 100);
+        float score = (found < 0) ? getMaxScore() : toBucketValue(found);
+        return Math.max(getMinScore(), Math.min(getMaxScore(), score));
+    }
+
+    /**
+     * Returns the scores required to obtain a percentile rating from 0 to 99.
+     */
+    public float[] getRequiredScores ()
+    {
+        float[] scores = new float[100];
+        for (int ii = 0; ii < 100; ii++) {
+            scores[ii] = getRequiredScore(ii);
+        }
+        return scores;
+    }
+
+    /**
+     * Converts this percentiler to a compact byte array so that it may be stored into a database
+     * or sent to another server to be merged. Only non-empty buckets are written.
+     */
+    public byte[] toBytes ()
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bout);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeFloat(getMinScore());
+            out.writeFloat(getMaxScore());
+            for (int ii = 0, last = 0; ii < BUCKET_COUNT; ii++) {
+                long count = _counts.get(ii);
+                if (count > 0) {
+                    writeVarLong(out, ii - last + 1);
+                    writeVarLong(out, count);
+                    last = ii;
+                }
+            }
+            writeVarLong(out, 0);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe); // not possible with a byte array stream
+        }
+        return bout.toByteArray();
+    }
+
+    @Override
+    public String toString ()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append("[total=").append(_total.get());
+        buf.append(", min=").append(getMinScore());
+        buf.append(", max=").append(getMaxScore());
+        buf.append(", pcts=(");
+        for (int ii = 0; ii < 10; ii++) {
+            if (ii > 0) {
+                buf.append("-");
+            }
+            buf.append(getRequiredScore(10*ii));
+        }
+        return buf.append(")]").toString();
+    }
+
+    /**
+     * Records <code>count</code> instances of the specified value.
+     */
+    protected void recordValues (float value, long count)
+    {
+        if (Float.isNaN(value)) {
+            throw new IllegalArgumentException("Cannot record NaN");
+        }
+        addToBucket(toBucketIndex(value), count);
+        _total.addAndGet(count);
+        noteExtreme(value, value);
+    }
+
+    /**
+     * Adds the specified count to a bucket and its group.
+     */
+    protected void addToBucket (int bucket, long count)
+    {
+        _counts.addAndGet(bucket, count);
+        _groups.addAndGet(bucket >>> SUB_BITS, count);
+    }
+
+    /**
+     * Returns the first non-empty bucket that has at least the specified number of values
+     * recorded in the buckets below it, or -1 if no such bucket exists.
+     */
+    protected int findBucket (double below)
+    {
+        long seen = 0;
+        for (int gg = 0; gg < GROUP_COUNT; gg++) {
+            if (_groups.get(gg) == 0) {
+                continue;
+            }
+            for (int ii = gg << SUB_BITS, ll = ii + (1 << SUB_BITS); ii < ll; ii++) {
+                long count = _counts.get(ii);
+                if (count == 0) {
+                    continue;
+                } else if (seen >= below) {
+                    return ii;
+                }
+                seen += count;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Updates our minimum and maximum values to account for the supplied values.
+     */
+    protected void noteExtreme (float min, float max)
+    {
+        for (int obits = _min.get(); min < Float.intBitsToFloat(obits); obits = _min.get()) {
+            if (_min.compareAndSet(obits, Float.floatToIntBits(min))) {
+                break;
+            }
+        }
+        for (int obits = _max.get(); max > Float.intBitsToFloat(obits); obits = _max.get()) {
+            if (_max.compareAndSet(obits, Float.floatToIntBits(max))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads the body of our serialized form (everything after the magic number).
+     */
+    protected void readFrom (DataInputStream in)
+        throws IOException
+    {
+        int version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown percentiler format " + version);
+        }
+        float min = in.readFloat(), max = in.readFloat();
+        long total = 0;
+        for (int bucket = 0, delta; (delta = (int)readVarLong(in)) != 0; ) {
+            bucket += delta - 1;
+            if (bucket >= BUCKET_COUNT) {
+                throw new IOException("Invalid bucket " + bucket);
+            }
+            long count = readVarLong(in);
+            addToBucket(bucket, count);
+            total += count;
+        }
+        _total.set(total);
+        if (total > 0) {
+            noteExtreme(min, max);
+        }
+    }
+
+    /**
+     * Returns the bucket into which the specified value falls. Buckets are ordered by value:
+     * positive values map to the upper half of the buckets and negative values to the lower.
+     */
+    protected static int toBucketIndex (float value)
+    {
+        // the bits of a non-negative float increase monotonically with its value and its top
+        // bits comprise its exponent and the most significant bits of its mantissa
+        if (value >= 0) {
+            return HALF_COUNT + (Float.floatToIntBits(value + 0f) >>> SHIFT);
+        } else {
+            return HALF_COUNT - 1 - (Float.floatToIntBits(-value) >>> SHIFT);
+        }
+    }
+
+    /**
+     * Returns the smallest value that falls into the specified bucket.
+     */
+    protected static float toBucketValue (int bucket)
+    {
+        if (bucket >= HALF_COUNT) {
+            return Float.intBitsToFloat((bucket - HALF_COUNT) << SHIFT);
+        } else {
+            return -Float.intBitsToFloat((HALF_COUNT - bucket) << SHIFT);
+        }
+    }
+
+    protected static int readInt (byte[] data)
+    {
+        return ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) |
+            ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    }
+
+    protected static void writeVarLong (DataOutputStream out, long value)
+        throws IOException
+    {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    protected static long readVarLong (DataInputStream in)
+        throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** The count of values recorded in each bucket. */
+    protected AtomicLongArray _counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /** The count of values recorded in each group of buckets, used to speed up queries. */
+    protected AtomicLongArray _groups = new AtomicLongArray(GROUP_COUNT);
+
+    /** The total number of values recorded. */
+    protected AtomicLong _total = new AtomicLong();
+
+    /** The bits of the smallest and largest values recorded. */
+    protected AtomicInteger _min = new AtomicInteger(Float.floatToIntBits(Float.POSITIVE_INFINITY));
+    protected AtomicInteger _max = new AtomicInteger(Float.floatToIntBits(Float.NEGATIVE_INFINITY));
+
+    /** The number of mantissa bits that distinguish buckets within a power of two. */
+    protected static final int SUB_BITS = 5;
+
+    /** The number of low-order float bits ignored when assigning a value to a bucket. */
+    protected static final int SHIFT = 23 - SUB_BITS;
+
+    /** The number of buckets for values of each sign (the exponent bits plus our sub-bits). */
+    protected static final int HALF_COUNT = 1 << (8 + SUB_BITS);
+
+    /** The total number of buckets. */
+    protected static final int BUCKET_COUNT = 2 * HALF_COUNT;
+
+    /** The number of bucket groups, each of which covers one power of two. */
+    protected static final int GROUP_COUNT = BUCKET_COUNT >>> SUB_BITS;
+
+    /** Identifies our serialized form (as distinct from that of a {@link Percentiler}). */
+    protected static final int MAGIC = 0x4C504354;
+
+    /** The version of our serialized form. */
+    protected static final int FORMAT_VERSION = 1;
+}
@@ -113,57 +113,7 @@ public class Percentiler
 
         // if this value is outside our bounds, we need to redistribute our buckets
         if (value < _min || value > _max) {
-            if (_fixedRange) {
-                log.warning("Recording value outside of initially fixed range",
-                    "min", _min, "max", _max, "value", value);
-                _fixedRange = false;
-            }
-
-            // expand by 20% in the direction of either our new minimum or new maximum
-            int newmin = (value < _min) ? (_max - (int)Math.ceil((_max - value) * 1.2f)) : _min;
-            int newmax = (value > _max) ? (_min + (int)Math.ceil((value - _min) * 1.2f)) : _max;
-
-            if (newmin > _min || newmax < _max) {
-                log.warning("Grew our range in crazy ways?!", "value", value, "total", _total,
-                            "new", ("" + newmin + ":" + newmax), "old", ("" + _min + ":" + _max));
-            }
-
-            if (logNewMax) {
-                log.info("Resizing", "value", value, "total", _total,
-                         "new", ("" + newmin + ":" + newmax), "old", ("" + _min + ":" + _max));
-            }
-
-            // create a new counts array and map the old array to the new
-            float ndelta = (newmax - newmin) / (float)BUCKET_COUNT;
-            float odelta = (_max - _min) / (float)BUCKET_COUNT;
-            int[] counts = new int[BUCKET_COUNT];
-
-            for (int ii = 0; ii < BUCKET_COUNT; ii++) {
-                // determine the first new bucket that contains some or all of the old bucket
-                float obot = _min + odelta * ii;
-                int newidx = Math.min(BUCKET_COUNT-1, (int)Math.floor((obot - newmin) / ndelta));
-
-                // compute how much of this bucket (if any) spills over into the next bucket
-                float newoff = (float)Math.IEEEremainder(obot - newmin, ndelta);
-                float nextfrac = (newoff + odelta) - ndelta;
-
-                // now put this bucket's contents into either one or two new buckets
-                if (nextfrac <= 0 || newidx == BUCKET_COUNT-1) {
-                    counts[newidx] += _counts[ii];
-                } else {
-                    int next = Math.round(_counts[ii] * nextfrac / odelta);
-                    counts[newidx] += (_counts[ii] - next);
-                    counts[newidx+1] += next;
-                }
-            }
-
-            // put the remapped histogram into place
-            _min = newmin;
-            _max = newmax;
-            _counts = counts;
-
-            // force a recalculation
-            _nextRecomp = 0;
+            expandRange(value, logNewMax);
         }
 
         // increment the bucket associated with this value
@@ -178,6 +128,40 @@ public class Percentiler
         }
     }
 
+    /**
+     * Adds all of the values recorded by the supplied percentiler to this one, expanding our range
+     * if necessary. If both percentilers cover the same range, the result is identical to having
+     * recorded every value to this percentiler; otherwise the supplied percentiler's buckets are
+     * mapped into ours with the same precision as a range expansion.
+     */
+    public void merge (Percentiler other)
+    {
+        if (other._total == 0) {
+            return;
+        }
+
+        if (_total == 0 && !_fixedRange) {
+            _min = other._min;
+            _max = other._max;
+        } else {
+            if (other._min < _min) {
+                expandRange(other._min, false);
+            }
+            if (other._max > _max) {
+                expandRange(other._max, false);
+            }
+        }
+
+        float odelta = (other._max - other._min) / (float)BUCKET_COUNT;
+        for (int ii = 0; ii < BUCKET_COUNT; ii++) {
+            if (other._counts[ii] > 0) {
+                _counts[toBucketIndex(other._min + odelta * ii)] += other._counts[ii];
+            }
+        }
+        _total += other._total;
+        _nextRecomp = 0;
+    }
+
     /**
      * Returns the total number of values ever recorded to this percentiler.
      */
@@ -404,6 +388,64 @@ public class Percentiler
         return buf.toString();
     }
 
+    /**
+     * Expands our range to include the supplied value and redistributes our buckets accordingly.
+     */
+    protected void expandRange (float value, boolean logNewMax)
+    {
+        if (_fixedRange) {
+            log.warning("Recording value outside of initially fixed range",
+                "min", _min, "max", _max, "value", value);
+            _fixedRange = false;
+        }
+
+        // expand by 20% in the direction of either our new minimum or new maximum
+        int newmin = (value < _min) ? (_max - (int)Math.ceil((_max - value) * 1.2f)) : _min;
+        int newmax = (value > _max) ? (_min + (int)Math.ceil((value - _min) * 1.2f)) : _max;
+
+        if (newmin > _min || newmax < _max) {
+            log.warning("Grew our range in crazy ways?!", "value", value, "total", _total,
+                        "new", ("" + newmin + ":" + newmax), "old", ("" + _min + ":" + _max));
+        }
+
+        if (logNewMax) {
+            log.info("Resizing", "value", value, "total", _total,
+                     "new", ("" + newmin + ":" + newmax), "old", ("" + _min + ":" + _max));
+        }
+
+        // create a new counts array and map the old array to the new
+        float ndelta = (newmax - newmin) / (float)BUCKET_COUNT;
+        float odelta = (_max - _min) / (float)BUCKET_COUNT;
+        int[] counts = new int[BUCKET_COUNT];
+
+        for (int ii = 0; ii < BUCKET_COUNT; ii++) {
+            // determine the first new bucket that contains some or all of the old bucket
+            float obot = _min + odelta * ii;
+            int newidx = Math.min(BUCKET_COUNT-1, (int)Math.floor((obot - newmin) / ndelta));
+
+            // compute how much of this bucket (if any) spills over into the next bucket
+            float newoff = (float)Math.IEEEremainder(obot - newmin, ndelta);
+            float nextfrac = (newoff + odelta) - ndelta;
+
+            // now put this bucket's contents into either one or two new buckets
+            if (nextfrac <= 0 || newidx == BUCKET_COUNT-1) {
+                counts[newidx] += _counts[ii];
+            } else {
+                int next = Math.round(_counts[ii] * nextfrac / odelta);
+                counts[newidx] += (_counts[ii] - next);
+                counts[newidx+1] += next;
+            }
+        }
+
+        // put the remapped histogram into place
+        _min = newmin;
+        _max = newmax;
+        _counts = counts;
+
+        // force a recalculation
+        _nextRecomp = 0;
+    }
+
     /**
      * Returns the histogram bucket to which this value is assigned.
      */
@@ -58,6 +58,7 @@ import com.threerings.parlor.data.TableMarshaller;
 import com.threerings.parlor.game.data.GameConfig;
 import com.threerings.parlor.game.data.GameObject;
 import com.threerings.parlor.game.server.GameManager;
+import com.threerings.parlor.rating.server.RatingCache;
 
 import static com.threerings.parlor.Log.log;
 
@@ -143,6 +144,16 @@ public class TableManager
         _allowBooting = allowBooting;
     }
 
+    /**
+     * Configures a rating cache into which the ratings of players will be prefetched when they
+     * create or join a table for a rated game, so that the game need not wait for them to be
+     * loaded when it starts. Prefetching only takes place while the cache is enabled.
+     */
+    public void setRatingCache (RatingCache ratingCache)
+    {
+        _ratingCache = ratingCache;
+    }
+
     /**
      * Creates a table for the specified creator and returns said table.
      *
@@ -179,6 +190,7 @@ public class TableManager
 
             // make a mapping from the creator to this table
             notePlayerAdded(table, creator);
+            prefetchRating(table, creator);
         }
 
         // stick the table into our tables tables
@@ -239,6 +251,7 @@ public class TableManager
         if (error != null) {
             throw new InvocationException(error);
         }
+        prefetchRating(table, joiner);
 
         // if the table is sufficiently full, start the game automatically
         if (table.shouldBeStarted()) {
@@ -403,6 +416,17 @@ public class TableManager
         body.addListener(_userListener);
     }
 
+    /**
+     * Starts loading the rating of a player who has joined a table, if the table's game is rated
+     * and we have been configured with a rating cache.
+     */
+    protected void prefetchRating (Table table, BodyObject body)
+    {
+        if (_ratingCache != null && table.config != null && table.config.rated) {
+            _ratingCache.prefetchRating(table.config, body);
+        }
+    }
+
     /**
      * Called when a player leaves the room and we're not sure if the user is still online.
      */
@@ -701,6 +725,9 @@ public class TableManager
     /** Whether or not tables should support booting. */
     protected boolean _allowBooting = false;
 
+    /** The cache into which we prefetch players' ratings, if any. */
+    protected RatingCache _ratingCache;
+
     protected RootDObjectManager _omgr;
     protected InvocationManager _invmgr;
     protected PlaceRegistry _plreg;
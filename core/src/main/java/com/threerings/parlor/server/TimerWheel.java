@@ -0,0 +1,357 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Interval;
+
+import com.threerings.presents.dobj.RootDObjectManager;
+
+import static com.threerings.parlor.Log.log;
+
+/**
+ * A hashed timing wheel shared by all of the games on a server, so that tens of thousands of
+ * game, AI and turn timers cost a single scheduled interval rather than one apiece. While any
+ * timer is scheduled, the wheel is advanced every {@link #TICK_MILLIS} milliseconds on the
+ * dobjmgr thread and all timers due in that tick are expired together. Timers therefore fire up to one tick late, which is of no
+ * consequence for game timers measured in seconds.
+ *
+ * <p> Repeating timers have their first expiry delayed by a random fraction of their period (see
+ * {@link #setJitter}) so that the ticks of games started together do not all fire together.
+ *
+ * <p><em>Note:</em> All access to the wheel and its timers should take place from the dobjmgr
+ * thread.
+ */
+@Singleton
+public class TimerWheel
+{
+    /**
+     * A timer scheduled on a {@link TimerWheel}, used like a {@link Interval}.
+     */
+    public abstract static class Timer
+    {
+        public Timer (TimerWheel wheel)
+        {
+            _wheel = wheel;
+        }
+
+        /**
+         * Called on the dobjmgr thread when the timer expires.
+         */
+        public abstract void expired ();
+
+        /**
+         * Schedules this timer to expire once after the specified delay, canceling any prior
+         * schedule.
+         */
+        public void schedule (long delay)
+        {
+            schedule(delay, false);
+        }
+
+        /**
+         * Schedules this timer to expire after the specified delay and, if <code>repeat</code> is
+         * true, every <code>delay</code> milliseconds thereafter, canceling any prior schedule.
+         */
+        public void schedule (long delay, boolean repeat)
+        {
+            _wheel.schedule(this, delay, repeat ? delay : 0L);
+        }
+
+        /**
+         * Schedules this timer to expire after <code>initialDelay</code> milliseconds and every
+         * <code>repeatDelay</code> milliseconds thereafter, canceling any prior schedule.
+         */
+        public void schedule (long initialDelay, long repeatDelay)
+        {
+            _wheel.schedule(this, initialDelay, repeatDelay);
+        }
+
+        /**
+         * Cancels this timer, if it is scheduled.
+         */
+        public void cancel ()
+        {
+            _wheel.unlink(this);
+        }
+
+        /**
+         * Returns true if this timer is scheduled to expire.
+         */
+        public boolean isScheduled ()
+        {
+            return _slot >= 0;
+        }
+
+        protected TimerWheel _wheel;
+        protected Timer _prev, _next;
+        protected int _slot = -1;
+        protected long _dueTick, _dueStamp, _periodTicks;
+    }
+
+    @Inject public TimerWheel (RootDObjectManager omgr)
+    {
+        _omgr = omgr;
+    }
+
+    /**
+     * Configures the maximum fraction of its period by which the first expiry of a repeating
+     * timer is randomly delayed. The default is 0.2.
+     */
+    public void setJitter (float jitter)
+    {
+        _jitter = jitter;
+    }
+
+    /**
+     * Returns the number of timers currently scheduled.
+     */
+    public int getScheduledCount ()
+    {
+        return _scheduled;
+    }
+
+    /**
+     * Returns the number of timer expirations since the statistics were last reset.
+     */
+    public long getExpiredCount ()
+    {
+        return _expired;
+    }
+
+    /**
+     * Returns the average number of milliseconds by which timers expired after they were due,
+     * since the statistics were last reset.
+     */
+    public long getAverageLag ()
+    {
+        return (_expired == 0) ? 0 : _totalLag / _expired;
+    }
+
+    /**
+     * Returns the greatest number of milliseconds by which a timer expired after it was due,
+     * since the statistics were last reset.
+     */
+    public long getMaxLag ()
+    {
+        return _maxLag;
+    }
+
+    /**
+     * Resets the timer lag statistics.
+     */
+    public void resetStats ()
+    {
+        _expired = 0;
+        _totalLag = 0;
+        _maxLag = 0;
+    }
+
+    /**
+     * Expires all timers due as of the supplied time. Called periodically by our driver interval.
+     */
+    protected void advance (long now)
+    {
+        long nowTick = toTick(now);
+        while (_processedTick < nowTick) {
+            long tick = ++_processedTick;
+            int slot = (int)(tick & SLOT_MASK);
+            for (Timer timer = _slots[slot]; timer != null; timer = timer._next) {
+                if (timer._dueTick <= tick) {
+                    _due.add(timer);
+                }
+            }
+            // expiring one timer may cancel or reschedule another, so we check each again
+            for (int ii = 0, ll = _due.size(); ii < ll; ii++) {
+                Timer timer = _due.get(ii);
+                if (timer._slot == slot && timer._dueTick <= tick) {
+                    expire(timer, tick, now);
+                }
+            }
+            _due.clear();
+        }
+
+        // there's no need to keep ticking if there's nothing to expire
+        if (_scheduled == 0) {
+            stopDriver();
+        }
+    }
+
+    protected void expire (Timer timer, long tick, long now)
+    {
+        long lag = Math.max(now - timer._dueStamp, 0L);
+        _expired++;
+        _totalLag += lag;
+        _maxLag = Math.max(_maxLag, lag);
+
+        unlink(timer);
+        if (timer._periodTicks > 0) {
+            // keep to the timer's original phase unless we've fallen a whole period behind
+            long dueTick = Math.max(tick + timer._periodTicks, toTick(now) + 1);
+            link(timer, dueTick, timer._periodTicks);
+        }
+
+        try {
+            timer.expired();
+        } catch (Throwable t) {
+            log.warning("Timer choked during expiration", "timer", timer, t);
+        }
+    }
+
+    protected void schedule (Timer timer, long delay, long period)
+    {
+        unlink(timer);
+        if (_driver == null) {
+            startDriver();
+        }
+
+        long dueTick = toTick(now()) + toTicks(delay);
+        long periodTicks = (period > 0) ? toTicks(period) : 0L;
+        if (periodTicks > 0 && _jitter > 0) {
+            dueTick += (long)(_rando.nextFloat() * _jitter * periodTicks);
+        }
+        link(timer, dueTick, periodTicks);
+    }
+
+    protected void link (Timer timer, long dueTick, long periodTicks)
+    {
+        // never schedule into a tick we've already processed
+        dueTick = Math.max(dueTick, _processedTick + 1);
+        timer._dueTick = dueTick;
+        timer._dueStamp = _start + dueTick * TICK_MILLIS;
+        timer._periodTicks = periodTicks;
+        timer._slot = (int)(dueTick & SLOT_MASK);
+        timer._prev = null;
+        timer._next = _slots[timer._slot];
+        if (timer._next != null) {
+            timer._next._prev = timer;
+        }
+        _slots[timer._slot] = timer;
+        _scheduled++;
+    }
+
+    protected void unlink (Timer timer)
+    {
+        if (timer._slot < 0) {
+            return;
+        }
+        if (timer._prev == null) {
+            _slots[timer._slot] = timer._next;
+        } else {
+            timer._prev._next = timer._next;
+        }
+        if (timer._next != null) {
+            timer._next._prev = timer._prev;
+        }
+        timer._prev = timer._next = null;
+        timer._slot = -1;
+        _scheduled--;
+    }
+
+    /**
+     * Starts the interval that advances the wheel. Called when a timer is scheduled and the
+     * interval is not running.
+     */
+    protected void startDriver ()
+    {
+        _processedTick = toTick(now());
+        _driver = new Interval(_omgr) {
+            @Override public void expired () {
+                advance(now());
+            }
+        };
+        _driver.schedule(TICK_MILLIS, true);
+    }
+
+    /**
+     * Stops the interval that advances the wheel. Called when no timers remain scheduled.
+     */
+    protected void stopDriver ()
+    {
+        if (_driver != null) {
+            _driver.cancel();
+            _driver = null;
+        }
+    }
+
+    protected long toTick (long stamp)
+    {
+        return (stamp - _start) / TICK_MILLIS;
+    }
+
+    /**
+     * Converts a delay to a whole number of ticks, rounding up but never to less than one.
+     */
+    protected static long toTicks (long delay)
+    {
+        return Math.max((delay + TICK_MILLIS - 1) / TICK_MILLIS, 1L);
+    }
+
+    protected long now ()
+    {
+        return System.currentTimeMillis();
+    }
+
+    protected RootDObjectManager _omgr;
+
+    /** The interval that advances the wheel, while any timer is scheduled. */
+    protected Interval _driver;
+
+    /** The head of the list of timers in each slot of the wheel. */
+    protected Timer[] _slots = new Timer[SLOT_COUNT];
+
+    /** The timers due in the tick being processed. */
+    protected List<Timer> _due = new ArrayList<Timer>();
+
+    /** The time from which our ticks are counted. */
+    protected long _start = now();
+
+    /** The last tick whose timers were expired. */
+    protected long _processedTick;
+
+    /** The maximum fraction of its period by which a repeating timer is first delayed. */
+    protected float _jitter = 0.2f;
+
+    /** Chooses our jitter. */
+    protected Random _rando = new Random();
+
+    /** The number of scheduled timers. */
+    protected int _scheduled;
+
+    /** Timer lag statistics. */
+    protected long _expired, _totalLag, _maxLag;
+
+    /** The resolution of the wheel in milliseconds. */
+    protected static final long TICK_MILLIS = 50L;
+
+    /** The number of slots in the wheel; timers due further out go round more than once. */
+    protected static final int SLOT_COUNT = 512;
+
+    /** Used to map ticks to slots. */
+    protected static final int SLOT_MASK = SLOT_COUNT - 1;
+}
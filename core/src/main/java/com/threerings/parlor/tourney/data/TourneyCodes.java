@@ -51,4 +51,7 @@ public interface TourneyCodes extends InvocationCodes
 
     /** The tournament was canceled. */
     public static final String CANCELLED = "m.cancelled";
+
+    /** The tournament was canceled for want of participants. */
+    public static final String NOT_ENOUGH_PLAYERS = "m.not_enough_players";
 }
@@ -0,0 +1,186 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Pairs a double elimination tourney, in which entrants are eliminated upon their second loss.
+ * The winners bracket is seeded like a {@link SingleEliminationEngine} bracket and entrants who
+ * lose in it drop into the losers bracket. Both brackets play a round at the same time, which
+ * keeps every entrant busy and lets each round be spawned as one batch, and the last entrants
+ * standing in each bracket then meet in a grand final. If the winners bracket entrant loses the
+ * grand final, it is replayed.
+ */
+public class DoubleEliminationEngine extends PairingEngine
+{
+    @Override
+    public boolean isFinished ()
+    {
+        return isRoundComplete() && _remaining <= 1;
+    }
+
+    @Override
+    public List<Entrant> getStandings ()
+    {
+        return getEliminationStandings();
+    }
+
+    @Override
+    protected void didInit ()
+    {
+        int count = _entrants.size();
+        int[] order = getBracketOrder(toPowerOfTwo(count));
+        for (int seed : order) {
+            _winners.add((seed <= count) ? _entrants.get(seed-1) : null);
+        }
+        _remaining = count;
+    }
+
+    @Override
+    protected List<Match> pairRound (int round)
+    {
+        if (round > 1) {
+            advance();
+        }
+
+        List<Match> matches = Lists.newArrayList();
+        _wmatches.clear();
+        _lmatches.clear();
+        _wwait = _lwait = null;
+
+        // if one entrant remains in each bracket, it's time for the grand final
+        if (_winners.size() == 1 && _losers.size() == 1) {
+            matches.add(new Match(round, _winners.get(0), _losers.get(0)));
+            _lmatches.addAll(matches);
+            return matches;
+        }
+
+        // pair the winners bracket, unless its champion is waiting for the losers bracket
+        if (_winners.size() == 1) {
+            _wwait = _winners.get(0);
+        } else {
+            for (int ii = 0, ll = _winners.size(); ii < ll; ii += 2) {
+                Entrant e1 = _winners.get(ii), e2 = _winners.get(ii+1);
+                _wmatches.add((e1 == null) ? new Match(round, e2, null) : new Match(round, e1, e2));
+            }
+        }
+
+        // pair the losers bracket in order, giving any bye to the entrant who has waited longest
+        // without one and avoiding immediate rematches where we can
+        List<Entrant> losers = Lists.newArrayList(_losers);
+        if (losers.size() == 1) {
+            _lwait = losers.get(0);
+        } else if (losers.size() > 1) {
+            if (losers.size() % 2 == 1) {
+                int bidx = 0;
+                for (int ii = 0, ll = losers.size(); ii < ll; ii++) {
+                    if (!losers.get(ii).hadBye) {
+                        bidx = ii;
+                        break;
+                    }
+                }
+                _lmatches.add(new Match(round, losers.remove(bidx), null));
+            }
+            for (int ii = 0, ll = losers.size(); ii < ll; ii += 2) {
+                Entrant e1 = losers.get(ii), e2 = losers.get(ii+1);
+                if (e1.opponents.contains(e2.id) && ii + 2 < ll) {
+                    losers.set(ii+1, losers.get(ii+2));
+                    losers.set(ii+2, e2);
+                    e2 = losers.get(ii+1);
+                }
+                _lmatches.add(new Match(round, e1, e2));
+            }
+        }
+
+        matches.addAll(_wmatches);
+        matches.addAll(_lmatches);
+        return matches;
+    }
+
+    /**
+     * Moves the entrants of the last round into their brackets for the next.
+     */
+    protected void advance ()
+    {
+        List<Entrant> winners = Lists.newArrayList(), losers = Lists.newArrayList();
+        for (Match match : _wmatches) {
+            winners.add(match.getWinner());
+        }
+        if (_wwait != null) {
+            winners.add(_wwait);
+        }
+        if (_lwait != null) {
+            losers.add(_lwait);
+        }
+        for (Match match : _lmatches) {
+            // the winners of the losers bracket stay in it, as do the grand finalists should the
+            // winners bracket champion lose
+            for (Entrant entrant : new Entrant[] { match.getWinner(), match.getLoser() }) {
+                if (entrant == null || !entrant.isActive()) {
+                    continue;
+                }
+                if (entrant.losses == 0) {
+                    winners.add(entrant);
+                } else {
+                    losers.add(entrant);
+                }
+            }
+        }
+        for (Match match : _wmatches) {
+            if (match.getLoser() != null) {
+                losers.add(match.getLoser());
+            }
+        }
+        _winners = winners;
+        _losers = losers;
+    }
+
+    @Override
+    protected void applyResult (Match match)
+    {
+        super.applyResult(match);
+        Entrant loser = match.getLoser();
+        if (loser != null && loser.losses >= 2) {
+            loser.eliminatedRound = match.round;
+            _remaining--;
+        }
+    }
+
+    /** The entrants in the winners bracket, in bracket order (null for a bye). */
+    protected List<Entrant> _winners = Lists.newArrayList();
+
+    /** The entrants in the losers bracket, in the order in which they will be paired. */
+    protected List<Entrant> _losers = Lists.newArrayList();
+
+    /** The matches of the current round in the winners and losers brackets. The grand final is
+     * included among the losers bracket matches. */
+    protected List<Match> _wmatches = Lists.newArrayList(), _lmatches = Lists.newArrayList();
+
+    /** The entrants sitting out the current round in the winners and losers brackets, if any. */
+    protected Entrant _wwait, _lwait;
+
+    /** The number of entrants not yet eliminated. */
+    protected int _remaining;
+}
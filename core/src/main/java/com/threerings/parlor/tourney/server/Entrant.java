@@ -0,0 +1,84 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import com.samskivert.util.ArrayIntSet;
+
+import com.threerings.util.Name;
+
+/**
+ * Tracks a single entrant's progress through a tourney run by a {@link PairingEngine}.
+ */
+public class Entrant
+{
+    /** The entrant's name. */
+    public final Name name;
+
+    /** The entrant's rating, used for seeding. */
+    public final int rating;
+
+    /** The entrant's id, which is their seed less one. Assigned by {@link PairingEngine#init}. */
+    public int id;
+
+    /** The entrant's score: one for a win or bye, a half for a draw. */
+    public float score;
+
+    /** The number of matches the entrant has lost. */
+    public int losses;
+
+    /** Whether the entrant has received a bye. */
+    public boolean hadBye;
+
+    /** The round in which the entrant was eliminated, or zero if they are still in contention. */
+    public int eliminatedRound;
+
+    /** The ids of the entrants this entrant has played. */
+    public ArrayIntSet opponents = new ArrayIntSet();
+
+    public Entrant (Name name, int rating)
+    {
+        this.name = name;
+        this.rating = rating;
+    }
+
+    /**
+     * Returns this entrant's seed, where the highest rated entrant is seed one.
+     */
+    public int getSeed ()
+    {
+        return id + 1;
+    }
+
+    /**
+     * Returns true if this entrant has not been eliminated.
+     */
+    public boolean isActive ()
+    {
+        return eliminatedRound == 0;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return name + " (" + getSeed() + ", " + score + ")";
+    }
+}
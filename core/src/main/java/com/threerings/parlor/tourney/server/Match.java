@@ -0,0 +1,98 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+/**
+ * A pairing of two entrants (or of one entrant with a bye) in a round of a tourney.
+ */
+public class Match
+{
+    /** Indicates that a match has not yet been decided. */
+    public static final int PENDING = 0;
+
+    /** Indicates that the home entrant won (or had a bye). */
+    public static final int HOME_WON = 1;
+
+    /** Indicates that the away entrant won. */
+    public static final int AWAY_WON = 2;
+
+    /** Indicates that the match was drawn. */
+    public static final int DRAW = 3;
+
+    /** The round in which this match is played. */
+    public final int round;
+
+    /** The home entrant, who is the better seeded of the two. */
+    public final Entrant home;
+
+    /** The away entrant, or null if the home entrant has a bye. */
+    public final Entrant away;
+
+    /** The result of this match. */
+    public int result = PENDING;
+
+    /** The number of times this match has been replayed after a draw. */
+    public int replays;
+
+    public Match (int round, Entrant home, Entrant away)
+    {
+        // the better seed is always the home entrant
+        if (away != null && away.id < home.id) {
+            Entrant tmp = home;
+            home = away;
+            away = tmp;
+        }
+        this.round = round;
+        this.home = home;
+        this.away = away;
+    }
+
+    /**
+     * Returns true if this is a bye rather than a match between two entrants.
+     */
+    public boolean isBye ()
+    {
+        return away == null;
+    }
+
+    /**
+     * Returns the winner of this match, or null if it is pending or drawn.
+     */
+    public Entrant getWinner ()
+    {
+        return (result == HOME_WON) ? home : ((result == AWAY_WON) ? away : null);
+    }
+
+    /**
+     * Returns the loser of this match, or null if it is pending, drawn or a bye.
+     */
+    public Entrant getLoser ()
+    {
+        return (result == HOME_WON) ? away : ((result == AWAY_WON) ? home : null);
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "[round=" + round + ", home=" + home + ", away=" + away + ", result=" + result + "]";
+    }
+}
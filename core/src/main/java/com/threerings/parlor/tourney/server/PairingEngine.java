@@ -0,0 +1,252 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Pairs the entrants of a tourney round by round and tracks their results. Entrants are seeded
+ * by rating, so that the best rated entrants meet as late as the format allows. Engines involve
+ * no distributed objects and do no I/O; see {@link RoundRunner} for running the resulting matches.
+ */
+public abstract class PairingEngine
+{
+    /**
+     * Seeds the supplied entrants by rating and prepares the engine for the first round.
+     */
+    public void init (List<Entrant> entrants)
+    {
+        _entrants = Lists.newArrayList(entrants);
+        Collections.sort(_entrants, BY_RATING);
+        for (int ii = 0, ll = _entrants.size(); ii < ll; ii++) {
+            _entrants.get(ii).id = ii;
+        }
+        didInit();
+    }
+
+    /**
+     * Pairs the next round. Any byes in the round are recorded immediately.
+     *
+     * @return the matches of the round, or an empty list if the tourney is finished.
+     * @exception IllegalStateException thrown if the current round is not yet complete.
+     */
+    public List<Match> nextRound ()
+    {
+        if (!isRoundComplete()) {
+            throw new IllegalStateException(
+                "Round " + _round + " has " + _outstanding + " undecided matches.");
+        }
+        if (isFinished()) {
+            return Collections.emptyList();
+        }
+
+        _current = pairRound(++_round);
+        _outstanding = _current.size();
+        for (Match match : _current) {
+            if (match.isBye()) {
+                recordResult(match, Match.HOME_WON);
+            }
+        }
+        return _current;
+    }
+
+    /**
+     * Records the result of a match in the current round.
+     *
+     * @param result {@link Match#HOME_WON}, {@link Match#AWAY_WON} or, if the format allows draws,
+     * {@link Match#DRAW}.
+     */
+    public void recordResult (Match match, int result)
+    {
+        if (match.round != _round || match.result != Match.PENDING) {
+            throw new IllegalArgumentException("Match not pending in current round " + match);
+        }
+        if (result == Match.DRAW && !allowsDraws()) {
+            throw new IllegalArgumentException("Draws not allowed " + match);
+        }
+        match.result = result;
+        _outstanding--;
+        if (!match.isBye()) {
+            match.home.opponents.add(match.away.id);
+            match.away.opponents.add(match.home.id);
+        }
+        applyResult(match);
+    }
+
+    /**
+     * Returns true if every match in the current round has a result.
+     */
+    public boolean isRoundComplete ()
+    {
+        return _outstanding == 0;
+    }
+
+    /**
+     * Returns true if matches in this format may be drawn. Draws in formats that do not allow them
+     * must be replayed or otherwise decided.
+     */
+    public boolean allowsDraws ()
+    {
+        return false;
+    }
+
+    /**
+     * Returns the current round, starting from one (or zero before the first round is paired).
+     */
+    public int getRound ()
+    {
+        return _round;
+    }
+
+    /**
+     * Returns the matches of the current round.
+     */
+    public List<Match> getCurrentRound ()
+    {
+        return _current;
+    }
+
+    /**
+     * Returns the entrants in seed order.
+     */
+    public List<Entrant> getEntrants ()
+    {
+        return _entrants;
+    }
+
+    /**
+     * Returns true once the final round is complete.
+     */
+    public abstract boolean isFinished ();
+
+    /**
+     * Returns the entrants ordered from first place to last, as of the most recent round.
+     */
+    public abstract List<Entrant> getStandings ();
+
+    /**
+     * Called once the entrants have been seeded.
+     */
+    protected void didInit ()
+    {
+    }
+
+    /**
+     * Creates the matches for the specified round.
+     */
+    protected abstract List<Match> pairRound (int round);
+
+    /**
+     * Updates the engine's state to reflect the result of the supplied match.
+     */
+    protected void applyResult (Match match)
+    {
+        Entrant winner = match.getWinner();
+        if (winner != null) {
+            winner.score += 1;
+        } else {
+            match.home.score += 0.5f;
+            match.away.score += 0.5f;
+        }
+        Entrant loser = match.getLoser();
+        if (loser != null) {
+            loser.losses++;
+        }
+        if (match.isBye()) {
+            match.home.hadBye = true;
+        }
+    }
+
+    /**
+     * Returns the entrants ordered with those still in contention first, then those eliminated
+     * latest, and then by seed.
+     */
+    protected List<Entrant> getEliminationStandings ()
+    {
+        List<Entrant> standings = Lists.newArrayList(_entrants);
+        Collections.sort(standings, new Comparator<Entrant>() {
+            public int compare (Entrant e1, Entrant e2) {
+                int r1 = e1.isActive() ? Integer.MAX_VALUE : e1.eliminatedRound;
+                int r2 = e2.isActive() ? Integer.MAX_VALUE : e2.eliminatedRound;
+                if (r1 != r2) {
+                    return (r1 > r2) ? -1 : 1;
+                }
+                return e1.id - e2.id;
+            }
+        });
+        return standings;
+    }
+
+    /**
+     * Returns the order in which seeds are placed in a bracket of the specified (power of two)
+     * size, such that adjacent pairs are first round matches and the top two seeds can only meet in
+     * the final. For example, a bracket of eight is ordered 1, 8, 4, 5, 2, 7, 3, 6.
+     */
+    protected static int[] getBracketOrder (int size)
+    {
+        int[] order = { 1 };
+        while (order.length < size) {
+            int[] norder = new int[order.length * 2];
+            int sum = norder.length + 1;
+            for (int ii = 0; ii < order.length; ii++) {
+                norder[2*ii] = order[ii];
+                norder[2*ii+1] = sum - order[ii];
+            }
+            order = norder;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the smallest power of two greater than or equal to the supplied value.
+     */
+    protected static int toPowerOfTwo (int value)
+    {
+        return (value <= 1) ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /** Our entrants, in seed order. */
+    protected List<Entrant> _entrants;
+
+    /** The matches of the current round. */
+    protected List<Match> _current = Collections.emptyList();
+
+    /** The current round. */
+    protected int _round;
+
+    /** The number of matches in the current round awaiting a result. */
+    protected int _outstanding;
+
+    /** Orders entrants from highest to lowest rated, by name among equals. */
+    protected static final Comparator<Entrant> BY_RATING = new Comparator<Entrant>() {
+        public int compare (Entrant e1, Entrant e2) {
+            if (e1.rating != e2.rating) {
+                return (e1.rating > e2.rating) ? -1 : 1;
+            }
+            return e1.name.compareTo(e2.name);
+        }
+    };
+}
@@ -0,0 +1,364 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+import com.samskivert.util.Interval;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+import com.threerings.presents.dobj.ObjectDeathListener;
+import com.threerings.presents.dobj.ObjectDestroyedEvent;
+import com.threerings.presents.dobj.RootDObjectManager;
+
+import com.threerings.crowd.server.PlaceRegistry;
+
+import com.threerings.parlor.game.data.GameConfig;
+import com.threerings.parlor.game.data.GameObject;
+import com.threerings.parlor.game.server.GameManager;
+
+import static com.threerings.parlor.Log.log;
+
+/**
+ * Runs the matches paired by a {@link PairingEngine} as games, round after round. Each round's
+ * games are created via the {@link PlaceRegistry} in batches, a batch per interval, so that a
+ * round of thousands of matches does not stall the server, and the next round is paired as soon
+ * as the last result of the current one arrives.
+ *
+ * <p> A game that ends in a draw in a format that does not allow draws is replayed, up to {@link
+ * #MAX_REPLAYS} times, after which the better seed advances. A game that cannot be created or is
+ * cancelled is likewise decided in favor of the better seed (or as a draw, if allowed).
+ *
+ * <p><em>Note:</em> All access to a runner should take place from the dobjmgr thread.
+ */
+public class RoundRunner
+{
+    /** Supplies a runner with the configuration of its games and is told of its progress. */
+    public interface Host
+    {
+        /**
+         * Creates the config for the game in which the specified match is played. The runner
+         * fills in the players. Returns null if the game cannot be created.
+         */
+        GameConfig createMatchConfig (Match match);
+
+        /**
+         * Called when a round has been paired, before its games are created.
+         */
+        void roundStarted (int round, List<Match> matches);
+
+        /**
+         * Called when the final round is complete.
+         */
+        void tourneyFinished (List<Entrant> standings);
+    }
+
+    /**
+     * Prepares this runner for operation.
+     */
+    public void init (PairingEngine engine, Host host)
+    {
+        _engine = engine;
+        _host = host;
+    }
+
+    /**
+     * Configures the number of games created per batch and the number of milliseconds between
+     * batches. The defaults are 50 games every 100 milliseconds.
+     */
+    public void setBatching (int batchSize, long batchInterval)
+    {
+        _batchSize = batchSize;
+        _batchInterval = batchInterval;
+    }
+
+    /**
+     * Returns the pairing engine being run.
+     */
+    public PairingEngine getEngine ()
+    {
+        return _engine;
+    }
+
+    /**
+     * Returns the number of milliseconds between the last result of the most recently completed
+     * round and the creation of the last game of the round that followed it.
+     */
+    public long getTurnoverTime ()
+    {
+        return _turnoverTime;
+    }
+
+    /**
+     * Starts the first round.
+     */
+    public void start ()
+    {
+        startRound(System.currentTimeMillis());
+    }
+
+    /**
+     * Resumes an engine whose rounds have been replayed up to a checkpoint: queues the undecided
+     * matches of the current round or, if it is complete, starts the next round. The host is not
+     * told again of the current round.
+     */
+    public void resume ()
+    {
+        if (_engine.isRoundComplete()) {
+            startRound(System.currentTimeMillis());
+            return;
+        }
+        for (Match match : _engine.getCurrentRound()) {
+            if (match.result == Match.PENDING) {
+                _queue.add(match);
+            }
+        }
+        startSpawner();
+        spawnBatch();
+    }
+
+    /**
+     * Stops running matches and cancels any games in progress.
+     */
+    public void cancel ()
+    {
+        _cancelled = true;
+        _queue.clear();
+        if (_spawner != null) {
+            _spawner.cancel();
+            _spawner = null;
+        }
+        for (MatchWatcher watcher : Lists.newArrayList(_watchers.values())) {
+            watcher.clear();
+            watcher.gmgr.cancelGame();
+        }
+    }
+
+    /**
+     * Pairs and queues the next round or, if the tourney is over, reports the standings.
+     */
+    protected void startRound (long roundEnded)
+    {
+        if (_cancelled) {
+            return;
+        }
+        if (_engine.isFinished()) {
+            if (_spawner != null) {
+                _spawner.cancel();
+                _spawner = null;
+            }
+            _host.tourneyFinished(_engine.getStandings());
+            return;
+        }
+
+        List<Match> matches = _engine.nextRound();
+        _roundEnded = roundEnded;
+        _host.roundStarted(_engine.getRound(), matches);
+        for (Match match : matches) {
+            if (match.result == Match.PENDING) {
+                _queue.add(match);
+            }
+        }
+
+        // a round of nothing but byes is over already
+        if (_engine.isRoundComplete()) {
+            startRound(roundEnded);
+            return;
+        }
+
+        startSpawner();
+        spawnBatch();
+    }
+
+    /**
+     * Starts the interval that creates queued games in batches, if it is not already running.
+     */
+    protected void startSpawner ()
+    {
+        if (_spawner == null) {
+            _spawner = new Interval(_omgr) {
+                @Override public void expired () {
+                    spawnBatch();
+                }
+            };
+            _spawner.schedule(_batchInterval, true);
+        }
+    }
+
+    /**
+     * Creates the games for the next batch of queued matches.
+     */
+    protected void spawnBatch ()
+    {
+        for (int ii = 0; ii < _batchSize && !_queue.isEmpty(); ii++) {
+            spawnGame(_queue.poll());
+        }
+        if (_queue.isEmpty() && _roundEnded > 0) {
+            _turnoverTime = System.currentTimeMillis() - _roundEnded;
+            _roundEnded = 0;
+        }
+    }
+
+    /**
+     * Creates the game for the specified match.
+     */
+    protected void spawnGame (Match match)
+    {
+        GameManager gmgr = null;
+        try {
+            GameConfig config = _host.createMatchConfig(match);
+            if (config != null) {
+                config.players = new Name[] { match.home.name, match.away.name };
+                gmgr = (GameManager)_plreg.createPlace(config);
+            }
+        } catch (Exception e) {
+            log.warning("Failed to create tourney game", "match", match, e);
+        }
+
+        if (gmgr == null) {
+            decide(match, _engine.allowsDraws() ? Match.DRAW : Match.HOME_WON);
+        } else {
+            MatchWatcher watcher = new MatchWatcher(match, gmgr);
+            _watchers.put(gmgr.getPlaceObject().getOid(), watcher);
+            gmgr.getPlaceObject().addListener(watcher);
+        }
+    }
+
+    /**
+     * Called when the game for the specified match has ended.
+     *
+     * @param gameobj the game's object, or null if the game was destroyed without ending.
+     */
+    protected void gameEnded (Match match, GameObject gameobj)
+    {
+        boolean over = (gameobj != null && gameobj.state == GameObject.GAME_OVER);
+        if (over && !gameobj.isDraw() && gameobj.getWinnerCount() > 0) {
+            // the runner put the home entrant in the first seat
+            decide(match, gameobj.isWinner(0) ? Match.HOME_WON : Match.AWAY_WON);
+
+        } else if (_engine.allowsDraws()) {
+            decide(match, Match.DRAW);
+
+        } else if (over && match.replays < MAX_REPLAYS) {
+            match.replays++;
+            _queue.add(match);
+
+        } else {
+            decide(match, Match.HOME_WON);
+        }
+    }
+
+    /**
+     * Records the result of the specified match and starts the next round if it was the last.
+     */
+    protected void decide (Match match, int result)
+    {
+        _engine.recordResult(match, result);
+        if (_engine.isRoundComplete()) {
+            startRound(System.currentTimeMillis());
+        }
+    }
+
+    /** Waits for a match's game to end. */
+    protected class MatchWatcher
+        implements AttributeChangeListener, ObjectDeathListener
+    {
+        public final Match match;
+        public final GameManager gmgr;
+
+        public MatchWatcher (Match match, GameManager gmgr) {
+            this.match = match;
+            this.gmgr = gmgr;
+        }
+
+        public void clear () {
+            GameObject gameobj = (GameObject)gmgr.getPlaceObject();
+            gameobj.removeListener(this);
+            _watchers.remove(gameobj.getOid());
+        }
+
+        // from interface AttributeChangeListener
+        public void attributeChanged (AttributeChangedEvent event) {
+            if (!GameObject.STATE.equals(event.getName())) {
+                return;
+            }
+            GameObject gameobj = (GameObject)gmgr.getPlaceObject();
+            if (gameobj.state == GameObject.GAME_OVER || gameobj.state == GameObject.CANCELLED) {
+                clear();
+                gameEnded(match, gameobj);
+            }
+        }
+
+        // from interface ObjectDeathListener
+        public void objectDestroyed (ObjectDestroyedEvent event) {
+            // the game went away without ending; treat it as cancelled
+            if (_watchers.remove(event.getTargetOid()) != null) {
+                gameEnded(match, null);
+            }
+        }
+    }
+
+    /** The engine pairing our matches. */
+    protected PairingEngine _engine;
+
+    /** Configures our games and hears about our progress. */
+    protected Host _host;
+
+    /** Matches awaiting the creation of their games. */
+    protected Deque<Match> _queue = new ArrayDeque<Match>();
+
+    /** Watchers for the games in progress, keyed by game object oid. */
+    protected Map<Integer, MatchWatcher> _watchers = Maps.newHashMap();
+
+    /** Creates our queued games a batch at a time. */
+    protected Interval _spawner;
+
+    /** Our batching configuration. */
+    protected int _batchSize = 50;
+    protected long _batchInterval = 100L;
+
+    /** When the previous round ended, until the current round's games have all been created. */
+    protected long _roundEnded;
+
+    /** The turnover time of the most recently started round. */
+    protected long _turnoverTime;
+
+    /** Set once we have been cancelled. */
+    protected boolean _cancelled;
+
+    // our dependencies
+    @Inject protected PlaceRegistry _plreg;
+    @Inject protected RootDObjectManager _omgr;
+
+    /** The number of times a drawn game is replayed in formats that do not allow draws. */
+    protected static final int MAX_REPLAYS = 2;
+}
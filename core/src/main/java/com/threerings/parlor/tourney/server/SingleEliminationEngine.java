@@ -0,0 +1,93 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Pairs a single elimination bracket. Entrants are placed in the bracket by seed, so that the top
+ * seeds receive any first round byes and can meet only in the later rounds.
+ */
+public class SingleEliminationEngine extends PairingEngine
+{
+    @Override
+    public boolean isFinished ()
+    {
+        return isRoundComplete() && _remaining <= 1;
+    }
+
+    @Override
+    public List<Entrant> getStandings ()
+    {
+        return getEliminationStandings();
+    }
+
+    @Override
+    protected void didInit ()
+    {
+        int count = _entrants.size();
+        int[] order = getBracketOrder(toPowerOfTwo(count));
+        _bracket = Lists.newArrayListWithCapacity(order.length);
+        for (int seed : order) {
+            _bracket.add((seed <= count) ? _entrants.get(seed-1) : null);
+        }
+        _remaining = count;
+    }
+
+    @Override
+    protected List<Match> pairRound (int round)
+    {
+        if (round > 1) {
+            // the winners of the last round advance in bracket order
+            _bracket.clear();
+            for (Match match : _current) {
+                _bracket.add(match.getWinner());
+            }
+        }
+
+        List<Match> matches = Lists.newArrayListWithCapacity(_bracket.size() / 2);
+        for (int ii = 0, ll = _bracket.size(); ii < ll; ii += 2) {
+            Entrant e1 = _bracket.get(ii), e2 = _bracket.get(ii+1);
+            matches.add((e1 == null) ? new Match(round, e2, null) : new Match(round, e1, e2));
+        }
+        return matches;
+    }
+
+    @Override
+    protected void applyResult (Match match)
+    {
+        super.applyResult(match);
+        Entrant loser = match.getLoser();
+        if (loser != null) {
+            loser.eliminatedRound = match.round;
+            _remaining--;
+        }
+    }
+
+    /** The entrants remaining in the bracket, in bracket order (null for a bye). */
+    protected List<Entrant> _bracket;
+
+    /** The number of entrants not yet eliminated. */
+    protected int _remaining;
+}
@@ -0,0 +1,173 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Pairs a Swiss system tourney, in which no one is eliminated and each round entrants are paired
+ * with others on the same score whom they have not yet played. The first round pairs the top half
+ * of the seeds against the bottom half. Any bye goes to the lowest ranked entrant who has not had
+ * one. Final standings are by score, then by the sum of the entrant's opponents' scores (the
+ * Buchholz score), then by seed.
+ */
+public class SwissEngine extends PairingEngine
+{
+    /**
+     * Creates an engine that plays enough rounds to separate a single winner, which is to say the
+     * base two logarithm of the number of entrants, rounded up.
+     */
+    public SwissEngine ()
+    {
+        this(0);
+    }
+
+    /**
+     * Creates an engine that plays the specified number of rounds.
+     */
+    public SwissEngine (int rounds)
+    {
+        _rounds = rounds;
+    }
+
+    /**
+     * Returns the number of rounds to be played.
+     */
+    public int getRoundCount ()
+    {
+        return _rounds;
+    }
+
+    @Override
+    public boolean allowsDraws ()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isFinished ()
+    {
+        return isRoundComplete() && _round >= _rounds;
+    }
+
+    @Override
+    public List<Entrant> getStandings ()
+    {
+        final float[] buchholz = new float[_entrants.size()];
+        for (Entrant entrant : _entrants) {
+            for (int oid : entrant.opponents.toIntArray()) {
+                buchholz[entrant.id] += _entrants.get(oid).score;
+            }
+        }
+        List<Entrant> standings = Lists.newArrayList(_entrants);
+        Collections.sort(standings, new Comparator<Entrant>() {
+            public int compare (Entrant e1, Entrant e2) {
+                int cmp = Float.compare(e2.score, e1.score);
+                if (cmp == 0) {
+                    cmp = Float.compare(buchholz[e2.id], buchholz[e1.id]);
+                }
+                return (cmp == 0) ? (e1.id - e2.id) : cmp;
+            }
+        });
+        return standings;
+    }
+
+    @Override
+    protected void didInit ()
+    {
+        int count = _entrants.size();
+        if (_rounds <= 0) {
+            _rounds = (count < 2) ? 0 : Integer.numberOfTrailingZeros(toPowerOfTwo(count));
+        }
+    }
+
+    @Override
+    protected List<Match> pairRound (int round)
+    {
+        List<Entrant> ranked = Lists.newArrayList(_entrants);
+        if (round > 1) {
+            Collections.sort(ranked, BY_SCORE);
+        }
+
+        List<Match> matches = Lists.newArrayListWithCapacity(ranked.size() / 2 + 1);
+        if (ranked.size() % 2 == 1) {
+            int bidx = ranked.size() - 1;
+            for (int ii = bidx; ii >= 0; ii--) {
+                if (!ranked.get(ii).hadBye) {
+                    bidx = ii;
+                    break;
+                }
+            }
+            matches.add(new Match(round, ranked.remove(bidx), null));
+        }
+
+        int count = ranked.size();
+        if (round == 1) {
+            int half = count / 2;
+            for (int ii = 0; ii < half; ii++) {
+                matches.add(new Match(round, ranked.get(ii), ranked.get(ii + half)));
+            }
+            return matches;
+        }
+
+        // pair each entrant with the best ranked unpaired entrant below them whom they have not
+        // yet played, falling back to a rematch if everyone left has been played
+        boolean[] paired = new boolean[count];
+        for (int ii = 0; ii < count; ii++) {
+            if (paired[ii]) {
+                continue;
+            }
+            Entrant entrant = ranked.get(ii);
+            int opp = -1;
+            for (int jj = ii + 1; jj < count; jj++) {
+                if (paired[jj]) {
+                    continue;
+                }
+                if (opp == -1) {
+                    opp = jj; // our fallback
+                }
+                if (!entrant.opponents.contains(ranked.get(jj).id)) {
+                    opp = jj;
+                    break;
+                }
+            }
+            paired[ii] = paired[opp] = true;
+            matches.add(new Match(round, entrant, ranked.get(opp)));
+        }
+        return matches;
+    }
+
+    /** The number of rounds to be played. */
+    protected int _rounds;
+
+    /** Orders entrants by score and then by seed. */
+    protected static final Comparator<Entrant> BY_SCORE = new Comparator<Entrant>() {
+        public int compare (Entrant e1, Entrant e2) {
+            int cmp = Float.compare(e2.score, e1.score);
+            return (cmp == 0) ? (e1.id - e2.id) : cmp;
+        }
+    };
+}
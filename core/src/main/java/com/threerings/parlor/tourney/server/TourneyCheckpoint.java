@@ -0,0 +1,214 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.util.Name;
+
+/**
+ * The state of a tourney saved so that it can be resumed should the server restart: its
+ * participants and the results of its rounds. A checkpoint taken by {@link
+ * TourneyManager#getCheckpoint} contains only the state that changed since the previous one, so
+ * the checkpoint written for a running tourney is usually just the results of its current round.
+ *
+ * <p> Results are encoded as the seed ids of each decided match's entrants and its result, which
+ * is all a deterministic {@link PairingEngine} needs to replay the tourney.
+ */
+public class TourneyCheckpoint
+{
+    /** The id of the tourney. */
+    public final int tourneyId;
+
+    /** The tourney's participants (in seed order, with their ratings, once it has started), or
+     * null if they are unchanged since the last checkpoint. */
+    public List<Entrant> entrants;
+
+    /** Whether the tourney's rounds have started. Valid only if {@link #entrants} is non-null. */
+    public boolean started;
+
+    /** The encoded results of each round that changed since the last checkpoint, by round. */
+    public SortedMap<Integer, int[]> results = Maps.newTreeMap();
+
+    public TourneyCheckpoint (int tourneyId)
+    {
+        this.tourneyId = tourneyId;
+    }
+
+    /**
+     * Returns true if this checkpoint contains no changes.
+     */
+    public boolean isEmpty ()
+    {
+        return entrants == null && results.isEmpty();
+    }
+
+    /**
+     * Folds a later checkpoint of the same tourney into this one.
+     */
+    public void merge (TourneyCheckpoint later)
+    {
+        if (later.entrants != null) {
+            entrants = later.entrants;
+            started = later.started;
+        }
+        results.putAll(later.results);
+    }
+
+    /**
+     * Encodes the decided matches among the supplied matches. Byes are omitted, as they are
+     * recorded by the engine when a round is paired.
+     */
+    public static int[] encodeResults (List<Match> matches)
+    {
+        int decided = 0;
+        for (Match match : matches) {
+            if (!match.isBye() && match.result != Match.PENDING) {
+                decided++;
+            }
+        }
+        int[] results = new int[decided * 3];
+        int idx = 0;
+        for (Match match : matches) {
+            if (!match.isBye() && match.result != Match.PENDING) {
+                results[idx++] = match.home.id;
+                results[idx++] = match.away.id;
+                results[idx++] = match.result;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Records the encoded results in the engine's current round.
+     *
+     * @exception IllegalStateException thrown if the results do not match the round's pairings.
+     */
+    public static void applyResults (PairingEngine engine, int[] results)
+    {
+        Map<Long, Match> matches = Maps.newHashMap();
+        for (Match match : engine.getCurrentRound()) {
+            if (!match.isBye()) {
+                matches.put(toKey(match.home.id, match.away.id), match);
+            }
+        }
+        for (int ii = 0; ii < results.length; ii += 3) {
+            Match match = matches.get(toKey(results[ii], results[ii+1]));
+            if (match == null) {
+                throw new IllegalStateException(
+                    "No match in round " + engine.getRound() + " for " + results[ii] + " vs " +
+                    results[ii+1]);
+            }
+            if (match.result == Match.PENDING) {
+                engine.recordResult(match, results[ii+2]);
+            }
+        }
+    }
+
+    /**
+     * Serializes the supplied entrants' names and ratings.
+     */
+    public static byte[] toBytes (List<Entrant> entrants)
+        throws IOException
+    {
+        Name[] names = new Name[entrants.size()];
+        int[] ratings = new int[names.length];
+        for (int ii = 0; ii < names.length; ii++) {
+            names[ii] = entrants.get(ii).name;
+            ratings[ii] = entrants.get(ii).rating;
+        }
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(names);
+        oout.writeObject(ratings);
+        oout.flush();
+        return bout.toByteArray();
+    }
+
+    /**
+     * Deserializes entrants serialized by {@link #toBytes(List)}.
+     */
+    public static List<Entrant> entrantsFromBytes (byte[] data)
+        throws IOException
+    {
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            Name[] names = (Name[])oin.readObject();
+            int[] ratings = (int[])oin.readObject();
+            List<Entrant> entrants = Lists.newArrayListWithCapacity(names.length);
+            for (int ii = 0; ii < names.length; ii++) {
+                entrants.add(new Entrant(names[ii], ratings[ii]));
+            }
+            return entrants;
+        } catch (ClassNotFoundException cnfe) {
+            throw new IOException("Unable to decode entrants: " + cnfe);
+        }
+    }
+
+    /**
+     * Serializes encoded round results.
+     */
+    public static byte[] toBytes (int[] results)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(4 + results.length * 4);
+        DataOutputStream dout = new DataOutputStream(bout);
+        dout.writeInt(results.length);
+        for (int value : results) {
+            dout.writeInt(value);
+        }
+        dout.flush();
+        return bout.toByteArray();
+    }
+
+    /**
+     * Deserializes round results serialized by {@link #toBytes(int[])}.
+     */
+    public static int[] resultsFromBytes (byte[] data)
+        throws IOException
+    {
+        DataInputStream din = new DataInputStream(new ByteArrayInputStream(data));
+        int[] results = new int[din.readInt()];
+        for (int ii = 0; ii < results.length; ii++) {
+            results[ii] = din.readInt();
+        }
+        return results;
+    }
+
+    protected static Long toKey (int homeId, int awayId)
+    {
+        return ((long)homeId << 32) | (awayId & 0xFFFFFFFFL);
+    }
+}
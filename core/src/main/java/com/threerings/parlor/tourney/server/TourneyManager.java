@@ -21,13 +21,22 @@
 
 package com.threerings.parlor.tourney.server;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.google.inject.Injector;
 
 import com.samskivert.util.Interval;
 import com.samskivert.util.ResultListener;
 
 import com.threerings.presents.client.InvocationService;
 import com.threerings.presents.data.ClientObject;
+import com.threerings.presents.dobj.DSet;
 import com.threerings.presents.dobj.RootDObjectManager;
 import com.threerings.presents.server.InvocationException;
 import com.threerings.presents.server.InvocationManager;
@@ -35,12 +44,15 @@ import com.threerings.presents.server.InvocationManager;
 import com.threerings.crowd.data.BodyObject;
 import com.threerings.crowd.server.BodyLocator;
 
+import com.threerings.parlor.game.data.GameConfig;
 import com.threerings.parlor.tourney.data.Participant;
 import com.threerings.parlor.tourney.data.TourneyCodes;
 import com.threerings.parlor.tourney.data.TourneyConfig;
 import com.threerings.parlor.tourney.data.TourneyMarshaller;
 import com.threerings.parlor.tourney.data.TourneyObject;
 
+import static com.threerings.parlor.Log.log;
+
 /**
  * Controls a running tourney.
  */
@@ -121,6 +133,7 @@ public abstract class TourneyManager
 
             // make the assumption that they're going to get in
             _trobj.addToParticipants(part);
+            _participantsDirty = true;
 
             ResultListener<Void> rl = new ResultListener<Void>() {
                 public void requestCompleted (Void result) {
@@ -129,6 +142,7 @@ public abstract class TourneyManager
                 public void requestFailed (Exception cause) {
                     // remove them from the tourney
                     _trobj.removeFromParticipants(part.getKey());
+                    _participantsDirty = true;
                     listener.requestFailed("FAILED_ENTRY_FEE");
                 }
             };
@@ -137,6 +151,7 @@ public abstract class TourneyManager
 
         } else {
             _trobj.addToParticipants(part);
+            _participantsDirty = true;
             listener.requestProcessed();
         }
     }
@@ -159,6 +174,7 @@ public abstract class TourneyManager
 
         // remove them IMMEDIATELY from the participation list
         _trobj.removeFromParticipants(key);
+        _participantsDirty = true;
 
         // return the entry fee
         if (_trobj.config.entryFee != null) {
@@ -168,6 +184,135 @@ public abstract class TourneyManager
         listener.requestProcessed();
     }
 
+    /**
+     * Starts playing the tourney's rounds, if this tourney supplies a {@link PairingEngine} via
+     * {@link #createPairingEngine}. A tourney with too few participants is cancelled instead.
+     * Called by {@link TourniesManager#updateTournies} once the tourney is due to start.
+     */
+    public void startRounds ()
+    {
+        if (!isPending()) {
+            return;
+        }
+        PairingEngine engine = createPairingEngine();
+        if (engine == null) {
+            return;
+        }
+        if (_trobj.participants.size() < Math.max(_config.minPlayers, 2)) {
+            cancelTourney(NOT_ENOUGH_PLAYERS);
+            return;
+        }
+
+        List<Entrant> entrants = Lists.newArrayListWithCapacity(_trobj.participants.size());
+        for (Participant part : _trobj.participants) {
+            entrants.add(new Entrant(part.username, getRating(part)));
+        }
+        engine.init(entrants);
+        _trobj.setState(TourneyObject.RUNNING);
+        _participantsDirty = true;
+
+        _rounds = createRoundRunner(engine);
+        _rounds.start();
+    }
+
+    /**
+     * Returns the state of this tourney that has changed since the last call, or null if nothing
+     * has changed. Called periodically by {@link TourniesManager} to checkpoint the tourney.
+     */
+    public TourneyCheckpoint getCheckpoint ()
+    {
+        if (isFinished()) {
+            return null;
+        }
+
+        TourneyCheckpoint ckpt = new TourneyCheckpoint(_config.tourneyId);
+        if (_participantsDirty) {
+            if (_rounds != null) {
+                ckpt.entrants = Lists.newArrayList(_rounds.getEngine().getEntrants());
+                ckpt.started = true;
+            } else {
+                ckpt.entrants = Lists.newArrayListWithCapacity(_trobj.participants.size());
+                for (Participant part : _trobj.participants) {
+                    ckpt.entrants.add(new Entrant(part.username, 0));
+                }
+            }
+            _participantsDirty = false;
+        }
+
+        // add the results of any round that has been decided further since the last checkpoint
+        // and stop tracking the rounds that are complete
+        for (Iterator<Map.Entry<Integer, List<Match>>> iter = _roundMatches.entrySet().iterator();
+             iter.hasNext(); ) {
+            Map.Entry<Integer, List<Match>> entry = iter.next();
+            int[] results = TourneyCheckpoint.encodeResults(entry.getValue());
+            Integer written = _checkpointed.get(entry.getKey());
+            if (written == null || written != results.length) {
+                ckpt.results.put(entry.getKey(), results);
+                _checkpointed.put(entry.getKey(), results.length);
+            }
+            if (isComplete(entry.getValue())) {
+                iter.remove();
+                _checkpointed.remove(entry.getKey());
+            }
+        }
+
+        return ckpt.isEmpty() ? null : ckpt;
+    }
+
+    /**
+     * Restores the participants of this tourney from a checkpoint and, if its rounds had started,
+     * replays the checkpointed results through a new {@link PairingEngine} and resumes playing
+     * the round that was in progress. A tourney whose checkpoint does not replay is cancelled.
+     * Called by {@link TourniesManager} on a freshly initialized manager.
+     */
+    public void resume (TourneyCheckpoint ckpt)
+    {
+        if (ckpt.entrants == null) {
+            return;
+        }
+
+        List<Participant> parts = Lists.newArrayListWithCapacity(ckpt.entrants.size());
+        for (Entrant entrant : ckpt.entrants) {
+            parts.add(restoreParticipant(entrant));
+        }
+        _trobj.setParticipants(DSet.newDSet(parts));
+        if (!ckpt.started) {
+            return;
+        }
+
+        PairingEngine engine = createPairingEngine();
+        if (engine == null) {
+            log.warning("Can't resume tourney without a pairing engine", "tourney", _key);
+            cancelTourney(CANCELLED);
+            return;
+        }
+
+        try {
+            engine.init(ckpt.entrants);
+            for (Map.Entry<Integer, int[]> entry : ckpt.results.entrySet()) {
+                List<Match> matches = engine.nextRound();
+                if (engine.getRound() != entry.getKey()) {
+                    throw new IllegalStateException(
+                        "Checkpoint skips from round " + (engine.getRound()-1) + " to " +
+                        entry.getKey());
+                }
+                TourneyCheckpoint.applyResults(engine, entry.getValue());
+                if (!isComplete(matches)) {
+                    _roundMatches.put(engine.getRound(), matches);
+                    _checkpointed.put(engine.getRound(), entry.getValue().length);
+                }
+            }
+        } catch (IllegalStateException ise) {
+            log.warning("Failed to replay tourney checkpoint", "tourney", _key, ise);
+            cancelTourney(CANCELLED);
+            return;
+        }
+
+        _trobj.setState(TourneyObject.RUNNING);
+        _rounds = createRoundRunner(engine);
+        _rounds.resume();
+    }
+
     /**
      * Cancel the tourney, return entry fees to all participants.
      */
@@ -180,6 +325,11 @@ public abstract class TourneyManager
 
         _trobj.setState(TourneyObject.CANCELLED);
 
+        if (_rounds != null) {
+            _rounds.cancel();
+            _rounds = null;
+        }
+
         notifyAllParticipants(cause);
 
         // return the fees
@@ -195,6 +345,22 @@ public abstract class TourneyManager
         releaseTourney();
     }
 
+    /**
+     * Returns this tourney's configuration.
+     */
+    public TourneyConfig getConfig ()
+    {
+        return _config;
+    }
+
+    /**
+     * Returns this tourney's distributed object.
+     */
+    public TourneyObject getTourneyObject ()
+    {
+        return _trobj;
+    }
+
     /**
      * Returns true if the tourney is finished.
      */
@@ -244,8 +410,86 @@ public abstract class TourneyManager
         return part;
     }
 
+    /**
+     * Recreates the {@link Participant} record for an entrant restored from a checkpoint.
+     */
+    protected Participant restoreParticipant (Entrant entrant)
+    {
+        Participant part = new Participant();
+        part.username = entrant.name;
+        return part;
+    }
+
     public abstract void notifyAllParticipants (String msg);
 
+    /**
+     * Creates the runner that plays the rounds paired by the supplied engine.
+     */
+    protected RoundRunner createRoundRunner (PairingEngine engine)
+    {
+        RoundRunner runner = _injector.getInstance(RoundRunner.class);
+        runner.init(engine, new RoundRunner.Host() {
+            public GameConfig createMatchConfig (Match match) {
+                return TourneyManager.this.createMatchConfig(match);
+            }
+            public void roundStarted (int round, List<Match> matches) {
+                _roundMatches.put(round, matches);
+                TourneyManager.this.roundStarted(round, matches);
+            }
+            public void tourneyFinished (List<Entrant> standings) {
+                TourneyManager.this.tourneyFinished(standings);
+            }
+        });
+        return runner;
+    }
+
+    /**
+     * Creates the engine that pairs this tourney's rounds, or returns null if the derived class
+     * runs the tourney itself. Derived classes that return an engine must also override {@link
+     * #createMatchConfig}.
+     */
+    protected PairingEngine createPairingEngine ()
+    {
+        return null;
+    }
+
+    /**
+     * Returns the rating by which the specified participant is seeded.
+     */
+    protected int getRating (Participant part)
+    {
+        return 0;
+    }
+
+    /**
+     * Creates the config for the game in which the specified match is played. The players will
+     * be filled in by the caller.
+     */
+    protected GameConfig createMatchConfig (Match match)
+    {
+        log.warning("Tourney manager has a pairing engine but creates no games", "tourney", _key);
+        return null;
+    }
+
+    /**
+     * Called when a round of the tourney has been paired, before its games are created. Not
+     * called again for the round in progress when a tourney is resumed from a checkpoint.
+     */
+    protected void roundStarted (int round, List<Match> matches)
+    {
+    }
+
+    /**
+     * Called when the final round of the tourney is complete. Derived classes should award any
+     * prizes and then call <code>super.tourneyFinished()</code>.
+     */
+    protected void tourneyFinished (List<Entrant> standings)
+    {
+        _rounds = null;
+        _trobj.setState(TourneyObject.FINISHED);
+        releaseTourney();
+    }
+
     /**
      * Releases the tourney from the tourney manager, and removes the tourney from the list of
      * tournies.
@@ -269,6 +513,19 @@ public abstract class TourneyManager
         }.schedule(MINUTE * 2);
     }
 
+    /**
+     * Returns true if every match in the supplied round has been decided.
+     */
+    protected static boolean isComplete (List<Match> matches)
+    {
+        for (Match match : matches) {
+            if (match.result == Match.PENDING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Will throw an InvocationException if the user cannot join the tourney.
      */
@@ -287,11 +544,25 @@ public abstract class TourneyManager
     /** The key this tourney is recorded under. */
     protected Comparable<?> _key;
 
+    /** Runs our rounds, once started, if we have a pairing engine. */
+    protected RoundRunner _rounds;
+
+    /** Whether our participants have changed since our last checkpoint. */
+    protected boolean _participantsDirty;
+
+    /** The matches of each round that was incomplete at our last checkpoint, by round. */
+    protected SortedMap<Integer, List<Match>> _roundMatches = Maps.newTreeMap();
+
+    /** The number of decided matches of each round in {@link #_roundMatches} that have been
+     * checkpointed, by round. */
+    protected Map<Integer, Integer> _checkpointed = Maps.newHashMap();
+
     // services on which we depend
     @Inject protected RootDObjectManager _omgr;
     @Inject protected InvocationManager _invmgr;
     @Inject protected BodyLocator _locator;
     @Inject protected TourniesManager _tmgr;
+    @Inject protected Injector _injector;
 
     /** One minute in milliseconds. */
     protected static long MINUTE = 60 * 1000L;
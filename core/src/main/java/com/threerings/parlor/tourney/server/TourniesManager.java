@@ -21,17 +21,24 @@
 
 package com.threerings.parlor.tourney.server;
 
+import java.io.IOException;
+
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
 
-import com.samskivert.io.PersistenceException;
+import com.samskivert.jdbc.RepositoryUnit;
+import com.samskivert.util.Interval;
+import com.samskivert.util.Invoker;
 import com.samskivert.util.Lifecycle;
 
+import com.threerings.presents.annotation.MainInvoker;
 import com.threerings.presents.client.InvocationService;
 import com.threerings.presents.data.ClientObject;
 import com.threerings.presents.dobj.RootDObjectManager;
@@ -39,6 +46,9 @@ import com.threerings.presents.server.InvocationException;
 
 import com.threerings.parlor.tourney.data.TourneyConfig;
 import com.threerings.parlor.tourney.server.persist.TourneyRepository;
+import com.threerings.parlor.tourney.server.persist.TourneyRepository.RoundResultsRecord;
+import com.threerings.parlor.tourney.server.persist.TourneyRepository.TourneyRecord;
+import com.threerings.parlor.tourney.server.persist.TourneyRepository.TourneyStateRecord;
 
 import static com.threerings.parlor.Log.log;
 
@@ -64,6 +74,12 @@ public abstract class TourniesManager
                 updateTournies();
             }
         }).schedule(getIntervalDelay(), true);
+
+        _omgr.newInterval(new Runnable() {
+            public void run () {
+                checkpointTournies();
+            }
+        }).schedule(getCheckpointInterval(), true);
     }
 
     // from interface TourniesService
@@ -80,14 +96,22 @@ public abstract class TourniesManager
      */
     protected void makeTourney (TourneyConfig config, InvocationService.ResultListener listener)
     {
-        // create a new tourney manager which will run things
+        TourneyManager tmgr = createTourneyManager(config);
+        if (listener != null) {
+            listener.requestProcessed(tmgr.getTourneyObject().getOid());
+        }
+    }
+
+    /**
+     * Creates and registers a new tourney manager which will run the specified tourney.
+     */
+    protected TourneyManager createTourneyManager (TourneyConfig config)
+    {
         TourneyManager tmgr = _injector.getInstance(getTourneyManagerClass());
         int tournId = _tourneyCount++;
-        int tournOid = tmgr.init(config, tournId);
+        tmgr.init(config, tournId);
         _tourneys.put(tournId, tmgr);
-        if (listener != null) {
-            listener.requestProcessed(tournOid);
-        }
+        return tmgr;
     }
 
     /**
@@ -95,30 +119,205 @@ public abstract class TourniesManager
      */
     protected void releaseTourney (Comparable<?> key)
     {
-        _tourneys.remove(key);
+        TourneyManager tmgr = _tourneys.remove(key);
+        if (tmgr == null || tmgr.getConfig().tourneyId <= 0) {
+            return;
+        }
+
+        // a released tourney won't be resumed, so clear out its checkpoint
+        final int tourneyId = tmgr.getConfig().tourneyId;
+        _unwritten.remove(tourneyId);
+        _invoker.postUnit(new RepositoryUnit("deleteTourneyState(" + tourneyId + ")") {
+            @Override public void invokePersist () throws Exception {
+                _tournrep.deleteTourneyState(tourneyId);
+            }
+            @Override public void handleSuccess () {
+                // nada
+            }
+        });
     }
 
     /**
-     * Load all the tournament configuration information stored in the repository.
+     * Loads the tournament configuration information stored in the repository, a page at a time
+     * on the invoker thread, creating a manager for each tourney and resuming any tourney that
+     * was checkpointed.
      */
     protected void loadTourneyConfigs ()
     {
-        try {
-            ArrayList<TourneyConfig> tournies = _tournrep.loadTournies();
-            for (TourneyConfig config : tournies) {
-                makeTourney(config, null);
+        loadTourneyPage(0, 1);
+    }
+
+    /**
+     * Loads the page of tourney configurations that follows the specified tourney id, along with
+     * the checkpoints of those tournies, and then loads the next page.
+     */
+    protected void loadTourneyPage (final int afterId, final int attempt)
+    {
+        _invoker.postUnit(new RepositoryUnit("loadTourneyPage(" + afterId + ")") {
+            @Override public void invokePersist () throws Exception {
+                ArrayList<TourneyRecord> page = _tournrep.loadTourneyPage(afterId, LOAD_PAGE_SIZE);
+                _lastId = TourneyRepository.getLastId(page, afterId);
+                _more = (page.size() == LOAD_PAGE_SIZE);
+                _configs = TourneyRepository.toConfigs(page);
+
+                List<Integer> tourneyIds = Lists.newArrayListWithCapacity(_configs.size());
+                for (TourneyConfig config : _configs) {
+                    tourneyIds.add(config.tourneyId);
+                }
+                for (TourneyStateRecord record : _tournrep.loadTourneyStates(tourneyIds)) {
+                    TourneyCheckpoint ckpt = new TourneyCheckpoint(record.tourneyId);
+                    ckpt.started = record.started;
+                    try {
+                        ckpt.entrants = TourneyCheckpoint.entrantsFromBytes(record.entrants);
+                        _ckpts.put(record.tourneyId, ckpt);
+                    } catch (IOException ioe) {
+                        log.warning("Failed to decode tourney checkpoint",
+                                    "tourneyId", record.tourneyId, ioe);
+                    }
+                }
+                for (RoundResultsRecord record : _tournrep.loadRoundResults(tourneyIds)) {
+                    TourneyCheckpoint ckpt = _ckpts.get(record.tourneyId);
+                    if (ckpt == null) {
+                        continue;
+                    }
+                    try {
+                        ckpt.results.put(
+                            record.round, TourneyCheckpoint.resultsFromBytes(record.results));
+                    } catch (IOException ioe) {
+                        log.warning("Failed to decode tourney round results",
+                                    "tourneyId", record.tourneyId, "round", record.round, ioe);
+                        _ckpts.remove(record.tourneyId);
+                    }
+                }
+            }
+
+            @Override public void handleSuccess () {
+                for (TourneyConfig config : _configs) {
+                    TourneyManager tmgr = createTourneyManager(config);
+                    TourneyCheckpoint ckpt = _ckpts.get(config.tourneyId);
+                    if (ckpt != null) {
+                        tmgr.resume(ckpt);
+                    }
+                }
+                if (_more) {
+                    loadTourneyPage(_lastId, 1);
+                }
+            }
+
+            @Override public void handleFailure (Exception error) {
+                if (attempt >= MAX_LOAD_ATTEMPTS) {
+                    log.warning("Giving up on loading tourney configurations",
+                                "afterId", afterId, "attempts", attempt, error);
+                    return;
+                }
+                log.warning("Failed to load tourney configurations, will retry",
+                            "afterId", afterId, "attempt", attempt, error);
+                new Interval(_omgr) {
+                    @Override public void expired () {
+                        loadTourneyPage(afterId, attempt + 1);
+                    }
+                }.schedule(LOAD_RETRY_DELAY * attempt);
+            }
+
+            protected ArrayList<TourneyConfig> _configs;
+            protected Map<Integer, TourneyCheckpoint> _ckpts = Maps.newHashMap();
+            protected int _lastId;
+            protected boolean _more;
+        });
+    }
+
+    /**
+     * Writes the state of every persistent tourney that has changed since it was last
+     * checkpointed. Checkpoints that fail to be written are merged into the next.
+     */
+    protected void checkpointTournies ()
+    {
+        // wait for the previous checkpoint to be written so that ours can't be overtaken by it
+        if (_checkpointing) {
+            return;
+        }
+
+        final List<TourneyCheckpoint> ckpts = Lists.newArrayList();
+        for (TourneyManager tmgr : _tourneys.values()) {
+            int tourneyId = tmgr.getConfig().tourneyId;
+            if (tourneyId <= 0) {
+                continue;
+            }
+            TourneyCheckpoint ckpt = tmgr.getCheckpoint();
+            TourneyCheckpoint unwritten = _unwritten.remove(tourneyId);
+            if (unwritten != null) {
+                if (ckpt != null) {
+                    unwritten.merge(ckpt);
+                }
+                ckpt = unwritten;
             }
-        } catch (PersistenceException pe) {
-            log.warning("Failed to load tourney configurations.", pe);
+            if (ckpt != null) {
+                ckpts.add(ckpt);
+            }
+        }
+        if (ckpts.isEmpty()) {
+            return;
         }
+
+        _checkpointing = true;
+        _invoker.postUnit(new RepositoryUnit("checkpointTournies") {
+            @Override public void invokePersist () throws Exception {
+                for (TourneyCheckpoint ckpt : ckpts) {
+                    if (ckpt.entrants != null) {
+                        byte[] entrants = TourneyCheckpoint.toBytes(ckpt.entrants);
+                        _tournrep.storeTourneyState(
+                            new TourneyStateRecord(ckpt.tourneyId, ckpt.started, entrants));
+                    }
+                    for (Map.Entry<Integer, int[]> entry : ckpt.results.entrySet()) {
+                        byte[] results = TourneyCheckpoint.toBytes(entry.getValue());
+                        _tournrep.storeRoundResults(
+                            new RoundResultsRecord(ckpt.tourneyId, entry.getKey(), results));
+                    }
+                }
+            }
+
+            @Override public void handleSuccess () {
+                _checkpointing = false;
+            }
+
+            @Override public void handleFailure (Exception error) {
+                _checkpointing = false;
+                log.warning("Failed to checkpoint tournies", "count", ckpts.size(), error);
+                for (TourneyCheckpoint ckpt : ckpts) {
+                    if (isLoaded(ckpt.tourneyId)) {
+                        _unwritten.put(ckpt.tourneyId, ckpt);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns true if a manager for the specified persistent tourney is registered.
+     */
+    protected boolean isLoaded (int tourneyId)
+    {
+        for (TourneyManager tmgr : _tourneys.values()) {
+            if (tmgr.getConfig().tourneyId == tourneyId) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Called to update loaded tournies, possibly announcing tourney information or start a
-     * pending tourney.
+     * pending tourney. The default implementation starts the rounds of pending tournies whose
+     * start time has arrived.
      */
     protected void updateTournies ()
     {
+        long now = System.currentTimeMillis();
+        for (TourneyManager tmgr : Lists.newArrayList(_tourneys.values())) {
+            if (tmgr.isPending() && tmgr.shouldStart(now)) {
+                tmgr.startRounds();
+            }
+        }
     }
 
     /**
@@ -131,14 +330,41 @@ public abstract class TourniesManager
      */
     protected abstract long getIntervalDelay ();
 
+    /**
+     * Returns the number of milliseconds between checkpoints of the state of running tournies.
+     */
+    protected long getCheckpointInterval ()
+    {
+        return DEFAULT_CHECKPOINT_INTERVAL;
+    }
+
     /** Count to provide a unique key to tournies as they're created. */
     protected int _tourneyCount;
 
     /** Holds all the current tournies in the game. */
     protected Map<Comparable<?>, TourneyManager> _tourneys = Maps.newHashMap();
 
+    /** Checkpoints that failed to be written, by tourney id. */
+    protected Map<Integer, TourneyCheckpoint> _unwritten = Maps.newHashMap();
+
+    /** Whether a checkpoint is being written. */
+    protected boolean _checkpointing;
+
     // our dependencies
     @Inject protected Injector _injector;
     @Inject protected RootDObjectManager _omgr;
     @Inject protected TourneyRepository _tournrep;
+    @Inject protected @MainInvoker Invoker _invoker;
+
+    /** The number of tourney configurations loaded at a time. */
+    protected static final int LOAD_PAGE_SIZE = 100;
+
+    /** The number of times we try to load a page of tourney configurations. */
+    protected static final int MAX_LOAD_ATTEMPTS = 5;
+
+    /** The base delay between attempts to load a page of tourney configurations. */
+    protected static final long LOAD_RETRY_DELAY = 5 * 1000L;
+
+    /** The default number of milliseconds between tourney checkpoints. */
+    protected static final long DEFAULT_CHECKPOINT_INTERVAL = 30 * 1000L;
 }
@@ -25,6 +25,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -41,6 +42,7 @@ import com.samskivert.jdbc.DatabaseLiaison;
 import com.samskivert.jdbc.JDBCUtil;
 import com.samskivert.jdbc.JORARepository;
 import com.samskivert.jdbc.jora.Table;
+import com.samskivert.util.StringUtil;
 
 import com.threerings.io.ObjectInputStream;
 import com.threerings.io.ObjectOutputStream;
@@ -80,7 +82,8 @@ public class TourneyRepository extends JORARepository
             ObjectOutputStream ostream = new ObjectOutputStream(bstream);
 
             try {
-                ostream.writeObject(config);
+                ostream.writeObject(tourneyConfig);
+                ostream.flush();
                 config = bstream.toByteArray();
 
             } catch (IOException e) {
@@ -104,6 +107,54 @@ public class TourneyRepository extends JORARepository
         }
     }
 
+    /** Contains the participants of a tourney that has been checkpointed. */
+    public static class TourneyStateRecord
+    {
+        /** The tourney's unique identifier. */
+        public int tourneyId;
+
+        /** Whether the tourney's rounds have started. */
+        public boolean started;
+
+        /** The tourney's serialized participants. */
+        public byte[] entrants;
+
+        public TourneyStateRecord ()
+        {
+        }
+
+        public TourneyStateRecord (int tourneyId, boolean started, byte[] entrants)
+        {
+            this.tourneyId = tourneyId;
+            this.started = started;
+            this.entrants = entrants;
+        }
+    }
+
+    /** Contains the results of one round of a tourney that has been checkpointed. */
+    public static class RoundResultsRecord
+    {
+        /** The tourney's unique identifier. */
+        public int tourneyId;
+
+        /** The round whose results are stored. */
+        public int round;
+
+        /** The round's serialized results. */
+        public byte[] results;
+
+        public RoundResultsRecord ()
+        {
+        }
+
+        public RoundResultsRecord (int tourneyId, int round, byte[] results)
+        {
+            this.tourneyId = tourneyId;
+            this.round = round;
+            this.results = results;
+        }
+    }
+
     /** The database identifier used when establishing a database connection. This value being
      * <code>tourneydb</code>. */
     public static final String TOURNEY_DB_IDENT = "tourneydb";
@@ -138,6 +189,7 @@ public class TourneyRepository extends JORARepository
         throws PersistenceException
     {
         delete(_ttable, new TourneyRecord(tourneyId));
+        deleteTourneyState(tourneyId);
     }
 
     /**
@@ -146,14 +198,98 @@ public class TourneyRepository extends JORARepository
     public ArrayList<TourneyConfig> loadTournies ()
         throws PersistenceException
     {
-        ArrayList<TourneyRecord> recordList = loadAll(_ttable, "");
-        ArrayList<TourneyConfig> configList = Lists.newArrayListWithCapacity(recordList.size());
-        for (TourneyRecord record : recordList) {
-            configList.add(record.getTourneyConfig());
+        return toConfigs(loadAll(_ttable, ""));
+    }
+
+    /**
+     * Loads up to <code>count</code> tourney records, in order of id, whose ids are greater than
+     * <code>afterId</code>. Their configs are left encoded so that the caller can decode them
+     * with {@link #toConfigs} and page onward with {@link #getLastId}.
+     */
+    public ArrayList<TourneyRecord> loadTourneyPage (int afterId, int count)
+        throws PersistenceException
+    {
+        return loadAll(_ttable, "where TOURNEY_ID > " + afterId +
+                       " order by TOURNEY_ID limit " + count);
+    }
+
+    /**
+     * Returns the id of the last record in the supplied page, or <code>afterId</code> if the page
+     * is empty.
+     */
+    public static int getLastId (ArrayList<TourneyRecord> page, int afterId)
+    {
+        return page.isEmpty() ? afterId : page.get(page.size()-1).tourneyId;
+    }
+
+    /**
+     * Decodes the configs in the supplied records, skipping any that cannot be decoded.
+     */
+    public static ArrayList<TourneyConfig> toConfigs (ArrayList<TourneyRecord> records)
+    {
+        ArrayList<TourneyConfig> configList = Lists.newArrayListWithCapacity(records.size());
+        for (TourneyRecord record : records) {
+            TourneyConfig config = record.getTourneyConfig();
+            if (config != null) {
+                config.tourneyId = record.tourneyId;
+                configList.add(config);
+            }
         }
         return configList;
     }
 
+    /**
+     * Loads the checkpointed participants of the specified tournies.
+     */
+    public ArrayList<TourneyStateRecord> loadTourneyStates (Collection<Integer> tourneyIds)
+        throws PersistenceException
+    {
+        if (tourneyIds.isEmpty()) {
+            return Lists.newArrayList();
+        }
+        return loadAll(_stable, toIdCondition(tourneyIds));
+    }
+
+    /**
+     * Loads the checkpointed round results of the specified tournies, in order of round.
+     */
+    public ArrayList<RoundResultsRecord> loadRoundResults (Collection<Integer> tourneyIds)
+        throws PersistenceException
+    {
+        if (tourneyIds.isEmpty()) {
+            return Lists.newArrayList();
+        }
+        return loadAll(_rtable, toIdCondition(tourneyIds) + " order by ROUND");
+    }
+
+    /**
+     * Stores the participants of a tourney, replacing any previously stored.
+     */
+    public void storeTourneyState (TourneyStateRecord record)
+        throws PersistenceException
+    {
+        store(_stable, record);
+    }
+
+    /**
+     * Stores the results of a round of a tourney, replacing any previously stored.
+     */
+    public void storeRoundResults (RoundResultsRecord record)
+        throws PersistenceException
+    {
+        store(_rtable, record);
+    }
+
+    /**
+     * Deletes the checkpointed participants and round results of a tourney.
+     */
+    public void deleteTourneyState (int tourneyId)
+        throws PersistenceException
+    {
+        update("delete from TOURNEY_STATE where TOURNEY_ID = " + tourneyId);
+        update("delete from TOURNEY_RESULTS where TOURNEY_ID = " + tourneyId);
+    }
+
     @Override
     protected void migrateSchema (Connection conn, DatabaseLiaison liaison)
         throws SQLException, PersistenceException
@@ -162,13 +298,36 @@ public class TourneyRepository extends JORARepository
             "TOURNEY_ID INTEGER NOT NULL AUTO_INCREMENT PRIMARY KEY",
             "CONFIG BLOB"
         }, "");
+        JDBCUtil.createTableIfMissing(conn, "TOURNEY_STATE", new String[] {
+            "TOURNEY_ID INTEGER NOT NULL PRIMARY KEY",
+            "STARTED TINYINT NOT NULL",
+            "ENTRANTS BLOB"
+        }, "");
+        JDBCUtil.createTableIfMissing(conn, "TOURNEY_RESULTS", new String[] {
+            "TOURNEY_ID INTEGER NOT NULL",
+            "ROUND INTEGER NOT NULL",
+            "RESULTS BLOB",
+            "PRIMARY KEY (TOURNEY_ID, ROUND)"
+        }, "");
     }
 
     @Override
     protected void createTables ()
     {
         _ttable = new Table<TourneyRecord>(TourneyRecord.class, "TOURNEYS", "TOURNEY_ID", true);
+        _stable = new Table<TourneyStateRecord>(
+            TourneyStateRecord.class, "TOURNEY_STATE", "TOURNEY_ID", true);
+        _rtable = new Table<RoundResultsRecord>(
+            RoundResultsRecord.class, "TOURNEY_RESULTS", new String[] { "TOURNEY_ID", "ROUND" },
+            true);
+    }
+
+    protected static String toIdCondition (Collection<Integer> tourneyIds)
+    {
+        return "where TOURNEY_ID in (" + StringUtil.join(tourneyIds.toArray(), ",") + ")";
     }
 
     protected Table<TourneyRecord> _ttable;
+    protected Table<TourneyStateRecord> _stable;
+    protected Table<RoundResultsRecord> _rtable;
 }
@@ -24,12 +24,12 @@ package com.threerings.puzzle.server;
 import java.util.Arrays;
 
 import com.samskivert.util.IntListUtil;
-import com.samskivert.util.Interval;
 import com.samskivert.util.RandomUtil;
 
 import com.threerings.presents.data.ClientObject;
 
 import com.threerings.parlor.game.server.GameManager;
+import com.threerings.parlor.server.TimerWheel;
 
 import com.threerings.puzzle.data.Board;
 import com.threerings.puzzle.data.BoardSummary;
@@ -195,7 +195,7 @@ public abstract class PuzzleManager extends GameManager
         long statusInterval = getStatusInterval();
         if (_statusInterval == null && statusInterval > 0) {
             // register the status update interval to address subsequent periodic updates
-            _statusInterval = new Interval(_omgr) {
+            _statusInterval = new TimerWheel.Timer(_timers) {
                 @Override
                 public void expired () {
                     sendStatusUpdate();
@@ -553,7 +553,7 @@ public abstract class PuzzleManager extends GameManager
     protected Board[] _boards;
 
     /** The client update interval. */
-    protected Interval _statusInterval;
+    protected TimerWheel.Timer _statusInterval;
 
     /** Tracks the last time we received a progress event from each player in this puzzle. */
     protected long[] _lastProgress;
@@ -34,6 +34,8 @@ import com.google.common.collect.Sets;
 
 import com.samskivert.util.HashIntMap;
 
+import com.threerings.util.DirectionCodes;
+
 import com.threerings.presents.data.ClientObject;
 import com.threerings.presents.server.InvocationException;
 
@@ -66,7 +68,9 @@ import com.threerings.stage.data.StageScene;
 import com.threerings.stage.data.StageSceneMarshaller;
 import com.threerings.stage.data.StageSceneModel;
 import com.threerings.stage.data.StageSceneObject;
+import com.threerings.stage.util.OccupancyGrid;
 import com.threerings.stage.util.StageSceneUtil;
+import com.threerings.stage.util.TileBitmap;
 
 import static com.threerings.stage.Log.log;
 
@@ -162,9 +166,51 @@ public class StageSceneManager extends SpotSceneManager
      */
     public boolean isPassable (int tx, int ty)
     {
-        return (StageSceneUtil.isPassable(
-                    StageServer.tilemgr, _mmodel.getBaseTileId(tx, ty)) &&
-                !checkContains(_footprints, tx, ty));
+        return _standable.get(tx, ty);
+    }
+
+    /**
+     * Locates a spot to stand near the supplied footprint, as {@link
+     * StageSceneUtil#findStandingSpot} does with the predicate returned by {@link
+     * #getCanStandPred}, but reusing a single predicate for all searches.
+     */
+    public StageLocation findStandingSpot (
+        BodyObject body, Rectangle foot, int dist, Point nearto, int orient)
+    {
+        if (_canStandPred == null) {
+            _canStandPred = getCanStandPred();
+        }
+        return StageSceneUtil.findStandingSpot(foot, dist, _canStandPred, body, nearto, orient);
+    }
+
+    /**
+     * Returns the free standing spot closest to the specified tile coordinate, drawn from our
+     * precomputed list of the passable tiles not covered by an object, or null if no such spot
+     * is presently unoccupied. This is a fine way to find a place to spawn an NPP.
+     */
+    public StageLocation findFreeSpot (BodyObject body, int tx, int ty)
+    {
+        int best = -1;
+        long bestDist = Long.MAX_VALUE;
+        for (int ii = 0; ii < _standingSpots.length; ii++) {
+            int sx = TileBitmap.unpackX(_standingSpots[ii]);
+            int sy = TileBitmap.unpackY(_standingSpots[ii]);
+            long dist = (long)(sx-tx)*(sx-tx) + (long)(sy-ty)*(sy-ty);
+            if (dist < bestDist) {
+                _spotLoc.x = MisoUtil.toFull(sx, 2);
+                _spotLoc.y = MisoUtil.toFull(sy, 2);
+                if (mayStandAtLocation(body, _spotLoc)) {
+                    best = ii;
+                    bestDist = dist;
+                }
+            }
+        }
+        if (best == -1) {
+            return null;
+        }
+        return new StageLocation(MisoUtil.toFull(TileBitmap.unpackX(_standingSpots[best]), 2),
+                                 MisoUtil.toFull(TileBitmap.unpackY(_standingSpots[best]), 2),
+                                 (byte)DirectionCodes.SOUTHWEST);
     }
 
     /**
@@ -273,7 +319,7 @@ public class StageSceneManager extends SpotSceneManager
         super.bodyLeft(bodyOid);
 
         // out ye go!
-        _loners.remove(bodyOid);
+        clearLoner(bodyOid);
     }
 
     @Override
@@ -284,7 +330,59 @@ public class StageSceneManager extends SpotSceneManager
         // keep a rectangle around for each un-clustered occupant
         StageLocation sloc = (StageLocation) loc;
         int tx = MisoUtil.fullToTile(sloc.x), ty = MisoUtil.fullToTile(sloc.y);
-        _loners.put(source.getOid(), new Rectangle(tx, ty, 1, 1));
+        setLoner(source.getOid(), tx, ty);
+    }
+
+    @Override
+    protected void clusterChanged (ClusterRecord clrec)
+    {
+        super.clusterChanged(clrec);
+
+        // move the cluster's footprint in our occupancy grid to its new bounds
+        Cluster cl = clrec.getCluster();
+        Rectangle obounds = _clusterBounds.get(cl.clusterOid);
+        if (obounds != null) {
+            if (obounds.equals(cl)) {
+                return;
+            }
+            _clusterGrid.remove(obounds);
+        }
+        _clusterGrid.add(cl);
+        _clusterBounds.put(cl.clusterOid, new Rectangle(cl));
+    }
+
+    @Override
+    protected void clusterDestroyed (ClusterRecord clrec)
+    {
+        super.clusterDestroyed(clrec);
+
+        Rectangle obounds = _clusterBounds.remove(clrec.getCluster().clusterOid);
+        if (obounds != null) {
+            _clusterGrid.remove(obounds);
+        }
+    }
+
+    /**
+     * Records that the specified un-clustered occupant is standing on the specified tile.
+     */
+    protected void setLoner (int bodyOid, int tx, int ty)
+    {
+        Rectangle orect = _loners.put(bodyOid, new Rectangle(tx, ty, 1, 1));
+        if (orect != null) {
+            _lonerGrid.remove(orect);
+        }
+        _lonerGrid.add(tx, ty, 1, 1);
+    }
+
+    /**
+     * Clears out the "footprint" of the specified occupant, if they have one.
+     */
+    protected void clearLoner (int bodyOid)
+    {
+        Rectangle orect = _loners.remove(bodyOid);
+        if (orect != null) {
+            _lonerGrid.remove(orect);
+        }
     }
 
     /**
@@ -295,25 +393,43 @@ public class StageSceneManager extends SpotSceneManager
     protected void computeFootprints ()
     {
         _footprints.clear();
+        _footGrid.clear();
         _mmodel.visitObjects(new StageMisoSceneModel.ObjectVisitor() {
             public void visit (ObjectInfo info) {
                 Rectangle foot = StageSceneUtil.getObjectFootprint(
                     StageServer.tilemgr, info.tileId, info.x, info.y);
                 _footprints.add(foot);
+                if (foot != null) {
+                    _footGrid.add(foot);
+                }
             }
         });
 
+        // note which tiles are passable and which of those are free of objects, so that no
+        // location checks need consult the tile manager
+        _passable = StageSceneUtil.computePassability(StageServer.tilemgr, _mmodel);
+        _standable = new TileBitmap(_passable);
+        for (Rectangle foot : _footprints) {
+            if (foot != null) {
+                _standable.clear(foot);
+            }
+        }
+        _standingSpots = _standable.toPackedCoords();
+
 //         Log.info("Computed footprints [where=" + where () +
 //                  ", rects=" + StringUtil.toString(_footprints) + "].");
 
         // place the tile coordinates of our portals into a set for
         // efficient comparison with location coordinates
         _plocs.clear();
+        _portalGrid.clear();
         for (Iterator<Portal> iter = _sscene.getPortals(); iter.hasNext(); ) {
             Portal port = iter.next();
             StageLocation loc = (StageLocation) port.loc;
-            _plocs.add(new Point(MisoUtil.fullToTile(loc.x),
-                                 MisoUtil.fullToTile(loc.y)));
+            Point ploc = new Point(MisoUtil.fullToTile(loc.x), MisoUtil.fullToTile(loc.y));
+            if (_plocs.add(ploc)) {
+                _portalGrid.add(ploc.x, ploc.y, 1, 1);
+            }
         }
     }
 
@@ -327,20 +443,19 @@ public class StageSceneManager extends SpotSceneManager
         int tx = MisoUtil.fullToTile(loc.x), ty = MisoUtil.fullToTile(loc.y);
 
         // make sure the tile at that location is passable
-        if (!StageSceneUtil.isPassable(StageServer.tilemgr,
-                                    _mmodel.getBaseTileId(tx, ty))) {
+        if (!_passable.get(tx, ty)) {
 //             Log.info("Rejecting non-passable loc [who=" + source.who() +
 //                      ", loc=" + loc + "].");
             return false;
         }
 
         // if they're moving to stand on a portal, let them do it
-        if (allowPortals && _plocs.contains(new Point(tx, ty))) {
+        if (allowPortals && _portalGrid.contains(tx, ty)) {
             return true;
         }
 
         // if they are already standing on this tile, allow it
-        SceneLocation cloc = _ssobj.occupantLocs.get(Integer.valueOf(source.getOid()));
+        SceneLocation cloc = locationForBody(source.getOid());
         if (cloc != null) {
             StageLocation sloc = (StageLocation) cloc.loc;
             if (MisoUtil.fullToTile(sloc.x) == tx &&
@@ -353,9 +468,8 @@ public class StageSceneManager extends SpotSceneManager
 
         // make sure they're not standing in a cluster footprint, an
         // object footprint, or in the same tile as another scene occupant
-        if (checkContains(_ssobj.clusters, tx, ty) ||
-            checkContains(_footprints, tx, ty) ||
-            checkContains(_loners.values(), tx, ty)) {
+        if (_clusterGrid.contains(tx, ty) || _footGrid.contains(tx, ty) ||
+            _lonerGrid.contains(tx, ty)) {
 //             Log.info("Rejecting loc [who=" + source.who() +
 //                      ", loc=" + loc + ", inCluster=" +
 //                      checkContains(_ssobj.clusters.iterator(), tx, ty) +
@@ -464,7 +578,7 @@ public class StageSceneManager extends SpotSceneManager
 
         tx = MisoUtil.fullToTile(sloc.x);
         ty = MisoUtil.fullToTile(sloc.y);
-        _loners.put(body.getOid(), new Rectangle(tx, ty, 1, 1));
+        setLoner(body.getOid(), tx, ty);
 
         return new SceneLocation(sloc, body.getOid());
     }
@@ -523,8 +637,8 @@ public class StageSceneManager extends SpotSceneManager
 
             // if this rect overlaps objects, other clusters, portals or
             // impassable tiles, it's no good
-            if (checkIntersects(_ssobj.clusters, rect, cl) ||
-                checkIntersects(_footprints, rect, cl) ||
+            if (_clusterGrid.intersects(rect, _clusterBounds.get(cl.clusterOid)) ||
+                _footGrid.intersects(rect, null) ||
                 checkPortals(rect) || checkViolatesPassability(rect)) {
                 rect = null;
             } else {
@@ -618,12 +732,7 @@ public class StageSceneManager extends SpotSceneManager
     /** Helper function for {@link #canAddBody}. */
     protected boolean checkPortals (Rectangle rect)
     {
-        for (Point ppoint : _plocs) {
-            if (rect.contains(ppoint)) {
-                return true;
-            }
-        }
-        return false;
+        return _portalGrid.intersects(rect, null);
     }
 
     /** Helper function for {@link #canAddBody}. */
@@ -635,16 +744,17 @@ public class StageSceneManager extends SpotSceneManager
         // blocks us.
         for (int xx = rect.x-1, ex = rect.x+rect.width+1; xx < ex; xx++) {
             for (int yy = rect.y-1, ey = rect.y+rect.height+1; yy < ey; yy++) {
-                int btid = _mmodel.getBaseTileId(xx, yy);
-                if ((btid == 0) &&
-                    ((xx == rect.x-1) || (xx == rect.x + rect.width) ||
-                     (yy == rect.y-1) || (yy == rect.y + rect.height))) {
+                if (_passable.get(xx, yy)) {
+                    continue;
+
+                } else if (((xx == rect.x-1) || (xx == rect.x + rect.width) ||
+                            (yy == rect.y-1) || (yy == rect.y + rect.height)) &&
+                           _mmodel.getBaseTileId(xx, yy) == 0) {
                     // it's ok to have an unspecified base tile in the outer
                     // border
                     continue;
 
-                } else if (!StageSceneUtil.isPassable(
-                               StageServer.tilemgr, btid)) {
+                } else {
 //                     Log.info("Cluster impassable " +
 //                              "[rect=" + StringUtil.toString(rect) +
 //                              ", spot=" + StringUtil.coordsToString(xx, yy) +
@@ -665,7 +775,7 @@ public class StageSceneManager extends SpotSceneManager
 
         // remove them from the loners map if they were in it
         int bodyOid = body.getOid();
-        _loners.remove(bodyOid);
+        clearLoner(bodyOid);
 
         Cluster cl = clrec.getCluster();
         if (clrec.size() == 1) {
@@ -708,7 +818,7 @@ public class StageSceneManager extends SpotSceneManager
     /** Helper function for {@link #bodyAdded}. */
     protected void positionBody (Cluster cl, int bodyOid, List<SceneLocation> locs)
     {
-        SceneLocation sloc = _ssobj.occupantLocs.get(Integer.valueOf(bodyOid));
+        SceneLocation sloc = locationForBody(bodyOid);
         if (sloc == null) {
             BodyObject user = (BodyObject)_omgr.getObject(bodyOid);
             String who = (user == null) ? ("" + bodyOid) : user.who();
@@ -726,7 +836,7 @@ public class StageSceneManager extends SpotSceneManager
             cloc.bodyOid = bodyOid;
 //             Log.info("Moving " + bodyOid + " to " + cloc +
 //                      " for " + cl + ".");
-            _ssobj.updateOccupantLocs(cloc);
+            publishLocation(cloc);
         }
     }
 
@@ -832,6 +942,36 @@ public class StageSceneManager extends SpotSceneManager
     /** Contains the (tile) coordinates of all of our portals. */
     protected HashSet<Point> _plocs = Sets.newHashSet();
 
+    /** The tiles covered by {@link #_footprints}, for constant time occupancy checks. */
+    protected OccupancyGrid _footGrid = new OccupancyGrid();
+
+    /** The tiles covered by our clusters, as recorded in {@link #_clusterBounds}. */
+    protected OccupancyGrid _clusterGrid = new OccupancyGrid();
+
+    /** The tiles covered by {@link #_loners}. */
+    protected OccupancyGrid _lonerGrid = new OccupancyGrid();
+
+    /** The tiles in {@link #_plocs}. */
+    protected OccupancyGrid _portalGrid = new OccupancyGrid();
+
+    /** The bounds with which each cluster (by oid) was last added to {@link #_clusterGrid}. */
+    protected HashIntMap<Rectangle> _clusterBounds = new HashIntMap<Rectangle>();
+
+    /** The tiles of our scene whose base tile is passable. */
+    protected TileBitmap _passable = new TileBitmap();
+
+    /** The passable tiles of our scene that are not covered by an object footprint. */
+    protected TileBitmap _standable = _passable;
+
+    /** The tiles in {@link #_standable}, packed with {@link TileBitmap#pack}. */
+    protected int[] _standingSpots = new int[0];
+
+    /** Used by {@link #findFreeSpot} to avoid allocating locations. */
+    protected StageLocation _spotLoc = new StageLocation();
+
+    /** The predicate used by {@link #findStandingSpot}, once created. */
+    protected AStarPathUtil.TraversalPred _canStandPred;
+
     /** The dimensions of a cluster with the specified number of
      * occupants. */
     protected static final int[] TARGET_SIZE = {
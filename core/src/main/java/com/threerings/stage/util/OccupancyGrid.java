@@ -0,0 +1,254 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.stage.util;
+
+import java.util.Arrays;
+
+import java.awt.Rectangle;
+
+/**
+ * Tracks how many rectangles (object footprints, clusters, occupants and the like) cover each
+ * tile of a scene so that a tile can be tested for occupancy in constant time and without
+ * allocation, regardless of how many rectangles are being tracked. Tiles are stored sparsely
+ * in an open addressed table, so scenes with negative or far flung coordinates cost nothing
+ * extra. Coordinates must fit in sixteen bits.
+ */
+public class OccupancyGrid
+{
+    /**
+     * Creates an empty grid.
+     */
+    public OccupancyGrid ()
+    {
+        this(64);
+    }
+
+    /**
+     * Creates an empty grid sized to hold roughly the specified number of occupied tiles
+     * without growing.
+     */
+    public OccupancyGrid (int expectedTiles)
+    {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedTiles) {
+            capacity <<= 1;
+        }
+        _keys = new int[capacity];
+        _counts = new int[capacity];
+    }
+
+    /**
+     * Notes that the tiles in the supplied rectangle are covered one more time.
+     */
+    public void add (Rectangle rect)
+    {
+        add(rect.x, rect.y, rect.width, rect.height);
+    }
+
+    /**
+     * Notes that the tiles in the specified rectangle are covered one more time.
+     */
+    public void add (int x, int y, int width, int height)
+    {
+        for (int xx = x, ex = x + width; xx < ex; xx++) {
+            for (int yy = y, ey = y + height; yy < ey; yy++) {
+                increment(xx, yy);
+            }
+        }
+    }
+
+    /**
+     * Removes one covering of the tiles in the supplied rectangle, which must previously have
+     * been {@link #add}ed.
+     */
+    public void remove (Rectangle rect)
+    {
+        remove(rect.x, rect.y, rect.width, rect.height);
+    }
+
+    /**
+     * Removes one covering of the tiles in the specified rectangle, which must previously have
+     * been {@link #add}ed.
+     */
+    public void remove (int x, int y, int width, int height)
+    {
+        for (int xx = x, ex = x + width; xx < ex; xx++) {
+            for (int yy = y, ey = y + height; yy < ey; yy++) {
+                decrement(xx, yy);
+            }
+        }
+    }
+
+    /**
+     * Returns true if any rectangle covers the specified tile.
+     */
+    public boolean contains (int x, int y)
+    {
+        return getCount(x, y) > 0;
+    }
+
+    /**
+     * Returns the number of rectangles covering the specified tile.
+     */
+    public int getCount (int x, int y)
+    {
+        int key = toKey(x, y), mask = _keys.length - 1;
+        for (int idx = slot(key); _counts[idx] != 0; idx = (idx + 1) & mask) {
+            if (_keys[idx] == key) {
+                return _counts[idx];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns true if any tile in the supplied rectangle is covered by a rectangle other than
+     * <code>ignore</code>, which must be null or a rectangle that was added to this grid.
+     */
+    public boolean intersects (Rectangle rect, Rectangle ignore)
+    {
+        for (int xx = rect.x, ex = rect.x + rect.width; xx < ex; xx++) {
+            for (int yy = rect.y, ey = rect.y + rect.height; yy < ey; yy++) {
+                int count = getCount(xx, yy);
+                if (ignore != null && ignore.contains(xx, yy)) {
+                    count--;
+                }
+                if (count > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of distinct tiles that are covered.
+     */
+    public int size ()
+    {
+        return _size;
+    }
+
+    /**
+     * Removes all coverings from the grid.
+     */
+    public void clear ()
+    {
+        Arrays.fill(_counts, 0);
+        _size = 0;
+    }
+
+    protected void increment (int x, int y)
+    {
+        int key = toKey(x, y), mask = _keys.length - 1;
+        int idx = slot(key);
+        for (; _counts[idx] != 0; idx = (idx + 1) & mask) {
+            if (_keys[idx] == key) {
+                _counts[idx]++;
+                return;
+            }
+        }
+        _keys[idx] = key;
+        _counts[idx] = 1;
+        if (++_size > _keys.length * LOAD_FACTOR) {
+            resize(_keys.length << 1);
+        }
+    }
+
+    protected void decrement (int x, int y)
+    {
+        int key = toKey(x, y), mask = _keys.length - 1;
+        for (int idx = slot(key); _counts[idx] != 0; idx = (idx + 1) & mask) {
+            if (_keys[idx] == key) {
+                if (--_counts[idx] == 0) {
+                    _size--;
+                    closeGap(idx);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Shifts back any entries that probed past the newly emptied slot so that lookups need no
+     * tombstones.
+     */
+    protected void closeGap (int gap)
+    {
+        int mask = _keys.length - 1;
+        for (int idx = (gap + 1) & mask; _counts[idx] != 0; idx = (idx + 1) & mask) {
+            int home = slot(_keys[idx]);
+            // leave the entry be if its home slot lies cyclically within (gap, idx]
+            boolean stays = (gap <= idx) ? (gap < home && home <= idx) :
+                (gap < home || home <= idx);
+            if (!stays) {
+                _keys[gap] = _keys[idx];
+                _counts[gap] = _counts[idx];
+                _counts[idx] = 0;
+                gap = idx;
+            }
+        }
+    }
+
+    protected void resize (int capacity)
+    {
+        int[] okeys = _keys, ocounts = _counts;
+        _keys = new int[capacity];
+        _counts = new int[capacity];
+        int mask = capacity - 1;
+        for (int ii = 0; ii < okeys.length; ii++) {
+            if (ocounts[ii] != 0) {
+                int idx = slot(okeys[ii]);
+                while (_counts[idx] != 0) {
+                    idx = (idx + 1) & mask;
+                }
+                _keys[idx] = okeys[ii];
+                _counts[idx] = ocounts[ii];
+            }
+        }
+    }
+
+    protected int slot (int key)
+    {
+        return (key * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(_keys.length));
+    }
+
+    protected static int toKey (int x, int y)
+    {
+        return (x << 16) | (y & 0xFFFF);
+    }
+
+    /** The tile keys of our table slots. */
+    protected int[] _keys;
+
+    /** The covering counts of our table slots, zero for an empty slot. */
+    protected int[] _counts;
+
+    /** The number of covered tiles. */
+    protected int _size;
+
+    /** The smallest table we'll create. */
+    protected static final int MIN_CAPACITY = 16;
+
+    /** The fraction of our table we'll fill before growing. */
+    protected static final float LOAD_FACTOR = 0.5f;
+}
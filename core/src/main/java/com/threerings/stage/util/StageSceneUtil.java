@@ -21,7 +21,7 @@
 
 package com.threerings.stage.util;
 
-import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 import java.awt.Point;
@@ -29,7 +29,7 @@ import java.awt.Rectangle;
 
 import com.google.common.collect.Lists;
 
-import com.samskivert.util.SortableArrayList;
+import com.samskivert.util.HashIntMap;
 
 import com.threerings.util.DirectionCodes;
 import com.threerings.util.DirectionUtil;
@@ -43,6 +43,7 @@ import com.threerings.media.util.MathUtil;
 
 import com.threerings.miso.MisoConfig;
 import com.threerings.miso.data.ObjectInfo;
+import com.threerings.miso.data.SparseMisoSceneModel;
 import com.threerings.miso.tile.BaseTileSet;
 import com.threerings.miso.util.MisoSceneMetrics;
 import com.threerings.miso.util.MisoUtil;
@@ -240,6 +241,51 @@ public class StageSceneUtil
         }
     }
 
+    /**
+     * Computes a bitmap of the passable base tiles in the supplied scene (tiles outside all
+     * sections are not passable). The tile manager is consulted once per base tile set, rather
+     * than once per tile.
+     */
+    public static TileBitmap computePassability (TileManager tilemgr, StageMisoSceneModel model)
+    {
+        TileBitmap passable = new TileBitmap();
+        HashIntMap<boolean[]> passability = new HashIntMap<boolean[]>();
+        for (Iterator<SparseMisoSceneModel.Section> iter = model.getSections(); iter.hasNext(); ) {
+            SparseMisoSceneModel.Section sect = iter.next();
+            for (int ii = 0; ii < sect.baseTileIds.length; ii++) {
+                int tileId = sect.baseTileIds[ii];
+                int tx = sect.x + ii % sect.width, ty = sect.y + ii / sect.width;
+                passable.set(tx, ty, isPassable(tilemgr, passability, tileId));
+            }
+        }
+        return passable;
+    }
+
+    /**
+     * Helper function for {@link #computePassability}, which caches the passability of the
+     * tile sets it looks up.
+     */
+    protected static boolean isPassable (
+        TileManager tilemgr, HashIntMap<boolean[]> passability, int tileId)
+    {
+        if (tileId <= 0) {
+            return false;
+        }
+
+        int tsid = TileUtil.getTileSetId(tileId), tidx = TileUtil.getTileIndex(tileId);
+        boolean[] passes = passability.get(tsid);
+        if (passes == null) {
+            try {
+                passes = ((BaseTileSet)tilemgr.getTileSet(tsid)).getPassability();
+                passability.put(tsid, passes);
+            } catch (Exception e) {
+                // let the uncached lookup log and handle the failure
+                return isPassable(tilemgr, tileId);
+            }
+        }
+        return (tidx < passes.length) ? passes[tidx] : isPassable(tilemgr, tileId);
+    }
+
     /**
      * Computes a list of the valid locations in this cluster.
      */
@@ -336,71 +382,42 @@ public class StageSceneUtil
      */
     public static StageLocation findStandingSpot (
         Rectangle foot, int dist, AStarPathUtil.TraversalPred pred,
-        Object traverser, final Point nearto, int orient)
+        Object traverser, Point nearto, int orient)
     {
-        // generate a list of the tile coordinates of all squares around
-        // this footprint
-        SortableArrayList<StageLocation> spots = new SortableArrayList<StageLocation>();
-
+        SpotFinder finder = new SpotFinder(pred, traverser, nearto);
         for (int dd = 1; dd <= dist; dd++) {
             int yy1 = foot.y-dd, yy2 = foot.y+foot.height+dd-1;
             int xx1 = foot.x-dd, xx2 = foot.x+foot.width+dd-1;
 
-            // get the corners
-            spots.add(
-                new StageLocation(xx1, yy1, (byte)DirectionCodes.SOUTHWEST));
-            spots.add(
-                new StageLocation(xx1, yy2, (byte)DirectionCodes.SOUTHEAST));
-            spots.add(
-                new StageLocation(xx2, yy1, (byte)DirectionCodes.NORTHWEST));
-            spots.add(
-                new StageLocation(xx2, yy2, (byte)DirectionCodes.NORTHEAST));
+            // consider the corners
+            finder.consider(xx1, yy1, DirectionCodes.SOUTHWEST);
+            finder.consider(xx1, yy2, DirectionCodes.SOUTHEAST);
+            finder.consider(xx2, yy1, DirectionCodes.NORTHWEST);
+            finder.consider(xx2, yy2, DirectionCodes.NORTHEAST);
 
             // then the sides
             for (int xx = xx1+1; xx < xx2; xx++) {
-                spots.add(
-                    new StageLocation(xx, yy1, (byte)DirectionCodes.WEST));
-                spots.add(
-                    new StageLocation(xx, yy2, (byte)DirectionCodes.EAST));
+                finder.consider(xx, yy1, DirectionCodes.WEST);
+                finder.consider(xx, yy2, DirectionCodes.EAST);
             }
             for (int yy = yy1+1; yy < yy2; yy++) {
-                spots.add(
-                    new StageLocation(xx1, yy, (byte)DirectionCodes.SOUTH));
-                spots.add(
-                    new StageLocation(xx2, yy, (byte)DirectionCodes.NORTH));
+                finder.consider(xx1, yy, DirectionCodes.SOUTH);
+                finder.consider(xx2, yy, DirectionCodes.NORTH);
             }
 
-            // sort them in order of closeness to the players current
-            // coordinate
-            spots.sort(new Comparator<StageLocation>() {
-                public int compare (StageLocation o1, StageLocation o2) {
-                    return dist(o1) - dist(o2);
-                }
-                private final int dist (StageLocation l) {
-                    return Math.round(100*MathUtil.distance(
-                                          l.x, l.y, nearto.x, nearto.y));
-                }
-            });
-
-            // return the first spot that can be "traversed" which we're
-            // taking to mean "stood upon"
-            for (int ii = 0, ll = spots.size(); ii < ll; ii++) {
-                StageLocation loc = spots.get(ii);
-                if (pred.canTraverse(traverser, loc.x, loc.y)) {
-                    // convert to full coordinates
-                    loc.x = MisoUtil.toFull(loc.x, 2);
-                    loc.y = MisoUtil.toFull(loc.y, 2);
-
-                    // see if we need to override the orientation
-                    if (DirectionCodes.NONE != orient) {
-                        loc.orient = (byte) orient;
-                    }
-                    return loc;
+            // if we found a spot at this distance, use it, otherwise try one further out
+            StageLocation loc = finder.best;
+            if (loc != null) {
+                // convert to full coordinates
+                loc.x = MisoUtil.toFull(loc.x, 2);
+                loc.y = MisoUtil.toFull(loc.y, 2);
+
+                // see if we need to override the orientation
+                if (DirectionCodes.NONE != orient) {
+                    loc.orient = (byte) orient;
                 }
+                return loc;
             }
-
-            // clear this list and try one further out
-            spots.clear();
         }
 
         return null;
@@ -444,6 +461,42 @@ public class StageSceneUtil
         return objs.toArray();
     }
 
+    /**
+     * Tracks the spot closest to a point while {@link #findStandingSpot} considers the spots
+     * around a footprint. Rather than collecting and sorting all of the candidate spots, each is
+     * rated as it is considered, and the (comparatively expensive) predicate is only checked for
+     * spots that are closer than the best found thus far.
+     */
+    protected static class SpotFinder
+    {
+        /** The closest standable spot found thus far, in tile coordinates, or null. */
+        public StageLocation best;
+
+        public SpotFinder (AStarPathUtil.TraversalPred pred, Object traverser, Point nearto) {
+            _pred = pred;
+            _traverser = traverser;
+            _nearto = nearto;
+        }
+
+        public void consider (int tx, int ty, int orient) {
+            int dist = Math.round(100*MathUtil.distance(tx, ty, _nearto.x, _nearto.y));
+            if ((best == null || dist < _bestDist) && _pred.canTraverse(_traverser, tx, ty)) {
+                if (best == null) {
+                    best = new StageLocation();
+                }
+                best.x = tx;
+                best.y = ty;
+                best.orient = (byte)orient;
+                _bestDist = dist;
+            }
+        }
+
+        protected AStarPathUtil.TraversalPred _pred;
+        protected Object _traverser;
+        protected Point _nearto;
+        protected int _bestDist;
+    }
+
     /** Our default scene metrics. */
     protected static MisoSceneMetrics _metrics = MisoConfig.getSceneMetrics();
 
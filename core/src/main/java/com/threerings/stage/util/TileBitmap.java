@@ -0,0 +1,196 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.stage.util;
+
+import java.util.Map;
+
+import java.awt.Rectangle;
+
+import com.samskivert.util.HashIntMap;
+import com.samskivert.util.IntMap;
+
+/**
+ * A packed, one bit per tile map of some property (passability, say) of the tiles of a scene.
+ * The bits are stored in square chunks, which are only allocated once a tile within them is set,
+ * so a scene whose sections are far apart does not need a bitmap covering all of the empty space
+ * between them. Tiles that have never been set are clear.
+ */
+public class TileBitmap
+{
+    /**
+     * Creates a bitmap with every tile clear.
+     */
+    public TileBitmap ()
+    {
+    }
+
+    /**
+     * Creates a bitmap that is a copy of the supplied bitmap.
+     */
+    public TileBitmap (TileBitmap other)
+    {
+        for (Map.Entry<Integer, long[]> entry : other._chunks.entrySet()) {
+            _chunks.put(entry.getKey(), entry.getValue().clone());
+        }
+    }
+
+    /**
+     * Returns true if the specified tile is set.
+     */
+    public boolean get (int tx, int ty)
+    {
+        long[] chunk = _chunks.get(chunkKey(tx, ty));
+        if (chunk == null) {
+            return false;
+        }
+        int idx = chunkIndex(tx, ty);
+        return (chunk[idx >> 6] & (1L << idx)) != 0;
+    }
+
+    /**
+     * Sets or clears the specified tile.
+     */
+    public void set (int tx, int ty, boolean value)
+    {
+        int key = chunkKey(tx, ty);
+        long[] chunk = _chunks.get(key);
+        if (chunk == null) {
+            if (!value) {
+                return;
+            }
+            _chunks.put(key, chunk = new long[CHUNK_WORDS]);
+        }
+        int idx = chunkIndex(tx, ty);
+        if (value) {
+            chunk[idx >> 6] |= (1L << idx);
+        } else {
+            chunk[idx >> 6] &= ~(1L << idx);
+        }
+    }
+
+    /**
+     * Clears all tiles in the supplied rectangle.
+     */
+    public void clear (Rectangle rect)
+    {
+        for (int xx = rect.x, ex = rect.x + rect.width; xx < ex; xx++) {
+            for (int yy = rect.y, ey = rect.y + rect.height; yy < ey; yy++) {
+                set(xx, yy, false);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of set tiles.
+     */
+    public int cardinality ()
+    {
+        int count = 0;
+        for (long[] chunk : _chunks.values()) {
+            for (long word : chunk) {
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the coordinates of every set tile, each packed into an int with {@link #pack}, in
+     * no particular order.
+     */
+    public int[] toPackedCoords ()
+    {
+        int[] coords = new int[cardinality()];
+        int nn = 0;
+        for (IntMap.IntEntry<long[]> entry : _chunks.intEntrySet()) {
+            int key = entry.getIntKey();
+            int cx = (key >> 16) << CHUNK_SHIFT, cy = ((short)key) << CHUNK_SHIFT;
+            long[] chunk = entry.getValue();
+            for (int idx = 0; idx < CHUNK_WORDS * 64; idx++) {
+                if ((chunk[idx >> 6] & (1L << idx)) != 0) {
+                    coords[nn++] = pack(cx + (idx & CHUNK_MASK), cy + (idx >> CHUNK_SHIFT));
+                }
+            }
+        }
+        return coords;
+    }
+
+    /**
+     * Packs the supplied tile coordinates, which must fit in a short, into an int.
+     */
+    public static int pack (int tx, int ty)
+    {
+        return (tx << 16) | (ty & 0xFFFF);
+    }
+
+    /**
+     * Returns the x coordinate of a tile packed with {@link #pack}.
+     */
+    public static int unpackX (int packed)
+    {
+        return packed >> 16;
+    }
+
+    /**
+     * Returns the y coordinate of a tile packed with {@link #pack}.
+     */
+    public static int unpackY (int packed)
+    {
+        return (short)packed;
+    }
+
+    /**
+     * Returns the number of chunks that have been allocated to hold our bits.
+     */
+    public int getChunkCount ()
+    {
+        return _chunks.size();
+    }
+
+    /**
+     * Returns the key of the chunk that contains the specified tile.
+     */
+    protected static int chunkKey (int tx, int ty)
+    {
+        return ((tx >> CHUNK_SHIFT) << 16) | ((ty >> CHUNK_SHIFT) & 0xFFFF);
+    }
+
+    /**
+     * Returns the index of the specified tile's bit within its chunk.
+     */
+    protected static int chunkIndex (int tx, int ty)
+    {
+        return ((ty & CHUNK_MASK) << CHUNK_SHIFT) | (tx & CHUNK_MASK);
+    }
+
+    /** Our chunks of bits, keyed on {@link #chunkKey}. Each is in row major order. */
+    protected HashIntMap<long[]> _chunks = new HashIntMap<long[]>();
+
+    /** The log base two of the width and height of a chunk, in tiles. */
+    protected static final int CHUNK_SHIFT = 5;
+
+    /** Masks a tile coordinate to its position within a chunk. */
+    protected static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    /** The number of longs needed to hold a chunk. */
+    protected static final int CHUNK_WORDS = (1 << (2 * CHUNK_SHIFT)) / 64;
+}
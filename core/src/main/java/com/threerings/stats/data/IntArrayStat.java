@@ -37,7 +37,8 @@ import com.threerings.io.ObjectOutputStream;
 public class IntArrayStat extends Stat
 {
     /**
-     * Returns the value of this statistic.
+     * Returns the value of this statistic. <em>Do not</em> modify the returned array; copy it and
+     * supply the copy to {@link #setValue}.
      */
     public int[] getValue ()
     {
@@ -68,6 +69,15 @@ public class IntArrayStat extends Stat
         setModified(true);
     }
 
+    @Override
+    public IntArrayStat clone ()
+    {
+        // our value is exposed by getValue(), so the clone needs its own copy
+        IntArrayStat stat = (IntArrayStat)super.clone();
+        stat._value = _value.clone();
+        return stat;
+    }
+
     @Override
     public String valueToString ()
     {
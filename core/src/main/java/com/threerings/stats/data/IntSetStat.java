@@ -108,6 +108,14 @@ public class IntSetStat extends SetStat<Integer>
         }
     }
 
+    @Override
+    public IntSetStat clone ()
+    {
+        IntSetStat stat = (IntSetStat)super.clone();
+        stat._intSet = new StreamableArrayIntSet(_intSet.toIntArray());
+        return stat;
+    }
+
     @Override
     public String valueToString ()
     {
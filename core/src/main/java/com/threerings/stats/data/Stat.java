@@ -201,6 +201,13 @@ public abstract class Stat
         return _type.name();
     }
 
+    /**
+     * Creates a copy of this stat which can be modified independently of this instance through
+     * its mutators. Derived classes whose values are modified in place, or exposed by accessors
+     * such as {@link IntArrayStat#getValue}, must override this method to copy them. (The {@code
+     * StatRepository} stat cache relies on this.) Arrays returned by accessors must never be
+     * modified in place by callers; callers must copy them first.
+     */
     @Override
     public Stat clone ()
     {
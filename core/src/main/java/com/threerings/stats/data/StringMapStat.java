@@ -103,6 +103,15 @@ public abstract class StringMapStat extends Stat
         return buf.append("]").toString();
     }
 
+    @Override
+    public StringMapStat clone ()
+    {
+        // our values are modified in place, so the clone needs its own copy
+        StringMapStat stat = (StringMapStat)super.clone();
+        stat._values = _values.clone();
+        return stat;
+    }
+
     /**
      * Returns the index of the specified key, creating an entry if necessary.
      */
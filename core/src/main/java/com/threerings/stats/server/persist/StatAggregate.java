@@ -0,0 +1,179 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.stats.server.persist;
+
+import com.threerings.parlor.rating.util.Percentiler;
+
+import com.threerings.stats.data.IntStat;
+import com.threerings.stats.data.SetStat;
+import com.threerings.stats.data.Stat;
+
+/**
+ * Summarizes the values of a particular stat across many players. Computed by {@link
+ * StatRepository#aggregateStats}.
+ */
+public class StatAggregate
+{
+    /**
+     * Extracts the numeric value to be aggregated from a stat.
+     */
+    public static interface ValueExtractor
+    {
+        /**
+         * Returns the value of the supplied stat, or {@link Float#NaN} if the stat should not be
+         * included in the aggregate.
+         */
+        float getValue (Stat stat);
+    }
+
+    /** Extracts the value of an {@link IntStat}. */
+    public static final ValueExtractor INT_VALUE = new ValueExtractor() {
+        public float getValue (Stat stat) {
+            return ((IntStat)stat).getValue();
+        }
+    };
+
+    /** Extracts the number of elements in a {@link SetStat}. */
+    public static final ValueExtractor SET_SIZE = new ValueExtractor() {
+        public float getValue (Stat stat) {
+            return ((SetStat<?>)stat).size();
+        }
+    };
+
+    /**
+     * Creates an empty aggregate for the specified stat type.
+     */
+    public StatAggregate (Stat.Type type)
+    {
+        _type = type;
+    }
+
+    /**
+     * Returns the type of stat aggregated.
+     */
+    public Stat.Type getType ()
+    {
+        return _type;
+    }
+
+    /**
+     * Returns the number of values aggregated.
+     */
+    public long getCount ()
+    {
+        return _count;
+    }
+
+    /**
+     * Returns the sum of all values aggregated.
+     */
+    public double getSum ()
+    {
+        return _sum;
+    }
+
+    /**
+     * Returns the mean of all values aggregated, or zero if there were none.
+     */
+    public double getMean ()
+    {
+        return (_count == 0) ? 0 : _sum / _count;
+    }
+
+    /**
+     * Returns the smallest value aggregated, or {@link Float#NaN} if there were none.
+     */
+    public float getMin ()
+    {
+        return (_count == 0) ? Float.NaN : _min;
+    }
+
+    /**
+     * Returns the largest value aggregated, or {@link Float#NaN} if there were none.
+     */
+    public float getMax ()
+    {
+        return (_count == 0) ? Float.NaN : _max;
+    }
+
+    /**
+     * Returns the distribution of the values aggregated.
+     */
+    public Percentiler getHistogram ()
+    {
+        _histo.recomputePercentiles();
+        return _histo;
+    }
+
+    /**
+     * Adds the first <code>count</code> supplied values to this aggregate. Aggregates are not
+     * thread safe; concurrent workers should each record to their own aggregate and {@link
+     * #merge} them when they are done.
+     */
+    public void record (float[] values, int count)
+    {
+        for (int ii = 0; ii < count; ii++) {
+            float value = values[ii];
+            if (_count++ == 0) {
+                _min = _max = value;
+            } else {
+                _min = Math.min(_min, value);
+                _max = Math.max(_max, value);
+            }
+            _sum += value;
+            _histo.recordValue(value, false);
+        }
+    }
+
+    /**
+     * Adds all of the values recorded by the supplied aggregate to this aggregate.
+     */
+    public void merge (StatAggregate other)
+    {
+        if (other._count == 0) {
+            return;
+        }
+        if (_count == 0) {
+            _min = other._min;
+            _max = other._max;
+        } else {
+            _min = Math.min(_min, other._min);
+            _max = Math.max(_max, other._max);
+        }
+        _count += other._count;
+        _sum += other._sum;
+        _histo.merge(other._histo);
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "[type=" + _type + ", count=" + _count + ", sum=" + _sum + ", min=" + getMin() +
+            ", max=" + getMax() + ", histo=" + _histo + "]";
+    }
+
+    protected Stat.Type _type;
+    protected long _count;
+    protected double _sum;
+    protected float _min, _max;
+    protected Percentiler _histo = new Percentiler();
+}
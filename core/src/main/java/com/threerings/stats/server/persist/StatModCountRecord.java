@@ -22,19 +22,30 @@
 package com.threerings.stats.server.persist;
 
 import com.samskivert.depot.PersistentRecord;
-import com.samskivert.depot.annotation.Column;
 import com.samskivert.depot.annotation.Computed;
 import com.samskivert.depot.annotation.Entity;
 import com.samskivert.depot.expression.ColumnExp;
 
-@Computed @Entity
-public class MaxStatCodeRecord extends PersistentRecord {
-
+/**
+ * A view of {@link StatRecord} without the stat data, used to look up the modification counts of
+ * many stats at once.
+ */
+@Computed(shadowOf=StatRecord.class) @Entity
+public class StatModCountRecord extends PersistentRecord
+{
     // AUTO-GENERATED: FIELDS START
-    public static final Class<MaxStatCodeRecord> _R = MaxStatCodeRecord.class;
-    public static final ColumnExp<Integer> MAX_CODE = colexp(_R, "maxCode");
+    public static final Class<StatModCountRecord> _R = StatModCountRecord.class;
+    public static final ColumnExp<Integer> PLAYER_ID = colexp(_R, "playerId");
+    public static final ColumnExp<Integer> STAT_CODE = colexp(_R, "statCode");
+    public static final ColumnExp<Byte> MOD_COUNT = colexp(_R, "modCount");
     // AUTO-GENERATED: FIELDS END
 
-    @Column
-    public int maxCode;
+    /** The identifier of the player this is a stat for. */
+    public int playerId;
+
+    /** The code of the stat. */
+    public int statCode;
+
+    /** The number of times this stat has been updated. */
+    public byte modCount;
 }
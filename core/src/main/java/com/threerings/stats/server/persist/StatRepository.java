@@ -24,32 +24,53 @@ package com.threerings.stats.server.persist;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import com.samskivert.io.ByteArrayOutInputStream;
-import com.samskivert.util.IntMap;
-import com.samskivert.util.IntMaps;
+import com.samskivert.util.LRUHashMap;
 
 import com.samskivert.depot.DatabaseException;
 import com.samskivert.depot.DepotRepository;
 import com.samskivert.depot.DuplicateKeyException;
-import com.samskivert.depot.Funcs;
+import com.samskivert.depot.Ops;
 import com.samskivert.depot.Key;
+import com.samskivert.depot.KeySet;
 import com.samskivert.depot.PersistenceContext;
 import com.samskivert.depot.PersistentRecord;
-import com.samskivert.depot.clause.FieldDefinition;
-import com.samskivert.depot.clause.FromOverride;
+import com.samskivert.depot.clause.Limit;
+import com.samskivert.depot.clause.OrderBy;
 import com.samskivert.depot.clause.QueryClause;
 import com.samskivert.depot.clause.Where;
+import com.samskivert.depot.expression.ColumnExp;
+import com.samskivert.depot.expression.SQLExpression;
+import com.samskivert.depot.impl.DepotMarshaller;
+import com.samskivert.depot.impl.Modifier;
+import com.samskivert.depot.impl.jdbc.DatabaseLiaison;
 import com.threerings.io.ObjectInputStream;
 import com.threerings.io.ObjectOutputStream;
 
@@ -65,6 +86,59 @@ import static com.threerings.stats.Log.log;
 public class StatRepository extends DepotRepository
     implements Stat.AuxDataSource
 {
+    /**
+     * Reports the results of a call to {@link StatRepository#writeModified(Map)}.
+     */
+    public static class FlushResult
+    {
+        /** The number of modified stats written. */
+        public int written;
+
+        /** The number of written stats that were found to have been simultaneously modified by
+         * another database client (and were overwritten). */
+        public int conflicts;
+
+        /** The number of modified stats that could not be written due to errors. */
+        public int failures;
+
+        /** The number of milliseconds taken by the flush. */
+        public long elapsed;
+
+        /**
+         * Returns the rate at which stats were written by this flush.
+         */
+        public float getStatsPerSecond ()
+        {
+            return (elapsed == 0) ? written * 1000f : written * 1000f / elapsed;
+        }
+
+        /**
+         * Returns the fraction of written stats that conflicted with another writer.
+         */
+        public float getConflictRate ()
+        {
+            return (written == 0) ? 0f : conflicts / (float)written;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "[written=" + written + ", conflicts=" + conflicts + ", failures=" + failures +
+                ", elapsed=" + elapsed + "]";
+        }
+    }
+
+    /**
+     * Receives stats streamed by {@link StatRepository#exportStats}.
+     */
+    public static interface StatVisitor
+    {
+        /**
+         * Called for each exported stat.
+         */
+        void visit (int playerId, Stat stat);
+    }
+
     /**
      * Constructs a new statistics repository with the specified persistence context.
      */
@@ -73,6 +147,49 @@ public class StatRepository extends DepotRepository
         super(context);
     }
 
+    /**
+     * Configures the size of the in-process cache of decoded stats. When enabled, {@link
+     * #loadStats} is satisfied from the cache when possible, sparing both the database round trip
+     * and the decoding of every stat. Every write made through this repository invalidates the
+     * affected player's cached stats, but writes made by other servers cannot be observed, so
+     * the cache should only be enabled if a player's stats are only ever written by the server
+     * hosting them, or if such servers call {@link #invalidateStats} when a player moves between
+     * them.
+     *
+     * @param maxStats the maximum number of stats (across all players) to cache, or zero to
+     * disable the cache.
+     */
+    public void setStatCacheSize (int maxStats)
+    {
+        synchronized (_statCache) {
+            _statCache.setMaxSize(Math.max(maxStats, 0));
+            if (maxStats <= 0) {
+                _statCache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the hit and miss counts of the stat cache since its creation, in that order.
+     */
+    public int[] getStatCacheEffectiveness ()
+    {
+        synchronized (_statCache) {
+            return new int[] { _cacheHits, _cacheMisses };
+        }
+    }
+
+    /**
+     * Removes the specified player's stats from the stat cache, if they are cached.
+     */
+    public void invalidateStats (int playerId)
+    {
+        synchronized (_statCache) {
+            _statCache.remove(playerId);
+            _cacheGeneration++;
+        }
+    }
+
     /**
      * Applies a modification to a single stat. If the stat in question does not exist, a blank
      * instance will be created via {@link com.threerings.stats.data.Stat.Type#newStat}.
@@ -86,7 +203,9 @@ public class StatRepository extends DepotRepository
                                 StatRecord.STAT_CODE, modifier.getType().code());
 
         for (int ii = 0; ii < MAX_UPDATE_TRIES; ii++) {
-            StatRecord record = load(StatRecord.class, where); // TODO: force cache skip on ii > 0
+            // if our first attempt collided with another writer, we need the latest data
+            StatRecord record = load(StatRecord.class,
+                                     (ii == 0) ? CacheStrategy.BEST : CacheStrategy.NONE, where);
             Stat stat = (record == null) ? modifier.getType().newStat() :
                 decodeStat(record.statCode, record.statData, record.modCount);
             @SuppressWarnings("unchecked") T tstat = (T)stat;
@@ -110,6 +229,21 @@ public class StatRepository extends DepotRepository
      */
     public ArrayList<Stat> loadStats (int playerId)
     {
+        List<Stat> cached;
+        long generation;
+        synchronized (_statCache) {
+            cached = _statCache.get(playerId);
+            generation = _cacheGeneration;
+            if (cached != null) {
+                _cacheHits++;
+            } else if (_statCache.getMaxSize() > 0) {
+                _cacheMisses++;
+            }
+        }
+        if (cached != null) {
+            return cloneStats(cached);
+        }
+
         ArrayList<Stat> stats = Lists.newArrayList();
         Where where = new Where(StatRecord.PLAYER_ID, playerId);
         for (StatRecord record : findAll(StatRecord.class, where)) {
@@ -118,6 +252,13 @@ public class StatRepository extends DepotRepository
                 stats.add(stat);
             }
         }
+
+        synchronized (_statCache) {
+            // only cache the stats if nothing was invalidated while we were loading them
+            if (_statCache.getMaxSize() > 0 && generation == _cacheGeneration) {
+                _statCache.put(playerId, cloneStats(stats));
+            }
+        }
         return stats;
     }
 
@@ -127,6 +268,7 @@ public class StatRepository extends DepotRepository
     public void deleteStats (final int playerId)
     {
         deleteAll(StatRecord.class, new Where(StatRecord.PLAYER_ID, playerId));
+        invalidateStats(playerId);
     }
 
     /**
@@ -153,16 +295,144 @@ public class StatRepository extends DepotRepository
                 log.warning("Error flushing modified stat", "stat", stat, e);
             }
         }
+        invalidateStats(playerId);
+    }
+
+    /**
+     * Writes out the modified stats for many players at once. The modification counts of the
+     * stats are looked up with a single query per group of players, after which the stats that
+     * are unchanged in the database are updated with a single JDBC batch per group. Stats that do
+     * not yet exist are inserted one at a time. Stats that were simultaneously modified by
+     * another database client are overwritten, as with {@link #writeModified(int,Iterable)}, and
+     * counted as conflicts. Exceptions that occur while writing the stats will be caught and
+     * logged.
+     *
+     * @param stats a mapping from player id to that player's (possibly unmodified) stats.
+     */
+    public FlushResult writeModified (Map<Integer, ? extends Iterable<Stat>> stats)
+    {
+        FlushResult result = new FlushResult();
+        long start = System.currentTimeMillis();
+
+        // serialize all of the modified stats, reusing a single buffer
+        List<PendingStat> pending = Lists.newArrayList();
+        ByteArrayOutInputStream out = new ByteArrayOutInputStream();
+        for (Map.Entry<Integer, ? extends Iterable<Stat>> entry : stats.entrySet()) {
+            for (Stat stat : entry.getValue()) {
+                if (!stat.getType().isPersistent() || !stat.isModified()) {
+                    continue;
+                }
+                try {
+                    pending.add(new PendingStat(entry.getKey(), stat, persistStat(stat, out)));
+                } catch (Exception e) {
+                    log.warning("Error flushing modified stat", "stat", stat, e);
+                    result.failures++;
+                }
+            }
+        }
+
+        // write them out, a manageable number of players at a time
+        Map<Integer, List<PendingStat>> byPlayer = Maps.newLinkedHashMap();
+        for (PendingStat pstat : pending) {
+            List<PendingStat> list = byPlayer.get(pstat.playerId);
+            if (list == null) {
+                byPlayer.put(pstat.playerId, list = Lists.newArrayList());
+            }
+            list.add(pstat);
+        }
+        for (List<Integer> playerIds : Iterables.partition(byPlayer.keySet(), MAX_FLUSH_PLAYERS)) {
+            List<PendingStat> group = Lists.newArrayList();
+            for (Integer playerId : playerIds) {
+                group.addAll(byPlayer.get(playerId));
+            }
+            writeGroup(playerIds, group, result);
+        }
+
+        for (Integer playerId : stats.keySet()) {
+            invalidateStats(playerId);
+        }
+        result.elapsed = System.currentTimeMillis() - start;
+        return result;
+    }
+
+    /**
+     * Streams every stat of the specified types to the supplied visitor, in order of player id.
+     * Stats are read from the database a page at a time and only stats of the requested types
+     * are decoded, so this may be used to export all of the stats in a large database. The
+     * visitor is called on the calling thread.
+     */
+    public void exportStats (Collection<? extends Stat.Type> types, StatVisitor visitor)
+    {
+        List<StatRecord> page = null;
+        while ((page = loadStatPage(types, page)) != null) {
+            for (StatRecord record : page) {
+                Stat stat = decodeStat(record.statCode, record.statData, record.modCount);
+                if (stat != null) {
+                    visitor.visit(record.playerId, stat);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the count, sum, min, max and distribution of the values of every stat of the
+     * specified type. Pages of stats are read from the database on the calling thread and are
+     * decoded and aggregated on a shared executor. Each worker records to its own aggregate and
+     * the workers' aggregates are merged once every page has been processed. At most one page per
+     * worker, plus the page being read, is held in memory at any time.
+     *
+     * @param threads the maximum number of pages to aggregate concurrently, or zero to use one
+     * per processor.
+     */
+    public StatAggregate aggregateStats (
+        final Stat.Type type, final StatAggregate.ValueExtractor extractor, int threads)
+    {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        final Semaphore workers = new Semaphore(threads);
+        final Queue<StatAggregate> idle = new ConcurrentLinkedQueue<StatAggregate>();
+        final Queue<StatAggregate> all = new ConcurrentLinkedQueue<StatAggregate>();
+        ExecutorService exec = getAggregateExecutor();
+        try {
+            List<StatRecord> page = null;
+            while ((page = loadStatPage(Collections.singleton(type), page)) != null) {
+                workers.acquireUninterruptibly();
+                final List<StatRecord> records = page;
+                exec.execute(new Runnable() {
+                    public void run () {
+                        // at most one worker holds a given aggregate at a time
+                        StatAggregate agg = idle.poll();
+                        if (agg == null) {
+                            all.add(agg = new StatAggregate(type));
+                        }
+                        try {
+                            aggregatePage(records, extractor, agg);
+                        } catch (Throwable t) {
+                            log.warning("Failed to aggregate stats", "type", type, t);
+                        } finally {
+                            idle.add(agg);
+                            workers.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            // wait for any outstanding workers to finish
+            workers.acquireUninterruptibly(threads);
+        }
+
+        StatAggregate result = new StatAggregate(type);
+        for (StatAggregate agg : all) {
+            result.merge(agg);
+        }
+        return result;
     }
 
     // documentation inherited from interface Stat.AuxDataSource
     public int getStringCode (Stat.Type type, String value)
     {
-        Map<String,Integer> map = _stringToCode.get(type);
-        if (map == null) {
-            _stringToCode.put(type, map = Maps.newHashMap());
-        }
-        Integer code = map.get(value);
+        Integer code = getStringCodes(type).get(value);
         if (code == null) {
             try {
                 code = assignStringCode(type, value);
@@ -180,18 +450,16 @@ public class StatRepository extends DepotRepository
     // documentation inherited from interface Stat.AuxDataSource
     public String getCodeString (Stat.Type type, int code)
     {
-        IntMap<String> map = _codeToString.get(type);
-        String value = (map == null) ? null : map.get(code);
+        String value = getCodeStrings(type).get(code);
         if (value == null) {
-            // our value may have been mapped on a different server, so refresh this mapping table
-            // from the database; then try again
+            // our value may have been mapped on a different server, so load any mappings we
+            // haven't yet seen from the database; then try again
             try {
-                loadStringCodes(type);
+                loadNewStringCodes(type, code);
             } catch (DatabaseException pe) {
-                log.warning("Failed to reload string codes", "type", type, "code", code, pe);
+                log.warning("Failed to load string codes", "type", type, "code", code, pe);
             }
-            map = _codeToString.get(type);
-            value = (map == null) ? null : map.get(code);
+            value = getCodeStrings(type).get(code);
             if (value == null) {
                 log.warning("Missing reverse maping", "type", type, "code", code);
                 value = "__UNKNOWN:" + code + "__"; // we don't want to return null
@@ -205,8 +473,8 @@ public class StatRepository extends DepotRepository
      */
     public void clearMapping (Stat.Type type, String value)
     {
-        int ocode = _stringToCode.get(type).remove(value);
-        _codeToString.get(type).remove(ocode);
+        int ocode = getStringCodes(type).remove(value);
+        getCodeStrings(type).remove(ocode);
     }
 
     /**
@@ -215,6 +483,89 @@ public class StatRepository extends DepotRepository
     public void purgePlayers (Collection<Integer> playerIds)
     {
         deleteAll(StatRecord.class, new Where(StatRecord.PLAYER_ID.in(playerIds)));
+        for (Integer playerId : playerIds) {
+            invalidateStats(playerId);
+        }
+    }
+
+    /**
+     * Loads the page of stat records of the specified types that follows the supplied page.
+     *
+     * @param prev the previously loaded page, or null to load the first page.
+     * @return the next page or null if there are no more records.
+     */
+    protected List<StatRecord> loadStatPage (Collection<? extends Stat.Type> types,
+                                             List<StatRecord> prev)
+    {
+        List<Integer> codes = Lists.newArrayList();
+        for (Stat.Type type : types) {
+            codes.add(type.code());
+        }
+
+        Where where;
+        if (prev == null) {
+            where = new Where(StatRecord.STAT_CODE.in(codes));
+        } else {
+            // continue after the last record of the previous page
+            StatRecord last = prev.get(prev.size()-1);
+            where = new Where(Ops.and(
+                StatRecord.STAT_CODE.in(codes),
+                Ops.or(StatRecord.PLAYER_ID.greaterThan(last.playerId),
+                       Ops.and(StatRecord.PLAYER_ID.eq(last.playerId),
+                               StatRecord.STAT_CODE.greaterThan(last.statCode)))));
+        }
+
+        List<StatRecord> page = findAll(
+            StatRecord.class, CacheStrategy.NONE, where,
+            OrderBy.ascending(StatRecord.PLAYER_ID).thenAscending(StatRecord.STAT_CODE),
+            new Limit(0, EXPORT_PAGE_SIZE));
+        return page.isEmpty() ? null : page;
+    }
+
+    /**
+     * Returns the executor on which {@link #aggregateStats} processes pages of stats. The default
+     * executor is created on first use and shared by all aggregations; its threads exit when idle.
+     */
+    protected synchronized ExecutorService getAggregateExecutor ()
+    {
+        if (_aggExec == null) {
+            _aggExec = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("StatAggregator-%d")
+                .setDaemon(true).build());
+        }
+        return _aggExec;
+    }
+
+    /**
+     * Decodes the supplied stat records and adds their values to the supplied aggregate.
+     */
+    protected void aggregatePage (
+        List<StatRecord> records, StatAggregate.ValueExtractor extractor, StatAggregate agg)
+    {
+        float[] values = new float[records.size()];
+        int count = 0;
+        for (StatRecord record : records) {
+            Stat stat = decodeStat(record.statCode, record.statData, record.modCount);
+            if (stat != null) {
+                float value = extractor.getValue(stat);
+                if (!Float.isNaN(value)) {
+                    values[count++] = value;
+                }
+            }
+        }
+        agg.record(values, count);
+    }
+
+    /**
+     * Returns a list containing copies of the supplied stats.
+     */
+    protected static ArrayList<Stat> cloneStats (List<Stat> stats)
+    {
+        ArrayList<Stat> clones = Lists.newArrayListWithCapacity(stats.size());
+        for (Stat stat : stats) {
+            clones.add(stat.clone());
+        }
+        return clones;
     }
 
     /**
@@ -258,33 +609,198 @@ public class StatRepository extends DepotRepository
         return null;
     }
 
+    /**
+     * Writes a group of modified stats whose players are all in the supplied list.
+     */
+    protected void writeGroup (List<Integer> playerIds, List<PendingStat> group, FlushResult result)
+    {
+        // look up the current modification counts of the stats we're writing (and only those)
+        List<Key<StatRecord>> keys = Lists.newArrayListWithCapacity(group.size());
+        Map<Integer, List<Integer>> codes = Maps.newLinkedHashMap();
+        for (PendingStat pstat : group) {
+            keys.add(StatRecord.getKey(pstat.playerId, pstat.stat.getCode()));
+            List<Integer> pcodes = codes.get(pstat.playerId);
+            if (pcodes == null) {
+                codes.put(pstat.playerId, pcodes = Lists.newArrayList());
+            }
+            pcodes.add(pstat.stat.getCode());
+        }
+        List<SQLExpression<?>> matches = Lists.newArrayListWithCapacity(codes.size());
+        for (Map.Entry<Integer, List<Integer>> entry : codes.entrySet()) {
+            matches.add(Ops.and(StatRecord.PLAYER_ID.eq(entry.getKey()),
+                                StatRecord.STAT_CODE.in(entry.getValue())));
+        }
+        Map<Key<StatRecord>, Byte> modCounts = Maps.newHashMap();
+        try {
+            for (StatModCountRecord rec : findAll(
+                     StatModCountRecord.class, CacheStrategy.NONE,
+                     new Where(Ops.or(matches)))) {
+                modCounts.put(StatRecord.getKey(rec.playerId, rec.statCode), rec.modCount);
+            }
+        } catch (Exception e) {
+            log.warning("Failed to load stat modification counts", "players", playerIds.size(), e);
+            result.failures += group.size();
+            return;
+        }
+
+        // sort the stats into those we can update, those we must insert and those that someone
+        // else has modified since they were loaded
+        List<PendingStat> updates = Lists.newArrayList();
+        List<PendingStat> inserts = Lists.newArrayList();
+        List<PendingStat> conflicts = Lists.newArrayList();
+        for (int ii = 0, ll = group.size(); ii < ll; ii++) {
+            PendingStat pstat = group.get(ii);
+            Byte modCount = modCounts.get(keys.get(ii));
+            if (modCount == null) {
+                inserts.add(pstat);
+            } else if (modCount == pstat.stat.getModCount()) {
+                updates.add(pstat);
+            } else {
+                conflicts.add(pstat);
+            }
+        }
+
+        // issue all of the updates as a single batch
+        if (!updates.isEmpty()) {
+            try {
+                int[] counts = batchUpdateData(updates);
+                for (int ii = 0, ll = updates.size(); ii < ll; ii++) {
+                    if (counts[ii] == 0) {
+                        conflicts.add(updates.get(ii)); // modified since we looked
+                    } else {
+                        result.written++;
+                    }
+                }
+            } catch (Exception e) {
+                log.warning("Error flushing modified stats", "stats", updates.size(), e);
+                result.failures += updates.size();
+            }
+        }
+
+        for (PendingStat pstat : inserts) {
+            try {
+                insert(new StatRecord(pstat.playerId, pstat.stat.getCode(), pstat.data,
+                                      nextModCount(pstat.stat)));
+                result.written++;
+            } catch (DuplicateKeyException dke) {
+                conflicts.add(pstat); // someone else inserted it since we looked
+            } catch (Exception e) {
+                log.warning("Error flushing modified stat", "playerId", pstat.playerId,
+                            "stat", pstat.stat, e);
+                result.failures++;
+            }
+        }
+
+        // if someone else modified the stat, fall back to the one-at-a-time path which will
+        // overwrite their changes
+        for (PendingStat pstat : conflicts) {
+            result.conflicts++;
+            try {
+                updateStat(pstat.playerId, pstat.stat, pstat.data, true);
+                result.written++;
+            } catch (Exception e) {
+                log.warning("Error flushing modified stat", "playerId", pstat.playerId,
+                            "stat", pstat.stat, e);
+                result.failures++;
+            }
+        }
+    }
+
+    /**
+     * Updates the data of all of the supplied stats with a single JDBC batch, as with {@link
+     * #updateData}. Drivers that do not report the number of rows modified by each statement of
+     * a batch are assumed to have modified them all.
+     *
+     * @return the number of rows modified by the update of each stat.
+     */
+    protected int[] batchUpdateData (final List<PendingStat> updates)
+    {
+        List<Key<StatRecord>> keys = Lists.newArrayListWithCapacity(updates.size());
+        for (PendingStat pstat : updates) {
+            keys.add(StatRecord.getKey(pstat.playerId, pstat.stat.getCode()));
+        }
+
+        final DepotMarshaller<StatRecord> marsh = _ctx.getMarshaller(StatRecord.class);
+        final int[] counts = new int[updates.size()];
+        _ctx.invoke(new Modifier(KeySet.newKeySet(StatRecord.class, keys)) {
+            @Override protected int invoke (Connection conn, DatabaseLiaison liaison)
+                throws SQLException
+            {
+                String sql = "update " + liaison.tableSQL(marsh.getTableName()) +
+                    " set " + columnSQL(liaison, StatRecord.STAT_DATA) + " = ?, " +
+                    columnSQL(liaison, StatRecord.MOD_COUNT) + " = ? where " +
+                    columnSQL(liaison, StatRecord.PLAYER_ID) + " = ? and " +
+                    columnSQL(liaison, StatRecord.STAT_CODE) + " = ? and " +
+                    columnSQL(liaison, StatRecord.MOD_COUNT) + " = ?";
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                try {
+                    for (PendingStat pstat : updates) {
+                        stmt.setBytes(1, pstat.data);
+                        stmt.setByte(2, nextModCount(pstat.stat));
+                        stmt.setInt(3, pstat.playerId);
+                        stmt.setInt(4, pstat.stat.getCode());
+                        stmt.setByte(5, pstat.stat.getModCount());
+                        stmt.addBatch();
+                    }
+                    int[] results = stmt.executeBatch();
+                    int modified = 0;
+                    for (int ii = 0; ii < counts.length; ii++) {
+                        counts[ii] = (results[ii] == Statement.SUCCESS_NO_INFO) ? 1 : results[ii];
+                        modified += counts[ii];
+                    }
+                    return modified;
+                } finally {
+                    stmt.close();
+                }
+            }
+
+            protected String columnSQL (DatabaseLiaison liaison, ColumnExp<?> column) {
+                return liaison.columnSQL(marsh.getFieldMarshaller(column.name).getColumnName());
+            }
+        });
+        return counts;
+    }
+
     /**
      * Updates the specified stat in the database, inserting it if necessary.
      *
      * @return true if the update was successful, false if it failed due to the stat being
      * simultaneously modified by another database client.
      */
-    protected boolean updateStat (int playerId, final Stat stat, boolean forceWrite)
+    protected boolean updateStat (int playerId, Stat stat, boolean forceWrite)
     {
-        ByteArrayOutInputStream out = new ByteArrayOutInputStream();
+        return updateStat(playerId, stat, persistStat(stat, new ByteArrayOutInputStream()),
+                          forceWrite);
+    }
+
+    /**
+     * Updates the specified stat in the database with its already serialized data, inserting it
+     * if necessary.
+     *
+     * @return true if the update was successful, false if it failed due to the stat being
+     * simultaneously modified by another database client.
+     */
+    protected boolean updateStat (int playerId, Stat stat, byte[] data, boolean forceWrite)
+    {
+        // a load that overlaps our write may cache the old row, so we invalidate once the write
+        // is complete, which also prevents any load still in progress from caching its result
         try {
-            stat.persistTo(new ObjectOutputStream(out), this);
-        } catch (IOException ioe) {
-            throw new DatabaseException("Error serializing stat " + stat, ioe);
+            return writeStat(playerId, stat, data, forceWrite);
+        } finally {
+            invalidateStats(playerId);
         }
+    }
 
-        byte[] data = out.toByteArray();
-        byte nextModCount = (byte)((stat.getModCount() + 1) % Byte.MAX_VALUE);
+    /**
+     * Does the work for {@link #updateStat(int,Stat,byte[],boolean)}.
+     */
+    protected boolean writeStat (int playerId, Stat stat, byte[] data, boolean forceWrite)
+    {
+        byte nextModCount = nextModCount(stat);
         Key<StatRecord> key = StatRecord.getKey(playerId, stat.getCode());
 
         // update the row in the database only if it has the expected modCount
-        int numRows = updatePartial(
-            StatRecord.class,
-            new Where(StatRecord.PLAYER_ID, playerId,
-                      StatRecord.STAT_CODE, stat.getCode(),
-                      StatRecord.MOD_COUNT, stat.getModCount()),
-            key,
-            StatRecord.STAT_DATA, data, StatRecord.MOD_COUNT, nextModCount);
+        int numRows = updateData(playerId, stat, key, data);
 
         // if we failed to update any rows, it could be because we saw an unexpected modCount, or
         // because the stat did not already exist in the repo
@@ -313,45 +829,94 @@ public class StatRepository extends DepotRepository
         return (numRows > 0);
     }
 
-    /** Helper function for {@link #getStringCode}. */
-    protected Integer assignStringCode (final Stat.Type type, final String value)
+    /**
+     * Updates the data of the specified stat, only if its modification count in the database
+     * matches that of the stat.
+     *
+     * @return the number of rows modified.
+     */
+    protected int updateData (int playerId, Stat stat, Key<StatRecord> key, byte[] data)
     {
-        for (int ii = 0; ii < 10; ii++) {
-            MaxStatCodeRecord maxRecord = load(
-                MaxStatCodeRecord.class,
-                new FromOverride(StringCodeRecord.class),
-                new FieldDefinition(MaxStatCodeRecord.MAX_CODE, Funcs.max(StringCodeRecord.CODE)),
-                new Where(StringCodeRecord.STAT_CODE, type.code()));
-
-            int code = maxRecord != null ? maxRecord.maxCode + 1 : 1;
+        return updatePartial(
+            StatRecord.class,
+            new Where(StatRecord.PLAYER_ID, playerId,
+                      StatRecord.STAT_CODE, stat.getCode(),
+                      StatRecord.MOD_COUNT, stat.getModCount()),
+            key,
+            StatRecord.STAT_DATA, data, StatRecord.MOD_COUNT, nextModCount(stat));
+    }
 
-            // DEBUG: uncomment this to test code collision
-            // if (ii == 0 && code > 0) {
-            //     code = code-1;
-            // }
+    /**
+     * Serializes the supplied stat using the supplied buffer, which is reset first.
+     */
+    protected byte[] persistStat (Stat stat, ByteArrayOutInputStream out)
+    {
+        out.reset();
+        try {
+            stat.persistTo(new ObjectOutputStream(out), this);
+        } catch (IOException ioe) {
+            throw new DatabaseException("Error serializing stat " + stat, ioe);
+        }
+        return out.toByteArray();
+    }
 
-            try {
-                insert(new StringCodeRecord(type.code(), value, code));
-                return code;
+    /**
+     * Returns the modification count to be written along with the supplied stat.
+     */
+    protected static byte nextModCount (Stat stat)
+    {
+        return (byte)((stat.getModCount() + 1) % Byte.MAX_VALUE);
+    }
 
-            } catch (DatabaseException pe) {
-                // if this is not a duplicate row exception, something is booched and we just fail
-                if (!(pe instanceof DuplicateKeyException)) {
-                    throw pe;
-                }
+    /**
+     * Helper function for {@link #getStringCode}. New codes are assigned sequentially, so rather
+     * than asking the database for the highest assigned code, we optimistically insert the code
+     * after the highest one we know about. If that collides with a code assigned by another
+     * server, we load the mappings we're missing and try again. Assignments for a particular type
+     * are serialized on this server, but lookups of existing mappings never block.
+     */
+    protected Integer assignStringCode (final Stat.Type type, final String value)
+    {
+        synchronized (getMaxCode(type)) {
+            // someone may have assigned this value while we were waiting for the lock
+            Integer ecode = getStringCodes(type).get(value);
+            if (ecode != null) {
+                return ecode;
+            }
 
-                // if it is a duplicate row exception, possibly someone inserted our value before
-                // we could, in which case we can just look up the new mapping
-                StringCodeRecord record = load(
-                    StringCodeRecord.class, StringCodeRecord.getKey(type.code(), value));
-                if (record != null) {
-                    log.info("Value collision assigning string code", "type", type, "value", value);
+            for (int ii = 0; ii < 10; ii++) {
+                int code = getMaxCode(type).get() + 1;
+                try {
+                    insert(new StringCodeRecord(type.code(), value, code));
                     return code;
-                }
 
-                // otherwise someone used the code we were trying to use and we just need to loop
-                // around and get the next highest code
-                log.info("Code collision assigning string code", "type", type, "value", value);
+                } catch (DatabaseException pe) {
+                    // if this is not a duplicate row exception, something is booched and we just
+                    // fail
+                    if (!(pe instanceof DuplicateKeyException)) {
+                        throw pe;
+                    }
+
+                    // if it is a duplicate row exception, possibly someone inserted our value
+                    // before we could, in which case we can just look up the new mapping
+                    StringCodeRecord record = load(
+                        StringCodeRecord.class, CacheStrategy.NONE,
+                        new Where(StringCodeRecord.STAT_CODE, type.code(),
+                                  StringCodeRecord.VALUE, value));
+                    if (record != null) {
+                        log.info("Value collision assigning string code",
+                                 "type", type, "value", value);
+                        return record.code;
+                    }
+
+                    // otherwise someone used the code we were trying to use; load the codes
+                    // we've missed (which will advance our max code) and try again
+                    log.info("Code collision assigning string code", "type", type, "value", value);
+                    loadNewStringCodes(type, code);
+                    if (getMaxCode(type).get() < code) {
+                        getMaxCode(type).set(code); // should not happen, but avoid spinning
+                    }
+                }
             }
         }
         throw new DatabaseException(
@@ -373,19 +938,80 @@ public class StatRepository extends DepotRepository
         }
     }
 
+    /**
+     * Loads the mappings for the specified type that have been assigned since we last loaded
+     * them, which is to say those with a code higher than the highest we know about, as well as
+     * the mapping for the specified code (which may have been assigned out of sequence).
+     */
+    protected void loadNewStringCodes (Stat.Type type, int code)
+    {
+        Where where = new Where(Ops.and(
+            StringCodeRecord.STAT_CODE.eq(type.code()),
+            Ops.or(StringCodeRecord.CODE.greaterThan(getMaxCode(type).get()),
+                   StringCodeRecord.CODE.eq(code))));
+        for (StringCodeRecord record : findAll(StringCodeRecord.class, CacheStrategy.NONE, where)) {
+            mapStringCode(type, record.value, record.code);
+        }
+    }
+
     /** Helper function used at repository startup. */
     protected void mapStringCode (Stat.Type type, String value, int code)
     {
-        Map<String,Integer> fmap = _stringToCode.get(type);
-        if (fmap == null) {
-            _stringToCode.put(type, fmap = Maps.newHashMap());
+        if (type == null) {
+            return; // a code for a stat type that no longer exists
+        }
+        getStringCodes(type).put(value, code);
+        getCodeStrings(type).put(code, value);
+
+        // note the highest code assigned for this type
+        AtomicInteger maxCode = getMaxCode(type);
+        for (int max = maxCode.get(); code > max; max = maxCode.get()) {
+            if (maxCode.compareAndSet(max, code)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the string to code mapping for the specified type, creating it if necessary.
+     */
+    protected ConcurrentMap<String, Integer> getStringCodes (Stat.Type type)
+    {
+        ConcurrentMap<String, Integer> map = _stringToCode.get(type);
+        if (map == null) {
+            ConcurrentMap<String, Integer> omap = _stringToCode.putIfAbsent(
+                type, map = new ConcurrentHashMap<String, Integer>());
+            map = (omap == null) ? map : omap;
         }
-        fmap.put(value, code);
-        IntMap<String> rmap = _codeToString.get(type);
-        if (rmap == null) {
-            _codeToString.put(type, rmap = IntMaps.newHashIntMap());
+        return map;
+    }
+
+    /**
+     * Returns the code to string mapping for the specified type, creating it if necessary.
+     */
+    protected ConcurrentMap<Integer, String> getCodeStrings (Stat.Type type)
+    {
+        ConcurrentMap<Integer, String> map = _codeToString.get(type);
+        if (map == null) {
+            ConcurrentMap<Integer, String> omap = _codeToString.putIfAbsent(
+                type, map = new ConcurrentHashMap<Integer, String>());
+            map = (omap == null) ? map : omap;
         }
-        rmap.put(code, value);
+        return map;
+    }
+
+    /**
+     * Returns the highest code known to be assigned for the specified type, creating its record
+     * if necessary. This object is also used to serialize code assignments for the type.
+     */
+    protected AtomicInteger getMaxCode (Stat.Type type)
+    {
+        AtomicInteger max = _maxCodes.get(type);
+        if (max == null) {
+            AtomicInteger omax = _maxCodes.putIfAbsent(type, max = new AtomicInteger());
+            max = (omax == null) ? max : omax;
+        }
+        return max;
     }
 
     @Override // from DepotRepository
@@ -404,8 +1030,52 @@ public class StatRepository extends DepotRepository
         classes.add(StringCodeRecord.class);
     }
 
-    protected Map<Stat.Type,Map<String,Integer>> _stringToCode = Maps.newHashMap();
-    protected Map<Stat.Type,IntMap<String>> _codeToString = Maps.newHashMap();
+    /** A modified stat waiting to be written by {@link #writeModified(Map)}. */
+    protected static class PendingStat
+    {
+        public final int playerId;
+        public final Stat stat;
+        public final byte[] data;
+
+        public PendingStat (int playerId, Stat stat, byte[] data) {
+            this.playerId = playerId;
+            this.stat = stat;
+            this.data = data;
+        }
+    }
+
+    /** Decoded stats by player id, sized by the number of stats. Disabled by default. */
+    protected LRUHashMap<Integer, List<Stat>> _statCache = new LRUHashMap<Integer, List<Stat>>(
+        0, new LRUHashMap.ItemSizer<List<Stat>>() {
+            public int computeSize (List<Stat> stats) {
+                return Math.max(stats.size(), 1);
+            }
+        });
+
+    /** Incremented every time cached stats are invalidated. */
+    protected long _cacheGeneration;
+
+    /** The number of stat cache hits and misses. */
+    protected int _cacheHits, _cacheMisses;
+
+    /** Our string code mappings, by stat type. These are accessed from any invoker thread. */
+    protected ConcurrentMap<Stat.Type,ConcurrentMap<String,Integer>> _stringToCode =
+        new ConcurrentHashMap<Stat.Type,ConcurrentMap<String,Integer>>();
+    protected ConcurrentMap<Stat.Type,ConcurrentMap<Integer,String>> _codeToString =
+        new ConcurrentHashMap<Stat.Type,ConcurrentMap<Integer,String>>();
+
+    /** The highest string code known to be assigned, by stat type. */
+    protected ConcurrentMap<Stat.Type,AtomicInteger> _maxCodes =
+        new ConcurrentHashMap<Stat.Type,AtomicInteger>();
+
+    /** The executor on which stats are aggregated, created on demand. */
+    protected ExecutorService _aggExec;
 
     protected static final int MAX_UPDATE_TRIES = 5;
+
+    /** The number of stat records loaded at a time when exporting or aggregating stats. */
+    protected static final int EXPORT_PAGE_SIZE = 1000;
+
+    /** The maximum number of players whose stats are written in a single group. */
+    protected static final int MAX_FLUSH_PLAYERS = 100;
 }
@@ -0,0 +1,207 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.util.server;
+
+import com.google.inject.Inject;
+
+import com.samskivert.util.Interval;
+import com.samskivert.util.Invoker;
+import com.samskivert.util.Lifecycle;
+
+import com.samskivert.jdbc.RepositoryUnit;
+
+import com.threerings.presents.annotation.MainInvoker;
+import com.threerings.presents.dobj.RootDObjectManager;
+
+/**
+ * The basis of a server-wide writer that queues records and writes them to a repository in
+ * batches. By default a derived writer writes what it is given immediately. If a flush interval
+ * is configured, it instead queues what it is given, noting this via {@link #queued}, and
+ * everything queued during an interval is written by a single invoker unit. Anything queued is
+ * flushed when the server shuts down.
+ *
+ * <p><em>Note:</em> All access to a writer should take place from the dobjmgr thread.
+ */
+public abstract class WriteBehindWriter
+    implements Lifecycle.ShutdownComponent
+{
+    protected WriteBehindWriter (Lifecycle cycle)
+    {
+        cycle.addComponent(this);
+    }
+
+    /**
+     * Configures the interval at which queued records are written to the repository.
+     *
+     * @param interval the flush interval in milliseconds, or zero to write records as soon as
+     * they are given to the writer.
+     */
+    public void setFlushInterval (long interval)
+    {
+        _flushInterval = interval;
+        if (_flushInterval <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns true if records are being queued rather than written immediately.
+     */
+    public boolean isQueueing ()
+    {
+        return _flushInterval > 0;
+    }
+
+    /**
+     * Returns the number of records that have been queued or are being written.
+     */
+    public abstract int getQueueDepth ();
+
+    /**
+     * Returns the number of milliseconds between the posting of the most recently completed write
+     * and its completion.
+     */
+    public long getFlushLatency ()
+    {
+        return _flushLatency;
+    }
+
+    /**
+     * Returns the longest write latency observed since the writer was created.
+     */
+    public long getMaxFlushLatency ()
+    {
+        return _maxFlushLatency;
+    }
+
+    /**
+     * Posts an invoker unit to write all queued records. The invoker processes units in order, so
+     * the records will be written before any unit posted after this call is processed.
+     */
+    public void flush ()
+    {
+        if (_flusher != null) {
+            _flusher.cancel();
+            _flusher = null;
+        }
+        writeQueued();
+    }
+
+    // from interface Lifecycle.ShutdownComponent
+    public void shutdown ()
+    {
+        flush();
+    }
+
+    /**
+     * Called by derived classes when they queue a record, to schedule a flush at the end of the
+     * flush interval if one is not already scheduled.
+     */
+    protected void queued ()
+    {
+        if (_flusher == null) {
+            _flusher = new Interval(_omgr) {
+                @Override public void expired () {
+                    _flusher = null;
+                    flush();
+                }
+            };
+            _flusher.schedule(_flushInterval);
+        }
+    }
+
+    /**
+     * Takes all queued records, if there are any, and writes them with a {@link WriteUnit}.
+     */
+    protected abstract void writeQueued ();
+
+    /**
+     * Called on the dobjmgr thread when a write has completed (or failed).
+     */
+    protected void writeCompleted (long started)
+    {
+        _flushLatency = System.currentTimeMillis() - started;
+        _maxFlushLatency = Math.max(_maxFlushLatency, _flushLatency);
+    }
+
+    /** Writes records on the invoker and notes the latency of the write. */
+    protected abstract class WriteUnit extends RepositoryUnit
+    {
+        public WriteUnit (String name)
+        {
+            super(name);
+        }
+
+        /**
+         * Posts this unit to our invoker.
+         */
+        public void post ()
+        {
+            _started = System.currentTimeMillis();
+            _invoker.postUnit(this);
+        }
+
+        @Override public void handleSuccess ()
+        {
+            writeCompleted(_started);
+            written();
+        }
+
+        @Override public void handleFailure (Exception error)
+        {
+            writeCompleted(_started);
+            failed(error);
+        }
+
+        /**
+         * Called on the dobjmgr thread once the records have been written.
+         */
+        protected void written ()
+        {
+        }
+
+        /**
+         * Called on the dobjmgr thread if the records failed to be written.
+         */
+        protected abstract void failed (Exception error);
+
+        protected long _started;
+    }
+
+    /** Flushes our queued records at the end of the flush interval. */
+    protected Interval _flusher;
+
+    /** The interval at which we flush queued records, or 0 to write records immediately. */
+    protected long _flushInterval;
+
+    /** The latency of the most recently completed write. */
+    protected long _flushLatency;
+
+    /** The largest write latency observed. */
+    protected long _maxFlushLatency;
+
+    /** Used to schedule our flushes. */
+    @Inject protected RootDObjectManager _omgr;
+
+    /** The invoker on which we do database operations. */
+    @Inject protected @MainInvoker Invoker _invoker;
+}
@@ -25,8 +25,6 @@ import com.google.inject.Inject;
 
 import com.samskivert.util.Invoker;
 
-import com.samskivert.jdbc.WriteOnlyUnit;
-
 import com.threerings.presents.annotation.MainInvoker;
 
 import com.threerings.crowd.data.Place;
@@ -97,11 +95,23 @@ public class SceneManager extends PlaceManager
             // our current scene version; instead they'll have to download the whole thing
             _updates = new UpdateList();
         }
+        _updates.setMaxHistory(getMaxUpdateHistory());
 
         // let derived classes react to the receipt of scene data
         gotSceneData(extras);
     }
 
+    /**
+     * Returns the maximum number of updates to retain in memory for this scene, or zero to retain
+     * them all (the default). Clients whose scene data is older than the oldest retained update
+     * are sent the entire scene model. Derived classes with long update histories may override
+     * this to bound the memory their updates occupy.
+     */
+    protected int getMaxUpdateHistory ()
+    {
+        return 0;
+    }
+
     /**
      * A method that can be overridden by derived classes to perform initialization processing
      * after we receive our scene information but before we're started up (and hence registered as
@@ -132,6 +142,27 @@ public class SceneManager extends PlaceManager
         });
     }
 
+    @Override
+    protected long idleUnloadPeriod ()
+    {
+        // if the registry is retaining idle scenes, it decides when we're shut down
+        return _screg.isRetainingIdleScenes() ? 0L : super.idleUnloadPeriod();
+    }
+
+    @Override
+    protected void bodyEntered (int bodyOid)
+    {
+        super.bodyEntered(bodyOid);
+        _screg.sceneBecameActive(this);
+    }
+
+    @Override
+    protected void placeBecameEmpty ()
+    {
+        super.placeBecameEmpty();
+        _screg.sceneBecameIdle(this);
+    }
+
     @Override
     protected void didShutdown ()
     {
@@ -139,6 +170,11 @@ public class SceneManager extends PlaceManager
 
         // unregister ourselves with the scene registry
         _screg.unmapSceneManager(this);
+
+        // make sure any updates we've recorded make it to the repository
+        if (isPersistent()) {
+            _updateWriter.flush();
+        }
     }
 
     /**
@@ -151,8 +187,10 @@ public class SceneManager extends PlaceManager
      * data. Updates are not stored forever, but a sizable number of recent updates are stored so
      * that moderately current clients can apply incremental patches to their scenes rather than
      * redownloading entire scenes when they change.
+     *
+     * @see SceneUpdateWriter
      */
-    protected void recordUpdate (final SceneUpdate update)
+    protected void recordUpdate (SceneUpdate update)
     {
         // instruct our in-memory copy of the scene to apply the update
         _scene.updateReceived(update);
@@ -162,12 +200,7 @@ public class SceneManager extends PlaceManager
 
         // and apply and store it in the repository
         if (isPersistent()) {
-            _invoker.postUnit(new WriteOnlyUnit("recordUpdate(" + update + ")") {
-                @Override
-                public void invokePersist () throws Exception {
-                    _screg.getSceneRepository().applyAndRecordUpdate(_scene.getSceneModel(), update);
-                }
-            });
+            _updateWriter.queueUpdate(_scene.getSceneModel(), update);
         }
 
         // broadcast the update to all occupants of the scene
@@ -202,4 +235,7 @@ public class SceneManager extends PlaceManager
 
     /** The invoker on which we'll do our database operations. */
     @Inject protected @MainInvoker Invoker _invoker;
+
+    /** Writes our updates to the repository. */
+    @Inject protected SceneUpdateWriter _updateWriter;
 }
@@ -21,20 +21,26 @@
 
 package com.threerings.whirled.server;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
+import com.samskivert.util.ArrayIntSet;
 import com.samskivert.util.IntMap;
 import com.samskivert.util.IntMaps;
+import com.samskivert.util.Interval;
 import com.samskivert.util.Invoker;
 
 import com.samskivert.jdbc.RepositoryUnit;
 
 import com.threerings.presents.annotation.MainInvoker;
 import com.threerings.presents.data.ClientObject;
+import com.threerings.presents.dobj.RootDObjectManager;
 import com.threerings.presents.server.InvocationManager;
 
 import com.threerings.crowd.data.BodyObject;
@@ -105,6 +111,44 @@ public class SceneRegistry
         public void sceneFailedToResolve (int sceneId, Exception reason);
     }
 
+    /**
+     * Reports statistics on scene resolution, used to size the idle retention budget.
+     */
+    public static class ResolutionStats
+    {
+        /** The number of resolution requests for scenes that were already resident. */
+        public int hits;
+
+        /** The number of hits on scenes that were resident only because they were retained
+         * while idle. */
+        public int retainedHits;
+
+        /** The number of resolution requests for scenes that were not resident. */
+        public int misses;
+
+        /** The number of idle scenes shut down to keep within the retention budget. */
+        public int evictions;
+
+        /** The number of idle scenes currently retained. */
+        public int idle;
+
+        /**
+         * Returns the fraction of resolution requests that were satisfied by a resident scene.
+         */
+        public float getHitRate ()
+        {
+            int total = hits + misses;
+            return (total == 0) ? 0f : hits / (float)total;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "[hits=" + hits + ", retainedHits=" + retainedHits + ", misses=" + misses +
+                ", evictions=" + evictions + ", idle=" + idle + "]";
+        }
+    }
+
     /**
      * Constructs a scene registry.
      */
@@ -133,6 +177,91 @@ public class SceneRegistry
         return _screp;
     }
 
+    /**
+     * Configures the registry to resolve scenes in batches. Rather than loading each scene with
+     * its own invoker unit, scene ids are collected for up to <code>window</code> milliseconds (or
+     * until <code>maxBatch</code> scenes are pending) and then loaded with a single call to
+     * {@link SceneRepository#loadScenes}. This greatly reduces the load on the invoker when many
+     * clients resolve scenes at once, as happens immediately after a server restart. Batching only
+     * takes effect if the repository {@link SceneRepository#supportsBatchLoads supports} bulk
+     * loads, as the default implementation would load the scenes one at a time anyway.
+     *
+     * @param window the number of milliseconds to wait for more scenes to resolve, or zero to
+     * disable batching and resolve every scene as soon as it is requested.
+     * @param maxBatch the maximum number of scenes to load in a single batch.
+     */
+    public void setBatchResolution (long window, int maxBatch)
+    {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatch);
+        }
+        _batchWindow = window;
+        _maxBatch = maxBatch;
+
+        // if we're turning batching off, don't leave any queued scenes hanging
+        if (_batchWindow <= 0 && !_batch.isEmpty()) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Configures the registry to keep up to <code>maxIdle</code> empty scenes resident rather
+     * than shutting them down after their idle unload period. When more than that
+     * many scenes are idle, the least recently used are shut down. This saves the next visitor to
+     * a recently vacated scene from waiting on the repository to resolve it anew.
+     *
+     * @param maxIdle the maximum number of idle scenes to retain, or zero to disable retention
+     * (which shuts down any currently retained scenes).
+     */
+    public void setIdleRetention (int maxIdle)
+    {
+        _maxIdle = Math.max(maxIdle, 0);
+        evictIdleScenes();
+    }
+
+    /**
+     * Returns true if this registry is retaining idle scenes, in which case it is responsible for
+     * shutting them down rather than their own idle unload timers.
+     */
+    public boolean isRetainingIdleScenes ()
+    {
+        return _maxIdle > 0;
+    }
+
+    /**
+     * Resolves the specified scenes so that they are resident before anyone asks for them. This
+     * is generally called at server boot with a list of popular scenes and is most useful in
+     * conjunction with {@link #setIdleRetention}, which will keep the scenes resident until they
+     * are displaced by more recently used scenes.
+     */
+    public void prewarmScenes (int... sceneIds)
+    {
+        for (int sceneId : sceneIds) {
+            resolveScene(sceneId, new ResolutionListener() {
+                public void sceneWasResolved (SceneManager scmgr) {
+                    // nothing doing
+                }
+                public void sceneFailedToResolve (int sceneId, Exception reason) {
+                    log.warning("Failed to prewarm scene", "sceneId", sceneId, reason);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns a snapshot of our scene resolution statistics.
+     */
+    public ResolutionStats getResolutionStats ()
+    {
+        ResolutionStats stats = new ResolutionStats();
+        stats.hits = _stats.hits;
+        stats.retainedHits = _stats.retainedHits;
+        stats.misses = _stats.misses;
+        stats.evictions = _stats.evictions;
+        stats.idle = _idle.size();
+        return stats;
+    }
+
     /**
      * Returns {@link SceneManager#where} for the specified scene or <code>null:sceneId</code> if
      * no scene manager exists for that scene.
@@ -157,34 +286,30 @@ public class SceneRegistry
     {
         SceneManager mgr = _scenemgrs.get(sceneId);
         if (mgr != null) {
+            _stats.hits++;
+            if (_idle.containsKey(sceneId)) {
+                _stats.retainedHits++;
+            }
             // the scene is already resolved, we're ready to roll
             target.sceneWasResolved(mgr);
             return;
         }
 
+        _stats.misses++;
+
         // if the scene is already being resolved, we need do no more
         if (!addResolutionListener(sceneId, target)) {
             return;
         }
 
+        // if we're batching, queue the scene up for the next batch
+        if (_batchWindow > 0 && _screp.supportsBatchLoads()) {
+            queueBatchResolution(sceneId);
+            return;
+        }
+
         // otherwise we have to load the scene from the repository
-        final int fsceneId = sceneId;
-        _invoker.postUnit(new RepositoryUnit("resolveScene(" + sceneId + ")") {
-            @Override public void invokePersist () throws Exception {
-                _model = _screp.loadSceneModel(fsceneId);
-                _updates = _screp.loadUpdates(fsceneId);
-                _extras = _screp.loadExtras(fsceneId, _model);
-            }
-            @Override public void handleSuccess () {
-                processSuccessfulResolution(_model, _updates, _extras);
-            }
-            @Override public void handleFailure (Exception error) {
-                processFailedResolution(fsceneId, error);
-            }
-            protected SceneModel _model;
-            protected UpdateList _updates;
-            protected Object _extras;
-        });
+        loadScene(sceneId);
     }
 
     // from interface SceneService
@@ -237,6 +362,94 @@ public class SceneRegistry
         return newList;
     }
 
+    /**
+     * Loads the specified scene from the repository with its own invoker unit.
+     */
+    protected void loadScene (final int sceneId)
+    {
+        _invoker.postUnit(new RepositoryUnit("resolveScene(" + sceneId + ")") {
+            @Override public void invokePersist () throws Exception {
+                _model = _screp.loadSceneModel(sceneId);
+                _updates = _screp.loadUpdates(sceneId);
+                _extras = _screp.loadExtras(sceneId, _model);
+            }
+            @Override public void handleSuccess () {
+                processSuccessfulResolution(_model, _updates, _extras);
+            }
+            @Override public void handleFailure (Exception error) {
+                processFailedResolution(sceneId, error);
+            }
+            protected SceneModel _model;
+            protected UpdateList _updates;
+            protected Object _extras;
+        });
+    }
+
+    /**
+     * Adds the specified scene to the pending resolution batch, flushing the batch if it is full
+     * or scheduling it to be flushed at the end of the batching window otherwise.
+     */
+    protected void queueBatchResolution (int sceneId)
+    {
+        _batch.add(sceneId);
+        if (_batch.size() >= _maxBatch) {
+            flushBatch();
+
+        } else if (_batchFlusher == null) {
+            _batchFlusher = new Interval(_omgr) {
+                @Override public void expired () {
+                    _batchFlusher = null;
+                    flushBatch();
+                }
+            };
+            _batchFlusher.schedule(_batchWindow);
+        }
+    }
+
+    /**
+     * Loads all of the scenes in the pending resolution batch with a single invoker unit.
+     */
+    protected void flushBatch ()
+    {
+        if (_batchFlusher != null) {
+            _batchFlusher.cancel();
+            _batchFlusher = null;
+        }
+        if (_batch.isEmpty()) {
+            return;
+        }
+
+        final ArrayIntSet sceneIds = _batch;
+        _batch = new ArrayIntSet();
+        _invoker.postUnit(new RepositoryUnit("resolveScenes(" + sceneIds.size() + ")") {
+            @Override public void invokePersist () throws Exception {
+                _scenes = _screp.loadScenes(sceneIds);
+            }
+            @Override public void handleSuccess () {
+                for (int sceneId : sceneIds) {
+                    SceneRepository.SceneData data = _scenes.get(sceneId);
+                    if (data == null) {
+                        processFailedResolution(sceneId, new NoSuchSceneException(sceneId));
+                    } else if (data.error != null) {
+                        processFailedResolution(sceneId, data.error);
+                    } else {
+                        processSuccessfulResolution(data.model, data.updates, data.extras);
+                    }
+                }
+            }
+            @Override public void handleFailure (Exception error) {
+                // don't fail the whole batch for one bad scene, load them individually so that
+                // each succeeds or fails on its own
+                log.warning("Failed to load scene batch, loading scenes individually",
+                            "scenes", sceneIds.size(), error);
+                for (int sceneId : sceneIds) {
+                    loadScene(sceneId);
+                }
+            }
+            protected IntMap<SceneRepository.SceneData> _scenes;
+        });
+    }
+
     /**
      * Called when the scene resolution has completed successfully.
      */
@@ -313,6 +526,63 @@ public class SceneRegistry
                 }
             }
         }
+
+        // a scene that starts up empty (because it was prewarmed or its resolvers went elsewhere)
+        // won't otherwise be noted as idle
+        if (scmgr.getPlaceObject().occupants.size() == 0) {
+            sceneBecameIdle(scmgr);
+        }
+    }
+
+    /**
+     * Called by the scene manager when its last occupant leaves.
+     */
+    protected void sceneBecameIdle (SceneManager scmgr)
+    {
+        if (!isRetainingIdleScenes()) {
+            return;
+        }
+
+        // move the scene to the most recently used end of our idle list
+        int sceneId = scmgr.getScene().getId();
+        _idle.remove(sceneId);
+        _idle.put(sceneId, scmgr);
+        evictIdleScenes();
+    }
+
+    /**
+     * Called by the scene manager when a body enters it.
+     */
+    protected void sceneBecameActive (SceneManager scmgr)
+    {
+        _idle.remove(scmgr.getScene().getId());
+    }
+
+    /**
+     * Shuts down the least recently used idle scenes until we are within our retention budget.
+     */
+    protected void evictIdleScenes ()
+    {
+        for (Iterator<SceneManager> iter = _idle.values().iterator();
+             iter.hasNext() && _idle.size() > _maxIdle; ) {
+            final SceneManager scmgr = iter.next();
+            iter.remove();
+            _stats.evictions++;
+
+            // shut the scene down on a subsequent pass through the event queue rather than in the
+            // middle of whatever caused it to be evicted
+            _omgr.postRunnable(new Runnable() {
+                public void run () {
+                    int sceneId = scmgr.getScene().getId();
+                    // make sure no one wandered in or shut it down while we were waiting
+                    if (_scenemgrs.get(sceneId) == scmgr &&
+                        scmgr.getPlaceObject().occupants.size() == 0) {
+                        log.debug("Evicting idle scene", "scmgr", scmgr);
+                        scmgr.shutdown();
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -320,6 +590,7 @@ public class SceneRegistry
      */
     protected void unmapSceneManager (SceneManager scmgr)
     {
+        _idle.remove(scmgr.getScene().getId());
         if (_scenemgrs.remove(scmgr.getScene().getId()) == null) {
             log.warning("Requested to unmap unmapped scene manager [scmgr=" + scmgr + "].");
             return;
@@ -349,9 +620,36 @@ public class SceneRegistry
     /** Provides location services. */
     @Inject protected LocationManager _locman;
 
+    /** Used to schedule the flushing of our resolution batches. */
+    @Inject protected RootDObjectManager _omgr;
+
     /** A mapping from scene ids to scene managers. */
     protected IntMap<SceneManager> _scenemgrs = IntMaps.newHashIntMap();
 
     /** The table of pending resolution listeners. */
     protected IntMap<List<ResolutionListener>> _penders = IntMaps.newHashIntMap();
+
+    /** Idle scene managers retained in memory, in least to most recently used order. */
+    protected LinkedHashMap<Integer, SceneManager> _idle = Maps.newLinkedHashMap();
+
+    /** The maximum number of idle scene managers to retain, or 0 to retain none. */
+    protected int _maxIdle;
+
+    /** Our scene resolution statistics. */
+    protected ResolutionStats _stats = new ResolutionStats();
+
+    /** The ids of the scenes waiting to be resolved in the next batch. */
+    protected ArrayIntSet _batch = new ArrayIntSet();
+
+    /** Flushes our resolution batch at the end of the batching window. */
+    protected Interval _batchFlusher;
+
+    /** The number of milliseconds to collect scenes before resolving them, or 0 to not batch. */
+    protected long _batchWindow;
+
+    /** The maximum number of scenes to resolve in a single batch. */
+    protected int _maxBatch = DEFAULT_MAX_BATCH;
+
+    /** The default maximum resolution batch size. */
+    protected static final int DEFAULT_MAX_BATCH = 100;
 }
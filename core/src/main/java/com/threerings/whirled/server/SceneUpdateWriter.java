@@ -0,0 +1,147 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.server;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.samskivert.util.Lifecycle;
+
+import com.threerings.util.server.WriteBehindWriter;
+
+import com.threerings.whirled.data.SceneModel;
+import com.threerings.whirled.data.SceneUpdate;
+import com.threerings.whirled.server.persist.SceneRepository;
+
+import static com.threerings.whirled.Log.log;
+
+/**
+ * Writes scene updates recorded by {@link SceneManager#recordUpdate} to the scene repository. By
+ * default each update is written by its own invoker unit as soon as it is recorded. If a flush
+ * interval is configured, updates are instead queued and all updates recorded during an interval
+ * (for all scenes) are written by a single invoker unit, in version order, via {@link
+ * SceneRepository#applyAndRecordUpdates}. This avoids a database write for every tiny change when
+ * a scene is being edited rapidly. Queued updates are flushed when a scene shuts down and when the
+ * server shuts down.
+ *
+ * <p><em>Note:</em> All access to the writer should take place from the dobjmgr thread.
+ */
+@Singleton
+public class SceneUpdateWriter extends WriteBehindWriter
+{
+    @Inject public SceneUpdateWriter (Lifecycle cycle)
+    {
+        super(cycle);
+    }
+
+    @Override // from WriteBehindWriter
+    public int getQueueDepth ()
+    {
+        return _queued + _flushing;
+    }
+
+    /**
+     * Queues the supplied update to be applied and recorded in the repository.
+     *
+     * @param model the model of the scene, to which the update has already been applied.
+     */
+    public void queueUpdate (final SceneModel model, final SceneUpdate update)
+    {
+        if (!isQueueing()) {
+            new WriteUnit("recordUpdate(" + update + ")") {
+                @Override public void invokePersist () throws Exception {
+                    _screp.applyAndRecordUpdate(model, update);
+                }
+                @Override protected void failed (Exception error) {
+                    log.warning("Failed to record scene update", "update", update, error);
+                }
+            }.post();
+            return;
+        }
+
+        PendingUpdates pending = _pending.get(model.sceneId);
+        if (pending == null) {
+            _pending.put(model.sceneId, pending = new PendingUpdates());
+        }
+        pending.model = model;
+        pending.updates.add(update);
+        _queued++;
+        queued();
+    }
+
+    @Override // from WriteBehindWriter
+    protected void writeQueued ()
+    {
+        if (_pending.isEmpty()) {
+            return;
+        }
+
+        final Map<Integer, PendingUpdates> pending = _pending;
+        final int count = _queued;
+        _pending = Maps.newLinkedHashMap();
+        _queued = 0;
+        _flushing += count;
+
+        new WriteUnit("flushSceneUpdates(" + count + ")") {
+            @Override public void invokePersist () throws Exception {
+                for (PendingUpdates scene : pending.values()) {
+                    _screp.applyAndRecordUpdates(scene.model, scene.updates);
+                }
+            }
+            @Override protected void written () {
+                _flushing -= count;
+            }
+            @Override protected void failed (Exception error) {
+                _flushing -= count;
+                log.warning("Failed to record scene updates", "scenes", pending.keySet(),
+                            "updates", count, error);
+            }
+        }.post();
+    }
+
+    /** The queued updates for a single scene. */
+    protected static class PendingUpdates
+    {
+        /** The most recent model of the scene. */
+        public SceneModel model;
+
+        /** The scene's queued updates, in version order. */
+        public List<SceneUpdate> updates = Lists.newArrayList();
+    }
+
+    /** Queued updates for each scene, in the order in which the scenes were first updated. */
+    protected Map<Integer, PendingUpdates> _pending = Maps.newLinkedHashMap();
+
+    /** The number of queued updates. */
+    protected int _queued;
+
+    /** The number of updates being written by flushes that have not yet completed. */
+    protected int _flushing;
+
+    /** The repository to which we write updates. */
+    @Inject protected SceneRepository _screp;
+}
@@ -21,11 +21,17 @@
 
 package com.threerings.whirled.server.persist;
 
+import java.util.Collection;
+import java.util.List;
+
 import com.samskivert.io.PersistenceException;
+import com.samskivert.util.IntMap;
+import com.samskivert.util.IntMaps;
 
 import com.threerings.whirled.data.SceneModel;
 import com.threerings.whirled.data.SceneUpdate;
 import com.threerings.whirled.server.SceneManager;
+import com.threerings.whirled.server.SceneUpdateWriter;
 import com.threerings.whirled.util.NoSuchSceneException;
 import com.threerings.whirled.util.UpdateList;
 
@@ -37,6 +43,25 @@ import com.threerings.whirled.util.UpdateList;
  */
 public interface SceneRepository
 {
+    /**
+     * Contains everything needed to resolve a single scene, as loaded by {@link #loadScenes}.
+     */
+    public static class SceneData
+    {
+        /** The scene's model. */
+        public SceneModel model;
+
+        /** The scene's accumulated updates. */
+        public UpdateList updates;
+
+        /** Optional additional scene data, see {@link SceneRepository#loadExtras}. */
+        public Object extras;
+
+        /** The error that prevented this scene from loading, if any, in which case the other
+         * fields are not valid. */
+        public Exception error;
+    }
+
     /**
      * Fetches the model for the scene with the specified scene id.
      *
@@ -62,6 +87,50 @@ public interface SceneRepository
     public Object loadExtras (int sceneId, SceneModel model)
         throws PersistenceException;
 
+    /**
+     * Returns true if this repository implements {@link #loadScenes} with a bulk load. The scene
+     * registry only batches resolution for repositories that do, as batching would otherwise just
+     * delay resolution. The default implementation returns false.
+     */
+    public default boolean supportsBatchLoads ()
+    {
+        return false;
+    }
+
+    /**
+     * Loads the model, updates and extras for all of the specified scenes in one pass. This is
+     * used by the scene registry when batched resolution is enabled, but only for repositories
+     * that override it to fetch the data for all scenes with a handful of queries (and return
+     * true from {@link #supportsBatchLoads}); the default implementation simply loads each scene
+     * in turn.
+     *
+     * @return a mapping from scene id to scene data. Scenes that do not exist are omitted from
+     * the mapping. A scene that could not be loaded maps to data with its {@link
+     * SceneData#error} set, so that its failure does not prevent the others from resolving.
+     *
+     * @exception PersistenceException thrown if an error occurs that prevents loading any of the
+     * scenes.
+     */
+    public default IntMap<SceneData> loadScenes (Collection<Integer> sceneIds)
+        throws PersistenceException
+    {
+        IntMap<SceneData> scenes = IntMaps.newHashIntMap();
+        for (int sceneId : sceneIds) {
+            SceneData data = new SceneData();
+            try {
+                data.model = loadSceneModel(sceneId);
+                data.updates = loadUpdates(sceneId);
+                data.extras = loadExtras(sceneId, data.model);
+            } catch (NoSuchSceneException nsse) {
+                continue;
+            } catch (PersistenceException pe) {
+                data.error = pe;
+            }
+            scenes.put(sceneId, data);
+        }
+        return scenes;
+    }
+
     /**
      * Applise the supplied scene update to persistent representation of its associated scene, then
      * stores the update persistently for future invocations of the server to load. <em>Note:</em>
@@ -72,4 +141,23 @@ public interface SceneRepository
      */
     public void applyAndRecordUpdate (SceneModel model, SceneUpdate update)
         throws PersistenceException;
+
+    /**
+     * Applies and records a batch of updates to a single scene, as with {@link
+     * #applyAndRecordUpdate}. The updates are supplied in version order and will all have been
+     * applied to the supplied scene model. This is used by the {@link SceneUpdateWriter} when it
+     * is configured to write updates in batches. The default implementation records each update
+     * in turn, repositories backed by a database should override it to record the updates in a
+     * single transaction.
+     *
+     * @exception PersistenceException thrown if an error occurs attempting to apply the scene
+     * updates.
+     */
+    public default void applyAndRecordUpdates (SceneModel model, List<SceneUpdate> updates)
+        throws PersistenceException
+    {
+        for (SceneUpdate update : updates) {
+            applyAndRecordUpdate(model, update);
+        }
+    }
 }
@@ -23,9 +23,16 @@ package com.threerings.whirled.server.persist;
 
 import java.util.HashMap;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import com.google.common.collect.Maps;
 
@@ -36,12 +43,24 @@ import com.threerings.io.ObjectInputStream;
 import com.threerings.io.ObjectOutputStream;
 
 import com.threerings.whirled.data.SceneUpdate;
+import com.threerings.whirled.util.UpdateList;
 
 /**
  * A utility class to assist the management of scene updates by a SceneRepository.
  */
 public class SceneUpdateMarshaller
 {
+    /**
+     * Creates blank update instances of a particular type, to be filled in by decoding.
+     */
+    public static interface UpdateFactory
+    {
+        /**
+         * Creates a new, uninitialized update instance.
+         */
+        SceneUpdate createUpdate ();
+    }
+
     /**
      * Create a SceneUpdateMarshaller that understands the update types specified.
      *
@@ -56,6 +75,19 @@ public class SceneUpdateMarshaller
         }
     }
 
+    /**
+     * Registers a factory to be used to create instances of the specified (already registered)
+     * update class when decoding, in lieu of reflectively invoking its no-argument constructor.
+     */
+    public void setUpdateFactory (Class<?> typeClass, UpdateFactory factory)
+    {
+        int type = getUpdateType(typeClass);
+        if (type == -1) {
+            throw new IllegalArgumentException("Class not registered: " + typeClass);
+        }
+        _factories.put(type, factory);
+    }
+
     /**
      * Returns the type code that is assigned to the specified SceneUpdate instance, or -1.
      */
@@ -82,18 +114,22 @@ public class SceneUpdateMarshaller
     }
 
     /**
-     * Persists the specified update to a new ByteArrayOutInputStream.
+     * Persists the specified update to a new byte array.
      */
     public byte[] persistUpdate (SceneUpdate update)
         throws PersistenceException
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        UpdateBuffer buffer = _buffer.get();
+        buffer.reset();
         try {
-            update.persistTo(new ObjectOutputStream(out));
+            // object streams are cheap to create, it's the buffer that's worth reusing
+            ObjectOutputStream oout = new ObjectOutputStream(buffer.bytes);
+            update.persistTo(oout);
+            oout.flush();
         } catch (IOException ioe) {
             throw new PersistenceException("Error serializing update " + update, ioe);
         }
-        return out.toByteArray();
+        return buffer.toByteArray();
     }
 
     /**
@@ -102,45 +138,117 @@ public class SceneUpdateMarshaller
     public SceneUpdate decodeUpdate (int sceneId, int sceneVersion, int updateType, byte[] data)
         throws PersistenceException
     {
-        String errmsg = null;
-        Exception error = null;
+        SceneUpdate update = createUpdate(sceneId, sceneVersion, updateType);
+        try {
+            update.unpersistFrom(new ObjectInputStream(new ByteArrayInputStream(data)));
+            return update;
+
+        } catch (IOException ioe) {
+            throw new PersistenceException(
+                "Unable to decode update" + describe(sceneId, sceneVersion, updateType), ioe);
+        } catch (ClassNotFoundException cnfe) {
+            throw new PersistenceException(
+                "Unable to instantiate update" + describe(sceneId, sceneVersion, updateType), cnfe);
+        }
+    }
 
+    /**
+     * Persists all of the supplied updates (which must be for the same scene) into a single
+     * compressed blob. Class metadata is written only once for the whole batch, so this is
+     * substantially more compact than persisting each update individually, and a repository can
+     * load a scene's entire update history with a single read. The blob can be decoded with
+     * {@link #decodeUpdates}.
+     */
+    public byte[] persistUpdates (SceneUpdate[] updates)
+        throws PersistenceException
+    {
+        UpdateBuffer buffer = _buffer.get();
+        buffer.reset();
+        ByteArrayOutputStream out = buffer.bytes;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
         try {
-            Class<?> updateClass = getUpdateClass(updateType);
-            if (updateClass == null) {
-                errmsg = "No class registered for update type [sceneId=" + sceneId +
-                    ", sceneVersion=" + sceneVersion + ", updateType=" + updateType + "].";
-                throw new PersistenceException(errmsg);
+            out.write(BATCH_FORMAT_VERSION);
+            DeflaterOutputStream dout = new DeflaterOutputStream(out, deflater);
+            ObjectOutputStream oout = new ObjectOutputStream(new BufferedOutputStream(dout));
+            oout.writeInt(updates.length);
+            for (SceneUpdate update : updates) {
+                int type = getUpdateType(update);
+                if (type == -1) {
+                    throw new PersistenceException("No type registered for update " + update);
+                }
+                oout.writeShort(type);
+                oout.writeInt(update.getSceneVersion());
+                update.persistTo(oout);
             }
+            oout.flush();
+            dout.finish();
+        } catch (IOException ioe) {
+            throw new PersistenceException("Error serializing updates", ioe);
+        } finally {
+            deflater.end();
+        }
+        return buffer.toByteArray();
+    }
 
-            // create the update
-            SceneUpdate update = (SceneUpdate)updateClass.newInstance();
-            update.init(sceneId, sceneVersion);
+    /**
+     * Decodes a blob created by {@link #persistUpdates} into an update list.
+     */
+    public UpdateList decodeUpdates (int sceneId, byte[] data)
+        throws PersistenceException
+    {
+        if (data.length == 0 || data[0] != BATCH_FORMAT_VERSION) {
+            throw new PersistenceException("Unknown update batch format [sceneId=" + sceneId +
+                                           ", format=" + (data.length == 0 ? -1 : data[0]) + "].");
+        }
 
-            // decode its contents from the serialized data
-            ByteArrayInputStream bin = new ByteArrayInputStream(data);
-            update.unpersistFrom(new ObjectInputStream(bin));
-            return update;
+        UpdateList updates = new UpdateList();
+        int sceneVersion = -1, updateType = -1;
+        Inflater inflater = new Inflater();
+        try {
+            ByteArrayInputStream bin = new ByteArrayInputStream(data, 1, data.length-1);
+            ObjectInputStream oin = new ObjectInputStream(
+                new BufferedInputStream(new InflaterInputStream(bin, inflater)));
+            for (int ii = 0, ll = oin.readInt(); ii < ll; ii++) {
+                updateType = oin.readShort();
+                sceneVersion = oin.readInt();
+                SceneUpdate update = createUpdate(sceneId, sceneVersion, updateType);
+                update.unpersistFrom(oin);
+                updates.addUpdate(update);
+            }
+            return updates;
 
         } catch (IOException ioe) {
-            error = ioe;
-            errmsg = "Unable to decode update";
-
+            throw new PersistenceException(
+                "Unable to decode updates" + describe(sceneId, sceneVersion, updateType), ioe);
         } catch (ClassNotFoundException cnfe) {
-            error = cnfe;
-            errmsg = "Unable to instantiate update";
-
-        } catch (InstantiationException ie) {
-            error = ie;
-            errmsg = "Unable to instantiate update";
-        } catch (IllegalAccessException iae) {
-            error = iae;
-            errmsg = "Unable to instantiate update";
+            throw new PersistenceException(
+                "Unable to decode updates" + describe(sceneId, sceneVersion, updateType), cnfe);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Creates and initializes a blank update of the specified type.
+     */
+    protected SceneUpdate createUpdate (int sceneId, int sceneVersion, int updateType)
+        throws PersistenceException
+    {
+        UpdateFactory factory = _factories.get(updateType);
+        if (factory == null) {
+            throw new PersistenceException("No class registered for update type" +
+                                           describe(sceneId, sceneVersion, updateType));
         }
 
-        errmsg += " [sceneId=" + sceneId + ", sceneVersion=" + sceneVersion +
-            ", updateType=" + updateType + "].";
-        throw new PersistenceException(errmsg, error);
+        SceneUpdate update;
+        try {
+            update = factory.createUpdate();
+        } catch (RuntimeException re) {
+            throw new PersistenceException(
+                "Unable to instantiate update" + describe(sceneId, sceneVersion, updateType), re);
+        }
+        update.init(sceneId, sceneVersion);
+        return update;
     }
 
     /**
@@ -161,6 +269,62 @@ public class SceneUpdateMarshaller
         if (typeClass != null) {
             _typeToClass.put(type, typeClass);
             _classToType.put(typeClass, Integer.valueOf(type));
+            _factories.put(type, createReflectiveFactory(typeClass));
+        }
+    }
+
+    /**
+     * Creates a factory that instantiates the supplied class via its public no-argument
+     * constructor. The constructor is looked up the first time an update is decoded, rather than
+     * every time, and a class without one fails to decode just as it did when each update was
+     * created with {@link Class#newInstance}.
+     */
+    protected static UpdateFactory createReflectiveFactory (final Class<?> typeClass)
+    {
+        return new UpdateFactory() {
+            public SceneUpdate createUpdate () {
+                try {
+                    if (_ctor == null) {
+                        _ctor = typeClass.getConstructor();
+                    }
+                    return (SceneUpdate)_ctor.newInstance();
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to create " + typeClass, e);
+                }
+            }
+            protected Constructor<?> _ctor;
+        };
+    }
+
+    /**
+     * Formats the details of an update for an error message.
+     */
+    protected static String describe (int sceneId, int sceneVersion, int updateType)
+    {
+        return " [sceneId=" + sceneId + ", sceneVersion=" + sceneVersion +
+            ", updateType=" + updateType + "].";
+    }
+
+    /** A per-thread serialization buffer. */
+    protected static class UpdateBuffer
+    {
+        /** The bytes written. */
+        public ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+        /** Clears the buffer for a new update or batch. */
+        public void reset ()
+        {
+            bytes.reset();
+        }
+
+        /** Returns the bytes written, discarding the buffer if it has grown too large to keep. */
+        public byte[] toByteArray ()
+        {
+            byte[] data = bytes.toByteArray();
+            if (data.length > MAX_RETAINED_BUFFER_SIZE) {
+                bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+            }
+            return data;
         }
     }
 
@@ -170,6 +334,25 @@ public class SceneUpdateMarshaller
     /** The table mapping update classes to types. */
     protected HashMap<Class<?>, Integer> _classToType = Maps.newHashMap();
 
+    /** The table mapping update types to the factories that create them. */
+    protected HashIntMap<UpdateFactory> _factories = new HashIntMap<UpdateFactory>();
+
     /** A counter used in assigning update types to classes. */
     protected int _nextType = 0;
+
+    /** A serialization buffer reused by each thread that persists updates. */
+    protected static final ThreadLocal<UpdateBuffer> _buffer = new ThreadLocal<UpdateBuffer>() {
+        @Override protected UpdateBuffer initialValue () {
+            return new UpdateBuffer();
+        }
+    };
+
+    /** The initial size of our serialization buffers. */
+    protected static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /** Serialization buffers that grow beyond this size are discarded after use. */
+    protected static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    /** Identifies the format of blobs written by {@link #persistUpdates}. */
+    protected static final byte BATCH_FORMAT_VERSION = 1;
 }
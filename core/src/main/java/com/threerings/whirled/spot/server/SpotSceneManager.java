@@ -27,6 +27,7 @@ import java.util.Iterator;
 import com.google.common.collect.Maps;
 
 import com.samskivert.util.HashIntMap;
+import com.samskivert.util.Interval;
 
 import com.threerings.util.Name;
 
@@ -111,6 +112,8 @@ public class SpotSceneManager extends SceneManager
     public void willTraversePortal (BodyObject body, Portal portal)
     {
         updateLocation(body, portal.getLocation());
+        // they're on their way out, so don't hold their last move back for the next tick
+        flushLocation(body.getOid());
     }
 
     @Override
@@ -122,6 +125,28 @@ public class SpotSceneManager extends SceneManager
         _ssobj = (SpotSceneObject)_plobj;
 
         super.didStartup();
+
+        // if this scene coalesces location changes, start up our location tick
+        long tick = getLocationTick();
+        if (tick > 0) {
+            _locFlusher = new Interval(_omgr) {
+                @Override public void expired () {
+                    flushLocations();
+                }
+            };
+            _locFlusher.schedule(tick, true);
+        }
+    }
+
+    @Override
+    protected void didShutdown ()
+    {
+        super.didShutdown();
+
+        if (_locFlusher != null) {
+            _locFlusher.cancel();
+            _locFlusher = null;
+        }
     }
 
     @Override
@@ -139,6 +164,7 @@ public class SpotSceneManager extends SceneManager
         super.bodyLeft(bodyOid);
 
         // clear out their location information
+        _moves.remove(bodyOid);
         _ssobj.removeFromOccupantLocs(Integer.valueOf(bodyOid));
 
         // clear any cluster they may occupy
@@ -283,10 +309,97 @@ public class SpotSceneManager extends SceneManager
             // complain if they don't already have a location configured
             log.warning("Changing loc for occupant without previous loc",
                 "where", where(), "who", source.who(), "nloc", loc, new Exception());
+            _moves.remove(source.getOid());
             _ssobj.addToOccupantLocs(sloc);
         } else {
+            publishLocation(sloc);
+        }
+    }
+
+    /**
+     * Returns the interval (in milliseconds) at which location changes in this scene are
+     * broadcast to its occupants, or zero if every change is to be broadcast as soon as it is
+     * made (the default). When nonzero, only the latest location of each body is broadcast each
+     * tick and all of a tick's changes are delivered in a single compound event, which greatly
+     * reduces the event traffic in crowded scenes. Scene managers for busy scene types should
+     * override this.
+     */
+    protected long getLocationTick ()
+    {
+        return 0L;
+    }
+
+    /**
+     * Returns the minimum interval (in milliseconds) between broadcasts of a single body's
+     * location when location changes are being coalesced (see {@link #getLocationTick}). A body
+     * that moves more often than this will have only its latest location broadcast once the
+     * interval has elapsed.
+     */
+    protected long getMinMoveInterval ()
+    {
+        return 0L;
+    }
+
+    /**
+     * Broadcasts the supplied location to the occupants of this scene, either immediately or, if
+     * we are coalescing location changes, on our next location tick.
+     */
+    protected void publishLocation (SceneLocation sloc)
+    {
+        if (_locFlusher == null) {
             _ssobj.updateOccupantLocs(sloc);
+            return;
         }
+
+        MoveRecord mrec = _moves.get(sloc.bodyOid);
+        if (mrec == null) {
+            _moves.put(sloc.bodyOid, mrec = new MoveRecord());
+        }
+        mrec.pending = sloc;
+    }
+
+    /**
+     * Broadcasts all held back location changes in a single compound event, excepting those for
+     * bodies that have been broadcast too recently (see {@link #getMinMoveInterval}).
+     */
+    protected void flushLocations ()
+    {
+        if (_moves.isEmpty() || !_ssobj.isActive()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis(), minInterval = getMinMoveInterval();
+        _ssobj.startTransaction();
+        try {
+            for (MoveRecord mrec : _moves.values()) {
+                if (mrec.pending != null && now - mrec.lastSent >= minInterval) {
+                    sendLocation(mrec, now);
+                }
+            }
+        } finally {
+            _ssobj.commitTransaction();
+        }
+    }
+
+    /**
+     * Immediately broadcasts the held back location change for the specified body, if any.
+     */
+    protected void flushLocation (int bodyOid)
+    {
+        MoveRecord mrec = _moves.get(bodyOid);
+        if (mrec != null && mrec.pending != null) {
+            sendLocation(mrec, System.currentTimeMillis());
+        }
+    }
+
+    /** Helper function for {@link #flushLocations} and {@link #flushLocation}. */
+    protected void sendLocation (MoveRecord mrec, long now)
+    {
+        if (_ssobj.occupantLocs.contains(mrec.pending)) {
+            _ssobj.updateOccupantLocs(mrec.pending);
+        }
+        mrec.pending = null;
+        mrec.lastSent = now;
     }
 
     /**
@@ -421,6 +534,11 @@ public class SpotSceneManager extends SceneManager
      */
     protected SceneLocation locationForBody (int bodyOid)
     {
+        // a location that has yet to be broadcast is nonetheless where they are
+        MoveRecord mrec = _moves.get(bodyOid);
+        if (mrec != null && mrec.pending != null) {
+            return mrec.pending;
+        }
         return _ssobj.occupantLocs.get(Integer.valueOf(bodyOid));
     }
 
@@ -448,6 +566,21 @@ public class SpotSceneManager extends SceneManager
     {
     }
 
+    /**
+     * Called after a body has been added to or removed from a cluster and the cluster's bounds
+     * have been adjusted accordingly.
+     */
+    protected void clusterChanged (ClusterRecord clrec)
+    {
+    }
+
+    /**
+     * Called when a cluster has been emptied and is being destroyed.
+     */
+    protected void clusterDestroyed (ClusterRecord clrec)
+    {
+    }
+
     /**
      * Used to manage clusters which are groups of users that can chat to one another.
      */
@@ -498,6 +631,7 @@ public class SpotSceneManager extends SceneManager
                 body.startTransaction();
                 try {
                     bodyAdded(this, body); // do the hokey pokey
+                    clusterChanged(this);
                     if (_clobj != null) {
                         ((ClusteredBodyObject)body).setClusterOid(_clobj.getOid());
                         _clobj.addToOccupants(body.getOid());
@@ -532,6 +666,7 @@ public class SpotSceneManager extends SceneManager
                 try {
                     ((ClusteredBodyObject)body).setClusterOid(-1);
                     bodyRemoved(this, body); // do the hokey pokey
+                    clusterChanged(this);
                     if (_clobj != null) {
                         _clobj.removeFromOccupants(bodyOid);
                         _ssobj.updateClusters(_cluster);
@@ -571,6 +706,7 @@ public class SpotSceneManager extends SceneManager
         {
 //             log.debug("Cluster empty, going away", "cloid", _clobj.getOid());
             _ssobj.removeFromClusters(_cluster.getKey());
+            clusterDestroyed(this);
 
             // if we've also been requested to remove ourself from the clusters list, do that
             if (doRemoval) {
@@ -583,6 +719,16 @@ public class SpotSceneManager extends SceneManager
         protected Cluster _cluster = new Cluster();
     }
 
+    /** Tracks the location broadcasts of a body when location changes are coalesced. */
+    protected static class MoveRecord
+    {
+        /** The body's latest location, if it has yet to be broadcast. */
+        public SceneLocation pending;
+
+        /** The time at which the body's location was last broadcast. */
+        public long lastSent;
+    }
+
     /** A casted reference to our place object. */
     protected SpotSceneObject _ssobj;
 
@@ -594,4 +740,10 @@ public class SpotSceneManager extends SceneManager
 
     /** A mapping of entering bodies to portal ids. */
     protected HashMap<Integer, Portal> _enterers = Maps.newHashMap();
+
+    /** Location broadcast records for the bodies that have moved, by oid. */
+    protected HashIntMap<MoveRecord> _moves = new HashIntMap<MoveRecord>();
+
+    /** Broadcasts coalesced location changes, if our scene coalesces them. */
+    protected Interval _locFlusher;
 }
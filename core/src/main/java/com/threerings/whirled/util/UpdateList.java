@@ -25,15 +25,58 @@ import java.util.List;
 
 import com.google.common.collect.Lists;
 
+import com.samskivert.util.HashIntMap;
+
 import com.threerings.whirled.data.SceneUpdate;
 
 import static com.threerings.whirled.Log.log;
 
 /**
- * A list specialized for storing {@link SceneUpdate} objects.
+ * A list specialized for storing {@link SceneUpdate} objects. Updates are kept in version order
+ * so that the updates needed to bring a scene up to date can be found by binary search, and the
+ * arrays for the most recently requested versions are cached until the list is next modified.
  */
 public class UpdateList
 {
+    /**
+     * Creates an update list that retains every update added to it.
+     */
+    public UpdateList ()
+    {
+    }
+
+    /**
+     * Creates an update list that retains at most <code>maxHistory</code> updates.
+     *
+     * @see #setMaxHistory
+     */
+    public UpdateList (int maxHistory)
+    {
+        setMaxHistory(maxHistory);
+    }
+
+    /**
+     * Configures the maximum number of updates retained by this list. When the list grows beyond
+     * this size, the oldest updates are discarded. A client whose scene predates the oldest
+     * retained update is sent the current scene model in its entirety rather than updates, so
+     * discarded updates are effectively compacted into that model.
+     *
+     * @param maxHistory the maximum number of updates to retain, or zero to retain them all.
+     */
+    public void setMaxHistory (int maxHistory)
+    {
+        _maxHistory = Math.max(maxHistory, 0);
+        trimHistory();
+    }
+
+    /**
+     * Returns the number of updates in this list.
+     */
+    public int size ()
+    {
+        return _updates.size();
+    }
+
     /**
      * Adds an update to this list. The update must follow appropriately the chain of updates
      * established by the updates already in the list (meaning it must operate on one version
@@ -44,6 +87,7 @@ public class UpdateList
         // if this is our first update, great, we let it in with no questions asked
         if (_updates.isEmpty()) {
             _updates.add(update);
+            _suffixes.clear();
             return;
         }
 
@@ -63,6 +107,8 @@ public class UpdateList
         }
 
         _updates.add(update);
+        _suffixes.clear();
+        trimHistory();
     }
 
     /**
@@ -70,6 +116,9 @@ public class UpdateList
      * bring it up to date. <code>null</code> is returned if the scene's version is older than the
      * oldest update in our list, in which case it cannot be brought up to date by applying updates
      * from this list.
+     *
+     * <p> The returned array is shared with other callers requesting updates from the same version
+     * and must not be modified.
      */
     public SceneUpdate[] getUpdates (int fromVersion)
     {
@@ -79,13 +128,20 @@ public class UpdateList
             return null;
         }
 
-        List<SceneUpdate> updates = Lists.newArrayList();
-        for (SceneUpdate update : _updates) {
-            if (update.getSceneVersion() >= fromVersion) {
-                updates.add(update);
+        SceneUpdate[] updates = _suffixes.get(fromVersion);
+        if (updates == null) {
+            int start = findFirst(fromVersion), count = _updates.size() - start;
+            if (count == 0) {
+                return null;
+            }
+            updates = _updates.subList(start, _updates.size()).toArray(new SceneUpdate[count]);
+            // clients mostly lag by a handful of versions, so only a few arrays are worth keeping
+            if (_suffixes.size() >= MAX_CACHED_SUFFIXES) {
+                _suffixes.clear();
             }
+            _suffixes.put(fromVersion, updates);
         }
-        return (updates.size() == 0) ? null : updates.toArray(new SceneUpdate[updates.size()]);
+        return updates;
     }
 
     /**
@@ -101,5 +157,45 @@ public class UpdateList
         return sceneVersion == (last.getSceneVersion() + last.getVersionIncrement());
     }
 
+    /**
+     * Returns the index of the first update that operates on the specified version or later, or
+     * the size of the list if there is no such update.
+     */
+    protected int findFirst (int version)
+    {
+        int low = 0, high = _updates.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_updates.get(mid).getSceneVersion() < version) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Discards our oldest updates if we have more than our maximum history.
+     */
+    protected void trimHistory ()
+    {
+        int excess = _updates.size() - _maxHistory;
+        if (_maxHistory > 0 && excess > 0) {
+            _updates.subList(0, excess).clear();
+            _suffixes.clear();
+        }
+    }
+
+    /** Our updates, in order of increasing version. */
     protected List<SceneUpdate> _updates = Lists.newArrayList();
+
+    /** The maximum number of updates we retain, or 0 to retain them all. */
+    protected int _maxHistory;
+
+    /** Arrays returned by {@link #getUpdates}, by version, cleared when the list is modified. */
+    protected HashIntMap<SceneUpdate[]> _suffixes = new HashIntMap<SceneUpdate[]>();
+
+    /** The maximum number of arrays kept in {@link #_suffixes}. */
+    protected static final int MAX_CACHED_SUFFIXES = 8;
 }
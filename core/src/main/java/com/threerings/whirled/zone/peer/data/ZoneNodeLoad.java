@@ -0,0 +1,68 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.zone.peer.data;
+
+import com.threerings.io.SimpleStreamableObject;
+
+/**
+ * Describes the load on a zone hosting node, as published in its node object for use in
+ * deciding where new zones should be hosted.
+ */
+public class ZoneNodeLoad extends SimpleStreamableObject
+{
+    /** The number of clients connected to the node. */
+    public int occupants;
+
+    /** The number of places hosted on the node. */
+    public int places;
+
+    /** The number of units waiting to be processed by the node's invoker. */
+    public int invokerQueue;
+
+    public ZoneNodeLoad ()
+    {
+    }
+
+    public ZoneNodeLoad (int occupants, int places, int invokerQueue)
+    {
+        this.occupants = occupants;
+        this.places = places;
+        this.invokerQueue = invokerQueue;
+    }
+
+    @Override
+    public boolean equals (Object other)
+    {
+        if (!(other instanceof ZoneNodeLoad)) {
+            return false;
+        }
+        ZoneNodeLoad oload = (ZoneNodeLoad)other;
+        return occupants == oload.occupants && places == oload.places &&
+            invokerQueue == oload.invokerQueue;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+        return (occupants * 31 + places) * 31 + invokerQueue;
+    }
+}
@@ -0,0 +1,64 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.zone.peer.server;
+
+import java.util.List;
+
+/**
+ * Places each zone on the node that scores highest for it under rendezvous (highest random
+ * weight) hashing, a form of consistent hashing. Every node computes the same placement without
+ * coordination and, when a node joins or leaves, only the zones that hash to that node move.
+ */
+public class HashedPlacement
+    implements ZonePlacementStrategy
+{
+    // from interface ZonePlacementStrategy
+    public String selectNode (int zoneId, List<ZoneNodeObject> candidates)
+    {
+        String best = null;
+        long bestScore = Long.MIN_VALUE;
+        for (ZoneNodeObject node : candidates) {
+            long score = score(zoneId, node.nodeName);
+            if (best == null || score > bestScore ||
+                (score == bestScore && node.nodeName.compareTo(best) < 0)) {
+                best = node.nodeName;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Computes the score of the specified node for the specified zone.
+     */
+    protected static long score (int zoneId, String nodeName)
+    {
+        // mix the zone and node name hashes thoroughly (this is the finalizer from MurmurHash3)
+        long hash = ((long)nodeName.hashCode() << 32) ^ (zoneId & 0xFFFFFFFFL);
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,128 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.zone.peer.server;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import com.threerings.whirled.zone.peer.data.ZoneNodeLoad;
+
+/**
+ * Places new zones on the node with the lowest weighted load. Nodes publish their load only
+ * periodically, so the zones that this strategy has placed on a node since it last published its
+ * load are counted as hosted zones; otherwise a burst of new zones would all be placed on
+ * whichever node was least loaded as of its last publication.
+ */
+public class LeastLoadedPlacement
+    implements ZonePlacementStrategy
+{
+    /**
+     * Creates a strategy that weighs occupants, places, queued invoker units and hosted zones
+     * equally.
+     */
+    public LeastLoadedPlacement ()
+    {
+        this(1f, 1f, 1f, 1f);
+    }
+
+    /**
+     * Creates a strategy that weighs the components of a node's load as specified.
+     */
+    public LeastLoadedPlacement (float occupantWeight, float placeWeight, float queueWeight,
+                                 float zoneWeight)
+    {
+        _occupantWeight = occupantWeight;
+        _placeWeight = placeWeight;
+        _queueWeight = queueWeight;
+        _zoneWeight = zoneWeight;
+    }
+
+    /**
+     * Returns the weighted load of the supplied node, including the zones placed on it since it
+     * last published its load.
+     */
+    public float getLoad (ZoneNodeObject node)
+    {
+        ZoneNodeLoad load = node.load;
+        int zones = node.hostedZones.size() + getRecentPlacements(node);
+        return _occupantWeight * load.occupants + _placeWeight * load.places +
+            _queueWeight * load.invokerQueue + _zoneWeight * zones;
+    }
+
+    /**
+     * Returns the number of zones this strategy has placed on the supplied node since the node
+     * last published its load.
+     */
+    public int getRecentPlacements (ZoneNodeObject node)
+    {
+        Placements placements = _placements.get(node.nodeName);
+        return (placements == null || placements.load != node.load) ? 0 : placements.count;
+    }
+
+    // from interface ZonePlacementStrategy
+    public String selectNode (int zoneId, List<ZoneNodeObject> candidates)
+    {
+        ZoneNodeObject best = null;
+        float bestLoad = Float.MAX_VALUE;
+        for (ZoneNodeObject node : candidates) {
+            float load = getLoad(node);
+            // break ties by name so that every node makes the same choice
+            if (best == null || load < bestLoad ||
+                (load == bestLoad && node.nodeName.compareTo(best.nodeName) < 0)) {
+                best = node;
+                bestLoad = load;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        // note the placement until the node's next published load reflects it
+        Placements placements = _placements.get(best.nodeName);
+        if (placements == null) {
+            _placements.put(best.nodeName, placements = new Placements());
+        }
+        if (placements.load != best.load) {
+            placements.load = best.load;
+            placements.count = 0;
+        }
+        placements.count++;
+        return best.nodeName;
+    }
+
+    /** Tracks the zones placed on a node since it last published its load. */
+    protected static class Placements
+    {
+        /** The load published by the node when we last placed a zone on it. */
+        public ZoneNodeLoad load;
+
+        /** The number of zones placed on the node since it published that load. */
+        public int count;
+    }
+
+    /** Our recent placements, by node name. */
+    protected Map<String, Placements> _placements = Maps.newHashMap();
+
+    protected float _occupantWeight, _placeWeight, _queueWeight, _zoneWeight;
+}
@@ -21,12 +21,18 @@
 
 package com.threerings.whirled.zone.peer.server;
 
+import java.util.List;
+
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.samskivert.util.ResultListener;
 import com.samskivert.util.Tuple;
 
+import com.threerings.presents.client.InvocationService;
 import com.threerings.presents.data.ClientObject;
 import com.threerings.presents.data.InvocationCodes;
+import com.threerings.presents.peer.data.NodeObject;
+import com.threerings.presents.peer.server.PeerManager;
 import com.threerings.presents.server.InvocationException;
 import com.threerings.presents.server.InvocationManager;
 
@@ -38,6 +44,7 @@ import com.threerings.whirled.zone.client.ZoneService;
 import com.threerings.whirled.zone.data.ZoneCodes;
 import com.threerings.whirled.zone.data.ZoneSummary;
 import com.threerings.whirled.zone.peer.data.HostedZone;
+import com.threerings.whirled.zone.peer.data.ZoneHost;
 import com.threerings.whirled.zone.server.ZoneManager;
 import com.threerings.whirled.zone.server.ZoneMoveHandler;
 import com.threerings.whirled.zone.server.ZoneRegistry;
@@ -139,6 +146,76 @@ public abstract class PeeredZoneRegistry extends ZoneRegistry
      * Resolve a zone, or return the information on the peer on which it's hosted.
      */
     public void resolvePeerZone (final int zoneId, final PeerZoneResolutionListener listener)
+    {
+        resolvePeerZone(zoneId, listener, true);
+    }
+
+    /**
+     * Configures the strategy used to decide which node will host zones that are not yet hosted.
+     * The default is {@link ZonePlacementStrategy#LOCAL}, which hosts them on whichever node
+     * first requests them.
+     */
+    public void setPlacementStrategy (ZonePlacementStrategy placement)
+    {
+        _placement = placement;
+    }
+
+    /**
+     * Starts or stops draining this node. A draining node is never selected to host new zones
+     * and, when draining starts, each zone it hosts is {@link #migrateZone}d.
+     */
+    public void setDraining (boolean draining)
+    {
+        _peerMgr.setDraining(draining);
+        if (draining) {
+            for (HostedZone zone : Lists.newArrayList(_peerMgr.getZoneNodeObject().hostedZones)) {
+                migrateZone(zone.zoneId, selectHost(zone.zoneId));
+            }
+        }
+    }
+
+    /**
+     * Migrates hosted zones that our placement strategy would now place elsewhere, for use when
+     * this node has become overloaded. With {@link LeastLoadedPlacement} every zone will be
+     * misplaced on the most loaded node, so <code>maxMigrations</code> limits how many are moved
+     * in one go.
+     *
+     * @return the number of zones migrated.
+     */
+    public int rebalance (int maxMigrations)
+    {
+        int migrated = 0;
+        String self = _peerMgr.getNodeObject().nodeName;
+        for (HostedZone zone : Lists.newArrayList(_peerMgr.getZoneNodeObject().hostedZones)) {
+            if (migrated >= maxMigrations) {
+                break;
+            }
+            String host = selectHost(zone.zoneId);
+            if (host != null && !host.equals(self)) {
+                migrateZone(zone.zoneId, host);
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Resolves a zone on this node on behalf of another node, unless it is already hosted.
+     * Called by the node that our placement strategy selected to host the zone.
+     */
+    public void resolvePlacedZone (int zoneId, PeerZoneResolutionListener listener)
+    {
+        resolvePeerZone(zoneId, listener, false);
+    }
+
+    /**
+     * Resolve a zone, or return the information on the peer on which it's hosted.
+     *
+     * @param place if true and the zone is not yet hosted, the zone will be resolved on the node
+     * selected by our placement strategy, otherwise it will be resolved here.
+     */
+    protected void resolvePeerZone (
+        final int zoneId, final PeerZoneResolutionListener listener, boolean place)
     {
         // check to see if the destination zone is already hosted on a server
         Tuple<String, HostedZone> nodeInfo = _peerMgr.getZoneHost(zoneId);
@@ -153,11 +230,65 @@ public abstract class PeeredZoneRegistry extends ZoneRegistry
             }
             return;
 
+        } else if (place) {
+            placeNewZone(zoneId, listener);
+
         } else {
             resolveNewZone(zoneId, listener);
         }
     }
 
+    /**
+     * Resolves a zone that's not yet hosted on the node selected by our placement strategy.
+     */
+    protected void placeNewZone (final int zoneId, final PeerZoneResolutionListener listener)
+    {
+        final String host = selectHost(zoneId);
+        if (host == null || host.equals(_peerMgr.getNodeObject().nodeName)) {
+            resolveNewZone(zoneId, listener);
+            return;
+        }
+
+        _peerMgr.invokeNodeRequest(host, new ResolveZoneRequest(zoneId),
+            new InvocationService.ResultListener() {
+                public void requestProcessed (Object result) {
+                    ZoneHost zhost = (ZoneHost)result;
+                    if (_peerMgr.getNodeObject().nodeName.equals(zhost.nodeName)) {
+                        resolveZone(zoneId, listener); // we got there first after all
+                    } else {
+                        listener.zoneOnNode(Tuple.newTuple(zhost.nodeName, zhost.zone));
+                    }
+                }
+                public void requestFailed (String cause) {
+                    log.warning("Failed to resolve zone on selected node, resolving locally",
+                        "zoneId", zoneId, "host", host, "cause", cause);
+                    resolveNewZone(zoneId, listener);
+                }
+            });
+    }
+
+    /**
+     * Returns the name of the node that our placement strategy selects to host the specified
+     * zone, or null if it should be hosted on this node.
+     */
+    protected String selectHost (int zoneId)
+    {
+        List<ZoneNodeObject> candidates = getPlacementCandidates(_peerMgr.getNodeObjects());
+        return candidates.isEmpty() ? null : _placement.selectNode(zoneId, candidates);
+    }
+
+    /**
+     * Called to migrate a zone hosted on this node to another node, when this node starts
+     * draining or is {@link #rebalance}d. Moving a zone's occupants is specific to the
+     * application, so derived classes must implement this: they should move the zone's occupants
+     * to the target node (which will resolve the zone there) and then shut the zone down here.
+     *
+     * @param targetNode the node our placement strategy would now select to host the zone, or
+     * null if there is no other suitable node, in which case the zone should be left in place or
+     * shut down once its occupants have left.
+     */
+    protected abstract void migrateZone (int zoneId, String targetNode);
+
     /**
      * Resolve a zone that's not yet hosted.
      */
@@ -229,5 +360,68 @@ public abstract class PeeredZoneRegistry extends ZoneRegistry
         _peerMgr.zoneDidShutdown(zoneId);
     }
 
+    /**
+     * Returns the nodes from among those supplied that may host new zones: all nodes that are not
+     * draining, or none if they all are.
+     */
+    protected static List<ZoneNodeObject> getPlacementCandidates (Iterable<NodeObject> nodes)
+    {
+        List<ZoneNodeObject> candidates = Lists.newArrayList();
+        for (NodeObject node : nodes) {
+            if (!((ZoneNodeObject)node).draining) {
+                candidates.add((ZoneNodeObject)node);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Asks a node to host a zone selected for it by the requesting node's placement strategy.
+     */
+    protected static class ResolveZoneRequest extends PeerManager.NodeRequest
+    {
+        public ResolveZoneRequest (int zoneId)
+        {
+            _zoneId = zoneId;
+        }
+
+        public ResolveZoneRequest ()
+        {
+        }
+
+        // from interface PeerManager.NodeApplicant
+        public boolean isApplicable (NodeObject nodeobj)
+        {
+            return true;
+        }
+
+        @Override
+        protected void execute (final InvocationService.ResultListener listener)
+        {
+            PeeredZoneRegistry zoneReg = (PeeredZoneRegistry)_zoneReg;
+            zoneReg.resolvePlacedZone(_zoneId, new PeerZoneResolutionListener() {
+                public void zoneWasResolved (ZoneSummary zonesum) {
+                    listener.requestProcessed(new ZoneHost(
+                        _peerMgr.getNodeObject().nodeName,
+                        new HostedZone(zonesum.zoneId, zonesum.name)));
+                }
+                public void zoneOnNode (Tuple<String, HostedZone> nodeInfo) {
+                    listener.requestProcessed(new ZoneHost(nodeInfo.left, nodeInfo.right));
+                }
+                public void zoneFailedToResolve (int zoneId, Exception reason) {
+                    listener.requestFailed(reason.getMessage());
+                }
+            });
+        }
+
+        protected int _zoneId;
+
+        @Inject protected transient ZoneRegistry _zoneReg;
+        @Inject protected transient ZonePeerManager _peerMgr;
+    }
+
     protected ZonePeerManager _peerMgr;
+
+    /** Decides where new zones are hosted. */
+    protected ZonePlacementStrategy _placement = ZonePlacementStrategy.LOCAL;
 }
@@ -0,0 +1,154 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.zone.peer.server;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.HashIntMap;
+
+import com.threerings.whirled.zone.peer.data.HostedZone;
+
+/**
+ * Maps zone ids to the node hosting them, kept up to date from the <code>hostedZones</code> sets
+ * of the nodes' {@link ZoneNodeObject}s so that a zone's host can be found without visiting
+ * every node. When more than one node claims a zone, the node that was registered first wins,
+ * as it would when visiting the nodes in order.
+ */
+public class ZoneHostIndex
+{
+    /**
+     * Registers a node and indexes all of the zones it hosts, replacing any previously
+     * registered node object with the same name. Call this again to reindex a node whose hosted
+     * zones set was replaced wholesale.
+     */
+    public void addNode (ZoneNodeObject node)
+    {
+        if (_nodes.containsKey(node.nodeName)) {
+            removeNode(node.nodeName);
+        }
+        _nodes.put(node.nodeName, node);
+        for (HostedZone zone : node.hostedZones) {
+            zoneAdded(node, zone.zoneId);
+        }
+    }
+
+    /**
+     * Unregisters the named node and removes its zones from the index.
+     */
+    public void removeNode (String nodeName)
+    {
+        ZoneNodeObject node = _nodes.remove(nodeName);
+        if (node == null) {
+            return;
+        }
+        for (HostedZone zone : node.hostedZones) {
+            zoneRemoved(node, zone.zoneId);
+        }
+    }
+
+    /**
+     * Notes that the supplied node has started hosting the specified zone.
+     */
+    public void zoneAdded (ZoneNodeObject node, int zoneId)
+    {
+        if (_nodes.get(node.nodeName) != node) {
+            return; // a stale node object, ignore it
+        }
+        ZoneNodeObject host = _hosts.get(zoneId);
+        if (host == null || !isHosting(host, zoneId)) {
+            _hosts.put(zoneId, node);
+        }
+    }
+
+    /**
+     * Notes that the supplied node is no longer hosting the specified zone.
+     */
+    public void zoneRemoved (ZoneNodeObject node, int zoneId)
+    {
+        if (_hosts.get(zoneId) == node) {
+            _hosts.remove(zoneId);
+            // in the unlikely event that some other node also claims this zone, it's now the host
+            ZoneNodeObject host = findHost(zoneId);
+            if (host != null) {
+                _hosts.put(zoneId, host);
+            }
+        }
+    }
+
+    /**
+     * Returns the node object of the node hosting the specified zone, or null if no registered
+     * node is hosting the zone.
+     */
+    public ZoneNodeObject getHost (int zoneId)
+    {
+        ZoneNodeObject host = _hosts.get(zoneId);
+        if (host == null || isHosting(host, zoneId)) {
+            return host;
+        }
+
+        // we missed an event somewhere; correct our records
+        host = findHost(zoneId);
+        if (host == null) {
+            _hosts.remove(zoneId);
+        } else {
+            _hosts.put(zoneId, host);
+        }
+        return host;
+    }
+
+    /**
+     * Returns the number of zones in the index.
+     */
+    public int size ()
+    {
+        return _hosts.size();
+    }
+
+    /**
+     * Returns true if the supplied node is registered and claims to host the specified zone.
+     */
+    protected boolean isHosting (ZoneNodeObject node, int zoneId)
+    {
+        return _nodes.get(node.nodeName) == node && node.hostedZones.containsKey(zoneId);
+    }
+
+    /**
+     * Locates the host of the specified zone by visiting every registered node.
+     */
+    protected ZoneNodeObject findHost (int zoneId)
+    {
+        for (ZoneNodeObject node : _nodes.values()) {
+            if (node.hostedZones.containsKey(zoneId)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /** Our registered nodes, by name, in the order in which they were registered. */
+    protected Map<String, ZoneNodeObject> _nodes = Maps.newLinkedHashMap();
+
+    /** The node hosting each zone, by zone id. */
+    protected HashIntMap<ZoneNodeObject> _hosts = new HashIntMap<ZoneNodeObject>();
+}
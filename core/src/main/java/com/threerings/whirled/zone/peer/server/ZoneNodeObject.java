@@ -26,6 +26,7 @@ import com.threerings.presents.dobj.DSet;
 import com.threerings.crowd.peer.data.CrowdNodeObject;
 
 import com.threerings.whirled.zone.peer.data.HostedZone;
+import com.threerings.whirled.zone.peer.data.ZoneNodeLoad;
 
 public class ZoneNodeObject extends CrowdNodeObject
 {
@@ -33,11 +34,25 @@ public class ZoneNodeObject extends CrowdNodeObject
     /** The field name of the <code>hostedZones</code> field. */
     @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
     public static final String HOSTED_ZONES = "hostedZones";
+
+    /** The field name of the <code>load</code> field. */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public static final String LOAD = "load";
+
+    /** The field name of the <code>draining</code> field. */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public static final String DRAINING = "draining";
     // AUTO-GENERATED: FIELDS END
 
     /** Contains info on all zones hosted by this server. */
     public DSet<HostedZone> hostedZones = DSet.newDSet();
 
+    /** The most recently published load on this server. */
+    public ZoneNodeLoad load = new ZoneNodeLoad();
+
+    /** Whether this server is draining: it accepts no new zones and sheds those it hosts. */
+    public boolean draining;
+
     // AUTO-GENERATED: METHODS START
     /**
      * Requests that the specified entry be added to the
@@ -89,5 +104,39 @@ public class ZoneNodeObject extends CrowdNodeObject
         DSet<HostedZone> clone = (value == null) ? null : value.clone();
         this.hostedZones = clone;
     }
+
+    /**
+     * Requests that the <code>load</code> field be set to the
+     * specified value. The local value will be updated immediately and an
+     * event will be propagated through the system to notify all listeners
+     * that the attribute did change. Proxied copies of this object (on
+     * clients) will apply the value change when they received the
+     * attribute changed notification.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void setLoad (ZoneNodeLoad value)
+    {
+        ZoneNodeLoad ovalue = this.load;
+        requestAttributeChange(
+            LOAD, value, ovalue);
+        this.load = value;
+    }
+
+    /**
+     * Requests that the <code>draining</code> field be set to the
+     * specified value. The local value will be updated immediately and an
+     * event will be propagated through the system to notify all listeners
+     * that the attribute did change. Proxied copies of this object (on
+     * clients) will apply the value change when they received the
+     * attribute changed notification.
+     */
+    @Generated(value={"com.threerings.presents.tools.GenDObjectTask"})
+    public void setDraining (boolean value)
+    {
+        boolean ovalue = this.draining;
+        requestAttributeChange(
+            DRAINING, Boolean.valueOf(value), Boolean.valueOf(ovalue));
+        this.draining = value;
+    }
     // AUTO-GENERATED: METHODS END
 }
@@ -21,17 +21,30 @@
 
 package com.threerings.whirled.zone.peer.server;
 
+import java.util.Iterator;
+
 import com.google.common.base.Function;
 import com.google.inject.Inject;
+import com.samskivert.util.Interval;
 import com.samskivert.util.Lifecycle;
 import com.samskivert.util.Tuple;
 
 import com.threerings.util.Name;
 
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+import com.threerings.presents.dobj.EntryAddedEvent;
+import com.threerings.presents.dobj.EntryRemovedEvent;
+import com.threerings.presents.dobj.EntryUpdatedEvent;
+import com.threerings.presents.dobj.SetListener;
 import com.threerings.presents.peer.data.NodeObject;
+import com.threerings.presents.peer.server.PeerNode;
 import com.threerings.crowd.peer.server.CrowdPeerManager;
+import com.threerings.crowd.server.PlaceManager;
+import com.threerings.crowd.server.PlaceRegistry;
 
 import com.threerings.whirled.zone.peer.data.HostedZone;
+import com.threerings.whirled.zone.peer.data.ZoneNodeLoad;
 
 import static com.threerings.whirled.zone.Log.log;
 
@@ -61,15 +74,42 @@ public abstract class ZonePeerManager extends CrowdPeerManager
      * Returns the node name of the peer that is hosting the specified scene, or null if no peer
      * has published that they are hosting the scene.
      */
-    public Tuple<String, HostedZone> getZoneHost (final int zoneId)
+    public Tuple<String, HostedZone> getZoneHost (int zoneId)
     {
-        return lookupNodeDatum(new NodeFunc<Tuple<String, HostedZone>>() {
-            @Override
-            public Tuple<String, HostedZone> apply (ZoneNodeObject nodeobj) {
-                HostedZone info = nodeobj.hostedZones.get(zoneId);
-                return (info == null) ? null : Tuple.newTuple(nodeobj.nodeName, info);
-            }
-        });
+        ZoneNodeObject nodeobj = _zoneHosts.getHost(zoneId);
+        return (nodeobj == null) ? null :
+            Tuple.newTuple(nodeobj.nodeName, nodeobj.hostedZones.get(zoneId));
+    }
+
+    /**
+     * Returns this node's zone node object.
+     */
+    public ZoneNodeObject getZoneNodeObject ()
+    {
+        return (ZoneNodeObject)_nodeobj;
+    }
+
+    /**
+     * Marks this node as draining (or not), which is published to our peers so that no new
+     * zones are placed here.
+     */
+    public void setDraining (boolean draining)
+    {
+        if (getZoneNodeObject().draining != draining) {
+            getZoneNodeObject().setDraining(draining);
+        }
+    }
+
+    /**
+     * Publishes the current load on this node in our node object, if it has changed. This is
+     * done periodically, but may be called to publish a change immediately.
+     */
+    public void publishLoad ()
+    {
+        ZoneNodeLoad load = computeLoad();
+        if (!load.equals(getZoneNodeObject().load)) {
+            getZoneNodeObject().setLoad(load);
+        }
     }
 
     /**
@@ -90,6 +130,71 @@ public abstract class ZonePeerManager extends CrowdPeerManager
         ((ZoneNodeObject)_nodeobj).removeFromHostedZones(zoneId);
     }
 
+    @Override // from CrowdPeerManager
+    protected void didInit ()
+    {
+        super.didInit();
+
+        // index the zones we host
+        watchZoneHosts(getZoneNodeObject());
+
+        // publish our load now and periodically hereafter
+        publishLoad();
+        _loadPublisher = new Interval(_omgr) {
+            @Override public void expired () {
+                publishLoad();
+            }
+        };
+        _loadPublisher.schedule(LOAD_PUBLISH_INTERVAL, true);
+    }
+
+    @Override // from CrowdPeerManager
+    public void shutdown ()
+    {
+        if (_loadPublisher != null) {
+            _loadPublisher.cancel();
+            _loadPublisher = null;
+        }
+        super.shutdown();
+    }
+
+    @Override // from CrowdPeerManager
+    protected void connectedToPeer (PeerNode peer)
+    {
+        super.connectedToPeer(peer);
+        watchZoneHosts((ZoneNodeObject)peer.nodeobj);
+    }
+
+    @Override // from CrowdPeerManager
+    protected void disconnectedFromPeer (PeerNode peer)
+    {
+        super.disconnectedFromPeer(peer);
+        _zoneHosts.removeNode(peer.getNodeName());
+    }
+
+    /**
+     * Indexes the zones hosted by the supplied node and keeps the index up to date as they
+     * change.
+     */
+    protected void watchZoneHosts (ZoneNodeObject nodeobj)
+    {
+        _zoneHosts.addNode(nodeobj);
+        nodeobj.addListener(new ZoneHostUpdater(nodeobj));
+    }
+
+    /**
+     * Computes the load on this node for publication. Derived classes may wish to refine this.
+     */
+    protected ZoneNodeLoad computeLoad ()
+    {
+        int places = 0;
+        for (Iterator<PlaceManager> iter = _plreg.enumeratePlaceManagers(); iter.hasNext(); ) {
+            iter.next();
+            places++;
+        }
+        return new ZoneNodeLoad(_clmgr.getClientCount(), places, _invoker.getPendingUnits());
+    }
+
     /** Useful with {@link #lookupNodeDatum}. */
     public static abstract class NodeFunc<T> implements Function<NodeObject, T>
     {
@@ -99,4 +204,59 @@ public abstract class ZonePeerManager extends CrowdPeerManager
             return apply((ZoneNodeObject)nodeobj);
         }
     }
+
+    /** Keeps {@link #_zoneHosts} up to date with a node's hosted zones. */
+    protected class ZoneHostUpdater
+        implements SetListener<HostedZone>, AttributeChangeListener
+    {
+        public ZoneHostUpdater (ZoneNodeObject nodeobj)
+        {
+            _zobj = nodeobj;
+        }
+
+        // from interface SetListener
+        public void entryAdded (EntryAddedEvent<HostedZone> event)
+        {
+            if (event.getName().equals(ZoneNodeObject.HOSTED_ZONES)) {
+                _zoneHosts.zoneAdded(_zobj, event.getEntry().zoneId);
+            }
+        }
+
+        // from interface SetListener
+        public void entryUpdated (EntryUpdatedEvent<HostedZone> event)
+        {
+            if (event.getName().equals(ZoneNodeObject.HOSTED_ZONES)) {
+                _zoneHosts.zoneAdded(_zobj, event.getEntry().zoneId);
+            }
+        }
+
+        // from interface SetListener
+        public void entryRemoved (EntryRemovedEvent<HostedZone> event)
+        {
+            if (event.getName().equals(ZoneNodeObject.HOSTED_ZONES)) {
+                _zoneHosts.zoneRemoved(_zobj, (Integer)event.getKey());
+            }
+        }
+
+        // from interface AttributeChangeListener
+        public void attributeChanged (AttributeChangedEvent event)
+        {
+            if (event.getName().equals(ZoneNodeObject.HOSTED_ZONES)) {
+                _zoneHosts.addNode(_zobj);
+            }
+        }
+
+        protected ZoneNodeObject _zobj;
+    }
+
+    /** Maps zone ids to the node object of the node hosting them. */
+    protected ZoneHostIndex _zoneHosts = new ZoneHostIndex();
+
+    /** Periodically publishes our load. */
+    protected Interval _loadPublisher;
+
+    @Inject protected PlaceRegistry _plreg;
+
+    /** The interval (in milliseconds) at which we publish our load. */
+    protected static final long LOAD_PUBLISH_INTERVAL = 5 * 1000L;
 }
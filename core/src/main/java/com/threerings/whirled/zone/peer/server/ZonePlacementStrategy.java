@@ -0,0 +1,49 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.zone.peer.server;
+
+import java.util.List;
+
+/**
+ * Decides which node should host a zone that is not yet hosted anywhere. Configured with {@link
+ * PeeredZoneRegistry#setPlacementStrategy}.
+ */
+public interface ZonePlacementStrategy
+{
+    /** Hosts zones on whichever node first requests them, the historical behavior. */
+    public static final ZonePlacementStrategy LOCAL = new ZonePlacementStrategy() {
+        public String selectNode (int zoneId, List<ZoneNodeObject> candidates) {
+            return null;
+        }
+    };
+
+    /**
+     * Selects the node that should host the specified zone. This is called once for each zone
+     * to be placed, on the requesting node's dobjmgr thread.
+     *
+     * @param candidates the node objects of the nodes that may host the zone, which will include
+     * that of the requesting node, in no particular order.
+     *
+     * @return the name of the selected node, or null to host the zone on the requesting node.
+     */
+    public String selectNode (int zoneId, List<ZoneNodeObject> candidates);
+}
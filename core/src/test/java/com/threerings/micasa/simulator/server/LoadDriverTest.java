@@ -0,0 +1,368 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.micasa.simulator.server;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+import com.samskivert.util.Interval;
+import com.samskivert.util.ResultListener;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.dobj.CompoundEvent;
+import com.threerings.presents.dobj.DEvent;
+import com.threerings.presents.dobj.DObject;
+import com.threerings.presents.dobj.DObjectManager;
+import com.threerings.presents.dobj.Subscriber;
+
+import com.threerings.crowd.data.BodyObject;
+import com.threerings.crowd.server.PlaceManagerDelegate;
+
+import com.threerings.parlor.TestConfig;
+import com.threerings.parlor.game.data.GameConfig;
+import com.threerings.parlor.game.data.GameObject;
+import com.threerings.parlor.game.server.GameManager;
+import com.threerings.parlor.game.server.GameManagerDelegate;
+import com.threerings.parlor.turn.data.TurnGameObject;
+import com.threerings.parlor.turn.server.TurnGameManager;
+import com.threerings.parlor.turn.server.TurnGameManagerDelegate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the profile selection and game accounting of {@link LoadDriver}, and the playing of a
+ * turn-based game by {@link TurnGameSimulant}s.
+ */
+public class LoadDriverTest
+{
+    @Before public void createDriver ()
+    {
+        _driver = new LoadDriver() {
+            @Override protected void createSimulatedGame (Profile profile, GameConfig config,
+                                                  ResultListener<GameManager> listener) {
+                _created++;
+                if (_simulate) {
+                    listener.requestCompleted(createTurnGame(profile, config));
+                } else {
+                    listener.requestFailed(new Exception("Simulated failure"));
+                }
+            }
+        };
+        _driver._rando = new Random(42);
+        // we call tick() ourselves rather than waiting for the ticker
+        _driver._ticker = new Interval(Interval.RUN_DIRECT) {
+            @Override public void expired () {
+                // nada
+            }
+        };
+    }
+
+    @Test public void testCreateConfig ()
+        throws Exception
+    {
+        LoadDriver.Profile profile = new LoadDriver.Profile(
+            TestConfig.class.getName(), "Simulant", 2, 1);
+        assertTrue(profile.createConfig() instanceof TestConfig);
+    }
+
+    @Test public void testSelectProfile ()
+    {
+        LoadDriver.Profile light = new LoadDriver.Profile("light", "Simulant", 2, 1);
+        LoadDriver.Profile heavy = new LoadDriver.Profile("heavy", "Simulant", 2, 3);
+        LoadDriver.Profile never = new LoadDriver.Profile("never", "Simulant", 2, 0);
+        _driver.addProfile(light);
+        _driver.addProfile(never);
+        _driver.addProfile(heavy);
+
+        int lights = 0, heavies = 0;
+        for (int ii = 0; ii < 4000; ii++) {
+            LoadDriver.Profile profile = _driver.selectProfile();
+            assertNotSame(never, profile);
+            if (profile == light) {
+                lights++;
+            } else {
+                heavies++;
+            }
+        }
+        assertEquals(1000, lights, 100);
+        assertEquals(3000, heavies, 100);
+    }
+
+    @Test public void testFailedGames ()
+    {
+        _driver.addProfile(new LoadDriver.Profile(TestConfig.class.getName(), "Simulant", 2, 1));
+        _driver._concurrency = 2;
+        _driver._remaining = 5;
+        // start two games per tick
+        _driver.setStartRate((int)(2000 / LoadDriver.TICK_INTERVAL));
+        _driver._listener = new ResultListener<LoadStats>() {
+            public void requestCompleted (LoadStats stats) {
+                _completed++;
+            }
+            public void requestFailed (Exception cause) {
+                fail();
+            }
+        };
+
+        long now = System.currentTimeMillis();
+        _driver.tick(now);
+        assertEquals(2, _created);
+        assertTrue(_driver._games.isEmpty());
+        assertNotNull(_driver._ticker);
+
+        _driver.tick(now + LoadDriver.TICK_INTERVAL);
+        assertEquals(4, _created);
+        assertEquals(0, _completed);
+
+        _driver.tick(now + 2 * LoadDriver.TICK_INTERVAL);
+        assertEquals(5, _created);
+        assertEquals(1, _completed);
+        assertNull(_driver._ticker);
+
+        LoadStats stats = _driver.getStats();
+        assertEquals(5, stats.getRequestedCount());
+        assertEquals(5, stats.getFailedCount());
+        assertEquals(0, stats.getStartedCount());
+    }
+
+    @Test public void testBadConfig ()
+    {
+        _driver.addProfile(new LoadDriver.Profile("no.such.Config", "Simulant", 2, 1));
+        _driver._concurrency = 2;
+        _driver._remaining = 3;
+        _driver.tick(System.currentTimeMillis());
+
+        // games whose config can't be created are never requested
+        assertEquals(0, _created);
+        assertEquals(0, _driver.getStats().getRequestedCount());
+        assertEquals(3, _driver.getStats().getFailedCount());
+    }
+
+    @Test public void testTurnGames ()
+        throws Exception
+    {
+        _simulate = true;
+        _driver.addProfile(new LoadDriver.Profile(
+            TestConfig.class.getName(), TurnGameSimulant.class.getName(), 3, 1));
+        _driver._concurrency = 2;
+        _driver._remaining = 4;
+        _driver.setStartRate((int)(2000 / LoadDriver.TICK_INTERVAL));
+        _driver._listener = new ResultListener<LoadStats>() {
+            public void requestCompleted (LoadStats stats) {
+                _completed++;
+            }
+            public void requestFailed (Exception cause) {
+                fail();
+            }
+        };
+
+        // the simulants play each pair of games through to the end before the next tick
+        long now = System.currentTimeMillis();
+        for (int ii = 0; ii < 3; ii++) {
+            _driver.tick(now);
+            dispatchEvents();
+        }
+        assertEquals(4, _created);
+        assertEquals(1, _completed);
+        assertNull(_driver._ticker);
+
+        for (TurnGame game : _games) {
+            assertEquals(GameObject.GAME_OVER, game.state);
+        }
+
+        // each simulant took all of its turns, then the first of them to come up again ended
+        // the game
+        LoadStats stats = _driver.getStats();
+        assertEquals(4, stats.getStartedCount());
+        assertEquals(4, stats.getEndedCount());
+        assertEquals(0, stats.getFailedCount());
+        assertEquals(4 * 3 * TurnGameSimulant.DEFAULT_TURN_LIMIT, stats.getEventCount());
+    }
+
+    /**
+     * Creates a turn game manager and object for the supplied profile and seats simulants of the
+     * profile's class in it, much as does the simulator manager on a running server.
+     */
+    protected GameManager createTurnGame (LoadDriver.Profile profile, GameConfig config)
+    {
+        TurnGame gameobj = new TurnGame();
+        register(gameobj);
+        gameobj.players = new Name[profile.players];
+        BodyObject[] bodies = new BodyObject[profile.players];
+        for (int ii = 0; ii < bodies.length; ii++) {
+            bodies[ii] = new BodyObject();
+            bodies[ii].username = gameobj.players[ii] = new Name("sim" + _objects.size());
+            register(bodies[ii]);
+        }
+        _games.add(gameobj);
+
+        TurnGameManagerDelegate delegate = new TurnGameManagerDelegate();
+        TurnManager gmgr = new TurnManager(gameobj, bodies);
+        gmgr.addDelegate(delegate);
+        delegate.init(gmgr, null, null);
+        delegate.didInit(config);
+        delegate.didStartup(gameobj);
+
+        for (BodyObject body : bodies) {
+            try {
+                Simulant sim = (Simulant)Class.forName(profile.simClass).newInstance();
+                sim.setLoadStats(_driver.getStats());
+                sim.init(body, config, gmgr, _omgr);
+                sim.willEnterPlace(gameobj);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return gmgr;
+    }
+
+    protected void register (DObject object)
+    {
+        _objects.add(object);
+        object.setOid(_objects.size());
+        object.setManager(_omgr);
+    }
+
+    /**
+     * Applies and dispatches posted events until there are none left.
+     */
+    protected void dispatchEvents ()
+        throws Exception
+    {
+        while (!_posted.isEmpty()) {
+            DEvent event = _posted.remove(0);
+            List<DEvent> events = (event instanceof CompoundEvent) ?
+                ((CompoundEvent)event).getEvents() : Lists.newArrayList(event);
+            for (DEvent sevent : events) {
+                DObject target = _objects.get(sevent.getTargetOid() - 1);
+                sevent.applyToObject(target);
+                target.notifyListeners(sevent);
+            }
+        }
+    }
+
+    /** A turn-based game object. */
+    protected static class TurnGame extends GameObject
+        implements TurnGameObject
+    {
+        public Name turnHolder;
+
+        // from interface TurnGameObject
+        public String getTurnHolderFieldName () {
+            return TURN_HOLDER;
+        }
+
+        // from interface TurnGameObject
+        public Name getTurnHolder () {
+            return turnHolder;
+        }
+
+        // from interface TurnGameObject
+        public void setTurnHolder (Name value) {
+            Name ovalue = turnHolder;
+            requestAttributeChange(TURN_HOLDER, value, ovalue);
+            turnHolder = value;
+        }
+
+        // from interface TurnGameObject
+        public Name[] getPlayers () {
+            return players;
+        }
+
+        public static final String TURN_HOLDER = "turnHolder";
+    }
+
+    /** A turn game manager that starts its game once all of its players are ready. */
+    protected static class TurnManager extends GameManager
+        implements TurnGameManager
+    {
+        public TurnManager (GameObject gameobj, BodyObject[] bodies) {
+            _plobj = _gameobj = gameobj;
+            _playerCount = bodies.length;
+            _playerOids = new int[bodies.length];
+            for (int ii = 0; ii < bodies.length; ii++) {
+                _playerOids[ii] = bodies[ii].getOid();
+            }
+        }
+
+        @Override public void playerReady (BodyObject caller) {
+            if (++_ready == _playerCount) {
+                _gameobj.setState(GameObject.IN_PLAY);
+                applyToDelegates(new DelegateOp(GameManagerDelegate.class) {
+                    @Override public void apply (PlaceManagerDelegate delegate) {
+                        ((GameManagerDelegate)delegate).gameDidStart();
+                    }
+                });
+            }
+        }
+
+        @Override public void endGame () {
+            _gameobj.setState(GameObject.GAME_OVER);
+        }
+
+        // from interface TurnGameManager
+        public void turnWillStart () {
+        }
+
+        // from interface TurnGameManager
+        public void turnDidStart () {
+        }
+
+        // from interface TurnGameManager
+        public void turnDidEnd () {
+        }
+
+        protected int _ready;
+    }
+
+    protected LoadDriver _driver;
+    protected int _created, _completed;
+    protected boolean _simulate;
+    protected List<TurnGame> _games = Lists.newArrayList();
+    protected List<DObject> _objects = Lists.newArrayList();
+    protected List<DEvent> _posted = Lists.newArrayList();
+
+    /** Queues the events posted by our game and body objects for {@link #dispatchEvents}. */
+    protected DObjectManager _omgr = new DObjectManager() {
+        public boolean isManager (DObject object) {
+            return true;
+        }
+        public <T extends DObject> void subscribeToObject (int oid, Subscriber<T> target) {
+            // not needed
+        }
+        public <T extends DObject> void unsubscribeFromObject (int oid, Subscriber<T> target) {
+            // not needed
+        }
+        public void postEvent (DEvent event) {
+            _posted.add(event);
+        }
+        public void removedLastSubscriber (DObject obj, boolean deathWish) {
+            // not needed
+        }
+    };
+}
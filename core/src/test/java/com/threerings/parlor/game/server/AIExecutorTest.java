@@ -0,0 +1,143 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.game.server;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import com.samskivert.util.Lifecycle;
+
+import com.threerings.parlor.server.TimerWheel;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link AIExecutor} class.
+ */
+public class AIExecutorTest
+{
+    @Test public void testApply ()
+        throws Exception
+    {
+        TestExecutor exec = new TestExecutor();
+        final int[] board = { 3, 1, 4, 1, 5 };
+        final List<Integer> moves = Lists.newArrayList();
+        AIExecutor.Decision<Integer> decision = new AIExecutor.Decision<Integer>() {
+            @Override public Integer decide () {
+                int best = 0;
+                for (int ii = 1; ii < _snapshot.length; ii++) {
+                    best = (_snapshot[ii] > _snapshot[best]) ? ii : best;
+                }
+                return best;
+            }
+            @Override public void apply (Integer move) {
+                moves.add(move);
+            }
+            protected int[] _snapshot = board.clone();
+        };
+        assertTrue(exec.execute(decision, 1000L));
+        board[4] = 0; // changes after the snapshot do not affect the decision
+        exec.runNext();
+        assertEquals(Lists.newArrayList(4), moves);
+        assertTrue(decision.isDone());
+        assertEquals(0, exec.getOverrunCount());
+    }
+
+    @Test public void testCancelAndOverrun ()
+        throws Exception
+    {
+        TestExecutor exec = new TestExecutor();
+        final List<String> applied = Lists.newArrayList();
+        final CountDownLatch started = new CountDownLatch(1);
+        AIExecutor.Decision<String> slow = new AIExecutor.Decision<String>() {
+            @Override public String decide () throws Exception {
+                started.countDown();
+                while (!isCancelled()) {
+                    Thread.sleep(1);
+                }
+                return "slow";
+            }
+            @Override public void apply (String action) {
+                applied.add(action);
+            }
+        };
+        AIExecutor.Decision<String> cancelled = new AIExecutor.Decision<String>() {
+            @Override public String decide () {
+                return "cancelled";
+            }
+            @Override public void apply (String action) {
+                applied.add(action);
+            }
+        };
+
+        exec.execute(slow, 10L);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        slow._budgetTimer.expired(); // as the wheel would once the budget elapses
+        assertEquals(1, exec.getOverrunCount());
+        assertTrue(slow.isDone());
+
+        exec.execute(cancelled, 1000L);
+        cancelled.cancel(); // as when the game ends or the player is replaced
+        exec.runPosted(100L);
+        assertTrue(applied.isEmpty());
+    }
+
+    protected static class TestExecutor extends AIExecutor
+    {
+        public TestExecutor () {
+            super(new Lifecycle());
+            _timers = new TimerWheel(null) {
+                @Override protected void startDriver () {
+                    // we expire our timers by hand
+                }
+            };
+        }
+
+        /** Runs the next runnable posted to the "dobjmgr thread". */
+        public void runNext () throws InterruptedException {
+            Runnable runnable = _posted.poll(5, TimeUnit.SECONDS);
+            assertNotNull(runnable);
+            runnable.run();
+        }
+
+        /** Runs anything posted to the "dobjmgr thread" within the specified time. */
+        public void runPosted (long millis) throws InterruptedException {
+            Runnable runnable;
+            while ((runnable = _posted.poll(millis, TimeUnit.MILLISECONDS)) != null) {
+                runnable.run();
+            }
+        }
+
+        @Override protected void postToDObjectThread (Runnable runnable) {
+            _posted.add(runnable);
+        }
+
+        protected BlockingQueue<Runnable> _posted = new LinkedBlockingQueue<Runnable>();
+    }
+}
@@ -0,0 +1,134 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+
+import com.samskivert.util.IntMap;
+
+import com.threerings.parlor.rating.data.RatingCodes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RatingEngine} implementations.
+ */
+public class RatingEngineTest
+    implements RatingCodes
+{
+    @Test public void testElo ()
+    {
+        Rating[] ratings = newRatings(new EloRatingEngine(), 2);
+        boolean[] updated = new EloRatingEngine().updateRatings(
+            ratings, new int[] { 0, 1 }, new int[] { 0, 1 });
+        assertTrue(updated[0] && updated[1]);
+        assertEquals(DEFAULT_RATING + 32, ratings[0].rating);
+        assertEquals(DEFAULT_RATING - 32, ratings[1].rating);
+    }
+
+    @Test public void testGlicko2 ()
+    {
+        // the example from Glickman's description of Glicko-2, shifted to our default rating: a
+        // player rated 1500 (200) beats a 1400 (30) and loses to a 1550 (100) and a 1700 (300)
+        Glicko2RatingEngine engine = new Glicko2RatingEngine();
+        Rating[] ratings = new Rating[] {
+            newRating(1500, 200), newRating(1400, 30), newRating(1550, 100), newRating(1700, 300)
+        };
+        for (Rating rating : ratings) {
+            rating.rating -= 1500 - DEFAULT_RATING;
+            rating.volatility = 0.06f;
+        }
+        engine.updateRatings(ratings, new int[] { 0, 1, 2, 3 }, new int[] { 1, 2, 0, 0 });
+        assertEquals(1464 - 1500 + DEFAULT_RATING, ratings[0].rating);
+        assertEquals(151.52f, ratings[0].deviation, 0.01f);
+        assertEquals(0.05999f, ratings[0].volatility, 0.00001f);
+    }
+
+    @Test public void testTrueSkill ()
+    {
+        TrueSkillRatingEngine engine = new TrueSkillRatingEngine();
+
+        // two new players: the winner gains what the loser loses and both become more certain
+        Rating[] ratings = newRatings(engine, 2);
+        engine.updateRatings(ratings, new int[] { 0, 1 }, new int[] { 0, 1 });
+        assertTrue(ratings[0].rating > DEFAULT_RATING);
+        assertEquals(DEFAULT_RATING - ratings[0].rating, ratings[1].rating - DEFAULT_RATING, 1);
+        assertTrue(ratings[0].deviation < TrueSkillRatingEngine.DEFAULT_DEVIATION);
+
+        // on a team, the less certain player moves further
+        ratings = newRatings(engine, 4);
+        ratings[0].deviation = 100;
+        engine.updateRatings(ratings, new int[] { 0, 0, 1, 1 }, new int[] { 0, 0, 1, 1 });
+        assertTrue(ratings[1].rating > ratings[0].rating);
+        assertTrue(ratings[0].rating > DEFAULT_RATING);
+        assertTrue(ratings[2].rating < DEFAULT_RATING);
+
+        // a draw between equals changes nothing but the deviations
+        ratings = newRatings(engine, 2);
+        engine.updateRatings(ratings, new int[] { 0, 1 }, new int[] { 0, 0 });
+        assertEquals(DEFAULT_RATING, ratings[0].rating);
+        assertTrue(ratings[0].deviation < TrueSkillRatingEngine.DEFAULT_DEVIATION);
+    }
+
+    @Test public void testRecompute ()
+    {
+        // player 1 beats player 2 ten times in each of two games
+        List<RatingRecomputer.GameResult> results = Lists.newArrayList();
+        for (int ii = 0; ii < 10; ii++) {
+            for (int gameId = 1; gameId <= 2; gameId++) {
+                results.add(new RatingRecomputer.GameResult(
+                    gameId, new int[] { 1, 2 }, new int[] { 0, 1 }, new int[] { 0, 1 }));
+            }
+        }
+        Map<Integer, IntMap<Rating>> ratings =
+            new RatingRecomputer(new Glicko2RatingEngine()).recompute(results, 2);
+        assertEquals(2, ratings.size());
+        for (IntMap<Rating> game : ratings.values()) {
+            assertEquals(10, game.get(1).experience);
+            assertTrue(game.get(1).rating > game.get(2).rating);
+        }
+        assertEquals(ratings.get(1).get(1).rating, ratings.get(2).get(1).rating);
+    }
+
+    protected Rating[] newRatings (RatingEngine engine, int count)
+    {
+        Rating[] ratings = new Rating[count];
+        for (int ii = 0; ii < count; ii++) {
+            ratings[ii] = new Rating();
+            engine.initRating(ratings[ii]);
+        }
+        return ratings;
+    }
+
+    protected Rating newRating (int rating, float deviation)
+    {
+        Rating r = new Rating();
+        r.rating = rating;
+        r.deviation = deviation;
+        return r;
+    }
+}
@@ -0,0 +1,170 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server.persist;
+
+import java.sql.Timestamp;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Compares answering top-ratings queries from a {@link TopRatingsIndex} with the work done by the
+ * query path when the database must scan a game's ratings: filtering every row and selecting the
+ * top rows with a bounded heap. Ratings are held in flat arrays for the scan so that ten million
+ * rows fit in a modest heap. Running the real query path requires a populated database, which
+ * this benchmark does not attempt.
+ *
+ * <p> Usage: <code>TopRatingsBenchmark [rows] [games] [depth] [queries]</code>
+ */
+public class TopRatingsBenchmark
+{
+    public static void main (String[] args)
+    {
+        int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 10000000;
+        int games = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        int depth = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int queries = (args.length > 3) ? Integer.parseInt(args[3]) : 200;
+
+        // generate our ratings; row ii belongs to game ii % games
+        Random rando = new Random(42);
+        long now = System.currentTimeMillis();
+        int[] ratings = new int[rows], playerIds = new int[rows];
+        long[] stamps = new long[rows];
+        for (int ii = 0; ii < rows; ii++) {
+            ratings[ii] = 1200 + (int)(rando.nextGaussian() * 300);
+            playerIds[ii] = ii / games + 1;
+            stamps[ii] = now - (long)rando.nextInt(60 * 24 * 60 * 60) * 1000L;
+        }
+
+        // build the index as rebuildLeaderboards() would, from a scan of every row
+        long start = System.nanoTime();
+        TopRatingsIndex index = new TopRatingsIndex(depth);
+        int token = index.beginLoad();
+        TopRatingsIndex.Board[] boards = new TopRatingsIndex.Board[games];
+        for (int gg = 0; gg < games; gg++) {
+            boards[gg] = new TopRatingsIndex.Board(depth);
+        }
+        RatingRecord record = new RatingRecord();
+        for (int ii = 0; ii < rows; ii++) {
+            int gameId = ii % games;
+            boards[gameId].noteRating(toRecord(record, gameId, ii, ratings, playerIds, stamps));
+        }
+        for (int gg = 0; gg < games; gg++) {
+            index.installBoard(gg, boards[gg], token);
+        }
+        index.endLoad();
+        report("rebuild", System.nanoTime() - start, 1);
+
+        // the friends of our queries are drawn from the top few hundred players of each game
+        Set<Integer> friends = Sets.newHashSet();
+        for (RatingRecord rec : index.getTopRatings(0, 500, 0L, null)) {
+            if (rando.nextInt(10) == 0) {
+                friends.add(rec.playerId);
+            }
+        }
+        long month = 30 * 24 * 60 * 60 * 1000L;
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean doReport = (pass == 1);
+            long answered = 0;
+
+            start = System.nanoTime();
+            for (int qq = 0; qq < queries; qq++) {
+                answered += count(index.getTopRatings(qq % games, 25, 0L, null));
+                answered += count(index.getTopRatings(qq % games, 25, month, null));
+                answered += count(index.getTopRatings(0, 10, 0L, friends));
+            }
+            if (doReport) {
+                report("index (" + answered + " answered)", System.nanoTime() - start, 3*queries);
+            }
+
+            start = System.nanoTime();
+            for (int qq = 0; qq < queries / 10 + 1; qq++) {
+                scanTop(qq % games, games, 25, Long.MIN_VALUE, null, ratings, playerIds, stamps);
+                scanTop(qq % games, games, 25, now - month, null, ratings, playerIds, stamps);
+                scanTop(0, games, 10, Long.MIN_VALUE, friends, ratings, playerIds, stamps);
+            }
+            if (doReport) {
+                report("scan", System.nanoTime() - start, 3*(queries / 10 + 1));
+            }
+        }
+
+        // measure the cost of maintaining the index as ratings are written
+        int writes = 1000000;
+        start = System.nanoTime();
+        for (int ww = 0; ww < writes; ww++) {
+            int ii = rando.nextInt(rows);
+            ratings[ii] += rando.nextInt(65) - 32;
+            stamps[ii] = now + ww;
+            index.noteRating(toRecord(record, ii % games, ii, ratings, playerIds, stamps));
+        }
+        report("write", System.nanoTime() - start, writes);
+    }
+
+    protected static RatingRecord toRecord (RatingRecord record, int gameId, int row,
+                                            int[] ratings, int[] playerIds, long[] stamps)
+    {
+        record.gameId = gameId;
+        record.playerId = playerIds[row];
+        record.rating = ratings[row];
+        record.lastUpdated = new Timestamp(stamps[row]);
+        return record;
+    }
+
+    protected static int scanTop (int gameId, int games, int limit, long after, Set<Integer> ids,
+                                  int[] ratings, int[] playerIds, long[] stamps)
+    {
+        PriorityQueue<long[]> heap = new PriorityQueue<long[]>(limit + 1, LOWEST_FIRST);
+        for (int ii = gameId; ii < ratings.length; ii += games) {
+            if (stamps[ii] > after && (ids == null || ids.contains(playerIds[ii]))) {
+                heap.add(new long[] { ratings[ii], stamps[ii] });
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+        }
+        return heap.size();
+    }
+
+    protected static int count (List<RatingRecord> records)
+    {
+        return (records == null) ? 0 : records.size();
+    }
+
+    protected static void report (String what, long nanos, int ops)
+    {
+        System.out.println(what + ": " + (nanos / 1000000) + "ms total, " +
+                           (nanos / Math.max(ops, 1) / 1000) + "us per operation");
+    }
+
+    /** Orders scanned rows (rating, timestamp) lowest ranked first. */
+    protected static final Comparator<long[]> LOWEST_FIRST = new Comparator<long[]>() {
+        public int compare (long[] r1, long[] r2) {
+            return (r1[0] != r2[0]) ? Long.compare(r1[0], r2[0]) : Long.compare(r1[1], r2[1]);
+        }
+    };
+}
@@ -0,0 +1,123 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.server.persist;
+
+import java.sql.Timestamp;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TopRatingsIndex} class.
+ */
+public class TopRatingsIndexTest
+{
+    @Test public void testOrdering ()
+    {
+        TopRatingsIndex index = createIndex(10, 5);
+        List<RatingRecord> top = index.getTopRatings(GAME_ID, 5, 0L, null);
+        assertEquals(5, top.size());
+        for (int ii = 0; ii < 5; ii++) {
+            assertEquals(10 - ii, top.get(ii).playerId);
+        }
+
+        // a tie is broken by the most recent update
+        index.noteRating(newRecord(3, 1010, 1000));
+        assertEquals(3, index.getTopRatings(GAME_ID, 1, 0L, null).get(0).playerId);
+    }
+
+    @Test public void testIncomplete ()
+    {
+        TopRatingsIndex index = createIndex(10, 5);
+
+        // we can't answer a query that needs ratings below the bottom of the board
+        assertNull(index.getTopRatings(GAME_ID, 6, 0L, null));
+        assertNull(index.getTopRatings(GAME_ID, 1, 0L, Collections.singleton(1)));
+
+        // a rating that drops off the bottom of the board is removed
+        index.noteRating(newRecord(10, 0, 1000));
+        assertNull(index.getTopRatings(GAME_ID, 5, 0L, null));
+        assertEquals(9, index.getTopRatings(GAME_ID, 4, 0L, null).get(0).playerId);
+
+        // a rating that rises onto the board is added
+        index.noteRating(newRecord(1, 5000, 1000));
+        assertEquals(1, index.getTopRatings(GAME_ID, 5, 0L, null).get(0).playerId);
+    }
+
+    @Test public void testComplete ()
+    {
+        TopRatingsIndex index = createIndex(5, 10);
+        assertEquals(5, index.getTopRatings(GAME_ID, 10, 0L, null).size());
+        assertEquals(1, index.getTopRatings(GAME_ID, 10, 0L, Collections.singleton(1)).size());
+        assertTrue(index.hasBoard(GAME_ID, 100));
+    }
+
+    @Test public void testReplay ()
+    {
+        TopRatingsIndex index = new TopRatingsIndex(5);
+        int token = index.beginLoad();
+        TopRatingsIndex.Board board = new TopRatingsIndex.Board(5);
+        board.noteRating(newRecord(1, 1000, 1));
+
+        // a write made during the load supersedes the loaded rating
+        index.noteRating(newRecord(1, 2000, 2));
+        index.installBoard(GAME_ID, board, token);
+        index.endLoad();
+        assertEquals(2000, index.getTopRatings(GAME_ID, 1, 0L, null).get(0).rating);
+
+        // a board loaded across a purge is discarded
+        token = index.beginLoad();
+        index.removeGame(GAME_ID);
+        index.installBoard(GAME_ID, board, token);
+        index.endLoad();
+        assertNull(index.getTopRatings(GAME_ID, 1, 0L, null));
+    }
+
+    protected TopRatingsIndex createIndex (int players, int depth)
+    {
+        TopRatingsIndex index = new TopRatingsIndex(depth);
+        TopRatingsIndex.Board board = new TopRatingsIndex.Board(depth);
+        for (int ii = 1; ii <= players; ii++) {
+            board.noteRating(newRecord(ii, 1000 + ii, 1));
+        }
+        int token = index.beginLoad();
+        index.installBoard(GAME_ID, board, token);
+        index.endLoad();
+        return index;
+    }
+
+    protected RatingRecord newRecord (int playerId, int rating, long stamp)
+    {
+        RatingRecord record = new RatingRecord();
+        record.gameId = GAME_ID;
+        record.playerId = playerId;
+        record.rating = rating;
+        record.lastUpdated = new Timestamp(stamp);
+        return record;
+    }
+
+    protected static final int GAME_ID = 7;
+}
@@ -0,0 +1,93 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.rating.util;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link LogPercentiler} class.
+ */
+public class LogPercentilerTest
+{
+    @Test public void testSerialize ()
+    {
+        LogPercentiler tiler = createGaussian(42);
+        LogPercentiler t2 = new LogPercentiler(tiler.toBytes());
+        assertEquals(tiler.toString(), t2.toString());
+        assertEquals(tiler.getRecordedCount(), t2.getRecordedCount());
+    }
+
+    @Test public void testGetPercentile ()
+    {
+        LogPercentiler tiler = createGaussian(42);
+
+        assertEquals(0, tiler.getPercentile(tiler.getMinScore()));
+        assertEquals(0, tiler.getPercentile(tiler.getMinScore()-1));
+        assertEquals(100, tiler.getPercentile(tiler.getMaxScore()));
+        assertEquals(100, tiler.getPercentile(tiler.getMaxScore()+1));
+
+        // the median of our gaussian should be resolved to within our bucket precision
+        assertEquals(5f, tiler.getRequiredScore(50), 5f * 0.05f);
+        assertEquals(50, tiler.getPercentile(5f), 3);
+    }
+
+    @Test public void testMerge ()
+    {
+        LogPercentiler t1 = createGaussian(42), t2 = createGaussian(43);
+        LogPercentiler merged = new LogPercentiler();
+        merged.merge(t1);
+        merged.merge(t2);
+        assertEquals(t1.getRecordedCount() + t2.getRecordedCount(), merged.getRecordedCount());
+        assertEquals(Math.min(t1.getMinScore(), t2.getMinScore()), merged.getMinScore(), 0f);
+        assertEquals(Math.max(t1.getMaxScore(), t2.getMaxScore()), merged.getMaxScore(), 0f);
+    }
+
+    @Test public void testLegacy ()
+    {
+        Percentiler old = new Percentiler();
+        Random rando = new Random(42);
+        for (int ii = 0; ii < 5000; ii++) {
+            old.recordValue((float)rando.nextGaussian() + 5.0f, false);
+        }
+        old.recomputePercentiles();
+
+        LogPercentiler tiler = new LogPercentiler(old.toBytes());
+        assertEquals(5000, tiler.getRecordedCount());
+        for (int pct = 10; pct < 100; pct += 10) {
+            assertEquals(old.getRequiredScore(pct), tiler.getRequiredScore(pct), 0.25f);
+        }
+    }
+
+    protected LogPercentiler createGaussian (long seed)
+    {
+        LogPercentiler tiler = new LogPercentiler();
+        Random rando = new Random(seed);
+        for (int ii = 0; ii < 5000; ii++) {
+            tiler.recordValue((float)rando.nextGaussian() + 5.0f);
+        }
+        return tiler;
+    }
+}
@@ -0,0 +1,186 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.server;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TimerWheel} class.
+ */
+public class TimerWheelTest
+{
+    @Test public void testOneShot ()
+    {
+        TestWheel wheel = new TestWheel();
+        List<String> fired = Lists.newArrayList();
+        TimerWheel.Timer a = new Recorder(wheel, fired, "a"), b = new Recorder(wheel, fired, "b");
+        a.schedule(120);
+        b.schedule(60 * 1000); // far enough out to go round the wheel several times
+        assertEquals(2, wheel.getScheduledCount());
+
+        wheel.advanceTo(100);
+        assertTrue(fired.isEmpty());
+        wheel.advanceTo(150);
+        assertEquals(Lists.newArrayList("a"), fired);
+        assertFalse(a.isScheduled());
+
+        wheel.advanceTo(59 * 1000);
+        assertEquals(1, fired.size());
+        wheel.advanceTo(60 * 1000);
+        assertEquals(Lists.newArrayList("a", "b"), fired);
+        assertEquals(0, wheel.getScheduledCount());
+        assertEquals(2, wheel.getExpiredCount());
+    }
+
+    @Test public void testRepeatAndCancel ()
+    {
+        TestWheel wheel = new TestWheel();
+        wheel.setJitter(0);
+        List<String> fired = Lists.newArrayList();
+        TimerWheel.Timer a = new Recorder(wheel, fired, "a");
+        final TimerWheel.Timer b = new Recorder(wheel, fired, "b");
+        TimerWheel.Timer c = new Recorder(wheel, fired, "c") {
+            @Override public void expired () {
+                super.expired();
+                b.cancel(); // cancel a timer due in the same tick
+            }
+        };
+        a.schedule(1000, true);
+        b.schedule(500);
+        c.schedule(500);
+
+        wheel.advanceTo(500);
+        assertEquals(Lists.newArrayList("c"), fired);
+        wheel.advanceTo(3000);
+        assertEquals(Lists.newArrayList("c", "a", "a", "a"), fired);
+
+        // falling behind does not result in a burst of catch-up expirations
+        wheel.stallTo(10000);
+        assertEquals(5, fired.size());
+        assertEquals(6000, wheel.getMaxLag());
+
+        a.cancel();
+        wheel.advanceTo(20000);
+        assertEquals(5, fired.size());
+        assertEquals(0, wheel.getScheduledCount());
+    }
+
+    @Test public void testJitter ()
+    {
+        TestWheel wheel = new TestWheel();
+        wheel.setJitter(0.5f);
+        List<String> fired = Lists.newArrayList();
+        for (int ii = 0; ii < 100; ii++) {
+            new Recorder(wheel, fired, "t").schedule(1000, true);
+        }
+        wheel.advanceTo(999);
+        assertTrue(fired.isEmpty());
+        wheel.advanceTo(1500);
+        assertEquals(100, fired.size());
+        wheel.advanceTo(2000);
+        assertTrue(fired.size() < 200);
+    }
+
+    @Test public void testDriver ()
+    {
+        TestWheel wheel = new TestWheel();
+        wheel.setJitter(0);
+        List<String> fired = Lists.newArrayList();
+        TimerWheel.Timer a = new Recorder(wheel, fired, "a");
+        assertFalse(wheel.running);
+
+        // the wheel only ticks while timers are scheduled
+        a.schedule(100);
+        assertTrue(wheel.running);
+        wheel.advanceTo(100);
+        assertEquals(1, fired.size());
+        assertFalse(wheel.running);
+
+        a.schedule(100, 1000);
+        assertTrue(wheel.running);
+        wheel.advanceTo(1200);
+        assertEquals(3, fired.size());
+        assertTrue(wheel.running);
+        a.cancel();
+        wheel.advanceTo(1250);
+        assertFalse(wheel.running);
+    }
+
+    protected static class TestWheel extends TimerWheel
+    {
+        public TestWheel () {
+            super(null);
+        }
+
+        /** Advances to the specified time as our driver interval would, a tick at a time. */
+        public void advanceTo (long now) {
+            while (_now + TICK_MILLIS < now) {
+                stallTo(_now + TICK_MILLIS);
+            }
+            stallTo(now);
+        }
+
+        /** Advances to the specified time in one go, as if the dobjmgr thread had stalled. */
+        public void stallTo (long now) {
+            _now = now;
+            advance(now);
+        }
+
+        @Override protected void startDriver () {
+            _processedTick = toTick(now());
+            running = true;
+        }
+
+        @Override protected void stopDriver () {
+            running = false;
+        }
+
+        @Override protected long now () {
+            return _now;
+        }
+
+        public boolean running;
+        protected long _now;
+    }
+
+    protected static class Recorder extends TimerWheel.Timer
+    {
+        public Recorder (TimerWheel wheel, List<String> fired, String name) {
+            super(wheel);
+            _fired = fired;
+            _name = name;
+        }
+
+        @Override public void expired () {
+            _fired.add(_name);
+        }
+
+        protected List<String> _fired;
+        protected String _name;
+    }
+}
@@ -0,0 +1,89 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the round turnover time of each {@link PairingEngine}, which is to say the time taken
+ * to record the results of a round and pair the next, as the number of entrants grows.
+ *
+ * <p> Usage: <code>PairingBenchmark [entrants ...]</code>
+ */
+public class PairingBenchmark
+{
+    public static void main (String[] args)
+    {
+        int[] counts = { 1000, 10000, 100000 };
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int ii = 0; ii < args.length; ii++) {
+                counts[ii] = Integer.parseInt(args[ii]);
+            }
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean report = (pass == 1); // the first pass warms up the JIT
+            for (int count : counts) {
+                run("single", new SingleEliminationEngine(), count, report);
+                run("double", new DoubleEliminationEngine(), count, report);
+                run("swiss", new SwissEngine(), count, report);
+            }
+        }
+    }
+
+    protected static void run (String name, PairingEngine engine, int count, boolean report)
+    {
+        engine.init(PairingEngineTest.createEntrants(count));
+        Random rando = new Random(count);
+
+        long total = 0, worst = 0;
+        int rounds = 0;
+        List<Match> round = null;
+        while (true) {
+            long start = System.nanoTime();
+            if (round != null) {
+                for (Match match : round) {
+                    if (match.result == Match.PENDING) {
+                        int result = (rando.nextFloat() < 0.3f) ? Match.AWAY_WON : Match.HOME_WON;
+                        engine.recordResult(match, result);
+                    }
+                }
+            }
+            if (engine.isFinished()) {
+                break;
+            }
+            round = engine.nextRound();
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            worst = Math.max(worst, elapsed);
+            rounds++;
+        }
+
+        if (report) {
+            System.out.println(String.format(
+                "%-6s %6d entrants: %2d rounds, turnover avg %.2fms, max %.2fms",
+                name, count, rounds, total / 1e6 / rounds, worst / 1e6));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.util.Name;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link PairingEngine} implementations.
+ */
+public class PairingEngineTest
+{
+    @Test public void testBracketOrder ()
+    {
+        assertArrayEquals(new int[] { 1, 8, 4, 5, 2, 7, 3, 6 }, PairingEngine.getBracketOrder(8));
+        assertEquals(16, PairingEngine.toPowerOfTwo(9));
+        assertEquals(8, PairingEngine.toPowerOfTwo(8));
+    }
+
+    @Test public void testSingleElimination ()
+    {
+        // with the better seed always winning, the top two seeds meet in the final
+        SingleEliminationEngine engine = new SingleEliminationEngine();
+        engine.init(createEntrants(13));
+        List<Match> round = engine.nextRound();
+        assertEquals(8, round.size());
+        assertEquals(3, countByes(round)); // the top three seeds get byes
+        int rounds = play(engine, new Random(0), 0f);
+        assertEquals(4, rounds);
+        assertEquals(2, engine.getCurrentRound().get(0).away.getSeed());
+        assertEquals(1, engine.getStandings().get(0).getSeed());
+        assertEquals(2, engine.getStandings().get(1).getSeed());
+    }
+
+    @Test public void testDoubleElimination ()
+    {
+        for (int count : new int[] { 2, 3, 8, 13, 64, 100 }) {
+            DoubleEliminationEngine engine = new DoubleEliminationEngine();
+            engine.init(createEntrants(count));
+            play(engine, new Random(count), 0.3f);
+            List<Entrant> standings = engine.getStandings();
+            int active = 0;
+            for (Entrant entrant : standings) {
+                if (entrant.isActive()) {
+                    assertTrue(entrant.losses <= 1);
+                    active++;
+                } else {
+                    assertEquals(2, entrant.losses);
+                }
+            }
+            assertEquals(1, active);
+            assertTrue(standings.get(0).isActive());
+        }
+    }
+
+    @Test public void testSwiss ()
+    {
+        SwissEngine engine = new SwissEngine();
+        engine.init(createEntrants(101));
+        assertEquals(7, engine.getRoundCount());
+        play(engine, new Random(1), 0.3f);
+
+        // no entrant has more than one bye or played anyone twice in so few rounds
+        int byes = 0;
+        for (Entrant entrant : engine.getEntrants()) {
+            byes += entrant.hadBye ? 1 : 0;
+            int matches = 7 - (entrant.hadBye ? 1 : 0);
+            assertEquals(matches, entrant.opponents.size());
+        }
+        assertEquals(7, byes);
+
+        List<Entrant> standings = engine.getStandings();
+        for (int ii = 1; ii < standings.size(); ii++) {
+            assertTrue(standings.get(ii-1).score >= standings.get(ii).score);
+        }
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testIncompleteRound ()
+    {
+        SwissEngine engine = new SwissEngine();
+        engine.init(createEntrants(4));
+        engine.nextRound();
+        engine.nextRound();
+    }
+
+    /**
+     * Plays the engine's tourney to completion, with the better seed winning except for the
+     * specified fraction of upsets.
+     *
+     * @return the number of rounds played.
+     */
+    protected static int play (PairingEngine engine, Random rando, float upsets)
+    {
+        while (!engine.isFinished()) {
+            List<Match> round = engine.isRoundComplete() ?
+                engine.nextRound() : engine.getCurrentRound();
+            for (Match match : round) {
+                if (match.result == Match.PENDING) {
+                    engine.recordResult(
+                        match, (rando.nextFloat() < upsets) ? Match.AWAY_WON : Match.HOME_WON);
+                }
+            }
+        }
+        return engine.getRound();
+    }
+
+    protected static List<Entrant> createEntrants (int count)
+    {
+        List<Entrant> entrants = Lists.newArrayList();
+        for (int ii = 0; ii < count; ii++) {
+            entrants.add(new Entrant(new Name("player" + ii), 1000 + ii));
+        }
+        return entrants;
+    }
+
+    protected static int countByes (List<Match> round)
+    {
+        int byes = 0;
+        for (Match match : round) {
+            byes += match.isBye() ? 1 : 0;
+        }
+        return byes;
+    }
+}
@@ -0,0 +1,101 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.parlor.tourney.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests replaying a {@link PairingEngine} from a {@link TourneyCheckpoint}.
+ */
+public class TourneyCheckpointTest
+{
+    @Test public void testReplay ()
+        throws Exception
+    {
+        // play three rounds and half of the fourth, noting the results of each
+        DoubleEliminationEngine engine = new DoubleEliminationEngine();
+        engine.init(PairingEngineTest.createEntrants(13));
+        Random rando = new Random(7);
+        SortedMap<Integer, byte[]> saved = Maps.newTreeMap();
+        for (int round = 1; round <= 4; round++) {
+            List<Match> matches = engine.nextRound();
+            int decide = (round < 4) ? matches.size() : matches.size() / 2;
+            for (Match match : matches.subList(0, decide)) {
+                if (match.result == Match.PENDING) {
+                    engine.recordResult(
+                        match, rando.nextBoolean() ? Match.HOME_WON : Match.AWAY_WON);
+                }
+            }
+            saved.put(round, TourneyCheckpoint.toBytes(TourneyCheckpoint.encodeResults(matches)));
+        }
+        byte[] entrants = TourneyCheckpoint.toBytes(engine.getEntrants());
+
+        // replay them through a fresh engine
+        DoubleEliminationEngine replay = new DoubleEliminationEngine();
+        replay.init(TourneyCheckpoint.entrantsFromBytes(entrants));
+        for (Map.Entry<Integer, byte[]> entry : saved.entrySet()) {
+            replay.nextRound();
+            assertEquals((int)entry.getKey(), replay.getRound());
+            TourneyCheckpoint.applyResults(
+                replay, TourneyCheckpoint.resultsFromBytes(entry.getValue()));
+        }
+        assertEquals(countPending(engine.getCurrentRound()),
+                     countPending(replay.getCurrentRound()));
+
+        // and the two should finish identically
+        PairingEngineTest.play(engine, new Random(3), 0.3f);
+        PairingEngineTest.play(replay, new Random(3), 0.3f);
+        List<Entrant> expected = engine.getStandings(), actual = replay.getStandings();
+        for (int ii = 0; ii < expected.size(); ii++) {
+            assertEquals(expected.get(ii).name, actual.get(ii).name);
+            assertEquals(expected.get(ii).rating, actual.get(ii).rating);
+        }
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testMismatch ()
+    {
+        SingleEliminationEngine engine = new SingleEliminationEngine();
+        engine.init(PairingEngineTest.createEntrants(8));
+        engine.nextRound();
+        // seeds one and two don't meet in the first round
+        TourneyCheckpoint.applyResults(engine, new int[] { 0, 1, Match.HOME_WON });
+    }
+
+    protected static int countPending (List<Match> matches)
+    {
+        int pending = 0;
+        for (Match match : matches) {
+            pending += (match.result == Match.PENDING) ? 1 : 0;
+        }
+        return pending;
+    }
+}
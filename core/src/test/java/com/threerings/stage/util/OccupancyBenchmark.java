@@ -0,0 +1,140 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.stage.util;
+
+import java.util.List;
+import java.util.Random;
+
+import java.awt.Rectangle;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Compares the occupancy checks made by <code>StageSceneManager.validateLocation</code> when
+ * done by scanning the lists of footprints, clusters and occupants with the same checks done
+ * against {@link OccupancyGrid}s, in a crowded scene. Also measures the cost of keeping the
+ * occupant grid up to date as occupants move about.
+ *
+ * <p> Usage: <code>OccupancyBenchmark [occupants] [objects] [clusters] [checks]</code>
+ */
+public class OccupancyBenchmark
+{
+    public static void main (String[] args)
+    {
+        int occupants = (args.length > 0) ? Integer.parseInt(args[0]) : 250;
+        int objects = (args.length > 1) ? Integer.parseInt(args[1]) : 400;
+        int clusters = (args.length > 2) ? Integer.parseInt(args[2]) : 40;
+        int checks = (args.length > 3) ? Integer.parseInt(args[3]) : 2000000;
+
+        Random rando = new Random(42);
+        List<Rectangle> loners = Lists.newArrayList();
+        List<Rectangle> footprints = Lists.newArrayList();
+        List<Rectangle> clrects = Lists.newArrayList();
+        OccupancyGrid lonerGrid = new OccupancyGrid();
+        OccupancyGrid footGrid = new OccupancyGrid();
+        OccupancyGrid clusterGrid = new OccupancyGrid();
+        for (int ii = 0; ii < objects; ii++) {
+            Rectangle rect = new Rectangle(rando.nextInt(SCENE_SIZE), rando.nextInt(SCENE_SIZE),
+                                           rando.nextInt(3) + 1, rando.nextInt(3) + 1);
+            footprints.add(rect);
+            footGrid.add(rect);
+        }
+        for (int ii = 0; ii < clusters; ii++) {
+            int size = rando.nextInt(4) + 2;
+            Rectangle rect = new Rectangle(
+                rando.nextInt(SCENE_SIZE), rando.nextInt(SCENE_SIZE), size, size);
+            clrects.add(rect);
+            clusterGrid.add(rect);
+        }
+        for (int ii = 0; ii < occupants; ii++) {
+            Rectangle rect = new Rectangle(
+                rando.nextInt(SCENE_SIZE), rando.nextInt(SCENE_SIZE), 1, 1);
+            loners.add(rect);
+            lonerGrid.add(rect);
+        }
+
+        int[] xs = new int[1024], ys = new int[1024];
+        for (int ii = 0; ii < xs.length; ii++) {
+            xs[ii] = rando.nextInt(SCENE_SIZE);
+            ys[ii] = rando.nextInt(SCENE_SIZE);
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean doReport = (pass == 1);
+            int blocked = 0;
+            long start = System.nanoTime();
+            for (int ii = 0; ii < checks; ii++) {
+                int tx = xs[ii & 1023], ty = ys[ii & 1023];
+                if (checkContains(clrects, tx, ty) || checkContains(footprints, tx, ty) ||
+                    checkContains(loners, tx, ty)) {
+                    blocked++;
+                }
+            }
+            if (doReport) {
+                report("scan (" + blocked + " blocked)", System.nanoTime() - start, checks);
+            }
+
+            blocked = 0;
+            start = System.nanoTime();
+            for (int ii = 0; ii < checks; ii++) {
+                int tx = xs[ii & 1023], ty = ys[ii & 1023];
+                if (clusterGrid.contains(tx, ty) || footGrid.contains(tx, ty) ||
+                    lonerGrid.contains(tx, ty)) {
+                    blocked++;
+                }
+            }
+            if (doReport) {
+                report("grid (" + blocked + " blocked)", System.nanoTime() - start, checks);
+            }
+        }
+
+        // move occupants about as updateLocation() does
+        int moves = 1000000;
+        long start = System.nanoTime();
+        for (int ii = 0; ii < moves; ii++) {
+            Rectangle rect = loners.get(ii % occupants);
+            lonerGrid.remove(rect);
+            rect.setLocation(xs[ii & 1023], ys[ii & 1023]);
+            lonerGrid.add(rect);
+        }
+        report("move", System.nanoTime() - start, moves);
+    }
+
+    protected static boolean checkContains (List<Rectangle> rects, int tx, int ty)
+    {
+        for (Rectangle rect : rects) {
+            if (rect.contains(tx, ty)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static void report (String what, long nanos, int ops)
+    {
+        System.out.println(what + ": " + (nanos / 1000000) + "ms total, " +
+                           (nanos / Math.max(ops, 1)) + "ns per operation");
+    }
+
+    /** The width and height of our scene, in tiles. */
+    protected static final int SCENE_SIZE = 100;
+}
@@ -0,0 +1,101 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.stage.util;
+
+import java.util.List;
+import java.util.Random;
+
+import java.awt.Rectangle;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link OccupancyGrid} class.
+ */
+public class OccupancyGridTest
+{
+    @Test public void testAddRemove ()
+    {
+        OccupancyGrid grid = new OccupancyGrid();
+        Rectangle r1 = new Rectangle(-2, -3, 3, 2), r2 = new Rectangle(0, -2, 2, 2);
+        grid.add(r1);
+        grid.add(r2);
+        assertTrue(grid.contains(-2, -3));
+        assertTrue(grid.contains(1, -1));
+        assertFalse(grid.contains(1, -3));
+        assertEquals(2, grid.getCount(0, -2));
+        assertEquals(9, grid.size());
+
+        assertTrue(grid.intersects(new Rectangle(1, -1, 5, 5), null));
+        assertFalse(grid.intersects(new Rectangle(1, -1, 5, 5), r2));
+        assertTrue(grid.intersects(new Rectangle(0, -2, 1, 1), r2));
+
+        grid.remove(r1);
+        assertFalse(grid.contains(-2, -3));
+        assertEquals(1, grid.getCount(0, -2));
+        assertEquals(4, grid.size());
+        grid.remove(r2);
+        assertEquals(0, grid.size());
+        assertFalse(grid.contains(0, -2));
+    }
+
+    @Test public void testAgainstScan ()
+    {
+        // add and remove lots of rectangles, forcing growth and plenty of slot shifting on removal
+        Random rando = new Random(7);
+        OccupancyGrid grid = new OccupancyGrid(4);
+        List<Rectangle> rects = Lists.newArrayList();
+        for (int ii = 0; ii < 5000; ii++) {
+            if (rects.size() > 0 && rando.nextInt(3) == 0) {
+                grid.remove(rects.remove(rando.nextInt(rects.size())));
+            } else {
+                Rectangle rect = new Rectangle(rando.nextInt(80) - 40, rando.nextInt(80) - 40,
+                                               rando.nextInt(4) + 1, rando.nextInt(4) + 1);
+                rects.add(rect);
+                grid.add(rect);
+            }
+            if (ii % 500 == 0) {
+                checkGrid(grid, rects);
+            }
+        }
+        checkGrid(grid, rects);
+    }
+
+    protected void checkGrid (OccupancyGrid grid, List<Rectangle> rects)
+    {
+        for (int xx = -45; xx < 45; xx++) {
+            for (int yy = -45; yy < 45; yy++) {
+                int count = 0;
+                for (Rectangle rect : rects) {
+                    if (rect.contains(xx, yy)) {
+                        count++;
+                    }
+                }
+                assertEquals(count, grid.getCount(xx, yy));
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.stage.util;
+
+import java.util.Set;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TileBitmap} class.
+ */
+public class TileBitmapTest
+{
+    @Test public void testSetClear ()
+    {
+        TileBitmap bits = new TileBitmap();
+        bits.set(-9, -9, true);
+        bits.set(8, -1, true);
+        bits.set(0, -5, true);
+        bits.set(9, 0, false); // clearing an unset tile allocates nothing
+        assertTrue(bits.get(-9, -9));
+        assertTrue(bits.get(8, -1));
+        assertFalse(bits.get(9, 0));
+        assertFalse(bits.get(0, 0));
+        assertEquals(3, bits.cardinality());
+
+        TileBitmap copy = new TileBitmap(bits);
+        copy.clear(new Rectangle(-1, -6, 2, 2));
+        assertFalse(copy.get(0, -5));
+        assertTrue(bits.get(0, -5));
+        assertEquals(2, copy.cardinality());
+    }
+
+    @Test public void testSparse ()
+    {
+        // tiles far apart need only the chunks that contain them
+        TileBitmap bits = new TileBitmap();
+        bits.set(0, 0, true);
+        bits.set(10000, -10000, true);
+        bits.set(-31, 31, true);
+        assertEquals(3, bits.getChunkCount());
+        assertTrue(bits.get(10000, -10000));
+        assertFalse(bits.get(10000, -9999));
+        assertFalse(bits.get(5000, -5000));
+        assertTrue(bits.get(-31, 31));
+        assertEquals(3, bits.cardinality());
+    }
+
+    @Test public void testPackedCoords ()
+    {
+        TileBitmap bits = new TileBitmap();
+        bits.set(-9, -9, true);
+        bits.set(40, 3, true);
+        bits.set(0, -33, true);
+
+        Set<Point> coords = Sets.newHashSet();
+        for (int packed : bits.toPackedCoords()) {
+            coords.add(new Point(TileBitmap.unpackX(packed), TileBitmap.unpackY(packed)));
+        }
+        assertEquals(ImmutableSet.of(new Point(-9, -9), new Point(40, 3), new Point(0, -33)),
+                     coords);
+    }
+}
@@ -0,0 +1,193 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.stats.server.persist;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.samskivert.depot.PersistenceContext;
+import com.samskivert.depot.StaticConnectionProvider;
+
+import com.threerings.stats.data.IntSetStat;
+import com.threerings.stats.data.IntStat;
+import com.threerings.stats.data.Stat;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the flushing, export and aggregation of stats by {@link StatRepository} against an
+ * in-memory database.
+ */
+public class StatRepositoryTest
+{
+    @BeforeClass public static void createRepository ()
+    {
+        _ctx = new PersistenceContext(
+            "statdb", StaticConnectionProvider.forTest("StatRepositoryTest"), null);
+        _repo = new StatRepository(_ctx);
+        _ctx.initializeRepositories(true);
+
+        // enough players that stats span several pages
+        Map<Integer, List<Stat>> stats = Maps.newHashMap();
+        for (int playerId = 1; playerId <= PLAYERS; playerId++) {
+            IntStat wins = (IntStat)TestStat.WINS.newStat();
+            wins.setValue(playerId);
+            IntSetStat friends = (IntSetStat)TestStat.FRIENDS.newStat();
+            for (int ii = 0; ii < playerId % 5; ii++) {
+                friends.add(ii);
+            }
+            wins.setModified(true);
+            friends.setModified(true);
+            stats.put(playerId, ImmutableList.<Stat>of(wins, friends));
+        }
+        assertEquals(2 * PLAYERS, _repo.writeModified(stats).written);
+    }
+
+    @AfterClass public static void shutdown ()
+    {
+        _ctx.shutdown();
+    }
+
+    @Test public void testFlush ()
+    {
+        // create a stat for each of a handful of players
+        Map<Integer, List<Stat>> stats = Maps.newHashMap();
+        for (int playerId = FLUSH_BASE; playerId < FLUSH_BASE + FLUSH_PLAYERS; playerId++) {
+            IntStat losses = (IntStat)TestStat.LOSSES.newStat();
+            losses.setValue(1);
+            losses.setModified(true);
+            stats.put(playerId, ImmutableList.<Stat>of(losses));
+        }
+        StatRepository.FlushResult result = _repo.writeModified(stats);
+        assertEquals(FLUSH_PLAYERS, result.written);
+        assertEquals(0, result.conflicts);
+
+        // load and update them all, while someone else updates the first player's stat
+        Map<Integer, List<Stat>> loaded = Maps.newHashMap();
+        for (int playerId = FLUSH_BASE; playerId < FLUSH_BASE + FLUSH_PLAYERS; playerId++) {
+            loaded.put(playerId, _repo.loadStats(playerId));
+        }
+        IntStat other = (IntStat)_repo.loadStats(FLUSH_BASE).get(0);
+        other.setValue(50);
+        other.setModified(true);
+        _repo.writeModified(FLUSH_BASE, ImmutableList.<Stat>of(other));
+        for (List<Stat> pstats : loaded.values()) {
+            IntStat losses = (IntStat)pstats.get(0);
+            losses.setValue(2);
+            losses.setModified(true);
+        }
+        result = _repo.writeModified(loaded);
+        assertEquals(FLUSH_PLAYERS, result.written);
+        assertEquals(1, result.conflicts);
+        assertEquals(0, result.failures);
+
+        // the conflicting write overwrote the other update, as with single player flushes
+        for (int playerId = FLUSH_BASE; playerId < FLUSH_BASE + FLUSH_PLAYERS; playerId++) {
+            assertEquals(2, ((IntStat)_repo.loadStats(playerId).get(0)).getValue());
+        }
+    }
+
+    @Test public void testExport ()
+    {
+        final List<Integer> playerIds = Lists.newArrayList();
+        _repo.exportStats(ImmutableList.of(TestStat.WINS), new StatRepository.StatVisitor() {
+            public void visit (int playerId, Stat stat) {
+                assertEquals(TestStat.WINS, stat.getType());
+                assertEquals(playerId, ((IntStat)stat).getValue());
+                playerIds.add(playerId);
+            }
+        });
+
+        // every player is visited exactly once, in order
+        assertEquals(PLAYERS, playerIds.size());
+        for (int ii = 0; ii < PLAYERS; ii++) {
+            assertEquals(ii + 1, playerIds.get(ii).intValue());
+        }
+    }
+
+    @Test public void testAggregate ()
+    {
+        StatAggregate agg = _repo.aggregateStats(TestStat.WINS, StatAggregate.INT_VALUE, 4);
+        assertEquals(PLAYERS, agg.getCount());
+        assertEquals(PLAYERS * (PLAYERS + 1) / 2.0, agg.getSum(), 0);
+        assertEquals(1f, agg.getMin(), 0);
+        assertEquals(PLAYERS, agg.getMax(), 0);
+        assertEquals(PLAYERS, agg.getHistogram().getRecordedCount());
+
+        // the merged result matches a single threaded aggregation
+        StatAggregate single = _repo.aggregateStats(TestStat.WINS, StatAggregate.INT_VALUE, 1);
+        assertEquals(single.getSum(), agg.getSum(), 0);
+        assertEquals(single.getHistogram().getRequiredScore(50),
+                     agg.getHistogram().getRequiredScore(50), 1f);
+
+        StatAggregate sizes = _repo.aggregateStats(TestStat.FRIENDS, StatAggregate.SET_SIZE, 0);
+        assertEquals(PLAYERS, sizes.getCount());
+        assertEquals(0f, sizes.getMin(), 0);
+        assertEquals(4f, sizes.getMax(), 0);
+    }
+
+    protected static enum TestStat implements Stat.Type
+    {
+        WINS(new IntStat()),
+        FRIENDS(new IntSetStat()),
+        LOSSES(new IntStat());
+
+        // from interface Stat.Type
+        public Stat newStat () {
+            return _prototype.clone();
+        }
+
+        // from interface Stat.Type
+        public int code () {
+            return _code;
+        }
+
+        // from interface Stat.Type
+        public boolean isPersistent () {
+            return true;
+        }
+
+        TestStat (Stat prototype) {
+            _prototype = prototype;
+            _code = Stat.initType(this, prototype);
+        }
+
+        protected Stat _prototype;
+        protected int _code;
+    }
+
+    protected static PersistenceContext _ctx;
+    protected static StatRepository _repo;
+
+    protected static final int PLAYERS = 2500;
+
+    /** The players whose stats are flushed by {@link #testFlush}. */
+    protected static final int FLUSH_BASE = 10000, FLUSH_PLAYERS = 10;
+}
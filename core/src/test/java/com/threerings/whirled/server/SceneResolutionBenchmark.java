@@ -0,0 +1,243 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.server;
+
+import java.util.Collection;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import com.samskivert.io.PersistenceException;
+import com.samskivert.util.IntMap;
+import com.samskivert.util.IntMaps;
+
+import com.threerings.presents.dobj.RootDObjectManager;
+
+import com.threerings.crowd.data.PlaceConfig;
+
+import com.threerings.whirled.TestConfig;
+import com.threerings.whirled.data.Scene;
+import com.threerings.whirled.data.SceneImpl;
+import com.threerings.whirled.data.SceneModel;
+import com.threerings.whirled.server.persist.DummySceneRepository;
+import com.threerings.whirled.server.persist.SceneRepository;
+import com.threerings.whirled.util.SceneFactory;
+import com.threerings.whirled.util.UpdateList;
+
+/**
+ * Measures the number of scenes per second that an in-process {@link SceneRegistry} can resolve
+ * at a cold start, when every scene must come from the repository, with and without batched
+ * resolution. Each simulated query costs a fixed round-trip latency. The final pass enables
+ * batching with a repository that does not {@link SceneRepository#supportsBatchLoads support}
+ * bulk loads, which the registry should resolve as quickly as the unbatched pass.
+ *
+ * <p> Usage: <code>SceneResolutionBenchmark [scenes] [batchSize] [latencyMillis]</code>
+ */
+public class SceneResolutionBenchmark
+{
+    public static void main (String[] args)
+        throws Exception
+    {
+        final int scenes = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        final int batchSize = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        long latency = (args.length > 2) ? Long.parseLong(args[2]) : 2L;
+
+        final LatentRepository serial = new LatentRepository(latency);
+        final LatentRepository bulk = new BulkRepository(latency);
+        Injector injector = Guice.createInjector(new WhirledServer.WhirledModule() {
+            @Override protected void configure () {
+                super.configure();
+                bind(SceneRepository.class).toInstance(bulk);
+                bind(SceneFactory.class).toInstance(new SceneFactory() {
+                    public Scene createScene (SceneModel model, PlaceConfig config) {
+                        return new SceneImpl(model, config);
+                    }
+                });
+                bind(SceneRegistry.ConfigFactory.class).toInstance(
+                    new SceneRegistry.ConfigFactory() {
+                        public PlaceConfig createPlaceConfig (SceneModel model) {
+                            return new TestConfig();
+                        }
+                    });
+            }
+        });
+
+        final WhirledServer server = injector.getInstance(BenchServer.class);
+        server.init(injector);
+        final SceneRegistry screg = injector.getInstance(SceneRegistry.class);
+        final Pass batchedSerial = new Pass("batched(" + batchSize + "), no loadScenes",
+                                            screg, serial, batchSize, 2 * scenes, scenes) {
+            @Override protected void next () {
+                server.queueShutdown();
+            }
+        };
+        final Pass batched = new Pass("batched(" + batchSize + ")",
+                                      screg, bulk, batchSize, scenes, scenes) {
+            @Override protected void next () {
+                batchedSerial.start();
+            }
+        };
+        final Pass unbatched = new Pass("unbatched", screg, bulk, 0, 0, scenes) {
+            @Override protected void next () {
+                batched.start();
+            }
+        };
+        injector.getInstance(RootDObjectManager.class).postRunnable(new Runnable() {
+            public void run () {
+                unbatched.start();
+            }
+        });
+        server.run();
+    }
+
+    /** A concrete server in which to run the registry. */
+    protected static class BenchServer extends WhirledServer
+    {
+    }
+
+    /** Resolves a range of scenes through the registry, timing how long they take. */
+    protected abstract static class Pass
+        implements SceneRegistry.ResolutionListener
+    {
+        public Pass (String mode, SceneRegistry screg, LatentRepository repo, int batchSize,
+                     int firstSceneId, int scenes) {
+            _mode = mode;
+            _screg = screg;
+            _repo = repo;
+            _batchSize = batchSize;
+            _firstSceneId = firstSceneId;
+            _scenes = scenes;
+        }
+
+        public void start () {
+            _screg._screp = _repo;
+            _screg.setBatchResolution((_batchSize > 0) ? 5L : 0L, Math.max(_batchSize, 1));
+            _repo.queries = 0;
+            _start = System.nanoTime();
+            for (int ii = 0; ii < _scenes; ii++) {
+                _screg.resolveScene(_firstSceneId + ii + 1, this);
+            }
+        }
+
+        // from interface SceneRegistry.ResolutionListener
+        public void sceneWasResolved (SceneManager scmgr) {
+            resolved();
+        }
+
+        // from interface SceneRegistry.ResolutionListener
+        public void sceneFailedToResolve (int sceneId, Exception reason) {
+            _failed++;
+            resolved();
+        }
+
+        protected void resolved () {
+            if (++_resolved < _scenes) {
+                return;
+            }
+            long nanos = System.nanoTime() - _start;
+            System.out.println(_mode + ": " + _scenes + " scenes, " + _failed + " failed, " +
+                               _repo.queries + " queries, " + (int)(_scenes / (nanos / 1e9)) +
+                               " scenes/s");
+            next();
+        }
+
+        protected abstract void next ();
+
+        protected String _mode;
+        protected SceneRegistry _screg;
+        protected LatentRepository _repo;
+        protected int _batchSize, _firstSceneId, _scenes;
+        protected int _resolved, _failed;
+        protected long _start;
+    }
+
+    /** A repository that charges a fixed latency for every query it makes. */
+    protected static class LatentRepository extends DummySceneRepository
+    {
+        public volatile int queries;
+
+        public LatentRepository (long latency) {
+            _latency = latency;
+        }
+
+        @Override public SceneModel loadSceneModel (int sceneId) {
+            roundTrip();
+            return createModel(sceneId);
+        }
+
+        @Override public UpdateList loadUpdates (int sceneId) {
+            roundTrip();
+            return new UpdateList();
+        }
+
+        @Override public Object loadExtras (int sceneId, SceneModel model) {
+            roundTrip();
+            return null;
+        }
+
+        protected SceneModel createModel (int sceneId) {
+            SceneModel model = SceneModel.blankSceneModel();
+            model.sceneId = sceneId;
+            return model;
+        }
+
+        protected void roundTrip () {
+            queries++;
+            try {
+                Thread.sleep(_latency);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        protected long _latency;
+    }
+
+    /** A latent repository that loads scenes in bulk. */
+    protected static class BulkRepository extends LatentRepository
+    {
+        public BulkRepository (long latency) {
+            super(latency);
+        }
+
+        @Override public boolean supportsBatchLoads () {
+            return true;
+        }
+
+        @Override public IntMap<SceneData> loadScenes (Collection<Integer> sceneIds)
+            throws PersistenceException
+        {
+            // one query each for the models, updates and extras of all the scenes
+            roundTrip();
+            roundTrip();
+            roundTrip();
+            IntMap<SceneData> scenes = IntMaps.newHashIntMap();
+            for (int sceneId : sceneIds) {
+                SceneData data = new SceneData();
+                data.model = createModel(sceneId);
+                data.updates = new UpdateList();
+                scenes.put(sceneId, data);
+            }
+            return scenes;
+        }
+    }
+}
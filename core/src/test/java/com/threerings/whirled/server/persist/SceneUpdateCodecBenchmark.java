@@ -0,0 +1,144 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.server.persist;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+
+import com.threerings.whirled.data.SceneUpdate;
+import com.threerings.whirled.server.persist.SceneUpdateMarshaller.UpdateFactory;
+import com.threerings.whirled.spot.data.ModifyPortalsUpdate;
+import com.threerings.whirled.spot.data.Portal;
+import com.threerings.whirled.util.UpdateList;
+
+/**
+ * Compares the cost of encoding and decoding a scene's update history using the original
+ * per-update path (a fresh stream per update and a reflective instantiation per decode), the
+ * current {@link SceneUpdateMarshaller} per-update path and its compressed batch format.
+ *
+ * <p> Usage: <code>SceneUpdateCodecBenchmark [updates] [iterations]</code>
+ */
+public class SceneUpdateCodecBenchmark
+{
+    public static void main (String[] args)
+        throws Exception
+    {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int iters = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+        SceneUpdateMarshaller marsh = new SceneUpdateMarshaller(ModifyPortalsUpdate.class);
+        marsh.setUpdateFactory(ModifyPortalsUpdate.class, new UpdateFactory() {
+            public SceneUpdate createUpdate () {
+                return new ModifyPortalsUpdate();
+            }
+        });
+        int type = marsh.getUpdateType(ModifyPortalsUpdate.class);
+
+        SceneUpdate[] updates = new SceneUpdate[count];
+        for (int ii = 0; ii < count; ii++) {
+            Portal portal = new Portal();
+            portal.portalId = (short)ii;
+            portal.targetSceneId = ii * 7;
+            ModifyPortalsUpdate update = new ModifyPortalsUpdate();
+            update.initialize(SCENE_ID, ii, null, new Portal[] { portal });
+            updates[ii] = update;
+        }
+
+        // run everything once to warm up, then for real
+        for (int pass = 0; pass < 2; pass++) {
+            boolean report = (pass == 1);
+
+            long start = System.nanoTime(), bytes = 0;
+            for (int ii = 0; ii < iters; ii++) {
+                byte[][] datas = new byte[count][];
+                for (int uu = 0; uu < count; uu++) {
+                    datas[uu] = legacyPersist(updates[uu]);
+                    bytes += datas[uu].length;
+                }
+                UpdateList list = new UpdateList();
+                for (int uu = 0; uu < count; uu++) {
+                    list.addUpdate(legacyDecode(uu, datas[uu]));
+                }
+            }
+            if (report) {
+                report("legacy", start, bytes, iters, count);
+            }
+
+            start = System.nanoTime();
+            bytes = 0;
+            for (int ii = 0; ii < iters; ii++) {
+                byte[][] datas = new byte[count][];
+                for (int uu = 0; uu < count; uu++) {
+                    datas[uu] = marsh.persistUpdate(updates[uu]);
+                    bytes += datas[uu].length;
+                }
+                UpdateList list = new UpdateList();
+                for (int uu = 0; uu < count; uu++) {
+                    list.addUpdate(marsh.decodeUpdate(SCENE_ID, uu, type, datas[uu]));
+                }
+            }
+            if (report) {
+                report("per-update", start, bytes, iters, count);
+            }
+
+            start = System.nanoTime();
+            bytes = 0;
+            for (int ii = 0; ii < iters; ii++) {
+                byte[] data = marsh.persistUpdates(updates);
+                bytes += data.length;
+                marsh.decodeUpdates(SCENE_ID, data);
+            }
+            if (report) {
+                report("batch", start, bytes, iters, count);
+            }
+        }
+    }
+
+    protected static byte[] legacyPersist (SceneUpdate update)
+        throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        update.persistTo(new ObjectOutputStream(out));
+        return out.toByteArray();
+    }
+
+    protected static SceneUpdate legacyDecode (int version, byte[] data)
+        throws Exception
+    {
+        SceneUpdate update = ModifyPortalsUpdate.class.getDeclaredConstructor().newInstance();
+        update.init(SCENE_ID, version);
+        update.unpersistFrom(new ObjectInputStream(new ByteArrayInputStream(data)));
+        return update;
+    }
+
+    protected static void report (String mode, long start, long bytes, int iters, int count)
+    {
+        long nanos = System.nanoTime() - start;
+        System.out.println(mode + ": " + (nanos / ((long)iters * count)) + " ns/update, " +
+                           (bytes / ((long)iters * count)) + " bytes/update");
+    }
+
+    protected static final int SCENE_ID = 1;
+}
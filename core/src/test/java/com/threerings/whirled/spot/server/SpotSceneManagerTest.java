@@ -0,0 +1,204 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.spot.server;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.samskivert.util.Interval;
+
+import com.threerings.presents.dobj.CompoundEvent;
+import com.threerings.presents.dobj.DEvent;
+import com.threerings.presents.dobj.DObject;
+import com.threerings.presents.dobj.DObjectManager;
+import com.threerings.presents.dobj.DSet;
+import com.threerings.presents.dobj.EntryUpdatedEvent;
+import com.threerings.presents.dobj.Subscriber;
+
+import com.threerings.crowd.data.BodyObject;
+
+import com.threerings.whirled.spot.data.Portal;
+import com.threerings.whirled.spot.data.SceneLocation;
+import com.threerings.whirled.spot.data.SpotSceneObject;
+
+import com.threerings.stage.data.StageLocation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the coalescing and rate limiting of location broadcasts by {@link SpotSceneManager}.
+ */
+public class SpotSceneManagerTest
+{
+    @Before public void createManager ()
+    {
+        _ssobj = new SpotSceneObject();
+        _ssobj.setOid(1);
+        _ssobj.setManager(_omgr);
+        _ssobj.occupantLocs = new DSet<SceneLocation>(ImmutableList.of(
+            newLoc(BODY1, 0), newLoc(BODY2, 0), newLoc(BODY3, 0)));
+
+        _mgr = new SpotSceneManager() {
+            @Override protected long getMinMoveInterval () {
+                return _minInterval;
+            }
+        };
+        _mgr._ssobj = _ssobj;
+        // we call flushLocations() ourselves rather than waiting for the tick
+        _mgr._locFlusher = new Interval(Interval.RUN_DIRECT) {
+            @Override public void expired () {
+                // nada
+            }
+        };
+    }
+
+    @Test public void testCoalesce ()
+    {
+        _mgr.publishLocation(newLoc(BODY1, 1));
+        _mgr.publishLocation(newLoc(BODY1, 2));
+        _mgr.publishLocation(newLoc(BODY1, 3));
+        _mgr.publishLocation(newLoc(BODY2, 1));
+        assertTrue(_posted.isEmpty());
+        assertEquals(3, ((StageLocation)_mgr.locationForBody(BODY1).loc).x);
+
+        // a single event carries only the latest location of each body
+        _mgr.flushLocations();
+        assertEquals(1, _posted.size());
+        List<SceneLocation> sent = getSentLocations();
+        assertEquals(2, sent.size());
+        for (SceneLocation sloc : sent) {
+            assertEquals((sloc.bodyOid == BODY1) ? 3 : 1, ((StageLocation)sloc.loc).x);
+        }
+
+        // and nothing is sent when no one has moved
+        _posted.clear();
+        _mgr.flushLocations();
+        assertTrue(_posted.isEmpty());
+    }
+
+    @Test public void testMinInterval ()
+    {
+        _minInterval = 60 * 1000L;
+        _mgr.publishLocation(newLoc(BODY1, 1));
+        _mgr.flushLocations();
+        assertEquals(1, getSentLocations().size());
+
+        // a body that moves again too soon is held back, but others are not
+        _posted.clear();
+        _mgr.publishLocation(newLoc(BODY1, 2));
+        _mgr.publishLocation(newLoc(BODY2, 1));
+        _mgr.flushLocations();
+        List<SceneLocation> sent = getSentLocations();
+        assertEquals(1, sent.size());
+        assertEquals(BODY2, sent.get(0).bodyOid);
+        assertEquals(2, ((StageLocation)_mgr.locationForBody(BODY1).loc).x);
+
+        // the held back move goes out once the interval has elapsed
+        _posted.clear();
+        _mgr._moves.get(BODY1).lastSent -= _minInterval;
+        _mgr.flushLocations();
+        sent = getSentLocations();
+        assertEquals(1, sent.size());
+        assertEquals(BODY1, sent.get(0).bodyOid);
+    }
+
+    @Test public void testLeave ()
+    {
+        BodyObject body = new BodyObject();
+        body.setOid(BODY1);
+        Portal portal = new Portal();
+        portal.loc = new StageLocation(5, 5, (byte)0);
+
+        // a body traversing a portal has its move sent immediately, without waiting for a tick
+        _minInterval = 60 * 1000L;
+        _mgr.publishLocation(newLoc(BODY1, 1));
+        _mgr.flushLocations();
+        _posted.clear();
+        _mgr.willTraversePortal(body, portal);
+        List<SceneLocation> sent = getSentLocations();
+        assertEquals(1, sent.size());
+        assertEquals(5, ((StageLocation)sent.get(0).loc).x);
+
+        // a body that is no longer in the scene has its held back move dropped
+        _posted.clear();
+        _mgr.publishLocation(newLoc(BODY3, 1));
+        _ssobj.occupantLocs = new DSet<SceneLocation>(ImmutableList.of(
+            newLoc(BODY1, 0), newLoc(BODY2, 0)));
+        _mgr.flushLocations();
+        assertTrue(getSentLocations().isEmpty());
+    }
+
+    protected List<SceneLocation> getSentLocations ()
+    {
+        List<DEvent> events = Lists.newArrayList();
+        for (DEvent event : _posted) {
+            if (event instanceof CompoundEvent) {
+                events.addAll(((CompoundEvent)event).getEvents());
+            } else {
+                events.add(event);
+            }
+        }
+        List<SceneLocation> sent = Lists.newArrayList();
+        for (DEvent event : events) {
+            if (event instanceof EntryUpdatedEvent<?>) {
+                sent.add((SceneLocation)((EntryUpdatedEvent<?>)event).getEntry());
+            }
+        }
+        return sent;
+    }
+
+    protected static SceneLocation newLoc (int bodyOid, int x)
+    {
+        return new SceneLocation(new StageLocation(x, 0, (byte)0), bodyOid);
+    }
+
+    protected SpotSceneManager _mgr;
+    protected SpotSceneObject _ssobj;
+    protected long _minInterval;
+    protected List<DEvent> _posted = Lists.newArrayList();
+
+    /** Records the events posted by our scene object. */
+    protected DObjectManager _omgr = new DObjectManager() {
+        public boolean isManager (DObject object) {
+            return true;
+        }
+        public <T extends DObject> void subscribeToObject (int oid, Subscriber<T> target) {
+            // not needed
+        }
+        public <T extends DObject> void unsubscribeFromObject (int oid, Subscriber<T> target) {
+            // not needed
+        }
+        public void postEvent (DEvent event) {
+            _posted.add(event);
+        }
+        public void removedLastSubscriber (DObject obj, boolean deathWish) {
+            // not needed
+        }
+    };
+
+    protected static final int BODY1 = 10, BODY2 = 11, BODY3 = 12;
+}
@@ -0,0 +1,83 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.util;
+
+import org.junit.Test;
+
+import com.threerings.whirled.data.SceneUpdate;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link UpdateList} class.
+ */
+public class UpdateListTest
+{
+    @Test public void testGetUpdates ()
+    {
+        UpdateList list = createList(10, 20);
+
+        assertNull(list.getUpdates(9));
+        assertEquals(20, list.getUpdates(10).length);
+        assertEquals(5, list.getUpdates(25).length);
+        assertEquals(25, list.getUpdates(25)[0].getSceneVersion());
+        assertEquals(1, list.getUpdates(29).length);
+        assertNull(list.getUpdates(30));
+
+        // cached arrays must be discarded when the list changes
+        SceneUpdate[] before = list.getUpdates(25);
+        list.addUpdate(createUpdate(30));
+        assertEquals(before.length + 1, list.getUpdates(25).length);
+        assertTrue(list.validate(31));
+    }
+
+    @Test public void testMaxHistory ()
+    {
+        UpdateList list = createList(0, 50);
+        list.setMaxHistory(10);
+        assertEquals(10, list.size());
+        assertNull(list.getUpdates(39));
+        assertEquals(10, list.getUpdates(40).length);
+
+        list.addUpdate(createUpdate(50));
+        assertEquals(10, list.size());
+        assertNull(list.getUpdates(40));
+        assertEquals(10, list.getUpdates(41).length);
+        assertTrue(list.validate(51));
+    }
+
+    protected UpdateList createList (int fromVersion, int count)
+    {
+        UpdateList list = new UpdateList();
+        for (int ii = 0; ii < count; ii++) {
+            list.addUpdate(createUpdate(fromVersion + ii));
+        }
+        return list;
+    }
+
+    protected SceneUpdate createUpdate (int version)
+    {
+        SceneUpdate update = new SceneUpdate();
+        update.init(1, version);
+        return update;
+    }
+}
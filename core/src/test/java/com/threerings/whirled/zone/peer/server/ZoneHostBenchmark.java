@@ -0,0 +1,116 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.zone.peer.server;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.presents.dobj.DSet;
+
+import com.threerings.whirled.zone.peer.data.HostedZone;
+
+/**
+ * Compares finding the host of a zone by visiting every node's hosted zones, as {@link
+ * ZonePeerManager#getZoneHost} once did, with looking it up in a {@link ZoneHostIndex}, as the
+ * number of peers and hosted zones grows.
+ *
+ * <p> Usage: <code>ZoneHostBenchmark [lookups]</code>
+ */
+public class ZoneHostBenchmark
+{
+    public static void main (String[] args)
+    {
+        int lookups = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int[] peerCounts = { 2, 8, 32, 128 };
+        int[] zoneCounts = { 10, 100, 1000 };
+
+        for (int peers : peerCounts) {
+            for (int zones : zoneCounts) {
+                run(peers, zones, lookups);
+            }
+        }
+    }
+
+    protected static void run (int peers, int zonesPerPeer, int lookups)
+    {
+        List<ZoneNodeObject> nodes = Lists.newArrayList();
+        ZoneHostIndex index = new ZoneHostIndex();
+        for (int pp = 0; pp < peers; pp++) {
+            List<HostedZone> zones = Lists.newArrayList();
+            for (int zz = 0; zz < zonesPerPeer; zz++) {
+                zones.add(new HostedZone(zz * peers + pp, null));
+            }
+            ZoneNodeObject node = new ZoneNodeObject();
+            node.nodeName = "node" + pp;
+            node.hostedZones = DSet.newDSet(zones);
+            nodes.add(node);
+            index.addNode(node);
+        }
+
+        // look up a mix of hosted zones and zones hosted nowhere
+        Random rando = new Random(42);
+        int[] zoneIds = new int[4096];
+        for (int ii = 0; ii < zoneIds.length; ii++) {
+            zoneIds[ii] = rando.nextInt(peers * zonesPerPeer * 5 / 4);
+        }
+
+        long scanNanos = 0, indexNanos = 0;
+        int found = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            found = 0;
+            long start = System.nanoTime();
+            for (int ii = 0; ii < lookups; ii++) {
+                if (scan(nodes, zoneIds[ii & 4095]) != null) {
+                    found++;
+                }
+            }
+            scanNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int ii = 0; ii < lookups; ii++) {
+                if (index.getHost(zoneIds[ii & 4095]) != null) {
+                    found--;
+                }
+            }
+            indexNanos = System.nanoTime() - start;
+        }
+        if (found != 0) {
+            System.err.println("Scan and index disagree!");
+        }
+
+        System.out.println(peers + " peers, " + zonesPerPeer + " zones each: scan " +
+                           (scanNanos / lookups) + "ns, index " + (indexNanos / lookups) +
+                           "ns per lookup");
+    }
+
+    protected static ZoneNodeObject scan (List<ZoneNodeObject> nodes, int zoneId)
+    {
+        for (ZoneNodeObject node : nodes) {
+            if (node.hostedZones.get(zoneId) != null) {
+                return node;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.zone.peer.server;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.presents.dobj.DSet;
+
+import com.threerings.whirled.zone.peer.data.HostedZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ZoneHostIndex} class.
+ */
+public class ZoneHostIndexTest
+{
+    @Test public void testIndex ()
+    {
+        ZoneHostIndex index = new ZoneHostIndex();
+        ZoneNodeObject node1 = createNode("node1", 1, 2), node2 = createNode("node2", 3);
+        index.addNode(node1);
+        index.addNode(node2);
+        assertSame(node1, index.getHost(2));
+        assertSame(node2, index.getHost(3));
+        assertNull(index.getHost(4));
+
+        // a second claimant becomes the host when the first gives up the zone
+        node2.hostedZones = DSet.newDSet(
+            Lists.newArrayList(new HostedZone(2, null), new HostedZone(3, null)));
+        index.zoneAdded(node2, 2);
+        assertSame(node1, index.getHost(2));
+        node1.hostedZones = DSet.newDSet(Lists.newArrayList(new HostedZone(1, null)));
+        index.zoneRemoved(node1, 2);
+        assertSame(node2, index.getHost(2));
+
+        // a departed node hosts nothing, even if we hear from its stale node object
+        index.removeNode("node2");
+        assertNull(index.getHost(3));
+        index.zoneAdded(node2, 3);
+        assertNull(index.getHost(3));
+
+        // a reconnected node replaces its predecessor
+        ZoneNodeObject node2b = createNode("node2", 3);
+        index.addNode(node2b);
+        assertSame(node2b, index.getHost(3));
+        assertEquals(2, index.size());
+    }
+
+    protected ZoneNodeObject createNode (String name, int... zoneIds)
+    {
+        ZoneNodeObject node = new ZoneNodeObject();
+        node.nodeName = name;
+        List<HostedZone> zones = Lists.newArrayList();
+        for (int zoneId : zoneIds) {
+            zones.add(new HostedZone(zoneId, null));
+        }
+        node.hostedZones = DSet.newDSet(zones);
+        return node;
+    }
+}
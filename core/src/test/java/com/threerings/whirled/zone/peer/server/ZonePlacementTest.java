@@ -0,0 +1,147 @@
+//
+// $Id$
+//
+// Vilya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/vilya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.whirled.zone.peer.server;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.presents.dobj.DSet;
+import com.threerings.presents.peer.data.NodeObject;
+
+import com.threerings.whirled.zone.peer.data.HostedZone;
+import com.threerings.whirled.zone.peer.data.ZoneNodeLoad;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the zone placement strategies against a handful of in-process peers.
+ */
+public class ZonePlacementTest
+{
+    @Test public void testLeastLoaded ()
+    {
+        List<ZoneNodeObject> nodes = createNodes(4);
+        nodes.get(0).load = new ZoneNodeLoad(100, 10, 0);
+        nodes.get(1).load = new ZoneNodeLoad(20, 5, 0);
+        nodes.get(2).load = new ZoneNodeLoad(20, 2, 40);
+        nodes.get(3).load = new ZoneNodeLoad(28, 1, 0);
+
+        LeastLoadedPlacement placement = new LeastLoadedPlacement();
+        assertEquals("node1", placement.selectNode(1, nodes));
+
+        // hosted zones count toward a node's load
+        nodes.get(1).hostedZones = DSet.newDSet(
+            Lists.newArrayList(new HostedZone(1, null), new HostedZone(2, null),
+                               new HostedZone(3, null), new HostedZone(4, null),
+                               new HostedZone(5, null), new HostedZone(6, null)));
+        assertEquals("node3", placement.selectNode(1, nodes));
+    }
+
+    @Test public void testDraining ()
+    {
+        List<ZoneNodeObject> nodes = createNodes(4);
+        LeastLoadedPlacement placement = new LeastLoadedPlacement(1f, 0f, 0f, 0f);
+        nodes.get(1).load = new ZoneNodeLoad(5, 0, 0);
+        nodes.get(3).load = new ZoneNodeLoad(10, 0, 0);
+        nodes.get(0).load = new ZoneNodeLoad(20, 0, 0);
+        nodes.get(2).load = new ZoneNodeLoad(30, 0, 0);
+
+        // draining nodes are not candidates
+        nodes.get(1).draining = true;
+        List<ZoneNodeObject> candidates = PeeredZoneRegistry.getPlacementCandidates(
+            Lists.<NodeObject>newArrayList(nodes));
+        assertEquals(3, candidates.size());
+        assertEquals("node3", placement.selectNode(1, candidates));
+        for (ZoneNodeObject node : nodes) {
+            node.draining = true;
+        }
+        assertTrue(PeeredZoneRegistry.getPlacementCandidates(
+                       Lists.<NodeObject>newArrayList(nodes)).isEmpty());
+    }
+
+    @Test public void testBurst ()
+    {
+        List<ZoneNodeObject> nodes = createNodes(3);
+        nodes.get(0).load = new ZoneNodeLoad(10, 2, 0);
+        nodes.get(1).load = new ZoneNodeLoad(10, 2, 0);
+        nodes.get(2).load = new ZoneNodeLoad(20, 2, 0);
+
+        // zones placed before the nodes publish their loads again are spread about
+        LeastLoadedPlacement placement = new LeastLoadedPlacement(1f, 0f, 0f, 5f);
+        assertEquals("node0", placement.selectNode(1, nodes));
+        assertEquals("node1", placement.selectNode(2, nodes));
+        assertEquals("node0", placement.selectNode(3, nodes));
+        assertEquals("node1", placement.selectNode(4, nodes));
+        assertEquals("node0", placement.selectNode(5, nodes));
+        assertEquals("node1", placement.selectNode(6, nodes));
+        assertEquals("node2", placement.selectNode(7, nodes));
+        assertEquals(3, placement.getRecentPlacements(nodes.get(0)));
+
+        // a newly published load accounts for the zones placed thus far
+        nodes.get(0).load = new ZoneNodeLoad(10, 5, 0);
+        assertEquals(0, placement.getRecentPlacements(nodes.get(0)));
+        assertEquals(3, placement.getRecentPlacements(nodes.get(1)));
+    }
+
+    @Test public void testHashed ()
+    {
+        List<ZoneNodeObject> nodes = createNodes(5);
+        HashedPlacement placement = new HashedPlacement();
+        int zones = 10000;
+        String[] hosts = new String[zones];
+        int[] counts = new int[nodes.size()];
+        for (int zoneId = 0; zoneId < zones; zoneId++) {
+            hosts[zoneId] = placement.selectNode(zoneId, nodes);
+            counts[Integer.parseInt(hosts[zoneId].substring(4))]++;
+        }
+
+        // zones should be spread about evenly
+        for (int count : counts) {
+            assertTrue("Uneven placement: " + count, Math.abs(count - zones/5) < zones/25);
+        }
+
+        // removing a node should move only the zones that it hosted
+        ZoneNodeObject gone = nodes.remove(2);
+        for (int zoneId = 0; zoneId < zones; zoneId++) {
+            String host = placement.selectNode(zoneId, nodes);
+            if (hosts[zoneId].equals(gone.nodeName)) {
+                assertFalse(host.equals(gone.nodeName));
+            } else {
+                assertEquals(hosts[zoneId], host);
+            }
+        }
+    }
+
+    protected List<ZoneNodeObject> createNodes (int count)
+    {
+        List<ZoneNodeObject> nodes = Lists.newArrayList();
+        for (int ii = 0; ii < count; ii++) {
+            ZoneNodeObject node = new ZoneNodeObject();
+            node.nodeName = "node" + ii;
+            nodes.add(node);
+        }
+        return nodes;
+    }
+}